@@ -0,0 +1,422 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.heatmaps;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectPredicates.PathObjectPredicate;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Multi-resolution grid of object counts, used to generate density map tiles without querying the hierarchy.
+ * <p>
+ * Each level stores integer counts for every channel of the density map, where the cell size at level 0 is
+ * defined by the downsample used for the density map and each subsequent level doubles the cell size.
+ * Counts are computed from a snapshot of the hierarchy the first time they are needed, and then updated incrementally
+ * when objects are added or removed. Other hierarchy changes (e.g. to classifications) cause the counts to be rebuilt
+ * lazily.
+ * <p>
+ * Counts can only be used for requests that are aligned to the cells of one of the levels;
+ * {@link #fillCounts(PathObjectHierarchy, RegionRequest, DoubleIndexer, int, int)} returns false otherwise, and the caller should
+ * fall back to querying the hierarchy directly.
+ * The same applies to any z-slice or timepoint for which the counts would exceed the memory limit.
+ *
+ * @author Pete Bankhead
+ */
+class DensityMapCountPyramid {
+
+	private static final Logger logger = LoggerFactory.getLogger(DensityMapCountPyramid.class);
+
+	/**
+	 * Maximum number of cells (across all channels and image planes) permitted at level 0.
+	 */
+	static final long MAX_CELLS = 32L * 1024L * 1024L;
+
+	/**
+	 * Tolerance used when checking whether a request is aligned to the cells of a level.
+	 */
+	private static final double ALIGNMENT_TOLERANCE = 1e-6;
+
+	/**
+	 * Coarsest levels should have approximately this number of cells along the longest side.
+	 */
+	private static final int MIN_LEVEL_SIZE = 256;
+
+	private final List<PathObjectPredicate> primaryObjects;
+	private final PathObjectPredicate allObjects;
+	private final boolean includeAllObjectsChannel;
+	private final int nChannels;
+
+	private final double baseDownsample;
+	private final int[] levelWidths;
+	private final int[] levelHeights;
+
+	private final long maxCells;
+	private final long cellsPerPlane;
+
+	private final Map<ImagePlane, int[][][]> counts = new HashMap<>();
+	private final Set<ImagePlane> skippedPlanes = new HashSet<>();
+
+	private final ConcurrentLinkedQueue<PendingChange> pendingChanges = new ConcurrentLinkedQueue<>();
+	private volatile boolean isValid = false;
+
+	private DensityMapCountPyramid(PathObjectHierarchy hierarchy, int imageWidth, int imageHeight, double baseDownsample,
+			List<PathObjectPredicate> primaryObjects, PathObjectPredicate allObjects, boolean includeAllObjectsChannel, long maxCells) {
+		this.primaryObjects = new ArrayList<>(primaryObjects);
+		this.allObjects = allObjects;
+		this.includeAllObjectsChannel = includeAllObjectsChannel;
+		this.nChannels = primaryObjects.size() + (includeAllObjectsChannel ? 1 : 0);
+		this.baseDownsample = baseDownsample;
+		this.maxCells = maxCells;
+
+		int w = (int)Math.ceil(imageWidth / baseDownsample);
+		int h = (int)Math.ceil(imageHeight / baseDownsample);
+		var widths = new ArrayList<Integer>();
+		var heights = new ArrayList<Integer>();
+		widths.add(w);
+		heights.add(h);
+		while (Math.max(w, h) > MIN_LEVEL_SIZE) {
+			w = (w + 1) / 2;
+			h = (h + 1) / 2;
+			widths.add(w);
+			heights.add(h);
+		}
+		levelWidths = widths.stream().mapToInt(i -> i).toArray();
+		levelHeights = heights.stream().mapToInt(i -> i).toArray();
+		cellsPerPlane = (long)levelWidths[0] * levelHeights[0] * nChannels;
+
+		hierarchy.addPathObjectListener(new WeakHierarchyListener(this));
+	}
+
+	/**
+	 * Create a new count pyramid, if the required memory is reasonable.
+	 * @param hierarchy the hierarchy containing the objects to count
+	 * @param imageWidth full-resolution image width
+	 * @param imageHeight full-resolution image height
+	 * @param baseDownsample downsample that defines the cell size for the highest-resolution level
+	 * @param primaryObjects filters for the primary objects, used for each of the first channels
+	 * @param allObjects filter for all objects, which is applied before any other filter
+	 * @param includeAllObjectsChannel if true, include a final channel that counts all objects
+	 * @return the pyramid, or null if it would require too many cells
+	 */
+	static DensityMapCountPyramid create(PathObjectHierarchy hierarchy, int imageWidth, int imageHeight, double baseDownsample,
+			List<PathObjectPredicate> primaryObjects, PathObjectPredicate allObjects, boolean includeAllObjectsChannel) {
+		return create(hierarchy, imageWidth, imageHeight, baseDownsample, primaryObjects, allObjects, includeAllObjectsChannel, MAX_CELLS);
+	}
+
+	/**
+	 * Create a new count pyramid with a specified limit on the number of level 0 cells.
+	 * Counts for an image plane are only stored if the total number of cells across all planes remains within the limit.
+	 * @param hierarchy
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @param baseDownsample
+	 * @param primaryObjects
+	 * @param allObjects
+	 * @param includeAllObjectsChannel
+	 * @param maxCells maximum number of level 0 cells, summed across all channels and image planes
+	 * @return the pyramid, or null if a single plane would require too many cells
+	 * @see #create(PathObjectHierarchy, int, int, double, List, PathObjectPredicate, boolean)
+	 */
+	static DensityMapCountPyramid create(PathObjectHierarchy hierarchy, int imageWidth, int imageHeight, double baseDownsample,
+			List<PathObjectPredicate> primaryObjects, PathObjectPredicate allObjects, boolean includeAllObjectsChannel, long maxCells) {
+		if (!(baseDownsample > 0))
+			return null;
+		int nChannels = primaryObjects.size() + (includeAllObjectsChannel ? 1 : 0);
+		long nCells = (long)Math.ceil(imageWidth / baseDownsample) * (long)Math.ceil(imageHeight / baseDownsample) * nChannels;
+		if (nCells > maxCells) {
+			logger.debug("Count pyramid would require {} cells - will query the hierarchy instead", nCells);
+			return null;
+		}
+		return new DensityMapCountPyramid(hierarchy, imageWidth, imageHeight, baseDownsample, primaryObjects, allObjects, includeAllObjectsChannel, maxCells);
+	}
+
+	/**
+	 * Get the downsample used to define the cell size at level 0.
+	 * @return
+	 */
+	double getBaseDownsample() {
+		return baseDownsample;
+	}
+
+	/**
+	 * Add the counts for a region request to an indexer, if the request is compatible with the pyramid.
+	 * @param hierarchy the hierarchy used to create the pyramid; this is needed in case the counts need to be rebuilt
+	 * @param request the request; this should already include any padding
+	 * @param idx indexer for a Mat with dimensions width x height x nChannels, initialized to zero
+	 * @param width output width
+	 * @param height output height
+	 * @return true if the counts were added, false if the request is not aligned to any level or its plane isn't stored
+	 */
+	boolean fillCounts(PathObjectHierarchy hierarchy, RegionRequest request, DoubleIndexer idx, int width, int height) {
+		int level = getLevelForRequest(request);
+		if (level < 0)
+			return false;
+
+		double cellSize = baseDownsample * (1 << level);
+		int factor = (int)Math.round(request.getDownsample() / cellSize);
+		int x0 = toCell(request.getX(), cellSize);
+		int y0 = toCell(request.getY(), cellSize);
+		int levelWidth = levelWidths[level];
+		int levelHeight = levelHeights[level];
+
+		synchronized (this) {
+			ensureUpdated(hierarchy);
+			var plane = ImagePlane.getPlane(request);
+			if (skippedPlanes.contains(plane))
+				return false;
+			var planeCounts = counts.get(plane);
+			if (planeCounts == null)
+				return true;
+			var levelCounts = planeCounts[level];
+			for (int y = 0; y < height; y++) {
+				int cy0 = Math.max(0, y0 + y * factor);
+				int cy1 = Math.min(levelHeight, y0 + (y + 1) * factor);
+				for (int x = 0; x < width; x++) {
+					int cx0 = Math.max(0, x0 + x * factor);
+					int cx1 = Math.min(levelWidth, x0 + (x + 1) * factor);
+					if (cx0 >= cx1 || cy0 >= cy1)
+						continue;
+					for (int c = 0; c < nChannels; c++) {
+						var channelCounts = levelCounts[c];
+						long sum = 0;
+						for (int cy = cy0; cy < cy1; cy++) {
+							int ind = cy * levelWidth;
+							for (int cx = cx0; cx < cx1; cx++)
+								sum += channelCounts[ind + cx];
+						}
+						if (sum != 0)
+							idx.put(y, x, c, sum);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the coarsest level that can be used to exactly generate counts for a specified request.
+	 * @param request
+	 * @return the level, or -1 if no level is suitable
+	 */
+	int getLevelForRequest(RegionRequest request) {
+		for (int level = levelWidths.length-1; level >= 0; level--) {
+			double cellSize = baseDownsample * (1 << level);
+			double factor = request.getDownsample() / cellSize;
+			if (factor >= 1 - ALIGNMENT_TOLERANCE && isInteger(factor) &&
+					isInteger(request.getX() / cellSize) && isInteger(request.getY() / cellSize))
+				return level;
+		}
+		return -1;
+	}
+
+	private static boolean isInteger(double val) {
+		return Math.abs(val - Math.round(val)) < ALIGNMENT_TOLERANCE;
+	}
+
+	/**
+	 * Get the index of the cell containing a coordinate.
+	 * This is used both to assign objects to cells and to find the first cell of an aligned request,
+	 * where the tolerance avoids a rounding error selecting the previous cell.
+	 * @param coord the coordinate, in full-resolution pixel units
+	 * @param cellSize the cell size, in full-resolution pixel units
+	 * @return the cell index
+	 */
+	static int toCell(double coord, double cellSize) {
+		return (int)Math.floor(coord / cellSize + ALIGNMENT_TOLERANCE);
+	}
+
+	/**
+	 * Rebuild the counts if needed, or otherwise apply any pending changes.
+	 * Must be called while holding the lock.
+	 */
+	private void ensureUpdated(PathObjectHierarchy hierarchy) {
+		if (!isValid) {
+			rebuild(hierarchy);
+			return;
+		}
+		PendingChange change;
+		while ((change = pendingChanges.poll()) != null) {
+			if (change.pathObject == null) {
+				rebuild(hierarchy);
+				return;
+			}
+			addObject(change.pathObject, change.delta);
+		}
+	}
+
+	private void rebuild(PathObjectHierarchy hierarchy) {
+		long startTime = System.currentTimeMillis();
+		List<PathObject> pathObjects;
+		// Events are fired while holding the hierarchy lock, so this ensures pending changes are in sync with the snapshot
+		synchronized (hierarchy) {
+			pendingChanges.clear();
+			pathObjects = hierarchy.getFlattenedObjectList(null);
+			isValid = true;
+		}
+		counts.clear();
+		skippedPlanes.clear();
+		for (var pathObject : pathObjects)
+			addObject(pathObject, 1);
+		long endTime = System.currentTimeMillis();
+		logger.debug("Count pyramid built for {} objects in {} ms", pathObjects.size(), endTime - startTime);
+	}
+
+	private void addObject(PathObject pathObject, int delta) {
+		if (!pathObject.hasROI() || !allObjects.test(pathObject))
+			return;
+		var roi = PathObjectTools.getROI(pathObject, true);
+		int[][][] planeCounts = null;
+		for (var p : DensityMapDataOp.objectsToPoints(List.of(roi))) {
+			int cx = toCell(p.getX(), baseDownsample);
+			int cy = toCell(p.getY(), baseDownsample);
+			if (cx < 0 || cy < 0 || cx >= levelWidths[0] || cy >= levelHeights[0])
+				continue;
+			if (planeCounts == null) {
+				planeCounts = getPlaneCounts(ImagePlane.getPlane(roi));
+				if (planeCounts == null)
+					return;
+			}
+			for (int c = 0; c < primaryObjects.size(); c++) {
+				if (primaryObjects.get(c).test(pathObject))
+					increment(planeCounts, c, cx, cy, delta);
+			}
+			if (includeAllObjectsChannel)
+				increment(planeCounts, nChannels-1, cx, cy, delta);
+		}
+	}
+
+	private void increment(int[][][] planeCounts, int channel, int cx, int cy, int delta) {
+		for (int level = 0; level < planeCounts.length; level++) {
+			planeCounts[level][channel][(cy >> level) * levelWidths[level] + (cx >> level)] += delta;
+		}
+	}
+
+	/**
+	 * Get the counts for a plane, creating them if they are within the memory limit.
+	 * @param plane
+	 * @return the counts, or null if the plane has been skipped
+	 */
+	private int[][][] getPlaneCounts(ImagePlane plane) {
+		var planeCounts = counts.get(plane);
+		if (planeCounts != null || skippedPlanes.contains(plane))
+			return planeCounts;
+		if ((counts.size() + 1) * cellsPerPlane > maxCells) {
+			logger.debug("Count pyramid would exceed {} cells - will query the hierarchy for {}", maxCells, plane);
+			skippedPlanes.add(plane);
+			return null;
+		}
+		planeCounts = createCounts();
+		counts.put(plane, planeCounts);
+		return planeCounts;
+	}
+
+	private int[][][] createCounts() {
+		var planeCounts = new int[levelWidths.length][][];
+		for (int level = 0; level < levelWidths.length; level++)
+			planeCounts[level] = new int[nChannels][levelWidths[level] * levelHeights[level]];
+		return planeCounts;
+	}
+
+	/**
+	 * Respond to hierarchy changes. This doesn't acquire the lock, because it is called while the hierarchy
+	 * lock is held (and this would risk deadlock).
+	 */
+	private void hierarchyChanged(PathObjectHierarchyEvent event) {
+		if (!isValid)
+			return;
+		var type = event.getEventType();
+		if (type == HierarchyEventType.ADDED || type == HierarchyEventType.REMOVED) {
+			int delta = type == HierarchyEventType.ADDED ? 1 : -1;
+			for (var pathObject : event.getChangedObjects()) {
+				// Descendants of the changed objects aren't included in the event, so we need to rebuild
+				if (pathObject.hasChildren()) {
+					pendingChanges.add(PendingChange.REBUILD);
+					return;
+				}
+			}
+			for (var pathObject : event.getChangedObjects())
+				pendingChanges.add(new PendingChange(pathObject, delta));
+		} else
+			pendingChanges.add(PendingChange.REBUILD);
+	}
+
+
+	private static class PendingChange {
+
+		private static final PendingChange REBUILD = new PendingChange(null, 0);
+
+		private final PathObject pathObject;
+		private final int delta;
+
+		PendingChange(PathObject pathObject, int delta) {
+			this.pathObject = pathObject;
+			this.delta = delta;
+		}
+
+	}
+
+
+	/**
+	 * Listener that doesn't prevent the pyramid from being garbage collected.
+	 */
+	private static class WeakHierarchyListener implements PathObjectHierarchyListener {
+
+		private final WeakReference<DensityMapCountPyramid> pyramidRef;
+
+		WeakHierarchyListener(DensityMapCountPyramid pyramid) {
+			this.pyramidRef = new WeakReference<>(pyramid);
+		}
+
+		@Override
+		public void hierarchyChanged(PathObjectHierarchyEvent event) {
+			var pyramid = pyramidRef.get();
+			if (pyramid == null) {
+				// Can't remove the listener while listeners are being notified
+				var hierarchy = event.getHierarchy();
+				ForkJoinPool.commonPool().execute(() -> hierarchy.removePathObjectListener(this));
+			} else
+				pyramid.hierarchyChanged(event);
+		}
+
+	}
+
+}
@@ -32,6 +32,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -48,6 +49,7 @@ import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.PathObjectPredicates.PathObjectPredicate;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.images.servers.PixelType;
 import qupath.lib.regions.Padding;
 import qupath.lib.regions.RegionRequest;
@@ -79,6 +81,10 @@ class DensityMapDataOp implements ImageDataOp {
 	private transient ImageOp op;
 	private transient List<ImageChannel> channels;
 	
+	// Cached counts, so that the hierarchy doesn't need to be queried for every tile
+	// (the pyramids must not reference the hierarchy, or it would never be removed)
+	private transient Map<PathObjectHierarchy, DensityMapCountPyramid> countPyramids;
+	
 	/**
 	 *  * This involves filters (predicates) for:
 	 * <ul>
@@ -240,8 +246,41 @@ class DensityMapDataOp implements ImageDataOp {
 			request = request.pad2D(padding2);
 		}
 		
+		// Create an output mat
+		int nChannels = getChannelCount();
+		int width = (int)Math.round(request.getWidth() / request.getDownsample());
+		int height = (int)Math.round(request.getHeight() / request.getDownsample());
+		var mat = new Mat(height, width, opencv_core.CV_64FC(nChannels), Scalar.ZERO);
+		DoubleIndexer idx = mat.createIndexer();
+		
+		// Use precomputed counts if we can
+		var pyramid = getCountPyramid(imageData, request);
+		if (pyramid != null && pyramid.fillCounts(imageData.getHierarchy(), request, idx, width, height)) {
+			logger.trace("Generating counts tile from count pyramid");
+			idx.close();
+			return this.op.apply(mat);
+		}
+		
+		countObjects(imageData.getHierarchy(), request, idx, width, height);
+		idx.close();
+		
+		// Now apply the op
+		var output = this.op.apply(mat);
+		return output;
+	}
+	
+	
+	/**
+	 * Add the counts for a region request to an indexer by querying the hierarchy.
+	 * @param hierarchy the hierarchy containing the objects to count
+	 * @param request the request; this should already include any padding
+	 * @param idx indexer for a Mat with dimensions width x height x nChannels, initialized to zero
+	 * @param width output width
+	 * @param height output height
+	 */
+	void countObjects(PathObjectHierarchy hierarchy, RegionRequest request, DoubleIndexer idx, int width, int height) {
 		// Get all objects within the padded region
-		var allPathObjects = imageData.getHierarchy().getObjectsForRegion(null, request, null)
+		var allPathObjects = hierarchy.getObjectsForRegion(null, request, null)
 				.stream()
 				.filter(allObjects)
 				.collect(Collectors.toList());
@@ -256,13 +295,6 @@ class DensityMapDataOp implements ImageDataOp {
 			logger.trace("Generating counts tile for {} objects", allPathObjects.size());
 
 
-		// Create an output mat
-		int nChannels = getChannelCount();
-		int width = (int)Math.round(request.getWidth() / request.getDownsample());
-		int height = (int)Math.round(request.getHeight() / request.getDownsample());
-		var mat = new Mat(height, width, opencv_core.CV_64FC(nChannels), Scalar.ZERO);
-		DoubleIndexer idx = mat.createIndexer();
-		
 		// Get points representing all the centroids of each subpopulation of object
 		// Use these to increment pixel values in a counts image
 		int c = 0;
@@ -289,11 +321,33 @@ class DensityMapDataOp implements ImageDataOp {
 			incrementCounts(idx, points, request, width, height, c);
 			c++;
 		}
-		idx.close();
-		
-		// Now apply the op
-		var output = this.op.apply(mat);
-		return output;
+	}
+	
+	
+	/**
+	 * Get a count pyramid for the hierarchy of an image, creating one if necessary.
+	 * The resolution of the pyramid is defined by the finest request downsample seen so far;
+	 * the pyramid is replaced if a finer request is made, so that the resolution doesn't depend upon the order of requests.
+	 * @param imageData
+	 * @param request
+	 * @return the count pyramid, or null if no pyramid can be used
+	 */
+	private DensityMapCountPyramid getCountPyramid(ImageData<BufferedImage> imageData, RegionRequest request) {
+		var hierarchy = imageData.getHierarchy();
+		synchronized (this) {
+			if (countPyramids == null)
+				countPyramids = new WeakHashMap<>();
+			if (countPyramids.containsKey(hierarchy)) {
+				var pyramid = countPyramids.get(hierarchy);
+				if (pyramid == null || pyramid.getLevelForRequest(request) >= 0 || request.getDownsample() >= pyramid.getBaseDownsample())
+					return pyramid;
+			}
+			var server = imageData.getServer();
+			var pyramid = DensityMapCountPyramid.create(hierarchy, server.getWidth(), server.getHeight(), request.getDownsample(),
+					new ArrayList<>(primaryObjects.values()), allObjects, primaryObjects.size() < getChannelCount());
+			countPyramids.put(hierarchy, pyramid);
+			return pyramid;
+		}
 	}
 	
 	
@@ -308,8 +362,9 @@ class DensityMapDataOp implements ImageDataOp {
 		long count = 0;
 		
 		for (var p : points) {
-			int x = (int)((p.getX() - offsetX) / downsample);
-			int y = (int)((p.getY() - offsetY) / downsample);
+			// Use the same rounding as the count pyramid, so that both give the same counts
+			int x = DensityMapCountPyramid.toCell(p.getX() - offsetX, downsample);
+			int y = DensityMapCountPyramid.toCell(p.getY() - offsetY, downsample);
 			if (x >= 0 && y >= 0 && x < width && y < height) {
 				idx.put(y, x, channel, idx.get(y, x, channel) + 1);
 				count++;
@@ -0,0 +1,299 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.opencv.dnn;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper class to combine predictions requested from different threads into batches.
+ * <p>
+ * Each call to {@link #predict(String, Mat)} blocks until its result is available.
+ * Requests are collected until either the maximum batch size is reached or the oldest request
+ * has waited for the maximum delay, and then converted into a single blob with {@link BlobFunction#toBlob(Mat...)}.
+ * The output is split using {@link BlobFunction#fromBlob(Object)} and returned to each caller.
+ * <p>
+ * No additional threads are used: the prediction for each batch is run by one of the waiting callers.
+ * The output Mats are attached to the {@link PointerScope} of the thread that requested them (if any), 
+ * in the same way as if the prediction had been run on that thread.
+ * Only inputs with the same size and type can be combined into a batch.
+ * If prediction fails for a batch, each input is predicted separately so that the failure is only
+ * reported to the callers whose inputs caused it.
+ * This is intended to reduce the per-inference overhead for small tiles, which often dominates when the
+ * model is applied to one tile at a time.
+ *
+ * @author Pete Bankhead
+ * @param <T> preferred tensor format for the model
+ * @since v0.4.0
+ */
+public class DnnBatchPredictor<T> {
+
+	private final static Logger logger = LoggerFactory.getLogger(DnnBatchPredictor.class);
+
+	/**
+	 * Default maximum time to wait for a batch to be filled, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+
+	private final DnnModel<T> model;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+
+	private final List<BatchRequest> pending = new ArrayList<>();
+
+	/**
+	 * Create a batch predictor, using the default maximum delay.
+	 * @param model the model used for prediction
+	 * @param maxBatchSize the maximum number of inputs to combine into a single batch
+	 */
+	public DnnBatchPredictor(DnnModel<T> model, int maxBatchSize) {
+		this(model, maxBatchSize, DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * Create a batch predictor.
+	 * @param model the model used for prediction
+	 * @param maxBatchSize the maximum number of inputs to combine into a single batch
+	 * @param maxDelayMillis the maximum time a request should wait for a batch to be filled, in milliseconds
+	 */
+	public DnnBatchPredictor(DnnModel<T> model, int maxBatchSize, long maxDelayMillis) {
+		this.model = model;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+	}
+
+	/**
+	 * Get the model used for prediction.
+	 * @return
+	 */
+	public DnnModel<T> getModel() {
+		return model;
+	}
+
+	/**
+	 * Get the maximum batch size.
+	 * @return
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Convert an image patch to a blob, apply the prediction function, and convert the outputs to standard Mats.
+	 * The patch may be combined with patches requested from other threads so that prediction can be applied
+	 * in batches.
+	 * <p>
+	 * This is equivalent to {@link DnnModel#convertAndPredict(Map)} with a single input, and returns one Mat for
+	 * each output of the model.
+	 *
+	 * @param inputName name of the model input
+	 * @param mat the input patch; this should not be modified until the method returns
+	 * @return a map of output names and predictions for this patch
+	 */
+	public Map<String, Mat> predict(String inputName, Mat mat) {
+		if (maxBatchSize <= 1)
+			return model.convertAndPredict(Map.of(inputName, mat));
+
+		var request = new BatchRequest(inputName, mat);
+		List<BatchRequest> batch = null;
+		synchronized (pending) {
+			pending.add(request);
+			pending.notifyAll();
+			long deadline = request.created + maxDelayNanos;
+			try {
+				while (!request.taken) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0 || countCompatible(request) >= maxBatchSize) {
+						batch = takeBatch(request);
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+				}
+			} catch (InterruptedException e) {
+				if (!request.taken) {
+					pending.remove(request);
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for prediction", e);
+				}
+				// We're already part of a batch, so wait for it to complete
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (batch != null)
+			runBatch(batch);
+
+		try {
+			var output = request.result.get();
+			attachToCurrentScope(output);
+			return output;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for prediction", e);
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Attach output Mats to the scope of the current thread, taking over the reference retained when they were created.
+	 * If there is no scope, the caller becomes responsible for the reference.
+	 */
+	private static void attachToCurrentScope(Map<String, Mat> output) {
+		var scope = PointerScope.getInnerScope();
+		if (scope == null)
+			return;
+		for (var mat : output.values()) {
+			scope.attach(mat);
+			mat.releaseReference();
+		}
+	}
+
+	/**
+	 * Count the number of pending requests that could be combined with the specified request.
+	 * Must be called while holding the lock.
+	 */
+	private int countCompatible(BatchRequest request) {
+		int n = 0;
+		for (var other : pending) {
+			if (request.isCompatible(other))
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Remove a batch of compatible requests from the queue, starting with the specified request.
+	 * Must be called while holding the lock.
+	 */
+	private List<BatchRequest> takeBatch(BatchRequest request) {
+		var batch = new ArrayList<BatchRequest>();
+		pending.remove(request);
+		request.taken = true;
+		batch.add(request);
+		var iter = pending.iterator();
+		while (iter.hasNext() && batch.size() < maxBatchSize) {
+			var other = iter.next();
+			if (request.isCompatible(other)) {
+				iter.remove();
+				other.taken = true;
+				batch.add(other);
+			}
+		}
+		// Wake any requests that are now part of the batch
+		pending.notifyAll();
+		return batch;
+	}
+
+	private void runBatch(List<BatchRequest> batch) {
+		int n = batch.size();
+		String inputName = batch.get(0).inputName;
+		logger.trace("Running prediction for batch size {}", n);
+
+		// Outputs are used by other threads, so must not be deallocated by the scope of the current thread - 
+		// they are retained here, and then attached to the scope of the requesting thread
+		try (@SuppressWarnings("unchecked") var scope = new PointerScope()) {
+			var mats = batch.stream().map(r -> r.mat).toArray(Mat[]::new);
+			var blob = model.getBlobFunction(inputName).toBlob(mats);
+			var prediction = model.getPredictionFunction().predict(Map.of(inputName, blob));
+
+			List<Map<String, Mat>> results = new ArrayList<>();
+			for (int i = 0; i < n; i++)
+				results.add(new LinkedHashMap<>());
+			for (var entry : prediction.entrySet()) {
+				var output = model.getBlobFunction(entry.getKey()).fromBlob(entry.getValue());
+				if (output.size() != n)
+					throw new IllegalArgumentException(String.format("Expected %d outputs for '%s' but got %d", n, entry.getKey(), output.size()));
+				for (int i = 0; i < n; i++)
+					results.get(i).put(entry.getKey(), output.get(i));
+			}
+			for (int i = 0; i < n; i++) {
+				retainOutput(results.get(i));
+				batch.get(i).result.complete(results.get(i));
+			}
+		} catch (Throwable t) {
+			if (n == 1) {
+				batch.get(0).result.completeExceptionally(t);
+				return;
+			}
+			logger.debug("Prediction failed for batch size {} - will predict inputs separately ({})", n, t.getLocalizedMessage());
+			for (var request : batch)
+				runSingle(request);
+		}
+	}
+
+	private void runSingle(BatchRequest request) {
+		try (@SuppressWarnings("unchecked") var scope = new PointerScope()) {
+			var output = model.convertAndPredict(Map.of(request.inputName, request.mat));
+			retainOutput(output);
+			request.result.complete(output);
+		} catch (Throwable t) {
+			request.result.completeExceptionally(t);
+		}
+	}
+
+	
+	private static void retainOutput(Map<String, Mat> output) {
+		for (var mat : output.values())
+			mat.retainReference();
+	}
+
+
+	private static class BatchRequest {
+
+		private final String inputName;
+		private final Mat mat;
+		private final long created = System.nanoTime();
+		private final CompletableFuture<Map<String, Mat>> result = new CompletableFuture<>();
+
+		// Only accessed while holding the lock
+		private boolean taken = false;
+
+		BatchRequest(String inputName, Mat mat) {
+			this.inputName = inputName;
+			this.mat = mat;
+		}
+
+		boolean isCompatible(BatchRequest other) {
+			return inputName.equals(other.inputName) &&
+					mat.rows() == other.mat.rows() &&
+					mat.cols() == other.mat.cols() &&
+					mat.type() == other.mat.type();
+		}
+
+	}
+
+}
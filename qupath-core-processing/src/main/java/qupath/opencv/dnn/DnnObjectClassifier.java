@@ -155,7 +155,6 @@ public class DnnObjectClassifier<T> extends AbstractObjectClassifier<BufferedIma
 				inputImages[i] = input;
 				i++;
 			}
-			// TODO: Consider using batchConvertAndPredict instead
 			
 			var output = model.batchConvertAndPredict(inputImages);
 //			var blob = model.getBlobFunction().toBlob(inputImages);
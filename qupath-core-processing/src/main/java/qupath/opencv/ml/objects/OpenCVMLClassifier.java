@@ -28,6 +28,10 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.javacpp.indexer.IntIndexer;
@@ -132,6 +136,19 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 	}
 
 	
+	/**
+	 * Minimum number of objects to classify in a single chunk, to avoid the overhead of parallelization
+	 * outweighing its benefits.
+	 */
+	private static final int MIN_OBJECTS_PER_CHUNK = 1000;
+	
+	/**
+	 * Classify objects in parallel chunks.
+	 * <p>
+	 * Each chunk has its own feature matrix, which is filled and passed to the classifier within the same task.
+	 * Classifications are only applied after all chunks have been processed, so that a single hierarchy event 
+	 * can be fired by the caller (and nothing is applied if the calling thread is interrupted).
+	 */
 	static <T> int classifyObjects(
 			FeatureExtractor<T> featureExtractor,
 			OpenCVStatModel classifier,
@@ -145,47 +162,89 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 			logger.warn("No feature extractor! Cannot classify {} objects", pathObjects.size());
 			return 0;
 		}
+		if (pathObjects.isEmpty())
+			return 0;
 		
-		int counter = 0;
-		
-		List<Reclassifier> reclassifiers = new ArrayList<>();
-
-		// Try not to have more than ~10 million entries per list
-		int subListSize = (int)Math.max(1, Math.min(pathObjects.size(), (1024 * 1024 * 10 / featureExtractor.nFeatures())));
+		int nObjects = pathObjects.size();
 		
-		Mat samples = new Mat();
+		// Try not to have more than ~10 million entries per list, 
+		// but create enough chunks to keep all threads busy
+		int maxChunkSize = (int)Math.max(1, Math.min(nObjects, (1024 * 1024 * 10 / Math.max(1, featureExtractor.nFeatures()))));
+		int nThreads = ForkJoinPool.getCommonPoolParallelism();
+		int chunkSize = (int)Math.min(maxChunkSize, 
+				Math.max(MIN_OBJECTS_PER_CHUNK, Math.ceil(nObjects / (nThreads * 4.0))));
+		var chunks = Lists.partition(new ArrayList<>(pathObjects), chunkSize);
 		
-		Mat results = new Mat();
-		Mat probabilities = requestProbabilityEstimate ? new Mat() : null;
-
 		// Work through the objects in chunks
+		var callingThread = Thread.currentThread();
 		long startTime = System.currentTimeMillis();
-		long lastTime = startTime;
-		int nComplete = 0;
-		for (var tempObjectList : Lists.partition(new ArrayList<>(pathObjects), subListSize)) {
+		var lastTime = new AtomicLong(startTime);
+		var nComplete = new AtomicInteger();
+		var reclassifiers = chunks.parallelStream()
+				.map(chunk -> {
+					if (callingThread.isInterrupted())
+						return Collections.<Reclassifier>emptyList();
+					var result = classifyChunk(featureExtractor, classifier, pathClasses, imageData,
+							chunk, resetExistingClass, requestProbabilityEstimate);
+					// Possibly log progress
+					int n = nComplete.addAndGet(chunk.size());
+					long intermediateTime = System.currentTimeMillis();
+					long previousTime = lastTime.get();
+					if (intermediateTime - previousTime > 1000L && lastTime.compareAndSet(previousTime, intermediateTime)) {
+						logger.debug("Classified {}/{} objects in {} ms ({} ms per object, {}% complete)", n, nObjects, 
+								(intermediateTime - startTime),
+								GeneralTools.formatNumber((intermediateTime - startTime)/(double)n, 2),
+								GeneralTools.formatNumber(n * 100.0 / nObjects, 1));
+					}
+					return result;
+				})
+				.collect(Collectors.toList());
+		
+		if (Thread.interrupted()) {
+			logger.warn("Classification interrupted - will not be applied");
+			return 0;
+		}
+		
+		long predictTime = System.currentTimeMillis() - startTime;
+		logger.info("Prediction time: {} ms for {} objects ({} ns per object, {} chunks)",
+				predictTime, nObjects,
+				GeneralTools.formatNumber((double)predictTime/nObjects * 1000.0, 2),
+				chunks.size());
 
-			if (Thread.interrupted()) {
-				logger.warn("Classification interrupted - will not be applied");
-				return 0;
-			}
+		// Apply classifications now
+		int counter = 0;
+		for (var list : reclassifiers) {
+			for (var reclassifier : list)
+				reclassifier.apply();
+			counter += list.size();
+		}
+		return counter;
+	}
+	
+	
+	/**
+	 * Extract features and predict classifications for a single chunk of objects, without applying them.
+	 */
+	private static <T> List<Reclassifier> classifyChunk(
+			FeatureExtractor<T> featureExtractor,
+			OpenCVStatModel classifier,
+			List<PathClass> pathClasses,
+			ImageData<T> imageData,
+			List<? extends PathObject> pathObjects,
+			boolean resetExistingClass,
+			boolean requestProbabilityEstimate) {
+		
+		List<Reclassifier> reclassifiers = new ArrayList<>(pathObjects.size());
+		
+		boolean doMulticlass = classifier.supportsMulticlass();
+		double threshold = 0.5;
+
+		try (var samples = new Mat(pathObjects.size(), featureExtractor.nFeatures(), opencv_core.CV_32FC1);
+				var results = new Mat();
+				var probabilities = requestProbabilityEstimate ? new Mat() : null) {
 			
-			samples.create(tempObjectList.size(), featureExtractor.nFeatures(), opencv_core.CV_32FC1);
 			FloatBuffer buffer = samples.createBuffer();
-			featureExtractor.extractFeatures(imageData, tempObjectList, buffer);
-			
-			// Possibly log time taken
-			nComplete += tempObjectList.size();
-			long intermediateTime = System.currentTimeMillis();
-			if (intermediateTime - lastTime > 1000L) {
-				logger.debug("Calculated features for {}/{} objects in {} ms ({} ms per object, {}% complete)", nComplete, pathObjects.size(), 
-						(intermediateTime - startTime),
-						GeneralTools.formatNumber((intermediateTime - startTime)/(double)nComplete, 2),
-						GeneralTools.formatNumber(nComplete * 100.0 / pathObjects.size(), 1));
-				lastTime = startTime;
-			}
-			
-			boolean doMulticlass = classifier.supportsMulticlass();
-			double threshold = 0.5;
+			featureExtractor.extractFeatures(imageData, pathObjects, buffer);
 
 			try {
 				classifier.predict(samples, results, probabilities);
@@ -200,7 +259,7 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 					long row = 0;
 					int nCols = (int)idxProbabilities.size(2); // Previously .cols()
 					List<String> classifications = new ArrayList<>();
-					for (var pathObject : tempObjectList) {
+					for (var pathObject : pathObjects) {
 						classifications.clear();
 						for (int col = 0; col < nCols; col++) {
 							double prob = idxProbabilities.get(row, col);
@@ -223,7 +282,7 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 				} else {
 					// Use results (indexed values) if we do not require multiclass outputs
 					long row = 0;
-					for (var pathObject : tempObjectList) {
+					for (var pathObject : pathObjects) {
 						int prediction = idxResults.get(row);
 						var pathClass = pathClasses.get(prediction);
 						double probability = idxProbabilities == null ? Double.NaN : idxProbabilities.get(row, prediction);
@@ -246,22 +305,8 @@ public class OpenCVMLClassifier<T> extends AbstractObjectClassifier<T> {
 				logger.warn("Error with samples: {}", samples);
 				logger.error(e.getLocalizedMessage(), e);
 			}
-			counter += tempObjectList.size();
 		}
-		long predictTime = System.currentTimeMillis() - startTime;
-		logger.info("Prediction time: {} ms for {} objects ({} ns per object)",
-				predictTime, pathObjects.size(),
-				GeneralTools.formatNumber((double)predictTime/pathObjects.size() * 1000.0, 2));
-
-		samples.close();
-		results.close();
-		if (probabilities != null)
-			probabilities.close();
-
-		// Apply classifications now
-		reclassifiers.stream().forEach(p -> p.apply());
-
-		return counter;
+		return reclassifiers;
 	}
 	
 	@Override
@@ -25,14 +25,20 @@ import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import qupath.lib.images.ImageData;
 import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListTools;
 import qupath.lib.objects.PathObject;
 
 /**
  * {@link FeatureExtractor} that takes features from the existing {@link MeasurementList} of each object.
+ * <p>
+ * Objects often share the same list of measurement names. Where this is the case, feature names are resolved 
+ * to measurement indices once per list of names, rather than looking up each name for every object.
  * 
  * @author Pete Bankhead
  * @param <T> 
@@ -48,8 +54,25 @@ class DefaultFeatureExtractor<T> implements FeatureExtractor<T> {
 	
 	@Override
 	public void extractFeatures(ImageData<T> imageData, Collection<? extends PathObject> pathObjects, FloatBuffer buffer) {
-		for (var pathObject : pathObjects)
-			extractFeatures(pathObject, buffer);
+		Map<List<String>, int[]> schemas = new HashMap<>();
+		List<String> lastNames = null;
+		int[] lastIndices = null;
+		for (var pathObject : pathObjects) {
+			var measurementList = pathObject.getMeasurementList();
+			// Dynamic measurements can't be relied upon to keep the same indices
+			if (measurementList.supportsDynamicMeasurements()) {
+				extractFeatures(pathObject, buffer);
+				continue;
+			}
+			// Closed measurement lists often share the same list of names, so check for identity first
+			var names = measurementList.getMeasurementNames();
+			if (names != lastNames) {
+				lastIndices = schemas.computeIfAbsent(names, k -> MeasurementListTools.getMeasurementIndices(measurements, k));
+				lastNames = names;
+			}
+			for (int ind : lastIndices)
+				buffer.put(ind < 0 ? Float.NaN : (float)measurementList.getMeasurementValue(ind));
+		}
 	}
 	
 	@Override
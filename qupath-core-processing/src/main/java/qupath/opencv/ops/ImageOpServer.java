@@ -37,6 +37,7 @@ import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.TileRequest;
 import qupath.lib.io.GsonTools;
 import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
+import qupath.opencv.tools.MatPool;
 import qupath.opencv.tools.OpenCVTools;
 
 /**
@@ -96,7 +97,11 @@ class ImageOpServer extends AbstractTileableImageServer implements ImageDataServ
 	@Override
 	protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
 		var mat = dataOp.apply(imageData, tileRequest.getRegionRequest());
-		return OpenCVTools.matToBufferedImage(mat);
+		var img = OpenCVTools.matToBufferedImage(mat);
+		// Pixels have been copied, so the Mat can be reused for the next tile
+		// (this has no effect unless the Mat was borrowed from the pool)
+		MatPool.release(mat);
+		return img;
 	}
 
 	@Override
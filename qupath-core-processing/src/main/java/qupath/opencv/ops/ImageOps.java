@@ -37,6 +37,8 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -70,6 +72,7 @@ import qupath.lib.io.GsonTools.SubTypeAdapterFactory;
 import qupath.lib.io.UriResource;
 import qupath.lib.regions.Padding;
 import qupath.lib.regions.RegionRequest;
+import qupath.opencv.dnn.DnnBatchPredictor;
 import qupath.opencv.dnn.DnnModel;
 import qupath.opencv.dnn.DnnShape;
 import qupath.opencv.dnn.PredictionFunction;
@@ -78,6 +81,7 @@ import qupath.opencv.ml.OpenCVClassifiers.OpenCVStatModel;
 import qupath.opencv.tools.LocalNormalization;
 import qupath.opencv.tools.MultiscaleFeatures.MultiscaleFeature;
 import qupath.opencv.tools.MultiscaleFeatures.MultiscaleResultsBuilder;
+import qupath.opencv.tools.MultiscaleFeatures.ScaleSpaceResultsBuilder;
 import qupath.opencv.tools.OpenCVTools;
 
 /**
@@ -579,7 +583,7 @@ public class ImageOps {
 		 * @since v0.3.1
 		 */
 		@OpType("sigmoid")
-		static class SigmoidOp implements ImageOp {
+		static class SigmoidOp implements PointwiseOp {
 
 			@Override
 			public Mat apply(Mat input) {
@@ -587,6 +591,11 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return ImageOps.Normalize::sigmoid;
+			}
+			
 		}
 		
 		private static double sigmoid(double input) {
@@ -876,6 +885,22 @@ public class ImageOps {
 			return new MultiscaleFeatureOp(features, sigmaX, sigmaY);
 		}
 		
+		/**
+		 * Compute one or more {@link MultiscaleFeature}s for several smoothing values (must be &gt; 0) in a single pass.
+		 * <p>
+		 * The output channels are the same as those created by applying {@link #features(Collection, double, double)} for each sigma 
+		 * value and merging the results with {@link Core#splitMerge(ImageOp...)}, but the Gaussian smoothing is shared 
+		 * between scales rather than being calculated independently.
+		 * 
+		 * @param features
+		 * @param sigmas
+		 * @return
+		 * @see ScaleSpaceResultsBuilder
+		 */
+		public static ImageOp scaleSpaceFeatures(Collection<MultiscaleFeature> features, double... sigmas) {
+			return new ScaleSpaceFeatureOp(features, sigmas);
+		}
+		
 		/**
 		 * Apply a 2D maximum filter.
 		 * @param radius filter radius. Must be 1 or greater. 1 indicates a 3x3 square; larger filters approximate a circle.
@@ -1051,6 +1076,75 @@ public class ImageOps {
 		}
 		
 		
+		@OpType("scale-space-features")
+		static class ScaleSpaceFeatureOp extends PaddedOp {
+			
+			private List<MultiscaleFeature> features;
+			private double[] sigmas;
+			private transient ScaleSpaceResultsBuilder builder;
+			
+			ScaleSpaceFeatureOp(Collection<MultiscaleFeature> features, double... sigmas) {
+				this.features = new ArrayList<>(new LinkedHashSet<>(features));
+				this.sigmas = sigmas.clone();
+			}
+
+			@Override
+			protected Padding calculatePadding() {
+				return Padding.symmetric(padValue());
+			}
+
+			@Override
+			protected Mat transformPadded(Mat input) {
+				var builder = getBuilder();
+				try (var scope = new PointerScope()) {
+					var channels = OpenCVTools.splitChannels(input);
+					var results = builder.build(channels);
+					// Order by scale, then by channel, then by feature
+					var output = new ArrayList<Mat>();
+					for (int s = 0; s < sigmas.length; s++) {
+						for (var channelResults : results) {
+							var featureMap = channelResults.get(s);
+							for (var f : features) {
+								output.add(featureMap.get(f));
+							}
+						}
+					}
+					OpenCVTools.mergeChannels(output, input);
+				}
+				return input;
+			}
+			
+			@Override
+			public List<ImageChannel> getChannels(List<ImageChannel> channels) {
+				var list = new ArrayList<ImageChannel>();
+				for (var sigma : sigmas) {
+					for (var c : channels) {
+						var color = c.getColor();
+						var name = c.getName();
+						for (var f : features) {
+							list.add(ImageChannel.getInstance(
+									String.format("%s (%s, sigma=%.1f,%.1f)", name, f.toString(), sigma, sigma),
+									color));
+						}
+					}
+				}
+				return list;
+			}
+			
+			private int padValue() {
+				double maxSigma = Arrays.stream(sigmas).max().orElse(0);
+				return (int)(Math.ceil(maxSigma * 4) * 2 + 1);
+			}
+			
+			private ScaleSpaceResultsBuilder getBuilder() {
+				if (builder == null)
+					builder = new ScaleSpaceResultsBuilder(features, sigmas);
+				return builder;
+			}
+			
+		}
+		
+		
 		@OpType("gaussian")
 		static class GaussianFilterOp extends PaddedOp {
 			
@@ -2034,9 +2128,22 @@ public class ImageOps {
 			return new ClipOp(min, max);
 		}
 		
+		/**
+		 * Get the value for a specific channel, where values may contain either a single value for all channels or 
+		 * one value per channel.
+		 * @return the value, or NaN if the number of values doesn't match the number of channels
+		 */
+		private static double getValueForChannel(double[] values, int channel, int nChannels) {
+			if (values.length == 1)
+				return values[0];
+			if (values.length == nChannels)
+				return values[channel];
+			return Double.NaN;
+		}
+		
 		
 		@OpType("identity")
-		static class IdentityOp implements ImageOp {
+		static class IdentityOp implements PointwiseOp {
 
 			IdentityOp() {}
 			
@@ -2045,6 +2152,16 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return DoubleUnaryOperator.identity();
+			}
+			
+			@Override
+			public double[] getScaleAndOffset(int channel, int nChannels) {
+				return new double[] {1.0, 0.0};
+			}
+			
 		}
 		
 		
@@ -2052,7 +2169,7 @@ public class ImageOps {
 		 * @since v0.3.1
 		 */
 		@OpType("clip")
-		static class ClipOp implements ImageOp {
+		static class ClipOp implements PointwiseOp {
 			
 			private double min, max;
 			
@@ -2067,6 +2184,11 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return v -> GeneralTools.clipValue(v, min, max);
+			}
+			
 		}
 		
 		
@@ -2093,7 +2215,7 @@ public class ImageOps {
 		}
 		
 		@OpType("multiply")
-		static class MultiplyOp implements ImageOp {
+		static class MultiplyOp implements PointwiseOp {
 
 			private double[] values;
 			
@@ -2118,6 +2240,18 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : v -> v * val;
+			}
+			
+			@Override
+			public double[] getScaleAndOffset(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : new double[] {val, 0.0};
+			}
+			
 		}
 		
 		@OpType("replace-values")
@@ -2139,7 +2273,7 @@ public class ImageOps {
 		}
 		
 		@OpType("replace-nans")
-		static class ReplaceNaNsOp implements ImageOp {
+		static class ReplaceNaNsOp implements PointwiseOp {
 			
 			private double value;
 			
@@ -2153,11 +2287,16 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return v -> Double.isNaN(v) ? value : v;
+			}
+			
 		}
 		
 		
 		@OpType("round")
-		static class RoundOp implements ImageOp {
+		static class RoundOp implements PointwiseOp {
 
 			@Override
 			public Mat apply(Mat input) {
@@ -2165,10 +2304,16 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				// Non-finite values are unchanged
+				return v -> Double.isFinite(v) ? Math.round(v) : v;
+			}
+			
 		}
 		
 		@OpType("ceil")
-		static class CeilOp implements ImageOp {
+		static class CeilOp implements PointwiseOp {
 
 			@Override
 			public Mat apply(Mat input) {
@@ -2176,10 +2321,16 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				// Non-finite values are unchanged
+				return v -> Double.isFinite(v) ? Math.ceil(v) : v;
+			}
+			
 		}
 		
 		@OpType("floor")
-		static class FloorOp implements ImageOp {
+		static class FloorOp implements PointwiseOp {
 
 			@Override
 			public Mat apply(Mat input) {
@@ -2187,10 +2338,16 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				// Non-finite values are unchanged
+				return v -> Double.isFinite(v) ? Math.floor(v) : v;
+			}
+			
 		}
 		
 		@OpType("divide")
-		static class DivideOp implements ImageOp {
+		static class DivideOp implements PointwiseOp {
 
 			private double[] values;
 			
@@ -2215,10 +2372,22 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : v -> v / val;
+			}
+			
+			@Override
+			public double[] getScaleAndOffset(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : new double[] {1.0/val, 0.0};
+			}
+			
 		}
 		
 		@OpType("add")
-		static class AddOp implements ImageOp {
+		static class AddOp implements PointwiseOp {
 
 			private double[] values;
 			
@@ -2243,10 +2412,22 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : v -> v + val;
+			}
+			
+			@Override
+			public double[] getScaleAndOffset(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : new double[] {1.0, val};
+			}
+			
 		}
 		
 		@OpType("subtract")
-		static class SubtractOp implements ImageOp {
+		static class SubtractOp implements PointwiseOp {
 
 			private double[] values;
 			
@@ -2271,10 +2452,22 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : v -> v - val;
+			}
+			
+			@Override
+			public double[] getScaleAndOffset(int channel, int nChannels) {
+				double val = getValueForChannel(values, channel, nChannels);
+				return Double.isNaN(val) ? null : new double[] {1.0, -val};
+			}
+			
 		}
 		
 		@OpType("sqrt")
-		static class SqrtOp implements ImageOp {
+		static class SqrtOp implements PointwiseOp {
 			
 			@Override
 			public Mat apply(Mat input) {
@@ -2282,14 +2475,24 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return Math::sqrt;
+			}
+			
 		}
 		
 		
 		@OpType("log")
-		static class LogOp implements ImageOp {
+		static class LogOp implements PointwiseOp {
 			
 			LogOp() {}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return FastMath::log;
+			}
+			
 			@Override
 			public Mat apply(Mat input) {
 				// Use FastMath - there are too many caveats with OpenCV's log implementation
@@ -2318,7 +2521,7 @@ public class ImageOps {
 		
 		
 		@OpType("exp")
-		static class ExponentialOp implements ImageOp {
+		static class ExponentialOp implements PointwiseOp {
 			
 			ExponentialOp() {}
 			
@@ -2328,10 +2531,15 @@ public class ImageOps {
 				return input;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return Math::exp;
+			}
+			
 		}
 		
 		@OpType("pow")
-		static class PowerOp implements ImageOp {
+		static class PowerOp implements PointwiseOp {
 			
 			private double power;
 			
@@ -2339,6 +2547,11 @@ public class ImageOps {
 				this.power = power;
 			}
 			
+			@Override
+			public DoubleUnaryOperator getOperator(int channel, int nChannels) {
+				return d -> FastMath.pow(d, power);
+			}
+			
 			@Override
 			public Mat apply(Mat input) {
 				// Use FastMath - there are too many caveats with OpenCV's pow implementation
@@ -2391,14 +2604,28 @@ public class ImageOps {
 
 			@Override
 			public Mat apply(Mat input) {
-				for (var t : ops) {
-					var output = t.apply(input);
+				int i = 0;
+				int n = ops.size();
+				while (i < n) {
+					// Try to fuse consecutive pointwise ops, so that they can be applied in a single pass
+					int j = i;
+					while (j < n && ops.get(j) instanceof PointwiseOp)
+						j++;
+					if (j - i > 1) {
+						var pointwiseOps = ops.subList(i, j).stream().map(o -> (PointwiseOp)o).collect(Collectors.toList());
+						if (PointwiseOps.applyFused(pointwiseOps, input)) {
+							i = j;
+							continue;
+						}
+					}
+					var output = ops.get(i).apply(input);
 					// Effectively work in-place, deallocating quickly to avoid 
 					// accumulating a lot of references and relying on the garbage collector
 					if (output != input) {
 						input.put(output);
 						output.close();
 					}
+					i++;
 				}
 				return input;
 			}
@@ -2697,7 +2924,29 @@ public class ImageOps {
 		 * @return
 		 */
 		public static ImageOp dnn(DnnModel<?> model, int inputWidth, int inputHeight, Padding padding, String... outputNames) {
-			return new DnnOp<>(model, inputWidth, inputHeight, padding, outputNames);
+			return new DnnOp<>(model, inputWidth, inputHeight, padding, 1, outputNames);
+		}
+		
+		/**
+		 * Apply a {@link DnnModel} to pixels to generate a prediction, combining concurrent requests into batches.
+		 * <p>
+		 * This is useful when the op is applied to many small tiles in parallel (e.g. by a pixel classifier), 
+		 * since tiles requested by different threads can then be passed to the model as a single blob.
+		 * See {@link DnnBatchPredictor} for details.
+		 * 
+		 * @param model 
+		 * @param inputWidth requested input width
+		 * @param inputHeight requested input height
+		 * @param padding amount of padding provided
+		 * @param batchSize maximum number of tiles to combine in a single prediction; if &leq; 1, no batching is applied
+		 * @param outputNames names of model outputs. If empty, the first (and often only) output is used. 
+		 *                    If more than one output is specified, it is assumed that all are the same size 
+		 *                    and they be concatenated along the channels dimension.
+		 * @return
+		 * @since v0.4.0
+		 */
+		public static ImageOp dnn(DnnModel<?> model, int inputWidth, int inputHeight, Padding padding, int batchSize, String... outputNames) {
+			return new DnnOp<>(model, inputWidth, inputHeight, padding, batchSize, outputNames);
 		}
 				
 //		public static ImageOp dnn(OpenCVDNN dnn, int inputWidth, int inputHeight, Padding padding, String... outputNames) {
@@ -2759,8 +3008,13 @@ public class ImageOps {
 			
 			private Padding padding;
 			
+			// Null if no batching is applied, so that it is omitted from the JSON
+			private Integer batchSize;
+			
 			private transient String inputName;
 			
+			private transient volatile DnnBatchPredictor<T> batchPredictor;
+			
 			private transient Map<Integer, List<ImageChannel>> outputChannels = Collections.synchronizedMap(new HashMap<>());
 			
 			/**
@@ -2769,15 +3023,29 @@ public class ImageOps {
 			 * @param inputWidth
 			 * @param inputHeight
 			 * @param padding
+			 * @param batchSize maximum number of inputs to combine for prediction; if &leq; 1, no batching is applied
 			 * @param outputNames names of output layers; if more than one, these will be concatenated along the channels dimension
 			 */
-			DnnOp(DnnModel<T> model, int inputWidth, int inputHeight, Padding padding, String... outputNames) {
+			DnnOp(DnnModel<T> model, int inputWidth, int inputHeight, Padding padding, int batchSize, String... outputNames) {
 				this.model = model;
 				this.inputWidth = inputWidth;
 				this.inputHeight = inputHeight;
 				this.padding = padding == null ? Padding.empty() : padding;
+				this.batchSize = batchSize > 1 ? batchSize : null;
 				this.outputNames = outputNames.clone();
 			}
+			
+			private DnnBatchPredictor<T> getBatchPredictor() {
+				if (batchSize == null || batchSize <= 1)
+					return null;
+				if (batchPredictor != null)
+					return batchPredictor;
+				synchronized(this) {
+					if (batchPredictor == null)
+						batchPredictor = new DnnBatchPredictor<>(model, batchSize);
+				}
+				return batchPredictor;
+			}
 
 			@Override
 			protected Padding calculatePadding() {
@@ -2808,10 +3076,16 @@ public class ImageOps {
 			@Override
 			protected Mat transformPadded(Mat input) {
 				var inputName = getInputName();
+				var predictor = getBatchPredictor();
+				Function<Mat, Map<String, Mat>> fun;
+				if (predictor == null)
+					fun = m -> model.convertAndPredict(Map.of(inputName, m));
+				else
+					fun = m -> predictor.predict(inputName, m);
 				if ((inputWidth <= 0 && inputHeight <= 0) || (input.cols() == inputWidth && input.rows() == inputHeight))
-					return doPrediction(model, input, inputName, outputNames);
+					return doPrediction(fun, model, input, outputNames);
 				else
-					return OpenCVTools.applyTiled(m -> doPrediction(model, m, inputName, outputNames), input, inputWidth, inputHeight, opencv_core.BORDER_REFLECT);
+					return OpenCVTools.applyTiled(m -> doPrediction(fun, model, m, outputNames), input, inputWidth, inputHeight, opencv_core.BORDER_REFLECT);
 			}
 			
 			@Override
@@ -2927,13 +3201,13 @@ public class ImageOps {
 	}
 	
 	
-	private static <T> Mat doPrediction(DnnModel<T> model, Mat mat, String inputName, String... outputNames) {
+	private static <T> Mat doPrediction(Function<Mat, Map<String, Mat>> predictor, DnnModel<T> model, Mat mat, String... outputNames) {
 
 		var matResult = new Mat();
 
 		try (@SuppressWarnings("unchecked")var scope = new PointerScope()) {
 			
-			var output = model.convertAndPredict(Map.of(inputName, mat));
+			var output = predictor.apply(mat);
 			
 			if (!output.isEmpty()) {
 				if (outputNames.length == 0 || (outputNames.length == 1 && output.containsKey(outputNames[0])))
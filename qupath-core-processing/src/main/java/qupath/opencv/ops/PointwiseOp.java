@@ -0,0 +1,55 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.ops;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * An {@link ImageOp} that transforms each pixel value independently, without changing the size,
+ * number of channels or type of the image.
+ * <p>
+ * This makes it possible to fuse sequences of pointwise ops into a single pass through the pixels
+ * (see {@link PointwiseOps}), avoiding intermediate images.
+ *
+ * @author Pete Bankhead
+ */
+interface PointwiseOp extends ImageOp {
+
+	/**
+	 * Get the operator that this op applies to each pixel of a specified channel.
+	 * @param channel the channel index
+	 * @param nChannels the total number of channels in the image
+	 * @return the operator, or null if the op cannot be applied to an image with the specified number of channels
+	 */
+	DoubleUnaryOperator getOperator(int channel, int nChannels);
+
+	/**
+	 * Get the scale and offset if this op is equivalent to a linear transform {@code scale * value + offset}.
+	 * @param channel the channel index
+	 * @param nChannels the total number of channels in the image
+	 * @return an array containing the scale and offset, or null if the op is not linear
+	 */
+	default double[] getScaleAndOffset(int channel, int nChannels) {
+		return null;
+	}
+
+}
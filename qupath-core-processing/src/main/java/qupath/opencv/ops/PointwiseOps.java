@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.ops;
+
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.Index;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import qupath.opencv.tools.OpenCVTools;
+
+/**
+ * Helper class to apply a sequence of {@link PointwiseOp}s in a single pass.
+ * <p>
+ * If all the ops are linear, they are combined into a single call to {@link Mat#convertTo(Mat, int, double, double)}.
+ * Otherwise, the operators for each channel are combined and applied in-place through a typed indexer.
+ * <p>
+ * Fusion is only used for 32-bit and 64-bit floating point images, since integer images would require
+ * rounding and clipping between each op. For 32-bit images, intermediate values are rounded to float precision
+ * after each op to match the result of applying the ops separately as closely as possible.
+ *
+ * @author Pete Bankhead
+ */
+class PointwiseOps {
+
+	/**
+	 * Try to apply a sequence of pointwise ops in a single pass, in-place.
+	 * @param ops the ops to apply, in order
+	 * @param mat the image to transform
+	 * @return true if the ops were applied, false if they could not be fused (and the image is unchanged)
+	 */
+	static boolean applyFused(List<? extends PointwiseOp> ops, Mat mat) {
+		int depth = mat.depth();
+		if (depth != opencv_core.CV_32F && depth != opencv_core.CV_64F)
+			return false;
+
+		int nChannels = mat.channels();
+
+		// Check if we can combine everything into a linear transform
+		var scaleAndOffset = getScaleAndOffset(ops, nChannels);
+		if (scaleAndOffset != null) {
+			applyScaleAndOffset(mat, scaleAndOffset);
+			return true;
+		}
+
+		// Combine the operators for each channel
+		boolean roundToFloat = depth == opencv_core.CV_32F;
+		var operators = new DoubleUnaryOperator[nChannels];
+		for (int c = 0; c < nChannels; c++) {
+			DoubleUnaryOperator combined = null;
+			for (var op : ops) {
+				var operator = op.getOperator(c, nChannels);
+				if (operator == null)
+					return false;
+				if (roundToFloat) {
+					var temp = operator;
+					operator = v -> (float)temp.applyAsDouble(v);
+				}
+				combined = combined == null ? operator : combined.andThen(operator);
+			}
+			operators[c] = combined;
+		}
+
+		OpenCVTools.ensureContinuous(mat, true);
+		long total = mat.total() * nChannels;
+		if (depth == opencv_core.CV_32F) {
+			FloatIndexer idx = mat.createIndexer();
+			var idx2 = idx.reindex(Index.create(total));
+			for (long i = 0; i < total; i++) {
+				idx2.put(i, (float)operators[(int)(i % nChannels)].applyAsDouble(idx2.get(i)));
+			}
+			idx2.close();
+			idx.close();
+		} else {
+			DoubleIndexer idx = mat.createIndexer();
+			var idx2 = idx.reindex(Index.create(total));
+			for (long i = 0; i < total; i++) {
+				idx2.put(i, operators[(int)(i % nChannels)].applyAsDouble(idx2.get(i)));
+			}
+			idx2.close();
+			idx.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Combine linear ops into a single scale and offset per channel.
+	 * @return an array of length 2*nChannels containing the scale and offset for each channel, or null if any op is not linear
+	 */
+	private static double[] getScaleAndOffset(List<? extends PointwiseOp> ops, int nChannels) {
+		var result = new double[nChannels * 2];
+		for (int c = 0; c < nChannels; c++) {
+			double scale = 1.0;
+			double offset = 0.0;
+			for (var op : ops) {
+				var so = op.getScaleAndOffset(c, nChannels);
+				if (so == null)
+					return null;
+				scale *= so[0];
+				offset = offset * so[0] + so[1];
+			}
+			result[c*2] = scale;
+			result[c*2+1] = offset;
+		}
+		return result;
+	}
+
+	private static void applyScaleAndOffset(Mat mat, double[] scaleAndOffset) {
+		int nChannels = scaleAndOffset.length / 2;
+		boolean sameForAll = true;
+		for (int c = 1; c < nChannels; c++) {
+			if (scaleAndOffset[c*2] != scaleAndOffset[0] || scaleAndOffset[c*2+1] != scaleAndOffset[1]) {
+				sameForAll = false;
+				break;
+			}
+		}
+		if (sameForAll) {
+			mat.convertTo(mat, -1, scaleAndOffset[0], scaleAndOffset[1]);
+			return;
+		}
+		var channels = OpenCVTools.splitChannels(mat);
+		int c = 0;
+		for (var m : channels) {
+			m.convertTo(m, -1, scaleAndOffset[c*2], scaleAndOffset[c*2+1]);
+			c++;
+		}
+		OpenCVTools.mergeChannels(channels, mat);
+	}
+
+}
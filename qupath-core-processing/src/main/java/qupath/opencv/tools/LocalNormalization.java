@@ -444,18 +444,28 @@ public class LocalNormalization {
 		List<Mat> stackSquared = new ArrayList<>();
 		for (Mat mat : stack) {
 			mat.convertTo(mat, depth);
-			if (doVariance)
-				stackSquared.add(mat.mul(mat).asMat());
+			if (doVariance) {
+				var matSquared = MatPool.borrow(mat.rows(), mat.cols(), mat.type());
+				opencv_core.multiply(mat, mat, matSquared);
+				stackSquared.add(matSquared);
+			}
 		}
 		
 		// Apply z-filtering if required, otherwise clone for upcoming smoothing
 		List<Mat> stackSmoothed;
 		if (sigmaZ > 0) {
 			stackSmoothed = OpenCVTools.filterZ(stack, kz, -1, border);
-			if (doVariance)
-				stackSquared = OpenCVTools.filterZ(stackSquared, kz2, -1, border);
+			if (doVariance) {
+				var stackSquaredFiltered = OpenCVTools.filterZ(stackSquared, kz2, -1, border);
+				stackSquared.forEach(MatPool::release);
+				stackSquared = stackSquaredFiltered;
+			}
 		} else
-			stackSmoothed = stack.stream().map(m -> m.clone()).collect(Collectors.toList());
+			stackSmoothed = stack.stream().map(m -> {
+				var temp = MatPool.borrow(m.rows(), m.cols(), m.type());
+				m.copyTo(temp);
+				return temp;
+			}).collect(Collectors.toList());
 		
 		// Complete separable filtering & subtract from original
 		for (int i = 0; i < stack.size(); i++) {
@@ -479,9 +489,9 @@ public class LocalNormalization {
 				
 				opencv_core.divide(mat, matSmooth, mat);
 				
-				matSquaredSmooth.close();
+				MatPool.release(matSquaredSmooth);
 			}
-			matSmooth.close();
+			MatPool.release(matSmooth);
 		}
 		
 		// Give 32-bit output, unless the input was 64-bit
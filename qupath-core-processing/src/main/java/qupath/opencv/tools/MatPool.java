@@ -0,0 +1,335 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.tools;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Pool of {@link Mat} objects that can be reused for tile-level processing, to reduce the cost of
+ * repeatedly allocating and deallocating native memory.
+ * <p>
+ * Mats are grouped by size class, defined by the number of rows, columns and the OpenCV type.
+ * Each thread has its own pool, so that borrowing and returning Mats doesn't require synchronization;
+ * Mats returned from a different thread are added to the pool of the returning thread.
+ * The number of bytes held by the pool for each thread is bounded by {@link #getMaxPooledBytesPerThread()}. 
+ * Mats that would exceed the limit are released immediately.
+ * Because the limit applies per thread, a pool that is discarded along with its thread doesn't affect the others.
+ * <p>
+ * Only Mats that were borrowed from the pool can be returned to it; other Mats passed to {@link #release(Mat)} are 
+ * left unchanged, since they may still be in use elsewhere.
+ * <p>
+ * Mats borrowed from the pool behave like newly-allocated Mats with regard to {@link PointerScope}: if a scope is
+ * active when a Mat is borrowed, the Mat will be released when the scope is closed unless it is returned to the pool first.
+ * Mats should not be used after they have been returned.
+ * <p>
+ * The contents of a borrowed Mat are undefined.
+ *
+ * @author Pete Bankhead
+ * @since v0.4.0
+ */
+public class MatPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(MatPool.class);
+
+	private static final int MAX_MATS_PER_SIZE = 8;
+
+	private static long maxPooledBytesPerThread = 64L * 1024L * 1024L;
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder bytesReused = new LongAdder();
+	private static final LongAdder bytesAllocated = new LongAdder();
+
+	private static final ThreadLocal<LocalPool> pools = ThreadLocal.withInitial(LocalPool::new);
+
+	/**
+	 * Mats that have been borrowed from the pool, and not yet returned.
+	 * <p>
+	 * These are compared by identity rather than {@link Mat#equals(Object)}, because the latter compares native addresses: 
+	 * a borrowed Mat released by a scope would otherwise match any new Mat that happens to be allocated at the same address.
+	 * Weak keys mean that Mats that are never returned don't need to be removed explicitly.
+	 */
+	private static final Set<Mat> borrowed = createIdentitySet();
+
+	/**
+	 * Mats that were borrowed when no scope was active, and for which the pool's reference was handed over to the borrower.
+	 */
+	private static final Set<Mat> borrowedWithoutScope = createIdentitySet();
+
+	private MatPool() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Borrow a Mat with the specified dimensions and type.
+	 * This will either be taken from the pool for the current thread or newly allocated.
+	 * @param rows number of rows
+	 * @param cols number of columns
+	 * @param type OpenCV type, including the number of channels (e.g. {@code CV_32FC3})
+	 * @return a Mat with undefined contents
+	 * @see #release(Mat)
+	 */
+	public static Mat borrow(int rows, int cols, int type) {
+		var key = new SizeClass(rows, cols, type);
+		var pool = pools.get();
+		var queue = pool.mats.get(key);
+		Mat mat = queue == null ? null : queue.pollFirst();
+		while (mat != null) {
+			long bytes = getBytes(mat);
+			pool.bytes -= bytes;
+			if (isValid(mat, key)) {
+				hits.increment();
+				bytesReused.add(bytes);
+				handOver(mat);
+				return mat;
+			}
+			mat.releaseReference();
+			mat = queue.pollFirst();
+		}
+		misses.increment();
+		mat = new Mat(rows, cols, type);
+		bytesAllocated.add(getBytes(mat));
+		borrowed.add(mat);
+		return mat;
+	}
+
+	/**
+	 * Return a Mat to the pool, so that its memory can be reused.
+	 * <p>
+	 * Only Mats that were borrowed from the pool (and not yet returned) are accepted; nothing happens for any other Mat.
+	 * Borrowed Mats that now share their data with other Mats are released rather than pooled.
+	 * The Mat must not be used after it has been returned.
+	 * @param mat the Mat to return; nothing happens if this is null, already deallocated or not borrowed from the pool
+	 */
+	public static void release(Mat mat) {
+		if (mat == null)
+			return;
+		if (mat.isNull()) {
+			// Already deallocated (e.g. by a scope), so can't be reused
+			borrowed.remove(mat);
+			borrowedWithoutScope.remove(mat);
+			return;
+		}
+		if (!borrowed.remove(mat))
+			return;
+		var key = new SizeClass(mat.rows(), mat.cols(), mat.type());
+		// The pool either takes back the reference that it handed over, or needs a new one
+		if (!borrowedWithoutScope.remove(mat))
+			mat.retainReference();
+		if (!isPoolable(mat)) {
+			mat.releaseReference();
+			return;
+		}
+		long bytes = getBytes(mat);
+		var pool = pools.get();
+		var queue = pool.mats.computeIfAbsent(key, k -> new ArrayDeque<>());
+		if (queue.size() >= MAX_MATS_PER_SIZE || pool.bytes + bytes > maxPooledBytesPerThread) {
+			mat.releaseReference();
+			return;
+		}
+		pool.bytes += bytes;
+		queue.addFirst(mat);
+	}
+
+	/**
+	 * Release all Mats held in the pool for the current thread.
+	 */
+	public static void clearCurrentThread() {
+		var pool = pools.get();
+		for (var queue : pool.mats.values()) {
+			for (var mat : queue)
+				mat.releaseReference();
+		}
+		pool.mats.clear();
+		pool.bytes = 0L;
+	}
+
+	/**
+	 * Set the maximum number of bytes that may be held by the pool for each thread.
+	 * This does not affect Mats that are already pooled.
+	 * @param maxBytes
+	 */
+	public static void setMaxPooledBytesPerThread(long maxBytes) {
+		maxPooledBytesPerThread = Math.max(0, maxBytes);
+	}
+
+	/**
+	 * Get the maximum number of bytes that may be held by the pool for each thread.
+	 * @return
+	 */
+	public static long getMaxPooledBytesPerThread() {
+		return maxPooledBytesPerThread;
+	}
+
+	/**
+	 * Get the number of bytes currently held by the pool for the current thread.
+	 * @return
+	 */
+	public static long getPooledBytes() {
+		return pools.get().bytes;
+	}
+
+	/**
+	 * Get the number of times a Mat could be reused from a pool.
+	 * @return
+	 */
+	public static long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of times a new Mat had to be allocated because none was available from the pool.
+	 * @return
+	 */
+	public static long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the total number of bytes reused from pools.
+	 * @return
+	 */
+	public static long getBytesReused() {
+		return bytesReused.sum();
+	}
+
+	/**
+	 * Get the total number of bytes allocated because no Mat was available from a pool.
+	 * @return
+	 */
+	public static long getBytesAllocated() {
+		return bytesAllocated.sum();
+	}
+
+	/**
+	 * Reset the hit, miss and byte counters.
+	 */
+	public static void resetCounters() {
+		hits.reset();
+		misses.reset();
+		bytesReused.reset();
+		bytesAllocated.reset();
+	}
+
+	/**
+	 * Log the current counters at debug level.
+	 */
+	public static void logStatistics() {
+		logger.debug("Mat pool: {} hits, {} misses, {} MB reused, {} MB allocated, {} MB pooled for the current thread",
+				getHitCount(), getMissCount(),
+				getBytesReused() / (1024*1024), getBytesAllocated() / (1024*1024), getPooledBytes() / (1024*1024));
+	}
+
+	/**
+	 * Transfer the pool's reference to the current scope, if there is one.
+	 * Otherwise, the borrower becomes responsible for the reference.
+	 */
+	private static void handOver(Mat mat) {
+		borrowed.add(mat);
+		var scope = PointerScope.getInnerScope();
+		if (scope != null) {
+			scope.attach(mat);
+			mat.releaseReference();
+		} else
+			borrowedWithoutScope.add(mat);
+	}
+
+	/**
+	 * Create a thread-safe set that compares elements by identity and holds them weakly.
+	 */
+	private static Set<Mat> createIdentitySet() {
+		// MapMaker uses identity equality for weak keys
+		return Collections.newSetFromMap(new MapMaker().weakKeys().<Mat, Boolean>makeMap());
+	}
+
+	private static boolean isValid(Mat mat, SizeClass key) {
+		return !mat.isNull() && mat.rows() == key.rows && mat.cols() == key.cols && mat.type() == key.type;
+	}
+
+	private static boolean isPoolable(Mat mat) {
+		if (mat.empty() || !mat.isContinuous() || mat.isSubmatrix() || mat.dims() > 2)
+			return false;
+		// Require the data to be owned by this Mat only
+		var u = mat.u();
+		return u != null && !u.isNull() && u.refcount() == 1;
+	}
+
+	private static long getBytes(Mat mat) {
+		return mat.isNull() ? 0L : mat.total() * mat.elemSize();
+	}
+
+
+	/**
+	 * Pooled Mats for a single thread, along with the number of bytes they hold.
+	 * If the thread ends, the Mats are deallocated when the pool is garbage collected.
+	 */
+	private static class LocalPool {
+		
+		private final Map<SizeClass, ArrayDeque<Mat>> mats = new HashMap<>();
+		private long bytes = 0L;
+		
+	}
+
+
+	private static class SizeClass {
+
+		private final int rows;
+		private final int cols;
+		private final int type;
+
+		SizeClass(int rows, int cols, int type) {
+			this.rows = rows;
+			this.cols = cols;
+			this.type = type;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(rows, cols, type);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof SizeClass))
+				return false;
+			var other = (SizeClass)obj;
+			return rows == other.rows && cols == other.cols && type == other.type;
+		}
+
+	}
+
+}
@@ -26,11 +26,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.bytedeco.javacpp.FloatPointer;
 import org.bytedeco.javacpp.indexer.FloatIndexer;
@@ -1047,6 +1052,294 @@ public class MultiscaleFeatures {
 		
 	}
 	
+	
+	/**
+	 * Helper-class for computing pixel-features at several scales, reusing the calculations between scales.
+	 * <p>
+	 * This gives equivalent results to using a {@link MultiscaleResultsBuilder} for each scale separately 
+	 * (up to small numerical differences), but avoids repeating work. 
+	 * The Gaussian scale-space is built incrementally: the image smoothed with a Gaussian of sigma {@code s2} 
+	 * is calculated from the image smoothed at a smaller scale {@code s1} by applying an additional Gaussian 
+	 * with sigma {@code sqrt(s2*s2 - s1*s1)}. 
+	 * Derivatives are calculated from the smoothed images in the same way, so that the derivative kernels 
+	 * remain small at larger scales. Kernels are shared across all channels.
+	 * <p>
+	 * Only 2D features are supported, with isotropic smoothing. Sigma values are given in pixels.
+	 */
+	public static class ScaleSpaceResultsBuilder {
+		
+		/**
+		 * Minimum additional sigma to use when deriving one scale from another.
+		 * Smaller kernels are too poorly sampled to give a good approximation, particularly for derivatives; 
+		 * in this case an earlier scale (or the original image) is used instead.
+		 */
+		private static final double MIN_INCREMENTAL_SIGMA = 1.0;
+		
+		private List<MultiscaleFeature> features;
+		private double[] sigmas;
+		
+		private int border = BORDER_DEFAULT.getOpenCVCode();
+		
+		/**
+		 * Constructor.
+		 * @param features the features to calculate
+		 * @param sigmas the Gaussian sigma values (in pixels) for which the features should be calculated; must be &gt; 0
+		 * @throws IllegalArgumentException if a feature does not support 2D images or a sigma value is &lt;= 0
+		 */
+		public ScaleSpaceResultsBuilder(Collection<MultiscaleFeature> features, double... sigmas) throws IllegalArgumentException {
+			for (var f : features) {
+				if (!f.supports2D())
+					throw new IllegalArgumentException("Feature " + f + " does not support 2D images");
+			}
+			for (double sigma : sigmas) {
+				if (!(sigma > 0))
+					throw new IllegalArgumentException("Sigma values must be > 0");
+			}
+			this.features = new ArrayList<>(features);
+			this.sigmas = sigmas.clone();
+		}
+		
+		/**
+		 * Calculate results for a single-channel Mat.
+		 * @param mat
+		 * @return a list of feature maps, one for each sigma value (in the order provided to the constructor)
+		 */
+		public List<MultiscaleResultsBuilder.FeatureMap> build(Mat mat) {
+			return build(Collections.singletonList(mat)).get(0);
+		}
+		
+		/**
+		 * Calculate results for multiple single-channel Mats, sharing the filter kernels between them.
+		 * @param mats
+		 * @return a list containing one list of feature maps per input Mat, each with one map per sigma value
+		 */
+		public List<List<MultiscaleResultsBuilder.FeatureMap>> build(List<Mat> mats) {
+			boolean doSmoothed = features.contains(MultiscaleFeature.GAUSSIAN);
+			boolean doStdDev = features.contains(MultiscaleFeature.WEIGHTED_STD_DEV);
+			boolean doGradient = features.contains(MultiscaleFeature.GRADIENT_MAGNITUDE);
+			boolean doHessianEigenvalues = features.contains(MultiscaleFeature.HESSIAN_EIGENVALUE_MAX) || 
+					features.contains(MultiscaleFeature.HESSIAN_EIGENVALUE_MIN);
+			boolean doHessian = doHessianEigenvalues ||
+					features.contains(MultiscaleFeature.HESSIAN_DETERMINANT) ||
+					features.contains(MultiscaleFeature.LAPLACIAN);
+			boolean doStructureTensor = features.contains(MultiscaleFeature.STRUCTURE_TENSOR_EIGENVALUE_MAX) ||
+					features.contains(MultiscaleFeature.STRUCTURE_TENSOR_EIGENVALUE_MIN) ||
+					features.contains(MultiscaleFeature.STRUCTURE_TENSOR_COHERENCE);
+			
+			var results = new ArrayList<List<MultiscaleResultsBuilder.FeatureMap>>();
+			
+			try (var kernels = new KernelCache()) {
+				for (var input : mats) {
+					int depth = input.depth() == opencv_core.CV_64F ? opencv_core.CV_64F : opencv_core.CV_32F;
+					var mat = new Mat();
+					input.convertTo(mat, depth);
+					
+					// Use try-with-resources so that cached images are released even if a feature can't be calculated
+					// (null resources are skipped)
+					try (var scaleSpace = new ScaleSpace(mat, depth, kernels);
+							var scaleSpaceSquared = doStdDev ? new ScaleSpace(mat.mul(mat).asMat(), depth, kernels) : null;
+							var sobelX = doStructureTensor ? sobel(mat, depth, 1, 0) : null;
+							var sobelY = doStructureTensor ? sobel(mat, depth, 0, 1) : null;
+							var scaleSpaceDxy = doStructureTensor ? new ScaleSpace(sobelX.mul(sobelY).asMat(), depth, kernels) : null;
+							var scaleSpaceDxx = doStructureTensor ? new ScaleSpace(sobelX.mul(sobelX).asMat(), depth, kernels) : null;
+							var scaleSpaceDyy = doStructureTensor ? new ScaleSpace(sobelY.mul(sobelY).asMat(), depth, kernels) : null) {
+						
+						// Process sigmas in ascending order, so that each scale can build on the previous one
+						var featureMaps = new MultiscaleResultsBuilder.FeatureMap[sigmas.length];
+						var sortedInds = IntStream.range(0, sigmas.length)
+								.boxed()
+								.sorted(Comparator.comparingDouble(i -> sigmas[i]))
+								.mapToInt(i -> i)
+								.toArray();
+						for (int ind : sortedInds) {
+							double sigma = sigmas[ind];
+							
+							Map<MultiscaleFeature, Mat> map = new EnumMap<>(MultiscaleFeature.class);
+							
+							if (doSmoothed || doStdDev) {
+								var matSmooth = scaleSpace.getSmoothed(sigma);
+								if (doSmoothed)
+									map.put(MultiscaleFeature.GAUSSIAN, to32F(matSmooth, true));
+								if (doStdDev) {
+									var matSquaredSmooth = scaleSpaceSquared.getSmoothed(sigma);
+									var matStdDev = opencv_core.subtract(matSquaredSmooth, matSmooth.mul(matSmooth)).asMat();
+									opencv_core.sqrt(matStdDev, matStdDev);
+									map.put(MultiscaleFeature.WEIGHTED_STD_DEV, to32F(matStdDev, false));
+								}
+							}
+							
+							if (doStructureTensor) {
+								var eigen = new EigenSymm2(
+										scaleSpaceDxx.getSmoothed(sigma),
+										scaleSpaceDxy.getSmoothed(sigma),
+										scaleSpaceDyy.getSmoothed(sigma),
+										false);
+								map.put(MultiscaleFeature.STRUCTURE_TENSOR_EIGENVALUE_MAX, eigen.eigvalMax);
+								map.put(MultiscaleFeature.STRUCTURE_TENSOR_EIGENVALUE_MIN, eigen.eigvalMin);
+								if (features.contains(MultiscaleFeature.STRUCTURE_TENSOR_COHERENCE))
+									map.put(MultiscaleFeature.STRUCTURE_TENSOR_COHERENCE, calculateCoherence(eigen.eigvalMax, eigen.eigvalMin));
+							}
+							
+							if (doGradient) {
+								var dx = scaleSpace.getDerivative(sigma, 1, 0);
+								var dy = scaleSpace.getDerivative(sigma, 0, 1);
+								var magnitude = new Mat();
+								opencv_core.magnitude(dx, dy, magnitude);
+								dx.close();
+								dy.close();
+								map.put(MultiscaleFeature.GRADIENT_MAGNITUDE, to32F(magnitude, false));
+							}
+							
+							if (doHessian) {
+								var dxx = scaleSpace.getDerivative(sigma, 2, 0);
+								var dxy = scaleSpace.getDerivative(sigma, 1, 1);
+								var dyy = scaleSpace.getDerivative(sigma, 0, 2);
+								try (var hessian = new Hessian2D(dxx, dxy, dyy, false)) {
+									if (features.contains(MultiscaleFeature.LAPLACIAN))
+										map.put(MultiscaleFeature.LAPLACIAN, to32F(hessian.getLaplacian(), false));
+									if (features.contains(MultiscaleFeature.HESSIAN_DETERMINANT))
+										map.put(MultiscaleFeature.HESSIAN_DETERMINANT, to32F(hessian.getDeterminant(), false));
+									if (doHessianEigenvalues) {
+										// Eigenvalues are already 32-bit; clone them because closing the Hessian releases them
+										var eigenvalues = hessian.getEigenvalues(false);
+										map.put(MultiscaleFeature.HESSIAN_EIGENVALUE_MAX, eigenvalues.get(0).clone());
+										map.put(MultiscaleFeature.HESSIAN_EIGENVALUE_MIN, eigenvalues.get(1).clone());
+									}
+								}
+							}
+							
+							// Retain only the requested features, in the requested order
+							var featureMap = new LinkedHashMap<MultiscaleFeature, Mat>();
+							for (var f : features) {
+								var m = map.get(f);
+								if (m != null)
+									featureMap.put(f, m);
+							}
+							featureMaps[ind] = new MultiscaleResultsBuilder.FeatureMap(featureMap, null);
+						}
+						
+						results.add(Arrays.asList(featureMaps));
+					}
+				}
+			}
+			
+			return results;
+		}
+		
+		private static Mat sobel(Mat mat, int depth, int dx, int dy) {
+			var output = new Mat();
+			opencv_imgproc.Sobel(mat, output, depth, dx, dy);
+			return output;
+		}
+		
+		/**
+		 * Get a 32-bit version of a Mat, converting in-place unless a copy is requested.
+		 */
+		private static Mat to32F(Mat mat, boolean doCopy) {
+			if (mat.depth() == opencv_core.CV_32F)
+				return doCopy ? mat.clone() : mat;
+			var output = doCopy ? new Mat() : mat;
+			mat.convertTo(output, opencv_core.CV_32F);
+			return output;
+		}
+		
+		
+		/**
+		 * Gaussian derivative kernels, cached by sigma and derivative order.
+		 */
+		private static class KernelCache implements AutoCloseable {
+			
+			private Map<Double, Mat[]> kernels = new HashMap<>();
+			
+			Mat getKernel(double sigma, int order, boolean doColumn) {
+				var array = kernels.computeIfAbsent(sigma, s -> new Mat[6]);
+				int ind = doColumn ? order + 3 : order;
+				if (array[ind] == null)
+					array[ind] = OpenCVTools.getGaussianDerivKernel(sigma, order, doColumn);
+				return array[ind];
+			}
+
+			@Override
+			public void close() {
+				for (var array : kernels.values()) {
+					for (var k : array) {
+						if (k != null)
+							k.close();
+					}
+				}
+				kernels.clear();
+			}
+			
+		}
+		
+		
+		/**
+		 * Gaussian scale-space for a single image, where smoothed images are cached as they are computed.
+		 */
+		private class ScaleSpace implements AutoCloseable {
+			
+			private int depth;
+			private KernelCache kernels;
+			
+			/**
+			 * Smoothed images, sorted by sigma.
+			 * The original image is stored with sigma 0.
+			 */
+			private TreeMap<Double, Mat> levels = new TreeMap<>();
+			
+			ScaleSpace(Mat mat, int depth, KernelCache kernels) {
+				this.depth = depth;
+				this.kernels = kernels;
+				levels.put(0.0, mat);
+			}
+			
+			/**
+			 * Get the image smoothed by a Gaussian filter with the specified sigma.
+			 * The returned Mat should not be modified.
+			 */
+			Mat getSmoothed(double sigma) {
+				var mat = levels.get(sigma);
+				if (mat == null) {
+					mat = filter(sigma, 0, 0);
+					levels.put(sigma, mat);
+				}
+				return mat;
+			}
+			
+			/**
+			 * Get a Gaussian derivative image at the specified scale.
+			 */
+			Mat getDerivative(double sigma, int orderX, int orderY) {
+				return filter(sigma, orderX, orderY);
+			}
+			
+			private Mat filter(double sigma, int orderX, int orderY) {
+				// Find the largest scale that we can use as a starting point
+				var entry = levels.lowerEntry(sigma);
+				double sigmaIncrement = Math.sqrt(sigma*sigma - entry.getKey()*entry.getKey());
+				while (sigmaIncrement < MIN_INCREMENTAL_SIGMA && entry.getKey() > 0) {
+					entry = levels.lowerEntry(entry.getKey());
+					sigmaIncrement = Math.sqrt(sigma*sigma - entry.getKey()*entry.getKey());
+				}
+				var kx = kernels.getKernel(sigmaIncrement, orderX, false);
+				var ky = kernels.getKernel(sigmaIncrement, orderY, true);
+				var output = new Mat();
+				opencv_imgproc.sepFilter2D(entry.getValue(), output, depth, kx, ky, null, 0.0, border);
+				return output;
+			}
+
+			@Override
+			public void close() {
+				for (var mat : levels.values())
+					mat.close();
+				levels.clear();
+			}
+			
+		}
+		
+	}
+
+	
 	/**
 	 * Calculate coherence from the max/min eigenvalues of the structure tensor.
 	 * @param stMax
@@ -1486,10 +1779,6 @@ public class MultiscaleFeatures {
 			int height = dxx.rows();
 			int width = dxx.cols();
 			
-			Mat matInput = new Mat(3, 3, opencv_core.CV_32FC1);
-			Mat matEigenvalues = new Mat(3, 1, opencv_core.CV_32FC1);
-			Mat matEigenvectors = new Mat(3, 3, opencv_core.CV_32FC1);
-			
 			float[] pxDxx = OpenCVTools.extractFloats(dxx);
 			float[] pxDxy = OpenCVTools.extractFloats(dxy);
 			float[] pxDxz = OpenCVTools.extractFloats(dxz);
@@ -1505,89 +1794,12 @@ public class MultiscaleFeatures {
 			float[] bufMinVec = doEigenvectors ? new float[width * height * 3] : null;
 			float[] bufMiddleVec = doEigenvectors ? new float[width * height * 3] : null;
 			float[] bufMaxVec = doEigenvectors ? new float[width * height * 3] : null;
-
-			FloatIndexer idxInput = matInput.createIndexer();
-			FloatIndexer idxEigenvalues = matEigenvalues.createIndexer();
-			FloatIndexer idxEigenvectors = matEigenvectors.createIndexer();
-			
-			float[] input = new float[9];
-			float[] eigenvalues = new float[3];
-			float[] eigenvectors = new float[9];
-			
-			int ind = 0;
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					
-					// Arrange values for 3x3 symmetric matrix
-					input[0] = pxDxx[ind];
-					input[1] = pxDxy[ind];
-					input[2] = pxDxz[ind];
-
-					input[3] = pxDxy[ind];
-					input[4] = pxDyy[ind];
-					input[5] = pxDyz[ind];
-
-					input[6] = pxDxz[ind];
-					input[7] = pxDyz[ind];
-					input[8] = pxDzz[ind];
-
-					// Populate the Hessian matrix
-					idxInput.put(0L, input);
-					
-					// Calculate required values
-					// TODO: Compare performance using opencv_core.eigen vs commons math vs jama
-					if (doEigenvectors)
-						opencv_core.eigen(matInput, matEigenvalues, matEigenvectors);
-					else
-						opencv_core.eigen(matInput, matEigenvalues);
-					
-					// Extract the eigenvalues
-					idxEigenvalues.get(0L, eigenvalues);
-					bufMax[ind] = eigenvalues[0];
-					bufMiddle[ind] = eigenvalues[1];
-					bufMin[ind] = eigenvalues[2];
-					
-					// Extract the eigenvectors if required
-					if (doEigenvectors) {
-						idxEigenvectors.get(0L, eigenvectors);
-						
-//						bufMinVec[ind * 3] = eigenvectors[0];
-//						bufMinVec[ind * 3 + 1] = eigenvectors[3];
-//						bufMinVec[ind * 3 + 2] = eigenvectors[6];
-//						
-//						bufMiddleVec[ind * 3] = eigenvectors[1];
-//						bufMiddleVec[ind * 3 + 1] = eigenvectors[4];
-//						bufMiddleVec[ind * 3 + 2] = eigenvectors[7];
-//						
-//						bufMaxVec[ind * 3] = eigenvectors[2];
-//						bufMaxVec[ind * 3 + 1] = eigenvectors[5];
-//						bufMaxVec[ind * 3 + 2] = eigenvectors[8];
-						
-						bufMaxVec[ind * 3] = eigenvectors[0];
-						bufMaxVec[ind * 3 + 1] = eigenvectors[1];
-						bufMaxVec[ind * 3 + 2] = eigenvectors[2];
-						
-						bufMiddleVec[ind * 3] = eigenvectors[3];
-						bufMiddleVec[ind * 3 + 1] = eigenvectors[4];
-						bufMiddleVec[ind * 3 + 2] = eigenvectors[5];
-
-						bufMinVec[ind * 3] = eigenvectors[6];
-						bufMinVec[ind * 3 + 1] = eigenvectors[7];
-						bufMinVec[ind * 3 + 2] = eigenvectors[8];
-
-					}
-					
-					ind++;
-				}
-			}
-			
-			idxInput.release();
-			idxEigenvalues.release();
-			idxEigenvectors.release();
 			
-			matInput.close();
-			matEigenvalues.close();
-			matEigenvectors.close();
+			// Use a closed-form solution in parallel, rather than calling opencv_core.eigen for every pixel
+			new SymmetricEigenSolver(width, height,
+					pxDxx, pxDxy, pxDxz, pxDyy, pxDyz, pxDzz,
+					bufMax, bufMiddle, bufMin,
+					bufMaxVec, bufMiddleVec, bufMinVec).solve();
 			
 			// Store the eigenvalues as Mats
 			eigvalMin = new Mat(height, width, opencv_core.CV_32FC1, new FloatPointer(bufMin));
@@ -110,6 +110,10 @@ public class OpenCVTools {
 	 * <p>
 	 * Note: the behavior of this method has changed; in QuPath &lt;= 0.1.2 only
 	 * RGB images were really supported, and an RGB conversion was *always* made.
+	 * <p>
+	 * For image types without a special RGB/BGR conversion, the Mat may be borrowed from {@link MatPool} 
+	 * rather than newly allocated. It is not zero-filled, but every pixel of every channel is overwritten 
+	 * with the values from the image. It may be returned with {@link MatPool#release(Mat)} when it is no longer needed.
 	 * 
 	 * @see #imageToMatRGB
 	 * @see #imageToMatBGR
@@ -166,8 +170,8 @@ public class OpenCVTools {
 				typeCV = opencv_core.CV_64FC(nChannels); // Assume 64-bit is as flexible as we can manage
 		}
 		
-		// Create a new Mat & put the pixels
-		Mat mat = new Mat(height, width, typeCV, Scalar.ZERO);
+		// Create a new Mat & put the pixels - every band is overwritten, so we can use a pooled Mat
+		Mat mat = MatPool.borrow(height, width, typeCV);
 		putPixels(raster, mat);
 		return mat;
 	}
@@ -233,6 +237,27 @@ public class OpenCVTools {
 	 * @param operator operator to apply to pixels of the image, in-place
 	 */
 	public static void apply(Mat mat, DoubleUnaryOperator operator) {
+		// Use typed access for common floating point types, to avoid the overhead of generic indexing
+		int depth = mat.depth();
+		if (mat.isContinuous() && (depth == opencv_core.CV_32F || depth == opencv_core.CV_64F)) {
+			long total = mat.total() * mat.channels();
+			if (depth == opencv_core.CV_32F) {
+				FloatIndexer idx = mat.createIndexer();
+				var idx2 = idx.reindex(Index.create(total));
+				for (long i = 0; i < total; i++)
+					idx2.put(i, (float)operator.applyAsDouble(idx2.get(i)));
+				idx2.close();
+				idx.close();
+			} else {
+				DoubleIndexer idx = mat.createIndexer();
+				var idx2 = idx.reindex(Index.create(total));
+				for (long i = 0; i < total; i++)
+					idx2.put(i, operator.applyAsDouble(idx2.get(i)));
+				idx2.close();
+				idx.close();
+			}
+			return;
+		}
 		Indexer indexer = mat.createIndexer();
 		long[] sizes = indexer.sizes();
 		long total = 1;
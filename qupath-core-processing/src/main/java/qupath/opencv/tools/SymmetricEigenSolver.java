@@ -0,0 +1,269 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.tools;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Closed-form eigen-decomposition of 3x3 symmetric matrices, applied per pixel.
+ * <p>
+ * Matrix elements are provided as separate arrays (one per unique element), and the calculation is split
+ * into strips of rows that are processed in parallel with a fork-join pool.
+ * No objects are allocated per pixel.
+ * <p>
+ * Eigenvalues are calculated using the trigonometric method for symmetric matrices, in double precision.
+ * Eigenvectors are calculated from the cross products of rows of {@code A - lambda*I}.
+ * They are normalized to unit length, but their sign is arbitrary.
+ *
+ * @author Pete Bankhead
+ */
+class SymmetricEigenSolver {
+
+	/**
+	 * Approximate minimum number of pixels to process in a single task.
+	 */
+	private static final int MIN_PIXELS_PER_TASK = 16 * 1024;
+
+	private final int width, height;
+	private final float[] dxx, dxy, dxz, dyy, dyz, dzz;
+
+	private final float[] valMax, valMiddle, valMin;
+	private final float[] vecMax, vecMiddle, vecMin;
+
+	/**
+	 * Create a solver for the specified matrix elements.
+	 * Eigenvector arrays may be null if eigenvectors are not required; otherwise they must have length
+	 * {@code width * height * 3}, and each vector will be stored as 3 consecutive elements.
+	 */
+	SymmetricEigenSolver(int width, int height,
+			float[] dxx, float[] dxy, float[] dxz, float[] dyy, float[] dyz, float[] dzz,
+			float[] valMax, float[] valMiddle, float[] valMin,
+			float[] vecMax, float[] vecMiddle, float[] vecMin) {
+		this.width = width;
+		this.height = height;
+		this.dxx = dxx;
+		this.dxy = dxy;
+		this.dxz = dxz;
+		this.dyy = dyy;
+		this.dyz = dyz;
+		this.dzz = dzz;
+		this.valMax = valMax;
+		this.valMiddle = valMiddle;
+		this.valMin = valMin;
+		this.vecMax = vecMax;
+		this.vecMiddle = vecMiddle;
+		this.vecMin = vecMin;
+	}
+
+	/**
+	 * Calculate the eigenvalues (and eigenvectors, if required) for all pixels.
+	 */
+	void solve() {
+		int minRows = Math.max(1, MIN_PIXELS_PER_TASK / Math.max(1, width));
+		new RowStripTask(0, height, minRows).invoke();
+	}
+
+	/**
+	 * Calculate the eigenvalues (and eigenvectors, if required) for a range of pixels.
+	 * @param from first pixel index (inclusive)
+	 * @param to last pixel index (exclusive)
+	 */
+	void solve(int from, int to) {
+		boolean doEigenvectors = vecMax != null;
+		for (int i = from; i < to; i++) {
+			double a = dxx[i], b = dxy[i], c = dxz[i], d = dyy[i], e = dyz[i], f = dzz[i];
+
+			double l1, l2, l3;
+			double p1 = b*b + c*c + e*e;
+			double q = (a + d + f) / 3.0;
+			double p = 0;
+			if (p1 == 0) {
+				// Diagonal matrix - just need to sort
+				l1 = Math.max(a, Math.max(d, f));
+				l3 = Math.min(a, Math.min(d, f));
+				l2 = a + d + f - l1 - l3;
+			} else {
+				double aq = a - q, dq = d - q, fq = f - q;
+				double p2 = aq*aq + dq*dq + fq*fq + 2.0 * p1;
+				p = Math.sqrt(p2 / 6.0);
+				// Determinant of (A - qI), which is scaled to give half the determinant of (A - qI)/p
+				double det = aq * (dq*fq - e*e) - b * (b*fq - e*c) + c * (b*e - dq*c);
+				double r = det / (2.0 * p * p * p);
+				double phi;
+				if (r <= -1)
+					phi = Math.PI / 3.0;
+				else if (r >= 1)
+					phi = 0;
+				else
+					phi = Math.acos(r) / 3.0;
+				l1 = q + 2.0 * p * Math.cos(phi);
+				l3 = q + 2.0 * p * Math.cos(phi + (2.0 * Math.PI / 3.0));
+				// Clamp to avoid rounding errors breaking the ordering
+				l2 = Math.max(l3, Math.min(l1, 3.0 * q - l1 - l3));
+			}
+			valMax[i] = (float)l1;
+			valMiddle[i] = (float)l2;
+			valMin[i] = (float)l3;
+
+			if (doEigenvectors)
+				computeEigenvectors(i, a, b, c, d, e, f, l1, l3, p);
+		}
+	}
+
+
+	private void computeEigenvectors(int i, double a, double b, double c, double d, double e, double f, double lMax, double lMin, double p) {
+		int ind = i * 3;
+		// Threshold to identify (near-)repeated eigenvalues, relative to the spread of the eigenvalues
+		double eps = 1e-6 * Math.max(p * p, Double.MIN_NORMAL);
+
+		// Eigenvector for the maximum eigenvalue
+		boolean hasMax = eigenvectorForValue(a, b, c, d, e, f, lMax, eps, vecMax, ind);
+		// Eigenvector for the minimum eigenvalue
+		boolean hasMin = eigenvectorForValue(a, b, c, d, e, f, lMin, eps, vecMin, ind);
+
+		if (!hasMax && !hasMin) {
+			// All eigenvalues are equal (or the matrix is diagonal) - use the coordinate axes,
+			// ordered according to the diagonal
+			setAxisVectors(ind, a, d, f);
+			return;
+		} else if (!hasMax) {
+			orthogonalVector(vecMin, vecMax, ind);
+		} else if (!hasMin) {
+			orthogonalVector(vecMax, vecMin, ind);
+		}
+
+		// Middle eigenvector is orthogonal to both
+		double x = vecMin[ind+1] * vecMax[ind+2] - vecMin[ind+2] * vecMax[ind+1];
+		double y = vecMin[ind+2] * vecMax[ind] - vecMin[ind] * vecMax[ind+2];
+		double z = vecMin[ind] * vecMax[ind+1] - vecMin[ind+1] * vecMax[ind];
+		double len = Math.sqrt(x*x + y*y + z*z);
+		vecMiddle[ind] = (float)(x / len);
+		vecMiddle[ind+1] = (float)(y / len);
+		vecMiddle[ind+2] = (float)(z / len);
+	}
+
+	/**
+	 * Compute the eigenvector for a specified eigenvalue from the largest cross product of rows of (A - lambda*I).
+	 * @return true if an eigenvector was found, false if the eigenvalue is repeated (so the cross products are all ~0)
+	 */
+	private static boolean eigenvectorForValue(double a, double b, double c, double d, double e, double f,
+			double lambda, double eps, float[] output, int ind) {
+		double r0x = a - lambda, r0y = b, r0z = c;
+		double r1x = b, r1y = d - lambda, r1z = e;
+		double r2x = c, r2y = e, r2z = f - lambda;
+
+		// r0 x r1
+		double x01 = r0y * r1z - r0z * r1y;
+		double y01 = r0z * r1x - r0x * r1z;
+		double z01 = r0x * r1y - r0y * r1x;
+		double n01 = x01*x01 + y01*y01 + z01*z01;
+		// r0 x r2
+		double x02 = r0y * r2z - r0z * r2y;
+		double y02 = r0z * r2x - r0x * r2z;
+		double z02 = r0x * r2y - r0y * r2x;
+		double n02 = x02*x02 + y02*y02 + z02*z02;
+		// r1 x r2
+		double x12 = r1y * r2z - r1z * r2y;
+		double y12 = r1z * r2x - r1x * r2z;
+		double z12 = r1x * r2y - r1y * r2x;
+		double n12 = x12*x12 + y12*y12 + z12*z12;
+
+		double x, y, z, n;
+		if (n01 >= n02 && n01 >= n12) {
+			x = x01; y = y01; z = z01; n = n01;
+		} else if (n02 >= n12) {
+			x = x02; y = y02; z = z02; n = n02;
+		} else {
+			x = x12; y = y12; z = z12; n = n12;
+		}
+		if (!(n > eps * eps))
+			return false;
+		double len = Math.sqrt(n);
+		output[ind] = (float)(x / len);
+		output[ind+1] = (float)(y / len);
+		output[ind+2] = (float)(z / len);
+		return true;
+	}
+
+	/**
+	 * Set output to a unit vector orthogonal to input.
+	 */
+	private static void orthogonalVector(float[] input, float[] output, int ind) {
+		double x = input[ind], y = input[ind+1], z = input[ind+2];
+		// Cross with the coordinate axis least aligned with the input
+		double ox, oy, oz;
+		if (Math.abs(x) <= Math.abs(y) && Math.abs(x) <= Math.abs(z)) {
+			ox = 0; oy = z; oz = -y;
+		} else if (Math.abs(y) <= Math.abs(z)) {
+			ox = -z; oy = 0; oz = x;
+		} else {
+			ox = y; oy = -x; oz = 0;
+		}
+		double len = Math.sqrt(ox*ox + oy*oy + oz*oz);
+		output[ind] = (float)(ox / len);
+		output[ind+1] = (float)(oy / len);
+		output[ind+2] = (float)(oz / len);
+	}
+
+	private void setAxisVectors(int ind, double a, double d, double f) {
+		int indMax = a >= d && a >= f ? 0 : (d >= f ? 1 : 2);
+		int indMin = a < d && a < f ? 0 : (d < f ? 1 : 2);
+		if (indMin == indMax)
+			indMin = (indMax + 2) % 3;
+		int indMiddle = 3 - indMax - indMin;
+		for (int k = 0; k < 3; k++) {
+			vecMax[ind+k] = k == indMax ? 1f : 0f;
+			vecMiddle[ind+k] = k == indMiddle ? 1f : 0f;
+			vecMin[ind+k] = k == indMin ? 1f : 0f;
+		}
+	}
+
+
+	/**
+	 * Fork-join task to process a strip of rows, splitting it in half if it is too large.
+	 */
+	private class RowStripTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int fromRow, toRow, minRows;
+
+		RowStripTask(int fromRow, int toRow, int minRows) {
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.minRows = minRows;
+		}
+
+		@Override
+		protected void compute() {
+			int nRows = toRow - fromRow;
+			if (nRows <= minRows) {
+				solve(fromRow * width, toRow * width);
+			} else {
+				int mid = fromRow + nRows / 2;
+				invokeAll(new RowStripTask(fromRow, mid, minRows), new RowStripTask(mid, toRow, minRows));
+			}
+		}
+
+	}
+
+}
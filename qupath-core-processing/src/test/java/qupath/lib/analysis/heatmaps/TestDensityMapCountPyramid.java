@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.analysis.heatmaps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.analysis.heatmaps.DensityMaps.DensityMapType;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectFilter;
+import qupath.lib.objects.PathObjectPredicates;
+import qupath.lib.objects.PathObjectPredicates.PathObjectPredicate;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestDensityMapCountPyramid {
+	
+	private static final int WIDTH = 1000;
+	private static final int HEIGHT = 800;
+	private static final double BASE_DOWNSAMPLE = 2.0;
+	
+	private static final PathObjectPredicate tumorObjects = PathObjectPredicates.exactClassification(PathClassFactory.getPathClass("Tumor"));
+	private static final PathObjectPredicate allObjects = PathObjectPredicates.filter(PathObjectFilter.DETECTIONS_ALL);
+	
+	private static final DensityMapDataOp dataOp = new DensityMapDataOp(2, Map.of("Tumor", tumorObjects), allObjects, DensityMapType.SUM);
+	
+	@Test
+	public void test_matchesHierarchyCounts() {
+		var rng = new Random(100L);
+		var hierarchy = createHierarchy(rng, 2000);
+		var pyramid = createPyramid(hierarchy, DensityMapCountPyramid.MAX_CELLS);
+		assertNotNull(pyramid);
+		
+		checkRequests(hierarchy, pyramid, ImagePlane.getDefaultPlane());
+		checkRequests(hierarchy, pyramid, ImagePlane.getPlane(1, 0));
+		
+		// Check incremental updates
+		var toRemove = new ArrayList<>(hierarchy.getDetectionObjects()).subList(0, 100);
+		for (var pathObject : toRemove)
+			hierarchy.removeObject(pathObject, true);
+		hierarchy.addPathObjects(createObjects(rng, 100));
+		checkRequests(hierarchy, pyramid, ImagePlane.getDefaultPlane());
+		checkRequests(hierarchy, pyramid, ImagePlane.getPlane(1, 0));
+	}
+	
+	@Test
+	public void test_planeLimit() {
+		var rng = new Random(200L);
+		var hierarchy = createHierarchy(rng, 500);
+		// Enough cells for a single plane only
+		long cellsPerPlane = (long)Math.ceil(WIDTH / BASE_DOWNSAMPLE) * (long)Math.ceil(HEIGHT / BASE_DOWNSAMPLE) * dataOp.getChannels().size();
+		var pyramid = createPyramid(hierarchy, cellsPerPlane);
+		assertNotNull(pyramid);
+		
+		boolean filled0 = fillCounts(hierarchy, pyramid, ImagePlane.getDefaultPlane());
+		boolean filled1 = fillCounts(hierarchy, pyramid, ImagePlane.getPlane(1, 0));
+		assertNotEquals(filled0, filled1);
+		checkRequests(hierarchy, pyramid, filled0 ? ImagePlane.getDefaultPlane() : ImagePlane.getPlane(1, 0));
+		
+		assertNull(createPyramid(hierarchy, cellsPerPlane - 1));
+	}
+	
+	@Test
+	public void test_unalignedRequests() {
+		var hierarchy = createHierarchy(new Random(300L), 100);
+		var pyramid = createPyramid(hierarchy, DensityMapCountPyramid.MAX_CELLS);
+		assertEquals(-1, pyramid.getLevelForRequest(RegionRequest.createInstance("", 1.0, 0, 0, 100, 100)));
+		assertEquals(-1, pyramid.getLevelForRequest(RegionRequest.createInstance("", 3.0, 0, 0, 300, 300)));
+		assertEquals(-1, pyramid.getLevelForRequest(RegionRequest.createInstance("", 2.0, 1, 0, 200, 200)));
+		assertEquals(0, pyramid.getLevelForRequest(RegionRequest.createInstance("", 2.0, 2, 0, 200, 200)));
+		assertEquals(1, pyramid.getLevelForRequest(RegionRequest.createInstance("", 8.0, 4, 0, 400, 400)));
+		assertEquals(0, pyramid.getLevelForRequest(RegionRequest.createInstance("", 8.0, 2, 0, 400, 400)));
+	}
+	
+	
+	private static void checkRequests(PathObjectHierarchy hierarchy, DensityMapCountPyramid pyramid, ImagePlane plane) {
+		for (double downsample : new double[] {2, 4, 8, 16}) {
+			// Include requests that extend beyond the image, as happens when they are padded
+			for (int y = -32; y < HEIGHT; y += 192) {
+				for (int x = -64; x < WIDTH; x += 256) {
+					int size = (int)(64 * downsample);
+					var request = RegionRequest.createInstance("", downsample, x, y, size, size, plane);
+					checkRequest(hierarchy, pyramid, request);
+				}
+			}
+		}
+	}
+	
+	private static void checkRequest(PathObjectHierarchy hierarchy, DensityMapCountPyramid pyramid, RegionRequest request) {
+		int width = (int)Math.round(request.getWidth() / request.getDownsample());
+		int height = (int)Math.round(request.getHeight() / request.getDownsample());
+		int nChannels = dataOp.getChannels().size();
+		try (var matPyramid = new Mat(height, width, opencv_core.CV_64FC(nChannels), Scalar.ZERO);
+				var matHierarchy = new Mat(height, width, opencv_core.CV_64FC(nChannels), Scalar.ZERO);
+				DoubleIndexer idxPyramid = matPyramid.createIndexer();
+				DoubleIndexer idxHierarchy = matHierarchy.createIndexer()) {
+			assertTrue(pyramid.fillCounts(hierarchy, request, idxPyramid, width, height));
+			dataOp.countObjects(hierarchy, request, idxHierarchy, width, height);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					for (int c = 0; c < nChannels; c++)
+						assertEquals(idxHierarchy.get(y, x, c), idxPyramid.get(y, x, c), 
+								() -> "Count mismatch for " + request);
+				}
+			}
+		}
+	}
+	
+	private static boolean fillCounts(PathObjectHierarchy hierarchy, DensityMapCountPyramid pyramid, ImagePlane plane) {
+		var request = RegionRequest.createInstance("", BASE_DOWNSAMPLE, 0, 0, WIDTH, HEIGHT, plane);
+		int width = (int)Math.ceil(WIDTH / BASE_DOWNSAMPLE);
+		int height = (int)Math.ceil(HEIGHT / BASE_DOWNSAMPLE);
+		try (var mat = new Mat(height, width, opencv_core.CV_64FC(dataOp.getChannels().size()), Scalar.ZERO);
+				DoubleIndexer idx = mat.createIndexer()) {
+			return pyramid.fillCounts(hierarchy, request, idx, width, height);
+		}
+	}
+	
+	private static DensityMapCountPyramid createPyramid(PathObjectHierarchy hierarchy, long maxCells) {
+		return DensityMapCountPyramid.create(hierarchy, WIDTH, HEIGHT, BASE_DOWNSAMPLE, List.of(tumorObjects), allObjects, true, maxCells);
+	}
+	
+	private static PathObjectHierarchy createHierarchy(Random rng, int nObjects) {
+		var hierarchy = new PathObjectHierarchy();
+		hierarchy.addPathObjects(createObjects(rng, nObjects));
+		return hierarchy;
+	}
+	
+	private static List<PathObject> createObjects(Random rng, int nObjects) {
+		var tumor = PathClassFactory.getPathClass("Tumor");
+		var stroma = PathClassFactory.getPathClass("Stroma");
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < nObjects; i++) {
+			var plane = ImagePlane.getPlane(rng.nextInt(2), 0);
+			double x, y;
+			if (i % 4 == 0) {
+				// Centroids exactly on cell boundaries
+				x = rng.nextInt(WIDTH / 8) * 8;
+				y = rng.nextInt(HEIGHT / 8) * 8;
+			} else {
+				x = rng.nextDouble() * WIDTH;
+				y = rng.nextDouble() * HEIGHT;
+			}
+			var roi = ROIs.createRectangleROI(x - 1, y - 1, 2, 2, plane);
+			pathObjects.add(PathObjects.createDetectionObject(roi, rng.nextBoolean() ? tumor : stroma));
+		}
+		return pathObjects;
+	}
+	
+}
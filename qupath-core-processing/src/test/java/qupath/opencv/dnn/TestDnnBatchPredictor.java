@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.opencv.dnn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.junit.jupiter.api.Test;
+
+import qupath.opencv.tools.OpenCVTools;
+
+@SuppressWarnings("javadoc")
+public class TestDnnBatchPredictor {
+	
+	private static final String INPUT_NAME = PredictionFunction.DEFAULT_INPUT_NAME;
+	
+	/**
+	 * Value that causes the fake model to fail.
+	 */
+	private static final double FAIL_VALUE = -1;
+	
+	@Test
+	public void test_resultsMatchCallers() throws Exception {
+		var model = new FakeModel();
+		int maxBatchSize = 4;
+		var predictor = new DnnBatchPredictor<>(model, maxBatchSize, 1000L);
+		
+		int nThreads = 8;
+		int nInputs = 200;
+		var results = predictConcurrently(predictor, nThreads, nInputs, i -> i);
+		for (int i = 0; i < nInputs; i++)
+			assertEquals(i * 2.0, getValue(results.get(i).get()));
+		
+		// Check that we did actually batch predictions, without exceeding the maximum batch size
+		int maxObserved = Collections.max(model.batchSizes);
+		assertTrue(maxObserved > 1);
+		assertTrue(maxObserved <= maxBatchSize);
+		assertEquals(nInputs, model.batchSizes.stream().mapToInt(i -> i).sum());
+	}
+	
+	@Test
+	public void test_failingInput() throws Exception {
+		var model = new FakeModel();
+		var predictor = new DnnBatchPredictor<>(model, 4, 1000L);
+		
+		// Every tenth input should fail, without preventing the other inputs in the same batch from succeeding
+		int nInputs = 100;
+		var results = predictConcurrently(predictor, 4, nInputs, i -> i % 10 == 5 ? FAIL_VALUE : i);
+		for (int i = 0; i < nInputs; i++) {
+			var result = results.get(i);
+			if (i % 10 == 5) {
+				var e = assertThrows(ExecutionException.class, () -> result.get());
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			} else
+				assertEquals(i * 2.0, getValue(result.get()));
+		}
+	}
+	
+	@Test
+	public void test_outputsReleasedWithCallerScope() throws Exception {
+		var model = new FakeModel();
+		var predictor = new DnnBatchPredictor<>(model, 4, 1000L);
+		
+		// Outputs may be created on another thread, but should still belong to the scope of the caller - 
+		// including when a failing input means that the batch is predicted one input at a time
+		int nInputs = 40;
+		var pool = Executors.newFixedThreadPool(4);
+		var latch = new CountDownLatch(1);
+		try {
+			List<Future<Mat>> results = new ArrayList<>();
+			for (int i = 0; i < nInputs; i++) {
+				double value = i % 10 == 5 ? FAIL_VALUE : i;
+				results.add(pool.submit(() -> {
+					latch.await();
+					try (var scope = new PointerScope()) {
+						var mat = new Mat(4, 4, opencv_core.CV_32FC1, Scalar.all(value));
+						Map<String, Mat> output;
+						try {
+							output = predictor.predict(INPUT_NAME, mat);
+						} catch (IllegalArgumentException e) {
+							return null;
+						}
+						assertEquals(value * 2.0, getValue(output));
+						var matOutput = output.get(PredictionFunction.DEFAULT_OUTPUT_NAME);
+						assertFalse(matOutput.isNull());
+						return matOutput;
+					}
+				}));
+			}
+			latch.countDown();
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+			for (int i = 0; i < nInputs; i++) {
+				var matOutput = results.get(i).get();
+				if (i % 10 == 5)
+					assertNull(matOutput);
+				else
+					assertTrue(matOutput.isNull());
+			}
+			assertTrue(Collections.max(model.batchSizes) > 1);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void test_incompatibleInputs() throws Exception {
+		var model = new FakeModel();
+		var predictor = new DnnBatchPredictor<>(model, 4, 100L);
+		var pool = Executors.newFixedThreadPool(2);
+		try {
+			var small = pool.submit(() -> predictor.predict(INPUT_NAME, new Mat(4, 4, opencv_core.CV_32FC1, Scalar.all(1))));
+			var large = pool.submit(() -> predictor.predict(INPUT_NAME, new Mat(8, 8, opencv_core.CV_32FC1, Scalar.all(2))));
+			assertEquals(2.0, getValue(small.get()));
+			assertEquals(4.0, getValue(large.get()));
+			assertEquals(List.of(1, 1), model.batchSizes);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	
+	private static List<Future<Map<String, Mat>>> predictConcurrently(DnnBatchPredictor<?> predictor, int nThreads, int nInputs, InputValue fun) throws InterruptedException {
+		var pool = Executors.newFixedThreadPool(nThreads);
+		var latch = new CountDownLatch(1);
+		try {
+			List<Future<Map<String, Mat>>> results = new ArrayList<>();
+			for (int i = 0; i < nInputs; i++) {
+				double value = fun.getValue(i);
+				results.add(pool.submit(() -> {
+					latch.await();
+					var mat = new Mat(4, 4, opencv_core.CV_32FC1, Scalar.all(value));
+					return predictor.predict(INPUT_NAME, mat);
+				}));
+			}
+			latch.countDown();
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	private static double getValue(Map<String, Mat> output) {
+		assertEquals(1, output.size());
+		var values = OpenCVTools.extractDoubles(output.get(PredictionFunction.DEFAULT_OUTPUT_NAME));
+		double value = values[0];
+		for (double v : values)
+			assertEquals(value, v);
+		return value;
+	}
+	
+	
+	private static interface InputValue {
+		
+		double getValue(int index);
+		
+	}
+	
+	
+	/**
+	 * Model using lists of Mats as blobs, which doubles each input value.
+	 * Prediction fails for any batch containing an input with {@link #FAIL_VALUE}.
+	 */
+	private static class FakeModel implements DnnModel<List<Mat>>, BlobFunction<List<Mat>>, PredictionFunction<List<Mat>> {
+		
+		private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+		@Override
+		public List<Mat> toBlob(Mat... mats) {
+			return Arrays.asList(mats);
+		}
+
+		@Override
+		public List<Mat> fromBlob(List<Mat> blob) {
+			return blob;
+		}
+
+		@Override
+		public List<Mat> predict(List<Mat> input) {
+			batchSizes.add(input.size());
+			List<Mat> output = new ArrayList<>();
+			for (var mat : input) {
+				assertEquals(input.get(0).rows(), mat.rows());
+				assertEquals(input.get(0).cols(), mat.cols());
+				if (OpenCVTools.extractDoubles(mat)[0] == FAIL_VALUE)
+					throw new IllegalArgumentException("Invalid input");
+				var result = new Mat();
+				mat.convertTo(result, -1, 2.0, 0.0);
+				output.add(result);
+			}
+			return output;
+		}
+
+		@Override
+		public Map<String, DnnShape> getInputs() {
+			return Map.of(INPUT_NAME, DnnShape.UNKNOWN_SHAPE);
+		}
+
+		@Override
+		public Map<String, DnnShape> getOutputs(DnnShape... inputShapes) {
+			return Map.of(PredictionFunction.DEFAULT_OUTPUT_NAME, DnnShape.UNKNOWN_SHAPE);
+		}
+
+		@Override
+		public BlobFunction<List<Mat>> getBlobFunction() {
+			return this;
+		}
+
+		@Override
+		public BlobFunction<List<Mat>> getBlobFunction(String name) {
+			return this;
+		}
+
+		@Override
+		public PredictionFunction<List<Mat>> getPredictionFunction() {
+			return this;
+		}
+		
+	}
+
+}
@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.ml.objects.features;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestDefaultFeatureExtractor {
+	
+	@Test
+	public void test_extractFeatures() {
+		var features = Arrays.asList("A", "B", "C", "D");
+		var rng = new Random(100L);
+		
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			// Same names (shared when closed)
+			pathObjects.add(createObject(rng, MeasurementListType.FLOAT, true, "A", "B", "C", "D"));
+			// Different order, with a missing feature
+			pathObjects.add(createObject(rng, MeasurementListType.FLOAT, true, "D", "Other", "B", "A"));
+			// Open list
+			pathObjects.add(createObject(rng, MeasurementListType.DOUBLE, false, "C", "A", "B", "D"));
+			// General list
+			pathObjects.add(createObject(rng, MeasurementListType.GENERAL, true, "B", "C", "A"));
+		}
+		
+		var extractor = new DefaultFeatureExtractor<>(features);
+		var buffer = FloatBuffer.allocate(pathObjects.size() * features.size());
+		extractor.extractFeatures(null, pathObjects, buffer);
+		assertEquals(buffer.capacity(), buffer.position());
+		
+		int ind = 0;
+		for (var pathObject : pathObjects) {
+			var ml = pathObject.getMeasurementList();
+			for (var name : features) {
+				float expected = ml.containsNamedMeasurement(name) ? (float)ml.getMeasurementValue(name) : Float.NaN;
+				assertEquals(expected, buffer.get(ind++));
+			}
+		}
+	}
+	
+	private static PathObject createObject(Random rng, MeasurementListType type, boolean close, String... names) {
+		MeasurementList ml = MeasurementListFactory.createMeasurementList(names.length, type);
+		for (var name : names)
+			ml.putMeasurement(name, rng.nextDouble());
+		if (close)
+			ml.close();
+		return PathObjects.createDetectionObject(ROIs.createEmptyROI(), null, ml);
+	}
+
+}
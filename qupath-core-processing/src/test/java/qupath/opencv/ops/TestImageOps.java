@@ -266,6 +266,44 @@ public class TestImageOps {
 		
 	}
 	
+	@Test
+	public void testSequentialPointwise() {
+		try (var scope = new PointerScope()) {
+			
+			opencv_core.setRNGSeed(100);
+			
+			var opLists = Arrays.asList(
+					// Linear only
+					Arrays.asList(ImageOps.Core.multiply(2.0), ImageOps.Core.add(1.5), ImageOps.Core.subtract(0.5, 1.0, -2.0), ImageOps.Core.divide(3.0)),
+					// Mixed linear and nonlinear
+					Arrays.asList(ImageOps.Core.multiply(0.1), ImageOps.Normalize.sigmoid(), ImageOps.Core.log(), ImageOps.Core.add(1, 2, 3)),
+					// Includes non-pointwise op
+					Arrays.asList(ImageOps.Core.exp(), ImageOps.Core.sqrt(), ImageOps.Filters.gaussianBlur(1.0), ImageOps.Core.clip(0, 5), ImageOps.Core.multiply(2.0))
+					);
+			
+			for (int type : new int[] {opencv_core.CV_64FC3, opencv_core.CV_32FC3}) {
+				var mat = new Mat(20, 30, type, Scalar.all(2));
+				OpenCVTools.addNoise(mat, 10, 5);
+				
+				for (var ops : opLists) {
+					var op = ImageOps.Core.sequential(ops);
+					// Apply ops one at a time for comparison
+					var matExpected = mat.clone();
+					for (var o : ops)
+						matExpected.put(o.apply(matExpected));
+					var matFused = op.apply(mat.clone());
+					double[] expected = OpenCVTools.extractDoubles(matExpected);
+					double[] fused = OpenCVTools.extractDoubles(matFused);
+					assertArrayEquals(expected, fused, 1e-4);
+				}
+				
+				// Mismatched number of values shouldn't be fused, but should fail as before
+				var opInvalid = ImageOps.Core.sequential(ImageOps.Core.multiply(1, 2), ImageOps.Core.add(1));
+				assertThrows(IllegalArgumentException.class, () -> opInvalid.apply(mat.clone()));
+			}
+		}
+	}
+	
 	/**
 	 * Apply an op to a (clone of a) Mat and check its values match the target.
 	 * @param mat
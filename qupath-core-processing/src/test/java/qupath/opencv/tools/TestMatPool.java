@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestMatPool {
+	
+	@Test
+	public void test_reuse() throws Exception {
+		runInNewThread(() -> {
+			var mat = MatPool.borrow(32, 16, opencv_core.CV_32FC2);
+			assertEquals(0L, MatPool.getPooledBytes());
+			MatPool.release(mat);
+			assertEquals(32 * 16 * 8, MatPool.getPooledBytes());
+			
+			// Same size class should be reused
+			long hits = MatPool.getHitCount();
+			var mat2 = MatPool.borrow(32, 16, opencv_core.CV_32FC2);
+			assertSame(mat, mat2);
+			assertEquals(hits + 1, MatPool.getHitCount());
+			assertEquals(0L, MatPool.getPooledBytes());
+			
+			// Different size class shouldn't be
+			MatPool.release(mat2);
+			var mat3 = MatPool.borrow(32, 16, opencv_core.CV_32FC1);
+			assertNotSame(mat2, mat3);
+			assertEquals(32, mat3.rows());
+			assertEquals(16, mat3.cols());
+			assertEquals(opencv_core.CV_32FC1, mat3.type());
+			
+			// Returning twice should only pool once
+			MatPool.release(mat3);
+			MatPool.release(mat3);
+			assertEquals(32 * 16 * 8 + 32 * 16 * 4, MatPool.getPooledBytes());
+			
+			MatPool.clearCurrentThread();
+			assertEquals(0L, MatPool.getPooledBytes());
+		});
+	}
+	
+	@Test
+	public void test_notBorrowed() throws Exception {
+		runInNewThread(() -> {
+			// Mats that didn't come from the pool should be left alone
+			var mat = new Mat(10, 10, opencv_core.CV_8UC1);
+			MatPool.release(mat);
+			assertEquals(0L, MatPool.getPooledBytes());
+			assertFalse(mat.isNull());
+			assertEquals(10, mat.rows());
+			
+			var mat2 = MatPool.borrow(10, 10, opencv_core.CV_8UC1);
+			assertNotSame(mat, mat2);
+			mat.close();
+			MatPool.release(mat2);
+			MatPool.clearCurrentThread();
+		});
+	}
+	
+	@Test
+	public void test_sharedData() throws Exception {
+		runInNewThread(() -> {
+			// Mats that share their data (i.e. refcount > 1) shouldn't be pooled
+			var mat = MatPool.borrow(20, 20, opencv_core.CV_8UC1);
+			var shared = new Mat(mat);
+			MatPool.release(mat);
+			assertEquals(0L, MatPool.getPooledBytes());
+			assertFalse(shared.isNull());
+			assertEquals(20, shared.rows());
+			shared.close();
+		});
+	}
+	
+	@Test
+	public void test_budget() throws Exception {
+		long maxBytes = MatPool.getMaxPooledBytesPerThread();
+		try {
+			MatPool.setMaxPooledBytesPerThread(1000);
+			runInNewThread(() -> {
+				// Too big to pool
+				MatPool.release(MatPool.borrow(100, 100, opencv_core.CV_8UC1));
+				assertEquals(0L, MatPool.getPooledBytes());
+				
+				// Small enough to pool
+				MatPool.release(MatPool.borrow(10, 10, opencv_core.CV_8UC1));
+				assertEquals(100L, MatPool.getPooledBytes());
+				
+				// Limited by the number of Mats per size class
+				var mats = new ArrayList<Mat>();
+				for (int i = 0; i < 20; i++)
+					mats.add(MatPool.borrow(4, 4, opencv_core.CV_8UC1));
+				for (var mat : mats)
+					MatPool.release(mat);
+				assertEquals(100L + 8 * 16, MatPool.getPooledBytes());
+				
+				MatPool.clearCurrentThread();
+			});
+			
+			// Fill the budget on one thread that then ends without clearing its pool - 
+			// this shouldn't prevent another thread from pooling
+			runInNewThread(() -> {
+				MatPool.release(MatPool.borrow(25, 40, opencv_core.CV_8UC1));
+				assertEquals(1000L, MatPool.getPooledBytes());
+			});
+			runInNewThread(() -> {
+				assertEquals(0L, MatPool.getPooledBytes());
+				MatPool.release(MatPool.borrow(25, 40, opencv_core.CV_8UC1));
+				assertEquals(1000L, MatPool.getPooledBytes());
+				MatPool.clearCurrentThread();
+			});
+		} finally {
+			MatPool.setMaxPooledBytesPerThread(maxBytes);
+		}
+	}
+	
+	@Test
+	public void test_scope() throws Exception {
+		runInNewThread(() -> {
+			// A Mat returned within a scope should survive the scope closing
+			Mat mat;
+			try (var scope = new PointerScope()) {
+				mat = MatPool.borrow(16, 16, opencv_core.CV_16UC1);
+				MatPool.release(mat);
+			}
+			assertFalse(mat.isNull());
+			
+			// A Mat that isn't returned should be released by the scope, as usual
+			Mat mat2;
+			try (var scope = new PointerScope()) {
+				mat2 = MatPool.borrow(16, 16, opencv_core.CV_16UC1);
+				assertSame(mat, mat2);
+			}
+			assertTrue(mat2.isNull());
+			assertEquals(0L, MatPool.getPooledBytes());
+		});
+	}
+	
+	@Test
+	public void test_releasedByScope() throws Exception {
+		runInNewThread(() -> {
+			// Mats released by a scope shouldn't allow other Mats to be pooled, 
+			// even if they are allocated at the same native address
+			for (int i = 0; i < 10; i++) {
+				try (var scope = new PointerScope()) {
+					MatPool.borrow(16, 16, opencv_core.CV_8UC1);
+				}
+				var mat = new Mat(16, 16, opencv_core.CV_8UC1);
+				MatPool.release(mat);
+				assertEquals(0L, MatPool.getPooledBytes());
+				assertFalse(mat.isNull());
+				mat.close();
+			}
+			
+			// Returning a Mat after its scope has released it should do nothing
+			Mat mat;
+			try (var scope = new PointerScope()) {
+				mat = MatPool.borrow(16, 16, opencv_core.CV_8UC1);
+			}
+			MatPool.release(mat);
+			assertEquals(0L, MatPool.getPooledBytes());
+		});
+	}
+	
+	/**
+	 * Run a test in a new thread, so that it starts with an empty pool.
+	 */
+	private static void runInNewThread(Runnable runnable) throws Exception {
+		var error = new AtomicReference<Throwable>();
+		var thread = new Thread(() -> {
+			try {
+				runnable.run();
+			} catch (Throwable t) {
+				error.set(t);
+			}
+		});
+		thread.start();
+		thread.join();
+		if (error.get() instanceof Exception)
+			throw (Exception)error.get();
+		else if (error.get() instanceof Error)
+			throw (Error)error.get();
+	}
+
+}
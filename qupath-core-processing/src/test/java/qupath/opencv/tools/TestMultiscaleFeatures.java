@@ -27,16 +27,19 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.DoubleBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import org.bytedeco.javacpp.PointerScope;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.opencv.opencv_core.Scalar;
 import org.junit.jupiter.api.Test;
 
 import qupath.opencv.tools.MultiscaleFeatures.Hessian;
+import qupath.opencv.tools.MultiscaleFeatures.MultiscaleFeature;
 
 @SuppressWarnings("javadoc")
 public class TestMultiscaleFeatures {
@@ -216,6 +219,62 @@ public class TestMultiscaleFeatures {
 	}
 	
 	
+	@Test
+	public void test_scaleSpaceFeatures2D() {
+		
+		var features = Arrays.asList(
+				MultiscaleFeature.GAUSSIAN,
+				MultiscaleFeature.WEIGHTED_STD_DEV,
+				MultiscaleFeature.GRADIENT_MAGNITUDE,
+				MultiscaleFeature.LAPLACIAN,
+				MultiscaleFeature.STRUCTURE_TENSOR_EIGENVALUE_MAX,
+				MultiscaleFeature.STRUCTURE_TENSOR_EIGENVALUE_MIN,
+				MultiscaleFeature.STRUCTURE_TENSOR_COHERENCE,
+				MultiscaleFeature.HESSIAN_DETERMINANT,
+				MultiscaleFeature.HESSIAN_EIGENVALUE_MAX,
+				MultiscaleFeature.HESSIAN_EIGENVALUE_MIN);
+		double[] sigmas = {4.0, 1.0, 2.0};
+		// Ignore boundary pixels, where padding is handled differently
+		int margin = 32;
+		
+		try (var scope = new PointerScope()) {
+			
+			for (int type : new int[] {opencv_core.CV_32FC1, opencv_core.CV_64FC1}) {
+				
+				var mat = new Mat(256, 384, type);
+				opencv_core.randn(mat, new Mat(1, 1, type, Scalar.ONE), new Mat(1, 1, type, Scalar.ONE));
+				
+				var results = new MultiscaleFeatures.ScaleSpaceResultsBuilder(features, sigmas).build(mat);
+				assertEquals(sigmas.length, results.size());
+				
+				for (int i = 0; i < sigmas.length; i++) {
+					var expected = new MultiscaleFeatures.MultiscaleResultsBuilder(features)
+							.sigmaXY(sigmas[i])
+							.build(mat);
+					var actual = results.get(i);
+					assertEquals(features, new ArrayList<>(actual.keySet()));
+					for (var f : features) {
+						var matExpected = expected.get(f);
+						var matActual = actual.get(f);
+						assertEquals(opencv_core.CV_32F, matActual.depth());
+						var roi = new Rect(margin, margin, mat.cols()-margin*2, mat.rows()-margin*2);
+						double[] valuesExpected = getAllValues(matExpected.apply(roi));
+						double[] valuesActual = getAllValues(matActual.apply(roi));
+						double sumDiff = 0, sumExpected = 0;
+						for (int v = 0; v < valuesExpected.length; v++) {
+							sumDiff += Math.abs(valuesExpected[v] - valuesActual[v]);
+							sumExpected += Math.abs(valuesExpected[v]);
+						}
+						// Products & ratios of derivatives amplify small differences in the smoothing, so allow a little more slack
+						double tolerance = f == MultiscaleFeature.HESSIAN_DETERMINANT || f == MultiscaleFeature.STRUCTURE_TENSOR_COHERENCE ? 0.1 : 0.05;
+						assertTrue(sumDiff / sumExpected < tolerance, "Mismatch for " + f + " at sigma=" + sigmas[i]);
+					}
+				}
+			}
+		}
+	}
+	
+	
 	
 	
 	
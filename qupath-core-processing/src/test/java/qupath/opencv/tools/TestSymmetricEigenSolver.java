@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.opencv.tools;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestSymmetricEigenSolver {
+	
+	@Test
+	public void test_random() {
+		int width = 300;
+		int height = 200;
+		int n = width * height;
+		var rng = new Random(100L);
+		float[][] input = new float[6][n];
+		for (int k = 0; k < 6; k++) {
+			for (int i = 0; i < n; i++)
+				input[k][i] = (float)rng.nextGaussian();
+		}
+		var results = solve(width, height, input);
+		for (int i = 0; i < n; i++) {
+			checkResults(input, results, i);
+		}
+	}
+	
+	@Test
+	public void test_degenerate() {
+		float[][] input = new float[6][3];
+		// Multiple of the identity matrix
+		setMatrix(input, 0, 2, 0, 0, 2, 0, 2);
+		// Diagonal with a repeated eigenvalue
+		setMatrix(input, 1, 3, 0, 0, 1, 0, 1);
+		// Rank 1
+		setMatrix(input, 2, 1, 1, 1, 1, 1, 1);
+		
+		var results = solve(3, 1, input);
+		for (int i = 0; i < 3; i++) {
+			checkResults(input, results, i);
+		}
+		assertArrayEquals(new float[] {2f, 2f, 2f}, new float[] {results[0][0], results[1][0], results[2][0]}, 1e-6f);
+		assertArrayEquals(new float[] {3f, 1f, 1f}, new float[] {results[0][1], results[1][1], results[2][1]}, 1e-6f);
+		assertArrayEquals(new float[] {3f, 0f, 0f}, new float[] {results[0][2], results[1][2], results[2][2]}, 1e-6f);
+	}
+	
+	
+	private static void setMatrix(float[][] input, int ind, float dxx, float dxy, float dxz, float dyy, float dyz, float dzz) {
+		input[0][ind] = dxx;
+		input[1][ind] = dxy;
+		input[2][ind] = dxz;
+		input[3][ind] = dyy;
+		input[4][ind] = dyz;
+		input[5][ind] = dzz;
+	}
+	
+	/**
+	 * Returns eigenvalues (max, middle, min) then eigenvectors (max, middle, min)
+	 */
+	private static float[][] solve(int width, int height, float[][] input) {
+		int n = width * height;
+		var output = new float[][] {
+			new float[n], new float[n], new float[n],
+			new float[n*3], new float[n*3], new float[n*3]
+		};
+		new SymmetricEigenSolver(width, height,
+				input[0], input[1], input[2], input[3], input[4], input[5],
+				output[0], output[1], output[2],
+				output[3], output[4], output[5]).solve();
+		return output;
+	}
+	
+	private static void checkResults(float[][] input, float[][] results, int i) {
+		double a = input[0][i], b = input[1][i], c = input[2][i], d = input[3][i], e = input[4][i], f = input[5][i];
+		float max = results[0][i], middle = results[1][i], min = results[2][i];
+		assertTrue(max >= middle);
+		assertTrue(middle >= min);
+		assertEquals(a + d + f, max + middle + min, 1e-4);
+		for (int k = 0; k < 3; k++) {
+			double lambda = results[k][i];
+			var vec = results[k + 3];
+			double x = vec[i*3], y = vec[i*3+1], z = vec[i*3+2];
+			assertEquals(1.0, Math.sqrt(x*x + y*y + z*z), 1e-5);
+			assertEquals(lambda * x, a*x + b*y + c*z, 1e-5);
+			assertEquals(lambda * y, b*x + d*y + e*z, 1e-5);
+			assertEquals(lambda * z, c*x + e*y + f*z, 1e-5);
+		}
+	}
+
+}
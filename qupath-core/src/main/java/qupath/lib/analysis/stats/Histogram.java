@@ -320,6 +320,28 @@ public class Histogram { // implements Serializable {
 		buildHistogram(values, nBins, minEdge, maxEdge);
 	}
 	
+	/**
+	 * Create a histogram directly from bin edges and counts.
+	 * 
+	 * @param edges bin edges; the length should be one greater than the number of bins
+	 * @param counts counts for each bin
+	 * @param stats statistics for the values in the histogram
+	 * @param isInteger true if all values are known to be integers
+	 */
+	Histogram(double[] edges, long[] counts, RunningStatistics stats, boolean isInteger) {
+		this.edges = edges.clone();
+		this.counts = counts.clone();
+		this.stats = stats;
+		this.isInteger = isInteger;
+		this.edgeMin = edges[0];
+		this.edgeMax = edges[edges.length-1];
+		for (long c : counts) {
+			countSum += c;
+			if (c > maxCount)
+				maxCount = c;
+		}
+	}
+	
 	/**
 	 * Create histogram from a double array, using a specified number of bins and the data min/max as the min/max edges.
 	 * @param values
@@ -99,6 +99,36 @@ public class RunningStatistics {
 		}
 	}
 	
+	/**
+	 * Add all the values summarized by another {@link RunningStatistics}, as if they had been added 
+	 * individually to this object.
+	 * 
+	 * @param other
+	 */
+	void addStatistics(RunningStatistics other) {
+		numNaNs += other.numNaNs;
+		if (other.size == 0)
+			return;
+		if (size == 0) {
+			size = other.size;
+			sum = other.sum;
+			min = other.min;
+			max = other.max;
+			m1 = other.m1;
+			s1 = other.s1;
+			return;
+		}
+		// Combine means and sums of squared differences (Chan et al.)
+		long n = size + other.size;
+		double delta = other.m1 - m1;
+		m1 = m1 + delta * other.size / n;
+		s1 = s1 + other.s1 + delta * delta * size * other.size / n;
+		size = n;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+	
 	/**
 	 * Get count of the number of NaN values added.
 	 * @return
@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.stats;
+
+/**
+ * Histogram that can be updated incrementally, and merged with other histograms.
+ * <p>
+ * Unlike {@link Histogram}, values do not need to be known in advance. This makes it possible to accumulate
+ * the values for an image as tiles become available, e.g. for estimating display ranges and percentiles.
+ * <p>
+ * The histogram has a fixed number of bins of equal width. If a value falls outside the current range,
+ * the range is doubled (merging adjacent bins) until the value fits. This means that the histogram can be
+ * less precise than one computed when the range is known, but the memory required is constant.
+ * Percentiles are estimated by linear interpolation within bins.
+ * <p>
+ * All methods are synchronized, so a single histogram may be updated from multiple threads.
+ *
+ * @author Pete Bankhead
+ * @since v0.4.0
+ */
+public class StreamingHistogram {
+
+	private final long[] counts;
+	private double edgeMin;
+	private double binWidth;
+	private boolean isInteger = true;
+
+	private final RunningStatistics stats = new RunningStatistics();
+
+	/**
+	 * Create a new histogram with an initial range.
+	 * @param nBins number of bins; this will be rounded up to the next even number if necessary
+	 * @param minEdge initial minimum edge
+	 * @param maxEdge initial maximum edge; this will be expanded if necessary if values are added that exceed it
+	 */
+	public StreamingHistogram(int nBins, double minEdge, double maxEdge) {
+		if (nBins <= 0)
+			throw new IllegalArgumentException("Number of bins must be > 0");
+		if (!Double.isFinite(minEdge) || !Double.isFinite(maxEdge))
+			throw new IllegalArgumentException("Histogram edges must be finite");
+		// Need an even number of bins to merge pairs
+		nBins += nBins % 2;
+		this.counts = new long[nBins];
+		this.edgeMin = minEdge;
+		this.binWidth = maxEdge > minEdge ? (maxEdge - minEdge) / nBins : 1.0;
+	}
+
+	/**
+	 * Add a single value. NaNs are counted as missing values, while infinite values are ignored.
+	 * @param value
+	 */
+	public synchronized void addValue(double value) {
+		addValueInternal(value);
+	}
+
+	/**
+	 * Add an array of values.
+	 * @param values
+	 * @see #addValue(double)
+	 */
+	public synchronized void addValues(float[] values) {
+		addValues(values, 1);
+	}
+
+	/**
+	 * Add values from an array, optionally skipping values for speed.
+	 * @param values
+	 * @param stride increment between values that should be added; use 1 to add all values
+	 * @see #addValue(double)
+	 */
+	public synchronized void addValues(float[] values, int stride) {
+		stride = Math.max(1, stride);
+		for (int i = 0; i < values.length; i += stride)
+			addValueInternal(values[i]);
+	}
+
+	/**
+	 * Add all the values from another histogram.
+	 * Counts are transferred using the center of each bin in the other histogram, so some precision can be lost
+	 * if the bins of the two histograms are not aligned.
+	 * @param other
+	 */
+	public void merge(StreamingHistogram other) {
+		if (other == this)
+			throw new IllegalArgumentException("Cannot merge a histogram with itself");
+		long[] otherCounts;
+		double otherMin, otherWidth;
+		RunningStatistics otherStats = new RunningStatistics();
+		boolean otherInteger;
+		synchronized (other) {
+			otherCounts = other.counts.clone();
+			otherMin = other.edgeMin;
+			otherWidth = other.binWidth;
+			otherStats.addStatistics(other.stats);
+			otherInteger = other.isInteger;
+		}
+		synchronized (this) {
+			if (otherStats.size() > 0) {
+				ensureRange(otherStats.getMin());
+				ensureRange(otherStats.getMax());
+			}
+			for (int i = 0; i < otherCounts.length; i++) {
+				if (otherCounts[i] == 0)
+					continue;
+				double center = otherMin + (i + 0.5) * otherWidth;
+				// Clip to the data range, which is already within the range of this histogram
+				center = Math.max(otherStats.getMin(), Math.min(otherStats.getMax(), center));
+				counts[getBin(center)] += otherCounts[i];
+			}
+			stats.addStatistics(otherStats);
+			isInteger = isInteger && otherInteger;
+		}
+	}
+
+	/**
+	 * Get the total number of values in the histogram (excluding NaNs).
+	 * @return
+	 */
+	public synchronized long getCountSum() {
+		return stats.size();
+	}
+
+	/**
+	 * Get the minimum value added to the histogram.
+	 * @return the minimum value, or NaN if no values have been added
+	 */
+	public synchronized double getMinValue() {
+		return stats.getMin();
+	}
+
+	/**
+	 * Get the maximum value added to the histogram.
+	 * @return the maximum value, or NaN if no values have been added
+	 */
+	public synchronized double getMaxValue() {
+		return stats.getMax();
+	}
+
+	/**
+	 * Estimate a percentile from the histogram.
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the estimated percentile, or NaN if the histogram is empty
+	 */
+	public synchronized double getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("Percentile must be between 0 and 100, but was " + percentile);
+		long n = stats.size();
+		if (n == 0)
+			return Double.NaN;
+		if (percentile == 0)
+			return stats.getMin();
+		if (percentile == 100)
+			return stats.getMax();
+		double target = n * percentile / 100.0;
+		double cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			long count = counts[i];
+			if (count > 0 && cumulative + count >= target) {
+				double value = edgeMin + (i + (target - cumulative) / count) * binWidth;
+				return Math.max(stats.getMin(), Math.min(stats.getMax(), value));
+			}
+			cumulative += count;
+		}
+		return stats.getMax();
+	}
+
+	/**
+	 * Create a {@link Histogram} containing the current counts.
+	 * Empty bins below the minimum and above the maximum values are excluded.
+	 * @return
+	 */
+	public synchronized Histogram toHistogram() {
+		RunningStatistics statsCopy = new RunningStatistics();
+		statsCopy.addStatistics(stats);
+		if (stats.size() == 0)
+			return new Histogram(new double[] {edgeMin, edgeMin + counts.length * binWidth}, new long[] {0L}, statsCopy, isInteger);
+		int first = getBin(stats.getMin());
+		int last = getBin(stats.getMax());
+		int n = last - first + 1;
+		double[] edges = new double[n + 1];
+		for (int i = 0; i <= n; i++)
+			edges[i] = edgeMin + (first + i) * binWidth;
+		long[] countsCopy = new long[n];
+		System.arraycopy(counts, first, countsCopy, 0, n);
+		return new Histogram(edges, countsCopy, statsCopy, isInteger);
+	}
+
+
+	private void addValueInternal(double value) {
+		if (Double.isNaN(value)) {
+			stats.addValue(value);
+			return;
+		}
+		if (Double.isInfinite(value))
+			return;
+		ensureRange(value);
+		counts[getBin(value)]++;
+		stats.addValue(value);
+		if (isInteger && value != Math.rint(value))
+			isInteger = false;
+	}
+
+	private int getBin(double value) {
+		int bin = (int)((value - edgeMin) / binWidth);
+		return Math.max(0, Math.min(counts.length - 1, bin));
+	}
+
+	/**
+	 * Double the range of the histogram until it contains the specified value.
+	 */
+	private void ensureRange(double value) {
+		int nBins = counts.length;
+		int half = nBins / 2;
+		while (value < edgeMin) {
+			// Extend downwards, moving merged bins into the upper half
+			for (int i = nBins - 1; i >= half; i--) {
+				int j = (i - half) * 2;
+				counts[i] = counts[j] + counts[j + 1];
+			}
+			for (int i = 0; i < half; i++)
+				counts[i] = 0;
+			edgeMin -= nBins * binWidth;
+			binWidth *= 2;
+		}
+		while (value > edgeMin + nBins * binWidth) {
+			// Extend upwards, moving merged bins into the lower half
+			for (int i = 0; i < half; i++)
+				counts[i] = counts[i * 2] + counts[i * 2 + 1];
+			for (int i = half; i < nBins; i++)
+				counts[i] = 0;
+			binWidth *= 2;
+		}
+	}
+
+}
@@ -31,19 +31,35 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import qupath.lib.classifiers.object.ObjectClassifiers.ClassifyByMeasurementFunction;
 import qupath.lib.images.ImageData;
+import qupath.lib.measurements.MeasurementListTools;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassTools;
 
 /**
  * Apply a collection of classifiers sequentially.
  * This may be used as an alternative approach of creating a multi-class classifier.
+ * <p>
+ * If all the classifiers threshold a single measurement, they are evaluated together in a single parallel pass 
+ * over the objects, reading each required measurement only once per object. 
+ * The combined classifications are then applied in one batch.
+ * Otherwise, each classifier is applied to all the objects in turn.
  * 
  * @author Pete Bankhead
  * @param <T> 
  */
 class CompositeClassifier<T> implements ObjectClassifier<T> {
 
+	/**
+	 * Number of objects to classify in a single task when classifiers are evaluated together.
+	 */
+	private static final int OBJECTS_PER_CHUNK = 4096;
+
 	private List<ObjectClassifier<T>> classifiers;
 	
 	private transient Collection<PathClass> pathClasses;
@@ -70,6 +86,10 @@ class CompositeClassifier<T> implements ObjectClassifier<T> {
 	
 	@Override
 	public int classifyObjects(ImageData<T> imageData, Collection<? extends PathObject> pathObjects, boolean resetExistingClass) {
+		var functions = getMeasurementFunctions();
+		if (functions != null)
+			return classifyObjectsFused(functions, pathObjects, resetExistingClass);
+		
 		var beforeMap = createMap(pathObjects);
 //		pathObjects.stream().forEach(p -> p.setPathClass(null)); // Reset classifications
 		if (resetExistingClass)
@@ -90,6 +110,113 @@ class CompositeClassifier<T> implements ObjectClassifier<T> {
 		return n;
 	}
 	
+	/**
+	 * Get the measurement functions for all classifiers (including those within nested composite classifiers), 
+	 * in the order they should be applied.
+	 * @return the functions, or null if any classifier does not simply threshold a measurement
+	 */
+	List<ClassifyByMeasurementFunction> getMeasurementFunctions() {
+		List<ClassifyByMeasurementFunction> functions = new ArrayList<>();
+		for (var classifier : classifiers) {
+			if (classifier instanceof CompositeClassifier) {
+				var nested = ((CompositeClassifier<T>)classifier).getMeasurementFunctions();
+				if (nested == null)
+					return null;
+				functions.addAll(nested);
+			} else if (classifier instanceof SimpleClassifier) {
+				var function = ((SimpleClassifier<T>)classifier).getFunction();
+				if (!(function instanceof ClassifyByMeasurementFunction) || ((ClassifyByMeasurementFunction)function).getMeasurement() == null)
+					return null;
+				functions.add((ClassifyByMeasurementFunction)function);
+			} else
+				return null;
+		}
+		return functions;
+	}
+	
+	/**
+	 * Evaluate all measurement functions for each object in a single parallel pass, 
+	 * and then apply the combined classifications.
+	 * Each measurement is only requested once per object, and measurement names are resolved to indices once per 
+	 * list of measurement names where possible.
+	 * The result should be the same as applying each classifier in turn.
+	 */
+	private int classifyObjectsFused(List<ClassifyByMeasurementFunction> functions, Collection<? extends PathObject> pathObjects, boolean resetExistingClass) {
+		// Gather the union of required measurements
+		List<String> measurements = new ArrayList<>();
+		int[] functionInds = new int[functions.size()];
+		for (int f = 0; f < functionInds.length; f++) {
+			var name = functions.get(f).getMeasurement();
+			int ind = measurements.indexOf(name);
+			if (ind < 0) {
+				ind = measurements.size();
+				measurements.add(name);
+			}
+			functionInds[f] = ind;
+		}
+		
+		var list = new ArrayList<PathObject>(pathObjects);
+		int n = list.size();
+		var results = new PathClass[n];
+		var changed = new boolean[n];
+		
+		var callingThread = Thread.currentThread();
+		Map<List<String>, int[]> schemas = new ConcurrentHashMap<>();
+		int nChunks = (n + OBJECTS_PER_CHUNK - 1) / OBJECTS_PER_CHUNK;
+		IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+			if (callingThread.isInterrupted())
+				return;
+			double[] values = new double[measurements.size()];
+			List<String> lastNames = null;
+			int[] lastIndices = null;
+			for (int i = chunk * OBJECTS_PER_CHUNK; i < Math.min(n, (chunk + 1) * OBJECTS_PER_CHUNK); i++) {
+				var pathObject = list.get(i);
+				var ml = pathObject.getMeasurementList();
+				if (ml.supportsDynamicMeasurements()) {
+					for (int m = 0; m < values.length; m++)
+						values[m] = ml.getMeasurementValue(measurements.get(m));
+				} else {
+					var names = ml.getMeasurementNames();
+					if (names != lastNames) {
+						lastIndices = schemas.computeIfAbsent(names, k -> MeasurementListTools.getMeasurementIndices(measurements, k));
+						lastNames = names;
+					}
+					for (int m = 0; m < values.length; m++)
+						values[m] = lastIndices[m] < 0 ? Double.NaN : ml.getMeasurementValue(lastIndices[m]);
+				}
+				
+				// Combine classifications in the same way as SimpleClassifier
+				PathClass pathClass = resetExistingClass ? null : pathObject.getPathClass();
+				boolean doSet = resetExistingClass;
+				for (int f = 0; f < functionInds.length; f++) {
+					var newClass = functions.get(f).classify(values[functionInds[f]]);
+					if (newClass != null) {
+						pathClass = pathClass == null ? newClass : PathClassTools.mergeClasses(pathClass, newClass);
+						doSet = true;
+					}
+				}
+				results[i] = pathClass;
+				changed[i] = doSet;
+			}
+		});
+		
+		if (callingThread.isInterrupted())
+			return 0;
+		
+		// Apply all classifications together
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (!changed[i])
+				continue;
+			var pathObject = list.get(i);
+			var previousClass = pathObject.getPathClass();
+			pathObject.setPathClass(results[i]);
+			if (!Objects.equals(previousClass, results[i]))
+				count++;
+		}
+		return count;
+	}
+	
 	Map<PathObject, PathClass> createMap(Collection<? extends PathObject> pathObjects) {
 		var map = new HashMap<PathObject, PathClass>();
 		for (var pathObject : pathObjects)
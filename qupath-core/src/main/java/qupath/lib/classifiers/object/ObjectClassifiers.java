@@ -415,7 +415,15 @@ public class ObjectClassifiers {
 
 		@Override
 		public PathClass apply(PathObject pathObject) {
-			double val = pathObject.getMeasurementList().getMeasurementValue(measurement);
+			return classify(pathObject.getMeasurementList().getMeasurementValue(measurement));
+		}
+		
+		/**
+		 * Get the classification corresponding to a measurement value.
+		 * @param val the measurement value
+		 * @return the classification, or null if no classification should be applied
+		 */
+		PathClass classify(double val) {
 			if (Double.isNaN(val))
 				return null;
 			if (val > threshold)
@@ -45,6 +45,14 @@ class SimpleClassifier<T> extends AbstractObjectClassifier<T> {
 		this.pathClasses = Collections.unmodifiableList(new ArrayList<>(pathClasses));
 	}
 
+	/**
+	 * Get the function used to determine the classification of each object.
+	 * @return
+	 */
+	Function<PathObject, PathClass> getFunction() {
+		return function;
+	}
+
 	@Override
 	public Collection<PathClass> getPathClasses() {
 		return pathClasses;
@@ -24,15 +24,19 @@ package qupath.lib.images.servers;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BandedSampleModel;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -46,6 +50,8 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -105,6 +111,16 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 	private Map<PathObject, Integer> instanceClassMap = null;	
 	private Map<Integer, PathObject> instanceClassMapInverse = null;	
 	
+	/**
+	 * Objects used for indexed instance labels, with labels stored in a parallel array.
+	 * This avoids the need to create a {@link PathClass} and map entries for every object, 
+	 * which becomes prohibitively expensive when exporting many detections.
+	 */
+	private List<PathObject> instanceObjects = null;
+	private int[] instanceLabelArray = null;
+	private STRtree instanceIndex = null;
+	private volatile Map<PathObject, Integer> instanceLabelMap = null;
+	
 	private LabeledImageServer(final ImageData<BufferedImage> imageData, double downsample, int tileWidth, int tileHeight, LabeledServerParameters params, boolean multichannelOutput) {
 		super();
 		
@@ -124,17 +140,39 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 			// Shuffle the objects, this helps when using grayscale lookup tables, since labels for neighboring objects are otherwise very similar
 			if (params.shuffleInstanceLabels)
 				Collections.shuffle(pathObjects, new Random(100L));
-			Integer count = multichannelOutput ? 0 : 1;
-			instanceClassMap = new HashMap<>();
-			instanceClassMapInverse = new HashMap<>();
-			for (var pathObject : pathObjects) {
-				var pathClass = instanceLabelToClass(count);
-				instanceClassMap.put(pathObject, count);
-				instanceClassMapInverse.put(count, pathObject);
-				classificationLabels.put(count, pathClass);
-				params.labelColors.put(count, pathClass.getColor());
-				params.labels.put(pathClass, count);
-				count++;
+			if (multichannelOutput) {
+				// Number of channels is limited, so we can afford a classification per object
+				Integer count = 0;
+				instanceClassMap = new HashMap<>();
+				instanceClassMapInverse = new HashMap<>();
+				for (var pathObject : pathObjects) {
+					var pathClass = instanceLabelToClass(count);
+					instanceClassMap.put(pathObject, count);
+					instanceClassMapInverse.put(count, pathObject);
+					classificationLabels.put(count, pathClass);
+					params.labelColors.put(count, pathClass.getColor());
+					params.labels.put(pathClass, count);
+					count++;
+				}
+			} else {
+				// Store labels in an array parallel to the objects, and index by bounding box for tile requests
+				int n = pathObjects.size();
+				instanceObjects = pathObjects;
+				instanceLabelArray = new int[n];
+				instanceIndex = new STRtree();
+				for (int i = 0; i < n; i++) {
+					instanceLabelArray[i] = i + 1;
+					var roi = params.roiFunction.apply(pathObjects.get(i));
+					if (roi == null)
+						continue;
+					var envelope = new Envelope(
+							roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
+							roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
+					instanceIndex.insert(envelope, Integer.valueOf(i));
+				}
+				// Build now, since the tree isn't safe to build lazily from multiple tile threads
+				instanceIndex.build();
+				classificationLabels.put(params.labels.get(params.unannotatedClass), params.unannotatedClass);
 			}
 		} else {
 			for (var entry : params.labels.entrySet()) {
@@ -171,6 +209,10 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 		var labelStats = classificationLabels.keySet().stream().mapToInt(i -> i).summaryStatistics();
 		int minLabel = labelStats.getMin();
 		maxLabel = labelStats.getMax();
+		if (instanceLabelArray != null) {
+			for (int label : instanceLabelArray)
+				maxLabel = Math.max(maxLabel, label);
+		}
 		if (minLabel < 0) {
 			throw new IllegalArgumentException("Minimum possible label value is 0! Requested minimum was " + maxLabel);
 		}
@@ -216,6 +258,11 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 				}
 				colors.put(key, value);
 			}
+			// Colors for indexed instance labels are only needed if they can be stored in a lookup table
+			if (instanceLabelArray != null && !params.grayscaleLut && maxLabel < 65536) {
+				for (int label : instanceLabelArray)
+					colors.put(label, instanceLabelToColor(label));
+			}
 			
 			if (params.grayscaleLut) {
 				if (maxLabel < 255)
@@ -275,7 +322,21 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 	private static PathClass instanceLabelToClass(Integer label) {
 		if (label == null)
 			return null;
-		return PathClassFactory.getPathClass("Label " + label);
+		return PathClassFactory.getPathClass(instanceLabelToName(label));
+	}
+	
+	/**
+	 * Get the color for an instance label, without needing to create a {@link PathClass}.
+	 * This matches the default color of the class returned by {@link #instanceLabelToClass(Integer)}.
+	 * @param label
+	 * @return
+	 */
+	private static int instanceLabelToColor(int label) {
+		return PathClassFactory.getDefaultColor(instanceLabelToName(label));
+	}
+	
+	private static String instanceLabelToName(int label) {
+		return "Label " + label;
 	}
 	
 //	/**
@@ -297,8 +358,22 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 	 * Get a mapping between objects and instance labels.
 	 * @return the instance label map, or an empty map if no objects are available or 
 	 *         {@link Builder#useInstanceLabels()} was not selected.
+	 * @implNote for indexed (rather than multichannel) output, the map is only created when this method is first called.
 	 */
 	public Map<PathObject, Integer> getInstanceLabels() {
+		if (instanceObjects != null) {
+			if (instanceLabelMap == null) {
+				synchronized (this) {
+					if (instanceLabelMap == null) {
+						var map = new LinkedHashMap<PathObject, Integer>();
+						for (int i = 0; i < instanceLabelArray.length; i++)
+							map.put(instanceObjects.get(i), instanceLabelArray[i]);
+						instanceLabelMap = Collections.unmodifiableMap(map);
+					}
+				}
+			}
+			return instanceLabelMap;
+		}
 		if (instanceClassMap == null)
 			return Collections.emptyMap();
 		return Collections.unmodifiableMap(instanceClassMap);
@@ -542,6 +617,9 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 		/**
 		 * Optionally request that unique labels are used for all objects, rather than classifications.
 		 * If this flag is set, all other label requests are ignored.
+		 * <p>
+		 * For indexed (not multichannel) output, instance labels are stored without creating a classification 
+		 * for each object, and so the classification labels within the server metadata only include the background.
 		 * @param instanceLabels 
 		 * @return
 		 * @since v0.4.0
@@ -873,6 +951,13 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 	protected BufferedImage readTile(TileRequest tileRequest) throws IOException {
 		long startTime = System.currentTimeMillis();
 		
+		if (instanceIndex != null) {
+			var img = createInstanceLabelTile(tileRequest);
+			long endTime = System.currentTimeMillis();
+			logger.trace("Instance label tile rendered in {} ms", endTime - startTime);
+			return img;
+		}
+		
 		var pathObjects = hierarchy.getObjectsForRegion(null, tileRequest.getRegionRequest(), null)
 				.stream()
 				.filter(params.objectFilter)
@@ -984,6 +1069,111 @@ public class LabeledImageServer extends AbstractTileableImageServer implements G
 	}
 	
 	
+	/**
+	 * Create a tile for indexed instance labels, by filling ROIs directly into an integer raster.
+	 * Objects are painted in label order, so that overlaps are handled in the same way as with other labels.
+	 * @param tileRequest
+	 * @return
+	 */
+	private BufferedImage createInstanceLabelTile(TileRequest tileRequest) {
+		RegionRequest request = tileRequest.getRegionRequest();
+		double downsampleFactor = request.getDownsample();
+		int width = tileRequest.getTileWidth();
+		int height = tileRequest.getTileHeight();
+		
+		int[] labels = new int[width * height];
+		int bgLabel = params.labels.get(params.unannotatedClass);
+		if (bgLabel != 0)
+			Arrays.fill(labels, bgLabel);
+		
+		// Pad according to the line thickness, since lines & boundaries may extend beyond the ROI bounds
+		double pad = params.lineThickness * downsampleFactor;
+		var envelope = new Envelope(
+				request.getMinX() - pad, request.getMaxX() + pad,
+				request.getMinY() - pad, request.getMaxY() + pad);
+		var items = instanceIndex.query(envelope);
+		if (!items.isEmpty()) {
+			int[] inds = new int[items.size()];
+			int n = 0;
+			for (var item : items) {
+				int ind = (Integer)item;
+				var roi = params.roiFunction.apply(instanceObjects.get(ind));
+				if (roi.getZ() == request.getZ() && roi.getT() == request.getT())
+					inds[n++] = ind;
+			}
+			Arrays.sort(inds, 0, n);
+			
+			var transform = new AffineTransform();
+			transform.scale(1.0/downsampleFactor, 1.0/downsampleFactor);
+			transform.translate(-request.getX(), -request.getY());
+			var stroke = new BasicStroke(params.lineThickness);
+			var rasterizer = new ScanlineRasterizer(labels, width, height);
+			
+			double[] xy = null;
+			for (int i = 0; i < n; i++) {
+				int ind = inds[i];
+				int label = instanceLabelArray[ind];
+				var roi = params.roiFunction.apply(instanceObjects.get(ind));
+				if (roi.isArea())
+					rasterizer.fill(roi.getShape(), transform, label);
+				else if (roi.isLine())
+					rasterizer.fill(stroke.createStrokedShape(transform.createTransformedShape(roi.getShape())), null, label);
+				else if (roi.isPoint()) {
+					var points = roi.getAllPoints();
+					if (xy == null || xy.length < points.size() * 2)
+						xy = new double[points.size() * 2];
+					int k = 0;
+					for (var p : points) {
+						xy[k++] = (p.getX() - request.getX()) / downsampleFactor;
+						xy[k++] = (p.getY() - request.getY()) / downsampleFactor;
+					}
+					rasterizer.setPoints(xy, points.size(), label);
+				}
+			}
+			for (var entry : params.boundaryLabels.entrySet()) {
+				int c = entry.getValue();
+				for (int i = 0; i < n; i++) {
+					var roi = params.roiFunction.apply(instanceObjects.get(inds[i]));
+					if (roi.isArea())
+						rasterizer.fill(stroke.createStrokedShape(transform.createTransformedShape(roi.getShape())), null, c);
+				}
+			}
+		}
+		
+		switch (getPixelType()) {
+		case UINT8:
+			if (maxLabel > 255)
+				break;
+			byte[] bytes = new byte[labels.length];
+			for (int i = 0; i < labels.length; i++)
+				bytes[i] = (byte)labels[i];
+			return createLabelImage(new DataBufferByte(bytes, bytes.length), width, height);
+		case UINT16:
+			short[] shorts = new short[labels.length];
+			for (int i = 0; i < labels.length; i++)
+				shorts[i] = (short)labels[i];
+			return createLabelImage(new DataBufferUShort(shorts, shorts.length), width, height);
+		case FLOAT32:
+			float[] floats = new float[labels.length];
+			for (int i = 0; i < labels.length; i++)
+				floats[i] = labels[i];
+			return createLabelImage(new DataBufferFloat(floats, floats.length), width, height);
+		default:
+			break;
+		}
+		// Resort to RGB if we have to, as with other indexed tiles
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		img.getRaster().setDataElements(0, 0, width, height, labels);
+		return img;
+	}
+	
+	private BufferedImage createLabelImage(DataBuffer buffer, int width, int height) {
+		var sampleModel = new BandedSampleModel(buffer.getDataType(), width, height, 1);
+		var raster = WritableRaster.createWritableRaster(sampleModel, buffer, null);
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+	
+	
 	private static Color getColorForLabel(int label, boolean doRGB) {
 		if (doRGB)
 			return new Color(label, false);
@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * Minimal scanline polygon filler that writes integer labels directly into a row-major {@code int[]} raster.
+ * <p>
+ * This avoids the need to go through {@code Graphics2D} (and therefore a color per label) when
+ * rasterizing very large numbers of objects, e.g. for instance labels.
+ * A pixel is filled if its center falls inside the shape, which matches the behavior of
+ * non-antialiased Java2D rendering (without stroke normalization).
+ * <p>
+ * Instances are not thread-safe, since they reuse internal edge buffers; one rasterizer should be used per tile.
+ *
+ * @author Pete Bankhead
+ */
+class ScanlineRasterizer {
+
+	/**
+	 * Flatness used when converting curves to line segments, in output pixels.
+	 */
+	private static final double FLATNESS = 0.25;
+
+	private final int[] raster;
+	private final int width;
+	private final int height;
+
+	// Edge table, stored as parallel primitive arrays
+	private int nEdges = 0;
+	private double[] edgeX0 = new double[64];
+	private double[] edgeY0 = new double[64];
+	private double[] edgeX1 = new double[64];
+	private double[] edgeY1 = new double[64];
+	private int[] edgeDir = new int[64];
+
+	// Crossings for the current scanline
+	private double[] crossX = new double[16];
+	private int[] crossDir = new int[16];
+
+	/**
+	 * Create a rasterizer that writes into the specified raster.
+	 * @param raster row-major pixel array, of length at least {@code width * height}
+	 * @param width raster width
+	 * @param height raster height
+	 */
+	ScanlineRasterizer(int[] raster, int width, int height) {
+		if (raster.length < width * height)
+			throw new IllegalArgumentException("Raster length " + raster.length + " is too short for " + width + "x" + height + " pixels");
+		this.raster = raster;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Fill a shape, using the winding rule of its path iterator.
+	 * @param shape the shape to fill
+	 * @param transform optional transform to convert the shape into raster coordinates
+	 * @param value the label to write into each pixel inside the shape
+	 */
+	void fill(Shape shape, AffineTransform transform, int value) {
+		var bounds = shape.getBounds2D();
+		if (transform != null && !transform.isIdentity())
+			bounds = transform.createTransformedShape(bounds).getBounds2D();
+		if (bounds.getMaxX() < 0 || bounds.getMaxY() < 0 || bounds.getMinX() >= width || bounds.getMinY() >= height)
+			return;
+
+		var iterator = shape.getPathIterator(transform, FLATNESS);
+		boolean evenOdd = iterator.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+
+		nEdges = 0;
+		double[] coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		boolean open = false;
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			switch (type) {
+			case PathIterator.SEG_MOVETO:
+				if (open)
+					addEdge(lastX, lastY, startX, startY);
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+				open = true;
+				break;
+			case PathIterator.SEG_LINETO:
+				addEdge(lastX, lastY, coords[0], coords[1]);
+				lastX = coords[0];
+				lastY = coords[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				addEdge(lastX, lastY, startX, startY);
+				lastX = startX;
+				lastY = startY;
+				open = false;
+				break;
+			default:
+				// Shouldn't occur with a flattening iterator
+				throw new IllegalArgumentException("Unsupported path segment type " + type);
+			}
+			iterator.next();
+		}
+		if (open)
+			addEdge(lastX, lastY, startX, startY);
+		if (nEdges == 0)
+			return;
+
+		int yStart = Math.max(0, (int)Math.floor(bounds.getMinY()));
+		int yEnd = Math.min(height, (int)Math.ceil(bounds.getMaxY()) + 1);
+		for (int y = yStart; y < yEnd; y++) {
+			double yc = y + 0.5;
+			int nCross = 0;
+			for (int e = 0; e < nEdges; e++) {
+				// Edges are stored with y0 < y1, half-open interval avoids double counting vertices
+				if (yc < edgeY0[e] || yc >= edgeY1[e])
+					continue;
+				double x = edgeX0[e] + (yc - edgeY0[e]) * (edgeX1[e] - edgeX0[e]) / (edgeY1[e] - edgeY0[e]);
+				if (nCross == crossX.length) {
+					crossX = Arrays.copyOf(crossX, nCross * 2);
+					crossDir = Arrays.copyOf(crossDir, nCross * 2);
+				}
+				// Insertion sort - the number of crossings per row is usually small
+				int i = nCross++;
+				while (i > 0 && crossX[i-1] > x) {
+					crossX[i] = crossX[i-1];
+					crossDir[i] = crossDir[i-1];
+					i--;
+				}
+				crossX[i] = x;
+				crossDir[i] = edgeDir[e];
+			}
+			if (nCross < 2)
+				continue;
+			int offset = y * width;
+			int winding = 0;
+			for (int i = 0; i < nCross - 1; i++) {
+				winding += evenOdd ? 1 : crossDir[i];
+				boolean inside = evenOdd ? (winding & 1) != 0 : winding != 0;
+				if (inside)
+					fillSpan(offset, crossX[i], crossX[i+1], value);
+			}
+		}
+	}
+
+	/**
+	 * Set individual pixels for a collection of points.
+	 * @param xy interleaved x and y coordinates, already in raster space
+	 * @param nPoints number of points
+	 * @param value the label to set
+	 */
+	void setPoints(double[] xy, int nPoints, int value) {
+		for (int i = 0; i < nPoints; i++) {
+			int x = (int)xy[i*2];
+			int y = (int)xy[i*2+1];
+			if (x >= 0 && x < width && y >= 0 && y < height)
+				raster[y * width + x] = value;
+		}
+	}
+
+	private void fillSpan(int offset, double x0, double x1, int value) {
+		// Fill pixels with centers in [x0, x1)
+		int xs = Math.max(0, (int)Math.ceil(x0 - 0.5));
+		int xe = Math.min(width, (int)Math.ceil(x1 - 0.5));
+		if (xe > xs)
+			Arrays.fill(raster, offset + xs, offset + xe, value);
+	}
+
+	private void addEdge(double x0, double y0, double x1, double y1) {
+		if (y0 == y1)
+			return;
+		if (nEdges == edgeDir.length) {
+			int n = nEdges * 2;
+			edgeX0 = Arrays.copyOf(edgeX0, n);
+			edgeY0 = Arrays.copyOf(edgeY0, n);
+			edgeX1 = Arrays.copyOf(edgeX1, n);
+			edgeY1 = Arrays.copyOf(edgeY1, n);
+			edgeDir = Arrays.copyOf(edgeDir, n);
+		}
+		if (y0 < y1) {
+			edgeX0[nEdges] = x0;
+			edgeY0[nEdges] = y0;
+			edgeX1[nEdges] = x1;
+			edgeY1[nEdges] = y1;
+			edgeDir[nEdges] = 1;
+		} else {
+			edgeX0[nEdges] = x1;
+			edgeY0[nEdges] = y1;
+			edgeX1[nEdges] = x0;
+			edgeY1[nEdges] = y0;
+			edgeDir[nEdges] = -1;
+		}
+		nEdges++;
+	}
+
+}
@@ -23,20 +23,26 @@ package qupath.lib.images.writers;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
@@ -53,6 +59,7 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.LabeledImageServer;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
 import qupath.lib.images.servers.TransformedServerBuilder;
+import qupath.lib.images.writers.TileShardWriter.ShardLocation;
 import qupath.lib.io.GsonTools;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathObject;
@@ -71,6 +78,11 @@ import qupath.lib.roi.RoiTools;
 public class TileExporter  {
 
 	private final static Logger logger = LoggerFactory.getLogger(TileExporter.class);
+	
+	/**
+	 * Maximum size of a single shard file, if writing shards.
+	 */
+	private final static long MAX_BYTES_PER_SHARD = 1024L * 1024L * 1024L;
 
 	private ImageData<BufferedImage> imageData;
 	private ImageServer<BufferedImage> server;
@@ -101,6 +113,8 @@ public class TileExporter  {
 	private String labelSubDir = null;
 	private boolean exportJson = false;
 	private String labelId = null;
+	
+	private int maxTilesPerShard = 0;
 
 	private ImageServer<BufferedImage> serverLabeled;
 
@@ -451,6 +465,25 @@ public class TileExporter  {
 		return this;
 	}
 	
+	/**
+	 * Optionally pack tiles into a small number of large shard files, rather than writing one file per tile.
+	 * <p>
+	 * Each shard is the concatenation of the encoded tiles (and labels, if available), written in the format 
+	 * determined by the image and label extensions. The location of each tile within the shards is written to 
+	 * a JSON index alongside the shards, which otherwise has the same content as {@link #exportJson(boolean)}.
+	 * Subdirectories and label IDs are ignored when writing shards.
+	 * <p>
+	 * This is much more efficient than writing individual files when exporting very large numbers of tiles.
+	 * 
+	 * @param maxTilesPerShard the maximum number of tiles to write to a single shard; if &le; 0, individual files will be written (the default)
+	 * @return this exporter
+	 * @since v0.4.0
+	 */
+	public TileExporter shardedOutput(int maxTilesPerShard) {
+		this.maxTilesPerShard = maxTilesPerShard;
+		return this;
+	}
+	
 	
 	/**
 	 * Create region requests, along with information about whether we have a partial tile (which should not be resized/padded) or not.
@@ -602,6 +635,15 @@ public class TileExporter  {
 			imagePathName = uris.iterator().next().toString();
 		else
 			imagePathName = "[" + uris.stream().map(u -> u.toString()).collect(Collectors.joining("|")) + "]";
+		
+		if (maxTilesPerShard > 0) {
+			try {
+				writeShards(pool, requests, dirOutput, imageName, imagePathName);
+			} finally {
+				pool.shutdownNow();
+			}
+			return;
+		}
 
 //		// If we have pixel calibration information, use it in the export
 //		PixelCalibration pixelSize = server.getPixelCalibration();
@@ -662,37 +704,7 @@ public class TileExporter  {
 		
 		// Write JSON, if we need to
 		if (exportJson) {
-			var gson = GsonTools.getInstance(true)
-					.newBuilder()
-					.disableHtmlEscaping() // Required to support = in filenames
-					.create();
-			var data = new TileExportData(dirOutput, exportImages);
-			if (serverLabeled instanceof LabeledImageServer) {
-				var labels = ((LabeledImageServer) serverLabeled).getLabels();
-				var boundaryLabels = ((LabeledImageServer) serverLabeled).getBoundaryLabels();
-				List<TileExportLabel> labelList = new ArrayList<>();
-				Set<PathClass> existingLabels = new HashSet<>();
-				for (var entry : labels.entrySet()) {
-					var pathClass = entry.getKey();
-					var label = new TileExportLabel(pathClass.toString(), entry.getValue(), boundaryLabels.getOrDefault(pathClass, null));
-					labelList.add(label);
-				}
-				for (var entry : boundaryLabels.entrySet()) {
-					var pathClass = entry.getKey();
-					if (!existingLabels.contains(pathClass)) {
-						var label = new TileExportLabel(pathClass.toString(), null, boundaryLabels.getOrDefault(pathClass, null));
-						labelList.add(label);
-					}
-				}
-				data.labels = labelList;
-			}
-			var pathJson = Paths.get(dirOutput, imageName + "-tiles.json");
-			if (Files.exists(pathJson)) {
-				logger.warn("Overwriting existing JSON file {}", pathJson);
-			}
-			try (var writer = Files.newBufferedWriter(pathJson, StandardCharsets.UTF_8)) {
-				gson.toJson(data, writer);
-			}
+			writeJson(Paths.get(dirOutput, imageName + "-tiles.json"), createExportData(dirOutput, exportImages));
 		}
 
 		pool.shutdown();
@@ -706,6 +718,153 @@ public class TileExporter  {
 	}
 	
 	
+	/**
+	 * Write tiles to shards, using the pool to read and encode tiles in parallel while the current thread 
+	 * appends them to the shards.
+	 * Encoded tiles are passed through a bounded queue, so that readers cannot get too far ahead of the writer.
+	 */
+	private void writeShards(ExecutorService pool, Collection<RegionRequestWrapper> requests, String dirOutput, String imageName, String imagePathName) throws IOException {
+		
+		var requestList = new ArrayList<>(requests);
+		var queue = new ArrayBlockingQueue<EncodedTile>(Math.max(2, ThreadTools.getParallelism() * 2));
+		
+		int tileWidth = this.tileWidth;
+		int tileHeight = this.tileHeight;
+		for (int i = 0; i < requestList.size(); i++) {
+			var r = requestList.get(i);
+			var tile = new EncodedTile(i);
+			pool.submit(() -> {
+				try {
+					boolean ensureSize = !r.partialTile;
+					tile.image = encodeRegion(server, r.request, ext, tileWidth, tileHeight, ensureSize);
+					if (serverLabeled != null)
+						tile.labels = encodeRegion(serverLabeled, r.request.updatePath(serverLabeled.getPath()), extLabeled, tileWidth, tileHeight, ensureSize);
+				} catch (Exception e) {
+					logger.error("Error encoding tile: " + e.getLocalizedMessage(), e);
+				} finally {
+					// Always put the tile (even after an Error), so that the writer knows it has been handled
+					queue.put(tile);
+				}
+				return null;
+			});
+		}
+		
+		var entries = new TileExportEntry[requestList.size()];
+		try (var writer = new TileShardWriter(Paths.get(dirOutput), imageName, maxTilesPerShard, MAX_BYTES_PER_SHARD)) {
+			for (int i = 0; i < entries.length; i++) {
+				var tile = queue.take();
+				if (tile.image == null)
+					continue;
+				var entry = new TileExportEntry(requestList.get(tile.index).request.updatePath(imagePathName), null, null);
+				entry.image_shard = writer.append(tile.image);
+				if (tile.labels != null)
+					entry.labels_shard = writer.append(tile.labels);
+				entries[tile.index] = entry;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Tile export interrupted", e);
+		}
+		
+		var exportImages = Arrays.stream(entries).filter(Objects::nonNull).collect(Collectors.toList());
+		if (exportImages.size() < entries.length)
+			logger.warn("{}/{} tiles could not be written", entries.length - exportImages.size(), entries.length);
+		writeJson(Paths.get(dirOutput, imageName + "-shards.json"), createExportData(dirOutput, exportImages));
+	}
+	
+	
+	/**
+	 * Encode a region in the same way as {@link ExportTask}, but to a byte array rather than a file.
+	 * If a writer is unable to write to a stream, a temporary file is used instead.
+	 */
+	private static byte[] encodeRegion(ImageServer<BufferedImage> server, RegionRequest request, String ext, int tileWidth, int tileHeight, boolean ensureSize) throws IOException {
+		// Only read the image here if we need to fix the size; otherwise, let the writer use the region (and its metadata)
+		var img = ensureSize ? readFixedSizeRegion(server, request, tileWidth, tileHeight) : null;
+		for (var writer : ImageWriterTools.getCompatibleWriters(server, ext)) {
+			try {
+				var stream = new ByteArrayOutputStream();
+				if (img == null)
+					writer.writeImage(server, request, stream);
+				else
+					writer.writeImage(img, stream);
+				return stream.toByteArray();
+			} catch (Exception e) {
+				logger.debug("Unable to write image to stream with {}: {}", writer.getName(), e.getLocalizedMessage());
+			}
+			Path path = null;
+			try {
+				path = Files.createTempFile("qupath-tile", ext);
+				if (img == null)
+					writer.writeImage(server, request, path.toString());
+				else
+					writer.writeImage(img, path.toString());
+				return Files.readAllBytes(path);
+			} catch (Exception e) {
+				logger.warn("Unable to write image", e);
+			} finally {
+				if (path != null)
+					Files.deleteIfExists(path);
+			}
+		}
+		throw new IOException("Unable to encode " + request + "! No compatible writer found.");
+	}
+	
+	
+	private TileExportData createExportData(String dirOutput, List<TileExportEntry> exportImages) {
+		var data = new TileExportData(dirOutput, exportImages);
+		if (serverLabeled instanceof LabeledImageServer) {
+			var labels = ((LabeledImageServer) serverLabeled).getLabels();
+			var boundaryLabels = ((LabeledImageServer) serverLabeled).getBoundaryLabels();
+			List<TileExportLabel> labelList = new ArrayList<>();
+			Set<PathClass> existingLabels = new HashSet<>();
+			for (var entry : labels.entrySet()) {
+				var pathClass = entry.getKey();
+				var label = new TileExportLabel(pathClass.toString(), entry.getValue(), boundaryLabels.getOrDefault(pathClass, null));
+				labelList.add(label);
+			}
+			for (var entry : boundaryLabels.entrySet()) {
+				var pathClass = entry.getKey();
+				if (!existingLabels.contains(pathClass)) {
+					var label = new TileExportLabel(pathClass.toString(), null, boundaryLabels.getOrDefault(pathClass, null));
+					labelList.add(label);
+				}
+			}
+			data.labels = labelList;
+		}
+		return data;
+	}
+	
+	
+	private static void writeJson(Path pathJson, TileExportData data) throws IOException {
+		var gson = GsonTools.getInstance(true)
+				.newBuilder()
+				.disableHtmlEscaping() // Required to support = in filenames
+				.create();
+		if (Files.exists(pathJson)) {
+			logger.warn("Overwriting existing JSON file {}", pathJson);
+		}
+		try (var writer = Files.newBufferedWriter(pathJson, StandardCharsets.UTF_8)) {
+			gson.toJson(data, writer);
+		}
+	}
+	
+	
+	/**
+	 * Encoded bytes for a tile and (optionally) its labels, waiting to be written to a shard.
+	 */
+	private static class EncodedTile {
+		
+		private final int index;
+		private volatile byte[] image;
+		private volatile byte[] labels;
+		
+		EncodedTile(int index) {
+			this.index = index;
+		}
+		
+	}
+	
+	
 	@SuppressWarnings("unused")
 	private static class TileExportData {
 		
@@ -743,6 +902,8 @@ public class TileExporter  {
 //		private PixelCalibration pixel_size;
 		private String image;
 		private String labels;
+		private ShardLocation image_shard;
+		private ShardLocation labels_shard;
 		
 		TileExportEntry (RegionRequest region, String image, String labels) {
 			this.region = region;
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Append-only writer that packs many small encoded images into a few large shard files.
+ * <p>
+ * Each shard is simply the concatenation of the encoded bytes; the location of each entry is returned
+ * by {@link #append(byte[])} and must be stored elsewhere (e.g. in a JSON index) to be able to read the entries back.
+ *
+ * @author Pete Bankhead
+ */
+class TileShardWriter implements Closeable {
+
+	private final Path dir;
+	private final String baseName;
+	private final int maxEntriesPerShard;
+	private final long maxBytesPerShard;
+
+	private int shardCount = 0;
+	private String shardName;
+	private OutputStream stream;
+	private long position;
+	private int nEntries;
+
+	/**
+	 * Create a new shard writer.
+	 * @param dir directory in which shards should be written
+	 * @param baseName base name for each shard file; a shard number and extension will be appended
+	 * @param maxEntriesPerShard maximum number of entries to write before starting a new shard
+	 * @param maxBytesPerShard maximum number of bytes to write before starting a new shard (unless the shard is empty)
+	 */
+	TileShardWriter(Path dir, String baseName, int maxEntriesPerShard, long maxBytesPerShard) {
+		this.dir = dir;
+		this.baseName = baseName;
+		this.maxEntriesPerShard = maxEntriesPerShard;
+		this.maxBytesPerShard = maxBytesPerShard;
+	}
+
+	/**
+	 * Append bytes to the current shard, starting a new shard if necessary.
+	 * @param bytes the encoded bytes
+	 * @return the location of the bytes, relative to the shard directory
+	 * @throws IOException
+	 */
+	synchronized ShardLocation append(byte[] bytes) throws IOException {
+		if (stream == null || nEntries >= maxEntriesPerShard || (nEntries > 0 && position + bytes.length > maxBytesPerShard))
+			startShard();
+		long offset = position;
+		stream.write(bytes);
+		position += bytes.length;
+		nEntries++;
+		return new ShardLocation(shardName, offset, bytes.length);
+	}
+
+	private void startShard() throws IOException {
+		close();
+		shardName = String.format("%s-shard-%05d.bin", baseName, shardCount++);
+		stream = new BufferedOutputStream(Files.newOutputStream(dir.resolve(shardName)), 1024 * 1024);
+		position = 0L;
+		nEntries = 0;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+	}
+
+	/**
+	 * Location of a single entry within a shard.
+	 * Field names are chosen for JSON export.
+	 */
+	@SuppressWarnings("unused")
+	static class ShardLocation {
+
+		private final String shard;
+		private final long offset;
+		private final int length;
+
+		ShardLocation(String shard, long offset, int length) {
+			this.shard = shard;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+}
@@ -0,0 +1,61 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.measurements;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static helper methods for working with measurement lists.
+ * 
+ * @author Pete Bankhead
+ */
+public class MeasurementListTools {
+	
+	private MeasurementListTools() {
+		throw new AssertionError();
+	}
+	
+	/**
+	 * Get the index of each measurement within a list of measurement names, or -1 if the measurement is missing.
+	 * <p>
+	 * This is useful when the same measurements need to be read from many objects that share the same 
+	 * (closed) measurement list names, since the indices can then be computed once and reused.
+	 * If a name occurs more than once, the index of its first occurrence is used.
+	 * 
+	 * @param measurements the measurements to look up
+	 * @param names the measurement names, typically from {@link MeasurementList#getMeasurementNames()}
+	 * @return an array the same length as {@code measurements}, containing the index of each measurement within {@code names}
+	 */
+	public static int[] getMeasurementIndices(List<String> measurements, List<String> names) {
+		Map<String, Integer> map = new HashMap<>();
+		for (int i = 0; i < names.size(); i++)
+			map.putIfAbsent(names.get(i), i);
+		int[] indices = new int[measurements.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = map.getOrDefault(measurements.get(i), -1);
+		return indices;
+	}
+
+}
@@ -189,35 +189,47 @@ public final class PathClassFactory {
 		synchronized (mapPathClasses) {
 			PathClass pathClass = mapPathClasses.get(name);
 			if (pathClass == null) {
-				if (rgb == null) {
-					// Use default colors for intensity classes
-					if (name.equals(ONE_PLUS)) {
-						rgb = ColorTools.makeScaledRGB(COLOR_ONE_PLUS, 1.25);
-					} else if (name.equals(TWO_PLUS)) {
-						rgb = ColorTools.makeScaledRGB(COLOR_TWO_PLUS, 1.25);
-					} else if (name.equals(THREE_PLUS))
-						rgb = ColorTools.makeScaledRGB(COLOR_THREE_PLUS, 1.25);
-					else if (name.equals(POSITIVE)) {
-						rgb = ColorTools.makeScaledRGB(COLOR_POSITIVE, 1.25);
-					} else if (name.equals(NEGATIVE)) {
-						rgb = ColorTools.makeScaledRGB(COLOR_NEGATIVE, 1.25);
-					} else {
-						// Create a random color
-						// Use the hashcode of the String as a seed - so that the same 
-						// color is generated reproducibly for the same name.
-						Random random = new Random(name.hashCode());
-						rgb = ColorTools.packRGB(
-								random.nextInt(256),
-								random.nextInt(256),
-								random.nextInt(256));
-					}
-				}
+				if (rgb == null)
+					rgb = getDefaultColor(name);
 				pathClass = PathClass.getInstance(null, name, rgb);
 				mapPathClasses.put(pathClass.toString(), pathClass);
 			}
 			return pathClass;
 		}
 	}
+	
+	/**
+	 * Get the default color for a (non-derived) classification with the specified name, without creating a {@link PathClass}.
+	 * This is the color used by {@link #getPathClass(String)} whenever a new classification is created.
+	 * <p>
+	 * This is useful when many names are needed only to determine colors (e.g. for instance labels), 
+	 * since each {@link PathClass} is cached indefinitely.
+	 * 
+	 * @param name the classification name
+	 * @return a packed RGB value
+	 * @since v0.4.0
+	 */
+	public static int getDefaultColor(String name) {
+		// Use default colors for intensity classes
+		if (name.equals(ONE_PLUS))
+			return ColorTools.makeScaledRGB(COLOR_ONE_PLUS, 1.25);
+		else if (name.equals(TWO_PLUS))
+			return ColorTools.makeScaledRGB(COLOR_TWO_PLUS, 1.25);
+		else if (name.equals(THREE_PLUS))
+			return ColorTools.makeScaledRGB(COLOR_THREE_PLUS, 1.25);
+		else if (name.equals(POSITIVE))
+			return ColorTools.makeScaledRGB(COLOR_POSITIVE, 1.25);
+		else if (name.equals(NEGATIVE))
+			return ColorTools.makeScaledRGB(COLOR_NEGATIVE, 1.25);
+		// Create a random color
+		// Use the hashcode of the String as a seed - so that the same 
+		// color is generated reproducibly for the same name.
+		Random random = new Random(name.hashCode());
+		return ColorTools.packRGB(
+				random.nextInt(256),
+				random.nextInt(256),
+				random.nextInt(256));
+	}
 	/**
 	 * Get a derived {@link PathClass} object representing all the provided names, 
 	 * using default colors.
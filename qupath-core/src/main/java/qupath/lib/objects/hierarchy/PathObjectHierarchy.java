@@ -31,12 +31,19 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Location;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -102,6 +109,23 @@ public final class PathObjectHierarchy implements Serializable {
 	
 	transient private PathObjectSelectionModel selectionModel = new PathObjectSelectionModel();
 	transient private List<PathObjectHierarchyListener> listeners = new ArrayList<>();
+	
+	// Executors used to notify listeners asynchronously (guarded by listeners)
+	transient private Map<PathObjectHierarchyListener, Executor> listenerExecutors = new HashMap<>();
+	
+	// Depth of nested calls to batch, and events fired during the batch (guarded by this)
+	transient private int batchDepth = 0;
+	transient private List<PathObjectHierarchyEvent> pendingEvents = new ArrayList<>();
+	
+	// Flattened list of objects (including the root) published while a batch is running, 
+	// so that other threads can query the hierarchy without waiting for the batch to finish
+	transient private volatile List<PathObject> snapshot = null;
+	
+	/**
+	 * Minimum number of detections for an insertion to be treated as a bulk change, 
+	 * which assigns parents with a single sweep rather than one object at a time.
+	 */
+	private static final int MIN_BULK_CHANGE_OBJECTS = 1000;
 
 	// Cache enabling faster access of objects according to location
 	transient private PathObjectTileCache tileCache = new PathObjectTileCache(this);
@@ -133,6 +157,27 @@ public final class PathObjectHierarchy implements Serializable {
 		}
 	}
 	
+	/**
+	 * Add a hierarchy change listener that is notified asynchronously.
+	 * <p>
+	 * Events are passed to the executor rather than delivered while the hierarchy is locked, so that slow listeners 
+	 * (e.g. those that update a user interface) do not hold up changes to the hierarchy. 
+	 * The executor should run tasks in the order they are submitted. For JavaFX, an executor that runs tasks immediately 
+	 * on the application thread (and otherwise uses {@code Platform.runLater}) avoids reordering events fired on that thread.
+	 * Note that the hierarchy may have changed again by the time the listener receives the event.
+	 * 
+	 * @param listener
+	 * @param executor the executor used to notify the listener
+	 * @since v0.4.0
+	 */
+	public void addPathObjectListener(PathObjectHierarchyListener listener, Executor executor) {
+		Objects.requireNonNull(executor);
+		synchronized(listeners) {
+			listeners.add(listener);
+			listenerExecutors.put(listener, executor);
+		}
+	}
+	
 	/**
 	 * Remove a hierarchy change listener.
 	 * @param listener
@@ -140,9 +185,80 @@ public final class PathObjectHierarchy implements Serializable {
 	public void removePathObjectListener(PathObjectHierarchyListener listener) {
 		synchronized(listeners) {
 			listeners.remove(listener);
+			if (!listeners.contains(listener))
+				listenerExecutors.remove(listener);
+		}
+	}
+	
+	/**
+	 * Make a batch of changes to the hierarchy, notifying listeners only when all the changes are complete.
+	 * <p>
+	 * Events fired while the batch is running are collected and merged, so that listeners receive at most 
+	 * one structure change event, and one event per type of object change (containing all the changed objects), 
+	 * after the batch completes. This can greatly reduce the overhead of scripts that change objects in a loop.
+	 * <p>
+	 * The hierarchy is locked while the batch runs. Batches may be nested, in which case events are 
+	 * fired when the outermost batch completes. Events are fired even if the batch throws an exception.
+	 * <p>
+	 * When the outermost batch starts, a snapshot of the objects in the hierarchy is taken. 
+	 * Until the batch completes, methods that query the objects (e.g. {@link #getFlattenedObjectList(List)}, 
+	 * {@link #getObjects(Collection, Class)} and {@link #nObjects()}) return results based upon the snapshot 
+	 * when called from other threads, rather than waiting for the batch to finish.
+	 * The objects themselves are not copied, so properties such as their classifications may still change.
+	 * Taking the snapshot requires a pass over all the objects, so it is best to make many changes in one batch 
+	 * rather than to start a new batch for each change.
+	 * 
+	 * @param runnable the changes to make
+	 * @since v0.4.0
+	 */
+	public void batch(Runnable runnable) {
+		synchronized (this) {
+			if (batchDepth == 0)
+				snapshot = createSnapshot();
+			batchDepth++;
+			try {
+				runnable.run();
+			} finally {
+				batchDepth--;
+				if (batchDepth == 0) {
+					snapshot = null;
+					firePendingEvents();
+				}
+			}
 		}
 	}
 	
+	/**
+	 * Get the snapshot that should be used to query objects from the current thread.
+	 * @return the snapshot, or null if the hierarchy should be queried directly
+	 */
+	private List<PathObject> getReadSnapshot() {
+		if (Thread.holdsLock(this))
+			return null;
+		return snapshot;
+	}
+	
+	/**
+	 * Create an unmodifiable flattened list of all objects (including the root).
+	 * The hierarchy is walked each time, since child lists may be changed directly without firing any events.
+	 * @return
+	 */
+	private synchronized List<PathObject> createSnapshot() {
+		var list = new ArrayList<PathObject>();
+		getObjects(list, PathObject.class, null);
+		return Collections.unmodifiableList(list);
+	}
+	
+	/**
+	 * Check if a batch of changes is currently being made.
+	 * @return
+	 * @see #batch(Runnable)
+	 * @since v0.4.0
+	 */
+	public synchronized boolean isBatching() {
+		return batchDepth > 0;
+	}
+	
 	/**
 	 * Get the root object. All other objects in the hierarchy are descendants of the root.
 	 * @return
@@ -253,6 +369,11 @@ public final class PathObjectHierarchy implements Serializable {
 		boolean singleObject = selectedObjects.size() == 1;
 		// We don't want to reset caches for every object if we have only detections, since previously-inserted objects don't impact the potential parent
 		boolean allDetections = selectedObjects.stream().allMatch(p -> p.isDetection());
+		if (allDetections && selectedObjects.size() >= MIN_BULK_CHANGE_OBJECTS) {
+			insertDetections(selectedObjects);
+			fireHierarchyChangedEvent(this);
+			return true;
+		}
 		for (var pathObject : selectedObjects) {
 //			hierarchy.insertPathObject(pathObject, true);
 			insertPathObject(getRootObject(), pathObject, singleObject, !singleObject && !allDetections);
@@ -263,6 +384,118 @@ public final class PathObjectHierarchy implements Serializable {
 		return true;
 	}
 	
+	/**
+	 * Insert many detections at once, without firing any events.
+	 * <p>
+	 * Each detection is assigned the same parent that {@link #insertPathObject(PathObject, boolean)} would choose, 
+	 * i.e. the first annotation or TMA core according to {@link #HIERARCHY_COMPARATOR} that contains its centroid. 
+	 * However, rather than querying the tile cache for every detection, the possible parents are visited in turn.
+	 * Detections are sorted by the x-coordinate of their centroid, so that those within the bounds of each parent 
+	 * can be found with a binary search, and the point-in-polygon tests for each parent are made in parallel. 
+	 * Detections are then added to their parents with one call per parent.
+	 * 
+	 * @param detections the detections to insert; these should not currently be in the hierarchy
+	 */
+	private void insertDetections(List<? extends PathObject> detections) {
+		int n = detections.size();
+		
+		// Sort by centroid x-coordinate
+		double[] centroidX = new double[n];
+		double[] centroidY = new double[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			var roi = PathObjectTools.getROI(detections.get(i), true);
+			centroidX[i] = roi == null ? Double.NaN : roi.getCentroidX();
+			centroidY[i] = roi == null ? Double.NaN : roi.getCentroidY();
+		});
+		int[] order = IntStream.range(0, n).boxed()
+				.sorted(Comparator.comparingDouble(i -> centroidX[i]))
+				.mapToInt(i -> i)
+				.toArray();
+		double[] sortedX = new double[n];
+		for (int k = 0; k < n; k++)
+			sortedX[k] = centroidX[order[k]];
+		
+		// Visit possible parents in order of priority
+		Collection<PathObject> tempSet = new HashSet<>();
+		tileCache.getObjectsForRegion(PathAnnotationObject.class, null, tempSet, true);
+		if (tmaGrid != null)
+			tileCache.getObjectsForRegion(TMACoreObject.class, null, tempSet, true);
+		var possibleParents = new ArrayList<>(tempSet);
+		possibleParents.sort(HIERARCHY_COMPARATOR);
+		
+		var parents = new PathObject[n];
+		for (var possibleParent : possibleParents) {
+			var roi = possibleParent.getROI();
+			if (roi == null || possibleParent.isDetection())
+				continue;
+			int from = lowerBound(sortedX, roi.getBoundsX());
+			int to = upperBound(sortedX, roi.getBoundsX() + roi.getBoundsWidth());
+			if (from >= to)
+				continue;
+			double minY = roi.getBoundsY();
+			double maxY = roi.getBoundsY() + roi.getBoundsHeight();
+			int z = roi.getZ();
+			int t = roi.getT();
+			var locator = tileCache.getLocator(roi, true);
+			var stream = IntStream.range(from, to);
+			if (to - from >= MIN_BULK_CHANGE_OBJECTS)
+				stream = stream.parallel();
+			stream.forEach(k -> {
+				int i = order[k];
+				if (parents[i] != null)
+					return;
+				double y = centroidY[i];
+				if (y < minY || y > maxY)
+					return;
+				var detectionROI = detections.get(i).getROI();
+				if (detectionROI.getZ() != z || detectionROI.getT() != t)
+					return;
+				if (locator.locate(new Coordinate(sortedX[k], y)) != Location.EXTERIOR)
+					parents[i] = possibleParent;
+			});
+		}
+		
+		// Add detections to their parents, retaining their order
+		Map<PathObject, List<PathObject>> map = new LinkedHashMap<>();
+		for (int i = 0; i < n; i++) {
+			var parent = parents[i] == null ? getRootObject() : parents[i];
+			map.computeIfAbsent(parent, p -> new ArrayList<>()).add(detections.get(i));
+		}
+		for (var entry : map.entrySet())
+			entry.getKey().addPathObjects(entry.getValue());
+		tileCache.resetCache();
+	}
+	
+	/**
+	 * Get the index of the first value in a sorted array that is greater than or equal to the specified value.
+	 */
+	private static int lowerBound(double[] sorted, double value) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid] < value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Get the index of the first value in a sorted array that is greater than the specified value.
+	 */
+	private static int upperBound(double[] sorted, double value) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid] <= value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
 	/**
 	 * Attempt to resolve the parent-child relationships between all objects within the hierarchy.
 	 */
@@ -606,8 +839,16 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param cls
 	 * @return
 	 */
-	public synchronized Collection<PathObject> getPointObjects(Class<? extends PathObject> cls) {
-		Collection<PathObject> pathObjects = getObjects(null, cls);
+	public Collection<PathObject> getPointObjects(Class<? extends PathObject> cls) {
+		Collection<PathObject> pathObjects;
+		var snapshot = getReadSnapshot();
+		if (snapshot != null)
+			pathObjects = getObjects(null, cls, snapshot);
+		else {
+			synchronized (this) {
+				pathObjects = getObjects(null, cls, null);
+			}
+		}
 		if (!pathObjects.isEmpty()) {
 			Iterator<PathObject> iter = pathObjects.iterator();
 			while (iter.hasNext()) {
@@ -659,9 +900,22 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public Collection<PathObject> getObjects(Collection<PathObject> pathObjects, Class<? extends PathObject> cls) {
+		// If a batch of changes is being made by another thread, use the snapshot
+		return getObjects(pathObjects, cls, getReadSnapshot());
+	}
+	
+	private Collection<PathObject> getObjects(Collection<PathObject> pathObjects, Class<? extends PathObject> cls, List<PathObject> snapshot) {
 		if (pathObjects == null)
 			pathObjects = new ArrayList<>();
 		
+		if (snapshot != null) {
+			for (var pathObject : snapshot) {
+				if (cls == null || cls.isInstance(pathObject))
+					pathObjects.add(pathObject);
+			}
+			return pathObjects;
+		}
+		
 		// If we want annotations, it can be much faster to get them from the tile cache than to sift through a potentially large number of detections
 		if (PathAnnotationObject.class == cls && tileCache != null && tileCache.isActive()) {
 			pathObjects.addAll(tileCache.getObjectsForRegion(cls, null, null, true));
@@ -697,20 +951,34 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param list
 	 * @return
 	 */
-	public synchronized List<PathObject> getFlattenedObjectList(List<PathObject> list) {
-		if (list == null)
-			list = new ArrayList<>(nObjects());
-		getObjects(list, PathObject.class);
-		return list;
+	public List<PathObject> getFlattenedObjectList(List<PathObject> list) {
+		var snapshot = getReadSnapshot();
+		if (snapshot != null) {
+			if (list == null)
+				list = new ArrayList<>(snapshot.size());
+			list.addAll(snapshot);
+			return list;
+		}
+		synchronized (this) {
+			if (list == null)
+				list = new ArrayList<>(nObjects());
+			getObjects(list, PathObject.class);
+			return list;
+		}
 	}
 	
 	/**
 	 * Number of objects in the hierarchy, excluding the root.
 	 * @return
 	 */
-	public synchronized int nObjects() {
-		int count = PathObjectTools.countDescendants(getRootObject());
-		return count;
+	public int nObjects() {
+		var snapshot = getReadSnapshot();
+		if (snapshot != null)
+			return snapshot.size() - 1;
+		synchronized (this) {
+			int count = PathObjectTools.countDescendants(getRootObject());
+			return count;
+		}
 	}
 	
 	/**
@@ -895,10 +1163,80 @@ public final class PathObjectHierarchy implements Serializable {
 	
 	
 	synchronized void fireEvent(PathObjectHierarchyEvent event) {
+		if (batchDepth > 0) {
+			// The tile cache must always be up-to-date, since it is used when modifying the hierarchy
+			tileCache.hierarchyChanged(event);
+			pendingEvents.add(event);
+			return;
+		}
+		fireEvent(event, null);
+	}
+	
+	private void fireEvent(PathObjectHierarchyEvent event, PathObjectHierarchyListener skipListener) {
 		synchronized(listeners) {
-			for (PathObjectHierarchyListener listener : listeners)
-				listener.hierarchyChanged(event);
+			for (PathObjectHierarchyListener listener : listeners) {
+				if (listener == skipListener)
+					continue;
+				var executor = listenerExecutors.get(listener);
+				if (executor == null)
+					listener.hierarchyChanged(event);
+				else
+					executor.execute(() -> listener.hierarchyChanged(event));
+			}
+		}
+	}
+	
+	/**
+	 * Merge the events collected during a batch, and fire them to all listeners except the tile cache 
+	 * (which has already been notified).
+	 */
+	private void firePendingEvents() {
+		if (pendingEvents.isEmpty())
+			return;
+		var events = pendingEvents;
+		pendingEvents = new ArrayList<>();
+		
+		List<PathObjectHierarchyEvent> structureEvents = new ArrayList<>();
+		Map<HierarchyEventType, List<PathObjectHierarchyEvent>> objectEvents = new LinkedHashMap<>();
+		for (var event : events) {
+			if (event.isStructureChangeEvent())
+				structureEvents.add(event);
+			else
+				objectEvents.computeIfAbsent(event.getEventType(), t -> new ArrayList<>()).add(event);
 		}
+		
+		// Replace multiple structure changes with a single change for the whole hierarchy
+		if (structureEvents.size() == 1)
+			fireEvent(structureEvents.get(0), tileCache);
+		else if (!structureEvents.isEmpty()) {
+			Object source = structureEvents.get(0).getSource();
+			for (var e : structureEvents)
+				source = mergeSource(source, e.getSource());
+			fireEvent(PathObjectHierarchyEvent.createStructureChangeEvent(source, this, getRootObject()), tileCache);
+		}
+		
+		for (var entry : objectEvents.entrySet()) {
+			var list = entry.getValue();
+			PathObjectHierarchyEvent event;
+			if (list.size() == 1)
+				event = list.get(0);
+			else {
+				Object source = list.get(0).getSource();
+				Set<PathObject> changed = new LinkedHashSet<>();
+				boolean isChanging = true;
+				for (var e : list) {
+					source = mergeSource(source, e.getSource());
+					changed.addAll(e.getChangedObjects());
+					isChanging = isChanging && e.isChanging();
+				}
+				event = PathObjectHierarchyEvent.createObjectsChangedEvent(source, this, entry.getKey(), changed, isChanging);
+			}
+			fireEvent(event, tileCache);
+		}
+	}
+	
+	private Object mergeSource(Object source, Object source2) {
+		return source == source2 ? source : this;
 	}
 	
 	
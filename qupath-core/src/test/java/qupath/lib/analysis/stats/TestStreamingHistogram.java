@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestStreamingHistogram {
+
+	@Test
+	public void test_countsAndStatistics() {
+		var random = new Random(42);
+		var hist = new StreamingHistogram(256, 0, 1);
+		var stats = new RunningStatistics();
+		for (int i = 0; i < 10_000; i++) {
+			double v = random.nextGaussian() * 100 + 20;
+			hist.addValue(v);
+			stats.addValue(v);
+		}
+		hist.addValue(Double.NaN);
+		hist.addValue(Double.POSITIVE_INFINITY);
+
+		assertEquals(10_000, hist.getCountSum());
+		assertEquals(stats.getMin(), hist.getMinValue());
+		assertEquals(stats.getMax(), hist.getMaxValue());
+
+		var histogram = hist.toHistogram();
+		assertEquals(10_000, histogram.getCountSum());
+		assertEquals(stats.getMean(), histogram.getMeanValue(), 1e-9);
+		assertEquals(stats.getStdDev(), histogram.getStdDev(), 1e-9);
+		assertTrue(histogram.getEdgeMin() <= stats.getMin());
+		assertTrue(histogram.getEdgeMax() >= stats.getMax());
+		assertFalse(histogram.isInteger());
+		long sum = 0;
+		for (int i = 0; i < histogram.nBins(); i++)
+			sum += histogram.getCountsForBin(i);
+		assertEquals(10_000, sum);
+	}
+
+	@Test
+	public void test_percentiles() {
+		var random = new Random(100);
+		int n = 50_000;
+		double[] values = new double[n];
+		var hist = new StreamingHistogram(1024, 0, 0);
+		for (int i = 0; i < n; i++) {
+			values[i] = random.nextDouble() * 1000 - 200;
+			hist.addValue(values[i]);
+		}
+		Arrays.sort(values);
+		double range = values[n-1] - values[0];
+		for (double p : new double[] {1, 5, 25, 50, 75, 95, 99, 99.9}) {
+			double expected = values[(int)Math.round(p / 100.0 * (n - 1))];
+			// Allow a tolerance of a couple of bins
+			assertEquals(expected, hist.getPercentile(p), range / 1024 * 2.0);
+		}
+		assertEquals(values[0], hist.getPercentile(0));
+		assertEquals(values[n-1], hist.getPercentile(100));
+	}
+
+	@Test
+	public void test_merge() {
+		var hist1 = new StreamingHistogram(256, 0, 256);
+		var hist2 = new StreamingHistogram(256, 0, 256);
+		var histBoth = new StreamingHistogram(256, 0, 256);
+		for (int i = 0; i < 256; i++) {
+			hist1.addValue(i);
+			histBoth.addValue(i);
+			hist2.addValue(i * 4);
+			histBoth.addValue(i * 4);
+		}
+		assertTrue(hist1.toHistogram().isInteger());
+		hist1.merge(hist2);
+		assertEquals(histBoth.getCountSum(), hist1.getCountSum());
+		assertEquals(histBoth.getMinValue(), hist1.getMinValue());
+		assertEquals(histBoth.getMaxValue(), hist1.getMaxValue());
+		assertEquals(histBoth.toHistogram().getMeanValue(), hist1.toHistogram().getMeanValue(), 1e-9);
+		assertEquals(histBoth.toHistogram().getStdDev(), hist1.toHistogram().getStdDev(), 1e-9);
+		assertEquals(histBoth.getPercentile(50), hist1.getPercentile(50), 4.0);
+	}
+
+	@Test
+	public void test_empty() {
+		var hist = new StreamingHistogram(10, 0, 1);
+		assertEquals(0, hist.getCountSum());
+		assertTrue(Double.isNaN(hist.getPercentile(50)));
+		assertEquals(0, hist.toHistogram().getCountSum());
+	}
+
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.classifiers.object;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectFilter;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestCompositeClassifier {
+	
+	@Test
+	public void test_fusedClassification() {
+		var names = new String[] {"A", "B", "C"};
+		
+		List<ObjectClassifier<Object>> fusable = new ArrayList<>();
+		List<ObjectClassifier<Object>> sequential = new ArrayList<>();
+		for (var name : names) {
+			var classifier = (SimpleClassifier<Object>)new ObjectClassifiers.ClassifyByMeasurementBuilder<Object>(name)
+					.threshold(0.5)
+					.above(PathClassFactory.getPathClass(name))
+					.equalTo(PathClassFactory.getPathClass("Equal"))
+					.build();
+			fusable.add(classifier);
+			// Wrapping the function prevents the classifiers being evaluated together
+			var function = classifier.getFunction();
+			sequential.add(new SimpleClassifier<>(PathObjectFilter.DETECTIONS_ALL, p -> function.apply(p), classifier.getPathClasses()));
+		}
+		// Include a nested composite classifier
+		var fused = new CompositeClassifier<Object>(List.<ObjectClassifier<Object>>of(fusable.get(0), new CompositeClassifier<>(fusable.subList(1, 3))));
+		var notFused = new CompositeClassifier<>(sequential);
+		assertNotNull(fused.getMeasurementFunctions());
+		assertNull(notFused.getMeasurementFunctions());
+		
+		for (boolean reset : new boolean[] {true, false}) {
+			var objectsFused = createObjects(new Random(100L), 10_000);
+			var objectsSequential = createObjects(new Random(100L), 10_000);
+			
+			int nFused = fused.classifyObjects(null, objectsFused, reset);
+			int nSequential = notFused.classifyObjects(null, objectsSequential, reset);
+			assertEquals(nSequential, nFused);
+			for (int i = 0; i < objectsFused.size(); i++) {
+				assertEquals(objectsSequential.get(i).getPathClass(), objectsFused.get(i).getPathClass());
+			}
+		}
+	}
+	
+	private static List<PathObject> createObjects(Random rng, int n) {
+		var types = MeasurementListType.values();
+		var initialClass = PathClassFactory.getPathClass("Initial");
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			var type = types[i % types.length];
+			MeasurementList ml = MeasurementListFactory.createMeasurementList(4, type);
+			// Vary the order of measurements, and sometimes omit one or use values that can't be classified
+			if (i % 3 == 0) {
+				ml.putMeasurement("C", nextValue(rng));
+				ml.putMeasurement("A", nextValue(rng));
+			} else {
+				ml.putMeasurement("A", nextValue(rng));
+				ml.putMeasurement("B", nextValue(rng));
+				ml.putMeasurement("Other", nextValue(rng));
+				ml.putMeasurement("C", nextValue(rng));
+			}
+			ml.close();
+			PathClass pathClass = i % 2 == 0 ? initialClass : null;
+			pathObjects.add(PathObjects.createDetectionObject(ROIs.createEmptyROI(), pathClass, ml));
+		}
+		return pathObjects;
+	}
+	
+	private static double nextValue(Random rng) {
+		int r = rng.nextInt(20);
+		if (r == 0)
+			return Double.NaN;
+		if (r == 1)
+			return 0.5;
+		return rng.nextDouble();
+	}
+
+}
@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.images.servers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestLabeledImageServer {
+	
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 160;
+	
+	@Test
+	public void test_instanceLabels() throws IOException {
+		var imageData = createImageData();
+		var pathObjects = createGrid(10, 8, 20, 12);
+		imageData.getHierarchy().addPathObjects(pathObjects);
+		
+		var server = new LabeledImageServer.Builder(imageData)
+				.useDetections()
+				.useInstanceLabels()
+				.build();
+		
+		var labels = server.getInstanceLabels();
+		assertEquals(pathObjects.size(), labels.size());
+		assertEquals(new HashSet<>(pathObjects), labels.keySet());
+		// Labels should be unique, starting from 1 (since 0 is the background)
+		var labelValues = new HashSet<>(labels.values());
+		assertEquals(pathObjects.size(), labelValues.size());
+		assertEquals(1, labelValues.stream().mapToInt(i -> i).min().getAsInt());
+		assertEquals(pathObjects.size(), labelValues.stream().mapToInt(i -> i).max().getAsInt());
+		// The map shouldn't be recreated
+		assertSame(labels, server.getInstanceLabels());
+		
+		assertEquals(PixelType.UINT8, server.getPixelType());
+		var img = readFully(server);
+		var raster = img.getRaster();
+		for (var pathObject : pathObjects) {
+			var roi = pathObject.getROI();
+			int label = labels.get(pathObject);
+			assertEquals(label, raster.getSample((int)roi.getCentroidX(), (int)roi.getCentroidY(), 0));
+			// Gaps between objects should be background
+			assertEquals(0, raster.getSample((int)roi.getBoundsX() - 1, (int)roi.getBoundsY() - 1, 0));
+			
+			// Colors should match the classifications that were previously used for each label
+			int rgb = img.getColorModel().getRGB(label) & 0xffffff;
+			int rgbClass = PathClassFactory.getPathClass("Label " + label).getColor() & 0xffffff;
+			assertEquals(rgbClass, rgb);
+		}
+	}
+	
+	@Test
+	public void test_instanceLabelsUInt16() throws IOException {
+		var imageData = createImageData();
+		var pathObjects = createGrid(20, 16, 10, 6);
+		assertTrue(pathObjects.size() > 255);
+		imageData.getHierarchy().addPathObjects(pathObjects);
+		
+		var server = new LabeledImageServer.Builder(imageData)
+				.useDetections()
+				.useInstanceLabels()
+				.shuffleInstanceLabels(false)
+				.build();
+		assertEquals(PixelType.UINT16, server.getPixelType());
+		
+		var labels = server.getInstanceLabels();
+		var raster = readFully(server).getRaster();
+		for (var pathObject : pathObjects) {
+			var roi = pathObject.getROI();
+			assertEquals(labels.get(pathObject).intValue(), raster.getSample((int)roi.getCentroidX(), (int)roi.getCentroidY(), 0));
+		}
+	}
+	
+	@Test
+	public void test_instanceLabelsOverlapAndPlanes() throws IOException {
+		var imageData = createImageData();
+		var plane = ImagePlane.getDefaultPlane();
+		var first = PathObjects.createDetectionObject(ROIs.createRectangleROI(10, 10, 50, 50, plane));
+		var second = PathObjects.createDetectionObject(ROIs.createEllipseROI(40, 40, 50, 50, plane));
+		var otherPlane = PathObjects.createDetectionObject(ROIs.createRectangleROI(120, 10, 50, 50, ImagePlane.getPlane(1, 0)));
+		var line = PathObjects.createDetectionObject(ROIs.createLineROI(120, 100, 180, 100, plane));
+		imageData.getHierarchy().addPathObjects(List.of(first, second, otherPlane, line));
+		
+		var server = new LabeledImageServer.Builder(imageData)
+				.useDetections()
+				.useInstanceLabels()
+				.lineThickness(2)
+				.build();
+		var labels = server.getInstanceLabels();
+		var raster = readFully(server).getRaster();
+		
+		// Objects are painted in label order, so the higher label is visible where objects overlap
+		int labelFirst = labels.get(first);
+		int labelSecond = labels.get(second);
+		assertEquals(labelFirst, raster.getSample(15, 15, 0));
+		assertEquals(labelSecond, raster.getSample(85, 65, 0));
+		assertEquals(Math.max(labelFirst, labelSecond), raster.getSample(55, 55, 0));
+		
+		// Lines are painted with the line thickness
+		assertEquals(labels.get(line).intValue(), raster.getSample(150, 100, 0));
+		assertEquals(0, raster.getSample(150, 110, 0));
+		
+		// Objects on another plane aren't painted
+		assertTrue(labels.containsKey(otherPlane));
+		assertEquals(0, raster.getSample(145, 35, 0));
+		for (int y = 0; y < raster.getHeight(); y++) {
+			for (int x = 0; x < raster.getWidth(); x++)
+				assertFalse(raster.getSample(x, y, 0) == labels.get(otherPlane));
+		}
+	}
+	
+	
+	private static ImageData<BufferedImage> createImageData() {
+		var img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		return new ImageData<>(new WrappedBufferedImageServer("test", img));
+	}
+	
+	private static BufferedImage readFully(ImageServer<BufferedImage> server) throws IOException {
+		return server.readRegion(RegionRequest.createInstance(server));
+	}
+	
+	/**
+	 * Create a grid of non-overlapping square detections, separated by gaps.
+	 */
+	private static List<PathObject> createGrid(int nx, int ny, int spacing, int size) {
+		List<PathObject> pathObjects = new ArrayList<>();
+		var plane = ImagePlane.getDefaultPlane();
+		for (int y = 0; y < ny; y++) {
+			for (int x = 0; x < nx; x++) {
+				var roi = ROIs.createRectangleROI(x * spacing + 2, y * spacing + 2, size, size, plane);
+				pathObjects.add(PathObjects.createDetectionObject(roi));
+			}
+		}
+		return pathObjects;
+	}
+
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestScanlineRasterizer {
+
+	@Test
+	public void testRectangle() {
+		int[] raster = new int[50 * 40];
+		var rasterizer = new ScanlineRasterizer(raster, 50, 40);
+		rasterizer.fill(new Rectangle2D.Double(10, 5, 20, 10), null, 3);
+		assertEquals(200, count(raster, 3));
+		assertEquals(3, raster[5 * 50 + 10]);
+		assertEquals(0, raster[5 * 50 + 30]);
+		assertEquals(0, raster[15 * 50 + 10]);
+	}
+
+	@Test
+	public void testTransformAndClipping() {
+		int[] raster = new int[20 * 20];
+		var rasterizer = new ScanlineRasterizer(raster, 20, 20);
+		var transform = AffineTransform.getScaleInstance(0.5, 0.5);
+		transform.translate(-10, -10);
+		// Extends beyond the raster on all sides
+		rasterizer.fill(new Rectangle2D.Double(0, 0, 100, 100), transform, 1);
+		assertEquals(400, count(raster, 1));
+	}
+
+	@Test
+	public void testHoles() {
+		var area = new Area(new Rectangle2D.Double(0, 0, 40, 40));
+		area.subtract(new Area(new Rectangle2D.Double(10, 10, 20, 20)));
+		int[] raster = new int[40 * 40];
+		new ScanlineRasterizer(raster, 40, 40).fill(area, null, 1);
+		assertEquals(1600 - 400, count(raster, 1));
+
+		// Even-odd path with an inner ring of the same orientation
+		var path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		path.append(new Rectangle2D.Double(0, 0, 40, 40), false);
+		path.append(new Rectangle2D.Double(10, 10, 20, 20), false);
+		Arrays.fill(raster, 0);
+		new ScanlineRasterizer(raster, 40, 40).fill(path, null, 1);
+		assertEquals(1600 - 400, count(raster, 1));
+	}
+
+	@Test
+	public void testCompareGraphics() {
+		int w = 64, h = 48;
+		var shapes = new Shape[] {
+				new Ellipse2D.Double(3.3, 4.7, 40.2, 30.9),
+				createTriangle(),
+				new Area(new Ellipse2D.Double(-10, -10, 50, 80))
+		};
+		for (var shape : shapes) {
+			int[] raster = new int[w * h];
+			new ScanlineRasterizer(raster, w, h).fill(shape, null, 1);
+
+			var img = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+			var g2d = img.createGraphics();
+			// Stroke normalization would shift coordinates slightly
+			g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			g2d.setColor(Color.WHITE);
+			g2d.fill(shape);
+			g2d.dispose();
+			int[] expected = img.getRaster().getSamples(0, 0, w, h, 0, (int[])null);
+			int nExpected = count(expected, 255);
+			int nDifferent = 0;
+			for (int i = 0; i < raster.length; i++) {
+				if ((raster[i] == 1) != (expected[i] == 255))
+					nDifferent++;
+			}
+			// Permit very small differences along the boundary due to rounding
+			assertTrue(nDifferent <= nExpected * 0.01, "Too many differences compared to Graphics2D: " + nDifferent);
+		}
+	}
+
+	@Test
+	public void testPoints() {
+		int[] raster = new int[10 * 10];
+		new ScanlineRasterizer(raster, 10, 10).setPoints(new double[] {1.5, 2.5, -1, 3, 9.9, 9.9}, 3, 7);
+		assertEquals(2, count(raster, 7));
+		assertEquals(7, raster[2 * 10 + 1]);
+		assertEquals(7, raster[9 * 10 + 9]);
+	}
+
+	private static Shape createTriangle() {
+		var path = new Path2D.Double();
+		path.moveTo(5.2, 2.1);
+		path.lineTo(60.7, 20.4);
+		path.lineTo(12.5, 45.3);
+		path.closePath();
+		return path;
+	}
+
+	private static int count(int[] values, int target) {
+		return (int)Arrays.stream(values).filter(v -> v == target).count();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestTileExporter {
+	
+	@Test
+	public void test_shardedOutput(@TempDir Path dir) throws IOException {
+		
+		var img = new BufferedImage(256, 192, BufferedImage.TYPE_INT_RGB);
+		var rand = new Random(100L);
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				img.setRGB(x, y, rand.nextInt());
+			}
+		}
+		var server = new WrappedBufferedImageServer("tiles", img);
+		var imageData = new ImageData<>(server);
+		
+		new TileExporter(imageData)
+			.tileSize(64)
+			.imageExtension(".png")
+			.shardedOutput(5)
+			.writeTiles(dir.toString());
+		
+		// 12 tiles should be split across 3 shards
+		var pathJson = dir.resolve("tiles-shards.json");
+		assertTrue(Files.exists(pathJson));
+		for (int i = 0; i < 3; i++)
+			assertTrue(Files.exists(dir.resolve(String.format("tiles-shard-%05d.bin", i))));
+		assertFalse(Files.exists(dir.resolve(String.format("tiles-shard-%05d.bin", 3))));
+		
+		JsonObject json;
+		try (var reader = Files.newBufferedReader(pathJson, StandardCharsets.UTF_8)) {
+			json = JsonParser.parseReader(reader).getAsJsonObject();
+		}
+		var tiles = json.getAsJsonArray("tiles");
+		assertEquals(12, tiles.size());
+		
+		Set<String> regions = new HashSet<>();
+		for (var element : tiles) {
+			var entry = element.getAsJsonObject();
+			var region = entry.getAsJsonObject("region");
+			int x = region.get("x").getAsInt();
+			int y = region.get("y").getAsInt();
+			int width = region.get("width").getAsInt();
+			int height = region.get("height").getAsInt();
+			assertTrue(regions.add(x + "," + y));
+			assertEquals(64, width);
+			assertEquals(64, height);
+			
+			// Read the encoded tile back from the shard
+			var location = entry.getAsJsonObject("image_shard");
+			assertNotNull(location);
+			var shardBytes = Files.readAllBytes(dir.resolve(location.get("shard").getAsString()));
+			int offset = (int)location.get("offset").getAsLong();
+			int length = location.get("length").getAsInt();
+			assertTrue(offset + length <= shardBytes.length);
+			var imgTile = ImageIO.read(new ByteArrayInputStream(shardBytes, offset, length));
+			assertNotNull(imgTile);
+			
+			// Check we have the same pixels as the original region
+			var imgExpected = server.readBufferedImage(RegionRequest.createInstance(server.getPath(), 1.0, x, y, width, height));
+			assertEquals(imgExpected.getWidth(), imgTile.getWidth());
+			assertEquals(imgExpected.getHeight(), imgTile.getHeight());
+			for (int yy = 0; yy < height; yy++) {
+				for (int xx = 0; xx < width; xx++) {
+					assertEquals(imgExpected.getRGB(xx, yy), imgTile.getRGB(xx, yy));
+				}
+			}
+		}
+		assertEquals(12, regions.size());
+	}
+
+}
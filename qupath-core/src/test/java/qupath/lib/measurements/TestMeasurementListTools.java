@@ -0,0 +1,44 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.measurements;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestMeasurementListTools {
+
+	@Test
+	public void test_getMeasurementIndices() {
+		var names = Arrays.asList("A", "B", "C", "B");
+		assertArrayEquals(new int[] {2, 0, 1}, MeasurementListTools.getMeasurementIndices(Arrays.asList("C", "A", "B"), names));
+		assertArrayEquals(new int[] {-1, 0, -1}, MeasurementListTools.getMeasurementIndices(Arrays.asList("D", "A", "E"), names));
+		assertArrayEquals(new int[] {-1}, MeasurementListTools.getMeasurementIndices(Arrays.asList("A"), Collections.emptyList()));
+		assertArrayEquals(new int[0], MeasurementListTools.getMeasurementIndices(Collections.emptyList(), names));
+	}
+
+}
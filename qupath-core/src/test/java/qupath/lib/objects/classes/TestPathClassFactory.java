@@ -112,6 +112,19 @@ public class TestPathClassFactory {
 		}
 	}
 	
+	@Test
+	public void test_getDefaultColor() {
+		for (int i = 0; i < 100; i++) {
+			String uniqueName = UUID.randomUUID().toString();
+			int color = PathClassFactory.getDefaultColor(uniqueName);
+			assertEquals(color, PathClassFactory.getPathClass(uniqueName).getColor().intValue());
+		}
+		for (var name : Arrays.asList(PathClassFactory.ONE_PLUS, PathClassFactory.TWO_PLUS, PathClassFactory.THREE_PLUS, 
+				PathClassFactory.POSITIVE, PathClassFactory.NEGATIVE)) {
+			assertEquals(PathClassFactory.getPathClass(name).getColor().intValue(), PathClassFactory.getDefaultColor(name));
+		}
+	}
+	
 	@Test
 	public void test_getOnePlus() {
 		checkFields("1+", "Test: 1+", PathClassFactory.getOnePlus(PathClassFactory.getPathClass("Test")));
@@ -31,17 +31,22 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
 import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.PathRootObject;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.roi.ROIs;
 import qupath.lib.roi.interfaces.ROI;
@@ -377,9 +382,179 @@ public class TestPathObjectHierarchy {
 		}
 
 	}
-	
-	
-}
+	
+	@Test
+	public void test_batch() {
+		var hierarchy = new PathObjectHierarchy();
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		hierarchy.addPathObjectListener(e -> events.add(e));
+		List<Runnable> asyncTasks = new ArrayList<>();
+		List<PathObjectHierarchyEvent> asyncEvents = new ArrayList<>();
+		hierarchy.addPathObjectListener(e -> asyncEvents.add(e), r -> asyncTasks.add(r));
+		
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i * 10 + 1, 1, 5, 5, ImagePlane.getDefaultPlane())));
+		
+		hierarchy.batch(() -> {
+			hierarchy.insertPathObject(annotation, true);
+			hierarchy.batch(() -> {
+				for (var detection : detections)
+					hierarchy.insertPathObject(detection, true);
+			});
+			assertTrue(hierarchy.isBatching());
+			for (var detection : detections) {
+				hierarchy.fireObjectClassificationsChangedEvent(this, Collections.singletonList(detection));
+				hierarchy.fireObjectMeasurementsChangedEvent(this, Collections.singletonList(detection));
+			}
+			assertTrue(events.isEmpty());
+		});
+		assertFalse(hierarchy.isBatching());
+		
+		// Parents should be resolved using the tile cache, even within the batch
+		for (var detection : detections)
+			assertEquals(annotation, detection.getParent());
+		assertEquals(detections.size(), hierarchy.getObjectsForRegion(PathDetectionObject.class, ImageRegion.createInstance(0, 0, 100, 100, 0, 0), null).size());
+		
+		// Events should be merged
+		assertEquals(3, events.size());
+		assertTrue(events.get(0).isStructureChangeEvent());
+		assertEquals(HierarchyEventType.CHANGE_CLASSIFICATION, events.get(1).getEventType());
+		assertEquals(detections, events.get(1).getChangedObjects());
+		assertEquals(this, events.get(1).getSource());
+		assertEquals(HierarchyEventType.CHANGE_MEASUREMENTS, events.get(2).getEventType());
+		assertEquals(detections, events.get(2).getChangedObjects());
+		
+		// Asynchronous listeners should only be notified through the executor
+		assertTrue(asyncEvents.isEmpty());
+		asyncTasks.forEach(r -> r.run());
+		assertEquals(events, asyncEvents);
+		
+		// Events outside a batch are delivered immediately
+		events.clear();
+		hierarchy.fireObjectClassificationsChangedEvent(this, detections);
+		assertEquals(1, events.size());
+	}
+	
+	@Test
+	public void test_insertManyDetections() {
+		var plane = ImagePlane.getDefaultPlane();
+		List<ROI> annotationROIs = Arrays.asList(
+				ROIs.createRectangleROI(0, 0, 500, 500, plane),
+				ROIs.createEllipseROI(50, 50, 200, 200, plane),
+				ROIs.createRectangleROI(100, 100, 50, 50, plane),
+				ROIs.createEllipseROI(300, 0, 400, 300, plane),
+				ROIs.createRectangleROI(100, 100, 50, 50, ImagePlane.getPlane(1, 0))
+				);
+		
+		var rng = new Random(100L);
+		List<ROI> detectionROIs = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			double x = rng.nextDouble() * 800 - 50;
+			double y = rng.nextDouble() * 800 - 50;
+			int z = rng.nextInt(10) == 0 ? 1 : 0;
+			detectionROIs.add(ROIs.createRectangleROI(x, y, 2, 2, ImagePlane.getPlane(z, 0)));
+		}
+		
+		// Insert detections one at a time, and all together
+		var hierarchySingle = new PathObjectHierarchy();
+		var hierarchyBulk = new PathObjectHierarchy();
+		var annotationsSingle = new ArrayList<PathObject>();
+		var annotationsBulk = new ArrayList<PathObject>();
+		for (var roi : annotationROIs) {
+			var annotation = PathObjects.createAnnotationObject(roi);
+			hierarchySingle.insertPathObject(annotation, true);
+			annotationsSingle.add(annotation);
+			annotation = PathObjects.createAnnotationObject(roi);
+			hierarchyBulk.insertPathObject(annotation, true);
+			annotationsBulk.add(annotation);
+		}
+		var detectionsSingle = new ArrayList<PathObject>();
+		var detectionsBulk = new ArrayList<PathObject>();
+		for (var roi : detectionROIs) {
+			var detection = PathObjects.createDetectionObject(roi);
+			hierarchySingle.insertPathObject(detection, true);
+			detectionsSingle.add(detection);
+			detectionsBulk.add(PathObjects.createDetectionObject(roi));
+		}
+		hierarchyBulk.insertPathObjects(detectionsBulk);
+		
+		// Check parents match
+		assertEquals(hierarchySingle.nObjects(), hierarchyBulk.nObjects());
+		for (int i = 0; i < detectionROIs.size(); i++) {
+			var parentSingle = detectionsSingle.get(i).getParent();
+			var parentBulk = detectionsBulk.get(i).getParent();
+			if (parentSingle.isRootObject())
+				assertTrue(parentBulk.isRootObject());
+			else
+				assertEquals(annotationsSingle.indexOf(parentSingle), annotationsBulk.indexOf(parentBulk));
+		}
+	}
+	
+	@Test
+	public void test_snapshotReads() throws Exception {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		hierarchy.addPathObject(annotation);
+		var detection = PathObjects.createDetectionObject(ROIs.createRectangleROI(10, 10, 5, 5, ImagePlane.getDefaultPlane()));
+		var detection2 = PathObjects.createDetectionObject(ROIs.createRectangleROI(20, 20, 5, 5, ImagePlane.getDefaultPlane()));
+		var detection3 = PathObjects.createDetectionObject(ROIs.createRectangleROI(30, 30, 5, 5, ImagePlane.getDefaultPlane()));
+		
+		var batchStarted = new CountDownLatch(1);
+		var readsComplete = new CountDownLatch(1);
+		var thread = startBatch(hierarchy, detection, batchStarted, readsComplete);
+		assertTrue(batchStarted.await(10, TimeUnit.SECONDS));
+		
+		// Reads from another thread should use the snapshot, without waiting for the batch
+		assertEquals(1, hierarchy.nObjects());
+		assertEquals(Arrays.asList(hierarchy.getRootObject(), annotation), hierarchy.getFlattenedObjectList(null));
+		assertEquals(Collections.singletonList(annotation), new ArrayList<>(hierarchy.getAnnotationObjects()));
+		assertTrue(hierarchy.getDetectionObjects().isEmpty());
+		readsComplete.countDown();
+		thread.join();
+		
+		// Once the batch is complete, reads should see the changes
+		assertEquals(2, hierarchy.nObjects());
+		assertEquals(Collections.singletonList(detection), new ArrayList<>(hierarchy.getDetectionObjects()));
+		assertEquals(annotation, detection.getParent());
+		
+		// Changes made directly to child lists don't fire events, but should still be included in the next snapshot
+		annotation.addPathObject(detection2);
+		batchStarted = new CountDownLatch(1);
+		readsComplete = new CountDownLatch(1);
+		thread = startBatch(hierarchy, detection3, batchStarted, readsComplete);
+		assertTrue(batchStarted.await(10, TimeUnit.SECONDS));
+		assertEquals(3, hierarchy.nObjects());
+		assertEquals(Arrays.asList(detection, detection2), new ArrayList<>(hierarchy.getDetectionObjects()));
+		readsComplete.countDown();
+		thread.join();
+		assertEquals(4, hierarchy.nObjects());
+	}
+	
+	/**
+	 * Start a batch on another thread that inserts an object, then waits until reads are complete.
+	 */
+	private static Thread startBatch(PathObjectHierarchy hierarchy, PathObject pathObject, CountDownLatch batchStarted, CountDownLatch readsComplete) {
+		int n = hierarchy.nObjects();
+		var thread = new Thread(() -> {
+			hierarchy.batch(() -> {
+				hierarchy.insertPathObject(pathObject, true);
+				// Reads from within the batch should see the changes
+				assertEquals(n + 1, hierarchy.nObjects());
+				batchStarted.countDown();
+				try {
+					readsComplete.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		});
+		thread.start();
+		return thread;
+	}
+	
+}
 
 // Helper classes for testing
 
@@ -46,10 +46,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -57,16 +53,24 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.imageio.ImageIO;
 
@@ -100,6 +104,7 @@ import loci.formats.ome.OMEXMLMetadata;
 import qupath.lib.color.ColorModelFactory;
 import qupath.lib.common.ColorTools;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.servers.AbstractTileableImageServer;
 import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.images.servers.ImageServerBuilder.DefaultImageServerBuilder;
@@ -124,9 +129,9 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	private static final Logger logger = LoggerFactory.getLogger(BioFormatsImageServer.class);
 		
 	/**
-	 * Define a maximum memoization file size above which parallelization is disabled. 
-	 * This is necessary to avoid creating multiple readers that are too large (e.g. sometimes 
-	 * a memoization file can be over 1GB...)
+	 * Define a memoization file size above which a warning is logged that parallelization may be limited.
+	 * The number of readers is constrained by {@link BioFormatsServerOptions#getReaderMemoryBudget()}, 
+	 * to avoid creating multiple readers that are too large (e.g. sometimes a memoization file can be over 1GB...)
 	 */
 	private static long MAX_PARALLELIZATION_MEMO_SIZE = 1024L * 1024L * 16L;
 	
@@ -919,6 +924,17 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	}
 	
 	
+	/**
+	 * Get statistics describing the readers used by this server, which can be useful when tuning 
+	 * {@link BioFormatsServerOptions}.
+	 * @return
+	 * @since v0.4.0
+	 */
+	public ReaderPoolStatistics getReaderPoolStatistics() {
+		return readerPool.getStatistics();
+	}
+	
+	
 	@Override
 	public String getServerType() {
 		return "Bio-Formats";
@@ -1035,6 +1051,12 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	/**
 	 * Helper class that manages a pool of readers.
 	 * The purpose is to allow multiple threads to take the next available reader, without
+	 * <p>
+	 * Readers are created lazily whenever a thread would otherwise need to wait, up to a maximum determined by 
+	 * {@link BioFormatsServerOptions#getMaxReaders()} and the memory budget for readers (using an approximate 
+	 * per-reader heap footprint).
+	 * The time spent waiting for readers is monitored; if readers are idle, additional readers are closed, and 
+	 * new readers are then only created if waiting becomes significant again.
 	 */
 	static class ReaderPool implements AutoCloseable {
 		
@@ -1045,10 +1067,38 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		 */
 		private final static int MAX_QUEUE_CAPACITY = 128;
 		
+		/**
+		 * Factory for creating readers.
+		 * This makes it possible to change how readers are created, e.g. for testing.
+		 */
+		@FunctionalInterface
+		static interface ReaderFactory {
+			
+			/**
+			 * Create a new reader, with the ID already set.
+			 * @param classList optional list of potential reader classes, if known
+			 * @param store optional metadata store for the reader
+			 * @return the reader
+			 * @throws FormatException
+			 * @throws IOException
+			 */
+			IFormatReader createReader(ClassList<IFormatReader> classList, MetadataStore store) throws FormatException, IOException;
+			
+		}
+		
+		/**
+		 * Threads used to read channel planes in parallel with idle readers.
+		 * There is no queue: if no thread is free, the planes are read by the calling thread instead. 
+		 * This ensures that a thread holding readers never waits for unrelated tasks to complete.
+		 */
+		private static final ExecutorService planePool = new ThreadPoolExecutor(0, Math.max(1, Runtime.getRuntime().availableProcessors()), 
+				10L, TimeUnit.SECONDS, new SynchronousQueue<>(), ThreadTools.createThreadFactory("bioformats-planes-", true));
+		
 		private String id;
 		private BioFormatsServerOptions options;
 		private BioFormatsArgs args;
 		private ClassList<IFormatReader> classList;
+		private ReaderFactory readerFactory;
 		
 		private volatile boolean isClosed = false;
 		
@@ -1056,27 +1106,92 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		private List<IFormatReader> additionalReaders = Collections.synchronizedList(new ArrayList<>());
 		private ArrayBlockingQueue<IFormatReader> queue;
 		
+		/**
+		 * Scratch buffers used to read bytes that need to be converted to another type.
+		 * Since a reader is only ever used by one thread at a time, its buffer can be reused without copying.
+		 */
+		private Map<IFormatReader, byte[]> scratchBuffers = Collections.synchronizedMap(new IdentityHashMap<>());
+		
 		private OMEPyramidStore metadata;
 		private IFormatReader mainReader;
 		
 		private ForkJoinTask<?> task;
 		
+		/**
+		 * Number of tiles to read before reviewing the number of readers.
+		 */
+		final static int TILES_PER_REVIEW = 256;
+		
+		/**
+		 * If threads spend less than this fraction of time waiting for a reader (relative to reading), 
+		 * idle readers may be closed.
+		 */
+		private final static double SHRINK_WAIT_FRACTION = 0.01;
+		
+		/**
+		 * If readers have previously been closed, new readers are only created if threads spend more than 
+		 * this fraction of time waiting for a reader (relative to reading).
+		 */
+		private final static double GROW_WAIT_FRACTION = 0.1;
+		
+		/**
+		 * Minimum number of channel planes to read with each reader, when idle readers can be used to read 
+		 * the planes of a single tile in parallel.
+		 */
+		private final static int MIN_PLANES_PER_READER = 8;
+		
+		/**
+		 * Approximate heap footprint of a single reader, in bytes (or 0 if unknown).
+		 */
+		private volatile long readerBytes = 0L;
+		
+		private final LongAdder tilesRead = new LongAdder();
+		private final LongAdder readNanos = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder parallelTiles = new LongAdder();
+		private final AtomicInteger closedReaders = new AtomicInteger(0);
+		
+		// Values at the last review, used to calculate the recent wait fraction
+		private long lastReviewTiles = 0L;
+		private long lastReviewReadNanos = 0L;
+		private long lastReviewWaitNanos = 0L;
+		private volatile double recentWaitFraction = 0.0;
+		
 		
 		ReaderPool(BioFormatsServerOptions options, String id, BioFormatsArgs args) throws FormatException, IOException {
+			this(options, id, args, null);
+		}
+		
+		/**
+		 * Create a reader pool, optionally specifying how readers should be created.
+		 * @param options
+		 * @param id
+		 * @param args
+		 * @param readerFactory factory used to create readers; if null, readers are created based upon the options and args
+		 * @throws FormatException
+		 * @throws IOException
+		 */
+		ReaderPool(BioFormatsServerOptions options, String id, BioFormatsArgs args, ReaderFactory readerFactory) throws FormatException, IOException {
 			this.id = id;
 			this.options = options;
 			this.args = args;
+			this.readerFactory = readerFactory == null ? this::openReader : readerFactory;
 			
 			queue = new ArrayBlockingQueue<>(MAX_QUEUE_CAPACITY); // Set a reasonably large capacity (don't want to block when trying to add)
 			metadata = (OMEPyramidStore)MetadataTools.createOMEXMLMetadata();
 			
 			// Create the main reader
 			long startTime = System.currentTimeMillis();
-			mainReader = createReader(options, null, id, metadata, args);
+			long heapBefore = getUsedHeap();
+			mainReader = createReader(null, metadata);
+			long heapDelta = getUsedHeap() - heapBefore;
 			
 			long endTime = System.currentTimeMillis();
 			logger.debug("Reader {} created in {} ms", mainReader, endTime - startTime);
 			
+			readerBytes = estimateReaderBytes(getMemoizationFileSize(id), heapDelta);
+			logger.debug("Estimated reader size {} MB", readerBytes / (1024.0 * 1024.0));
+			
 			// Make the main reader available
 			queue.add(mainReader);
 			
@@ -1088,13 +1203,30 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 			return mainReader;
 		}
 		
-		private void createAdditionalReader(BioFormatsServerOptions options, final ClassList<IFormatReader> classList, 
-				final String id, BioFormatsArgs args) {
+		/**
+		 * Estimate the memory required per reader. This is very approximate, but the memoization file size 
+		 * gives a lower bound if we have it.
+		 * Otherwise, use the change in used heap when creating the first reader - which depends upon garbage collection, 
+		 * and so is only trusted if it exceeds the default estimate from the options.
+		 */
+		private long estimateReaderBytes(long memoBytes, long heapDelta) {
+			if (memoBytes > 0)
+				return memoBytes;
+			long defaultBytes = options == null ? 0L : options.getReaderMemoryEstimate();
+			return Math.max(Math.max(0L, heapDelta), defaultBytes);
+		}
+		
+		private static long getUsedHeap() {
+			var runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+		
+		private void createAdditionalReader() {
 			try {
 				if (isClosed)
 					return;
 				logger.debug("Requesting new reader for thread {}", Thread.currentThread());
-				var newReader = createReader(options, classList, id, null, args);
+				var newReader = createReader(classList, null);
 				if (newReader != null) {
 					additionalReaders.add(newReader);
 					queue.add(newReader);
@@ -1109,34 +1241,149 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		
 		private int getMaxReaders() {
 			int max = options == null ? Runtime.getRuntime().availableProcessors() : options.getMaxReaders();
-			return Math.min(MAX_QUEUE_CAPACITY, Math.max(1, max));
+			max = Math.min(MAX_QUEUE_CAPACITY, Math.max(1, max));
+			// Limit the number of readers according to the memory budget
+			long bytes = readerBytes;
+			if (bytes > 0) {
+				long budget = options == null ? Runtime.getRuntime().maxMemory() / 4 : options.getReaderMemoryBudget();
+				max = (int)Math.max(1, Math.min(max, budget / bytes));
+			}
+			return max;
+		}
+		
+		/**
+		 * Set the approximate heap footprint of a single reader, in bytes (or 0 if unknown).
+		 * This is otherwise estimated from the memoization file size if available, or else from the 
+		 * change in used heap when the first reader was created and {@link BioFormatsServerOptions#getReaderMemoryEstimate()}.
+		 * @param bytes
+		 */
+		void setEstimatedReaderBytes(long bytes) {
+			readerBytes = Math.max(0L, bytes);
+		}
+		
+		/**
+		 * Check whether an additional reader should be created.
+		 * This requires that the maximum number of readers is not exceeded, and that waiting is significant 
+		 * if readers have previously been closed (to avoid repeatedly creating and closing readers).
+		 */
+		boolean canAddReader() {
+			return totalReaders.get() < getMaxReaders() && (closedReaders.get() == 0 || recentWaitFraction > GROW_WAIT_FRACTION);
+		}
+		
+		/**
+		 * Record that a tile has been read, and periodically review the number of readers.
+		 */
+		void tileRead(long nanos) {
+			tilesRead.increment();
+			readNanos.add(nanos);
+			if (tilesRead.sum() - lastReviewTiles >= TILES_PER_REVIEW)
+				reviewReaders();
+		}
+		
+		/**
+		 * Record that a thread has waited for a reader.
+		 */
+		void readerWaited(long nanos) {
+			waitNanos.add(nanos);
+		}
+		
+		synchronized void reviewReaders() {
+			long tiles = tilesRead.sum();
+			if (tiles - lastReviewTiles < TILES_PER_REVIEW || isClosed)
+				return;
+			long read = readNanos.sum();
+			long wait = waitNanos.sum();
+			long readDiff = read - lastReviewReadNanos;
+			recentWaitFraction = readDiff <= 0 ? 0 : (double)(wait - lastReviewWaitNanos) / readDiff;
+			lastReviewTiles = tiles;
+			lastReviewReadNanos = read;
+			lastReviewWaitNanos = wait;
+			
+			// Close readers if we have too many, or if there is more than one reader idle & threads don't need to wait
+			int maxReaders = getMaxReaders();
+			while (totalReaders.get() > maxReaders && closeIdleReader())
+				continue;
+			if (recentWaitFraction < SHRINK_WAIT_FRACTION && queue.size() > 1)
+				closeIdleReader();
+		}
+		
+		/**
+		 * Close a reader that isn't currently in use, if possible.
+		 * The main reader is never closed.
+		 * @return true if a reader was closed, false otherwise
+		 */
+		private boolean closeIdleReader() {
+			for (var reader : queue) {
+				if (reader != mainReader && queue.remove(reader)) {
+					additionalReaders.remove(reader);
+					scratchBuffers.remove(reader);
+					totalReaders.decrementAndGet();
+					closedReaders.incrementAndGet();
+					try {
+						reader.close();
+					} catch (IOException e) {
+						logger.warn("Error closing reader: {}", e.getLocalizedMessage());
+						logger.debug(e.getLocalizedMessage(), e);
+					}
+					logger.debug("Closed idle reader for {} (total={})", id, totalReaders.get());
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		ReaderPoolStatistics getStatistics() {
+			return new ReaderPoolStatistics(totalReaders.get(), getMaxReaders(), closedReaders.get(), 
+					readerBytes, tilesRead.sum(), readNanos.sum(), waitNanos.sum(), recentWaitFraction, parallelTiles.sum());
 		}
 		
 
 		/**
-		 * Create a new {@code IFormatReader}, with memoization if necessary.
+		 * Create a new {@code IFormatReader} using the reader factory, if the maximum number of readers 
+		 * has not been reached.
 		 * 
-		 * @param options 	options used to control the reader generation
 		 * @param classList optionally specify a list of potential reader classes, if known (to avoid a more lengthy search)
-		 * @param id 		file path for the image.
 		 * @param store 	optional MetadataStore; this will be set in the reader if needed. If it is unspecified, a dummy store will be created a minimal metadata requested.
-		 * @param args      optional args to customize reading
-		 * @return the {@code IFormatReader}
+		 * @return the {@code IFormatReader}, or null if no more readers are permitted
 		 * @throws FormatException
 		 * @throws IOException
 		 */
-		@SuppressWarnings("resource")
-		private IFormatReader createReader(final BioFormatsServerOptions options, final ClassList<IFormatReader> classList, 
-				final String id, final MetadataStore store, BioFormatsArgs args) throws FormatException, IOException {
+		private IFormatReader createReader(final ClassList<IFormatReader> classList, final MetadataStore store) throws FormatException, IOException {
 			
 			int maxReaders = getMaxReaders();
 			int nReaders = totalReaders.getAndIncrement();
-			if (mainReader != null && nReaders > maxReaders) {
+			if (mainReader != null && nReaders >= maxReaders) {
 				logger.warn("No new reader will be created (already created {}, max readers {})", nReaders, maxReaders);
 				totalReaders.decrementAndGet();
 				return null;
 			}
 			
+			IFormatReader imageReader;
+			try {
+				imageReader = readerFactory.createReader(classList, store);
+			} catch (FormatException | IOException | RuntimeException e) {
+				totalReaders.decrementAndGet();
+				throw e;
+			}
+			
+			cleanables.add(cleaner.register(this, new ReaderCleaner(Integer.toString(cleanables.size()+1), imageReader)));
+			
+			return imageReader;
+		}
+
+		/**
+		 * Open a new {@code IFormatReader} for the image, with memoization if necessary.
+		 * This is the default {@link ReaderFactory}, using the options, ID and args of the pool.
+		 * 
+		 * @param classList optionally specify a list of potential reader classes, if known (to avoid a more lengthy search)
+		 * @param store 	optional MetadataStore; this will be set in the reader if needed. If it is unspecified, a dummy store will be created a minimal metadata requested.
+		 * @return the {@code IFormatReader}
+		 * @throws FormatException
+		 * @throws IOException
+		 */
+		@SuppressWarnings("resource")
+		private IFormatReader openReader(final ClassList<IFormatReader> classList, final MetadataStore store) throws FormatException, IOException {
+			
 			IFormatReader imageReader;
 			if (classList != null) {
 				imageReader = new ImageReader(classList);
@@ -1243,33 +1490,41 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 				((DimensionSwapper)imageReader).swapDimensions(swapDimensions);
 			}
 			
-			
-			cleanables.add(cleaner.register(this, new ReaderCleaner(Integer.toString(cleanables.size()+1), imageReader)));
-			
 			return imageReader;
 		}
 				
 		
-		private IFormatReader nextQueuedReader() throws InterruptedException {
+		IFormatReader nextQueuedReader() throws InterruptedException {
 			var nextReader = queue.poll();
 			if (nextReader != null)
 				return nextReader;
 			synchronized (this) {
-				if (!isClosed && (task == null || task.isDone()) && totalReaders.get() < getMaxReaders()) {
+				if (!isClosed && (task == null || task.isDone()) && canAddReader()) {
 					logger.debug("Requesting reader for {}", id);
-					task = ForkJoinPool.commonPool().submit(() -> createAdditionalReader(options, classList, id, args));				
+					task = ForkJoinPool.commonPool().submit(this::createAdditionalReader);
 				}
 			}
 			if (isClosed)
 				return null;
+			long startTime = System.nanoTime();
 			try {
 				return queue.poll(60, TimeUnit.SECONDS);
 			} catch (InterruptedException e) {
 				logger.warn("Interrupted exception when awaiting next queued reader: {}", e.getLocalizedMessage());
 				return isClosed ? null : mainReader;
+			} finally {
+				readerWaited(System.nanoTime() - startTime);
 			}
 		}
 		
+		/**
+		 * Return a reader to the queue, unless the pool has been closed.
+		 */
+		void returnReader(IFormatReader reader) {
+			if (!isClosed)
+				queue.add(reader);
+		}
+		
 		
 		BufferedImage openImage(TileRequest tileRequest, int series, int nChannels, boolean isRGB, ColorModel colorModel) throws IOException, InterruptedException {
 			
@@ -1281,10 +1536,9 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 			int z = tileRequest.getZ();
 			int t = tileRequest.getT();
 	
-			byte[][] bytes = null;
+			DataBuffer dataBuffer;
 			int effectiveC;
 			int sizeC = nChannels;
-			int length = 0;
 			ByteOrder order = ByteOrder.BIG_ENDIAN;
 			boolean interleaved;
 			int pixelType;
@@ -1292,6 +1546,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 
 			
 			IFormatReader ipReader = null;
+			long startTime = 0L;
 			try {
 				ipReader = nextQueuedReader();
 				if (ipReader == null) {
@@ -1302,7 +1557,8 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 				if (tileWidth <= 0 || tileHeight <= 0) {
 					throw new IOException("Unable to request pixels for region with downsampled size " + tileWidth + " x " + tileHeight);
 				}
-		
+				
+				startTime = System.nanoTime();
 				synchronized(ipReader) {
 					ipReader.setSeries(series);
 					ipReader.setResolution(level);
@@ -1322,91 +1578,22 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 							logger.error("Error opening image " + ind + " for " + tileRequest.getRegionRequest(), e);
 						}
 					}
-					// Read bytes for all the required channels
+					// Read pixels for all the required channels
 					effectiveC = ipReader.getEffectiveSizeC();
-					bytes = new byte[effectiveC][];
 					try {
-						for (int c = 0; c < effectiveC; c++) {
-							int ind = ipReader.getIndex(z, c, t);
-							bytes[c] = ipReader.openBytes(ind, tileX, tileY, tileWidth, tileHeight);
-							length = bytes[c].length;
-						}
+						dataBuffer = readDataBuffer(ipReader, series, level, z, t, effectiveC, tileX, tileY, tileWidth, tileHeight, order, pixelType, normalizeFloats);
 					} catch (FormatException e) {
 						throw new IOException(e);
 					}
 				}
 			} finally {
-				if (ipReader != null)
-					queue.put(ipReader);
-			}
-			
-			DataBuffer dataBuffer;
-			switch (pixelType) {
-			case (FormatTools.UINT8):
-				dataBuffer = new DataBufferByte(bytes, length);
-			break;
-			case (FormatTools.UINT16):
-				length /= 2;
-				short[][] array = new short[bytes.length][length];
-				for (int i = 0; i < bytes.length; i++) {
-					ShortBuffer buffer = ByteBuffer.wrap(bytes[i]).order(order).asShortBuffer();
-					array[i] = new short[buffer.limit()];
-					buffer.get(array[i]);
-				}
-				dataBuffer = new DataBufferUShort(array, length);
-				break;
-			case (FormatTools.INT16):
-				length /= 2;
-				short[][] shortArray = new short[bytes.length][length];
-				for (int i = 0; i < bytes.length; i++) {
-					ShortBuffer buffer = ByteBuffer.wrap(bytes[i]).order(order).asShortBuffer();
-					shortArray[i] = new short[buffer.limit()];
-					buffer.get(shortArray[i]);
-				}
-				dataBuffer = new DataBufferShort(shortArray, length);
-				break;
-			case (FormatTools.INT32):
-				length /= 4;
-				int[][] intArray = new int[bytes.length][length];
-					for (int i = 0; i < bytes.length; i++) {
-						IntBuffer buffer = ByteBuffer.wrap(bytes[i]).order(order).asIntBuffer();
-						intArray[i] = new int[buffer.limit()];
-						buffer.get(intArray[i]);
-					}
-				dataBuffer = new DataBufferInt(intArray, length);
-				break;
-			case (FormatTools.FLOAT):
-				length /= 4;
-				float[][] floatArray = new float[bytes.length][length];
-				for (int i = 0; i < bytes.length; i++) {
-					FloatBuffer buffer = ByteBuffer.wrap(bytes[i]).order(order).asFloatBuffer();
-					floatArray[i] = new float[buffer.limit()];
-					buffer.get(floatArray[i]);
-					if (normalizeFloats)
-						floatArray[i] = DataTools.normalizeFloats(floatArray[i]);
-				}
-				dataBuffer = new DataBufferFloat(floatArray, length);
-				break;
-			case (FormatTools.DOUBLE):
-				length /= 8;
-				double[][] doubleArray = new double[bytes.length][length];
-				for (int i = 0; i < bytes.length; i++) {
-					DoubleBuffer buffer = ByteBuffer.wrap(bytes[i]).order(order).asDoubleBuffer();
-					doubleArray[i] = new double[buffer.limit()];
-					buffer.get(doubleArray[i]);
-					if (normalizeFloats)
-						doubleArray[i] = DataTools.normalizeDoubles(doubleArray[i]);
+				if (ipReader != null) {
+					returnReader(ipReader);
+					if (startTime != 0L)
+						tileRead(System.nanoTime() - startTime);
 				}
-				dataBuffer = new DataBufferDouble(doubleArray, length);
-				break;
-			// TODO: Consider conversion to closest supported pixel type
-			case FormatTools.BIT:
-			case FormatTools.INT8:
-			case FormatTools.UINT32:
-			default:
-				throw new UnsupportedOperationException("Unsupported pixel type " + pixelType);
 			}
-
+			
 			SampleModel sampleModel;
 
 			if (effectiveC == 1 && sizeC > 1) {
@@ -1459,6 +1646,203 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 		}
 		
 		
+		/**
+		 * Read the pixels for all channels of a tile into a {@link DataBuffer}.
+		 * <p>
+		 * 8-bit data is read directly into the arrays used by the buffer. For other types, bytes are read into a 
+		 * scratch buffer associated with the reader, and then converted straight into the final arrays.
+		 * <p>
+		 * If there are many channels and other readers are idle, the channels are split into contiguous groups that 
+		 * are read in parallel, with each reader reading its planes in order. 
+		 * Any groups for which no thread is immediately available are read by the calling thread.
+		 * This must be called while the reader is held by the current thread, with the series and resolution set.
+		 */
+		private DataBuffer readDataBuffer(IFormatReader reader, int series, int level, int z, int t, int effectiveC, 
+				int x, int y, int width, int height,
+				ByteOrder order, int pixelType, boolean normalizeFloats) throws FormatException, IOException {
+			
+			int planeBytes = FormatTools.getPlaneSize(reader, width, height);
+			int length;
+			Object arrays;
+			switch (pixelType) {
+			case FormatTools.UINT8:
+				length = planeBytes;
+				arrays = new byte[effectiveC][length];
+				break;
+			case FormatTools.UINT16:
+			case FormatTools.INT16:
+				length = planeBytes / 2;
+				arrays = new short[effectiveC][length];
+				break;
+			case FormatTools.INT32:
+				length = planeBytes / 4;
+				arrays = new int[effectiveC][length];
+				break;
+			case FormatTools.FLOAT:
+				length = planeBytes / 4;
+				arrays = new float[effectiveC][length];
+				break;
+			case FormatTools.DOUBLE:
+				length = planeBytes / 8;
+				arrays = new double[effectiveC][length];
+				break;
+			// TODO: Consider conversion to closest supported pixel type
+			case FormatTools.BIT:
+			case FormatTools.INT8:
+			case FormatTools.UINT32:
+			default:
+				throw new UnsupportedOperationException("Unsupported pixel type " + pixelType);
+			}
+			
+			var otherReaders = pollIdleReaders(effectiveC / MIN_PLANES_PER_READER - 1);
+			if (otherReaders.isEmpty()) {
+				readPlanes(reader, z, t, 0, effectiveC, x, y, width, height, order, pixelType, normalizeFloats, arrays);
+			} else {
+				int nReaders = otherReaders.size() + 1;
+				var tasks = new ArrayList<Future<?>>();
+				var usedReaders = new ArrayList<IFormatReader>();
+				try {
+					// Channel ranges that couldn't be read in parallel
+					var remaining = new ArrayList<int[]>();
+					for (int i = 1; i < nReaders; i++) {
+						var otherReader = otherReaders.get(i-1);
+						int cStart = effectiveC * i / nReaders;
+						int cEnd = effectiveC * (i + 1) / nReaders;
+						try {
+							tasks.add(planePool.submit(() -> {
+								synchronized (otherReader) {
+									otherReader.setSeries(series);
+									otherReader.setResolution(level);
+									readPlanes(otherReader, z, t, cStart, cEnd, x, y, width, height, order, pixelType, normalizeFloats, arrays);
+								}
+								return null;
+							}));
+							usedReaders.add(otherReader);
+						} catch (RejectedExecutionException e) {
+							// No thread is free, so read the planes with the calling thread instead
+							returnReader(otherReader);
+							remaining.add(new int[] {cStart, cEnd});
+						}
+					}
+					readPlanes(reader, z, t, 0, effectiveC / nReaders, x, y, width, height, order, pixelType, normalizeFloats, arrays);
+					for (var range : remaining)
+						readPlanes(reader, z, t, range[0], range[1], x, y, width, height, order, pixelType, normalizeFloats, arrays);
+				} finally {
+					// Wait for all the tasks to finish before returning the readers
+					Throwable exception = null;
+					for (var task : tasks) {
+						try {
+							task.get();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							exception = e;
+						} catch (ExecutionException e) {
+							exception = e.getCause();
+						}
+					}
+					for (var otherReader : usedReaders)
+						returnReader(otherReader);
+					if (exception instanceof FormatException)
+						throw (FormatException)exception;
+					if (exception instanceof IOException)
+						throw (IOException)exception;
+					if (exception != null)
+						throw new IOException(exception);
+				}
+				if (!usedReaders.isEmpty())
+					parallelTiles.increment();
+			}
+			
+			switch (pixelType) {
+			case FormatTools.UINT8:
+				return new DataBufferByte((byte[][])arrays, length);
+			case FormatTools.UINT16:
+				return new DataBufferUShort((short[][])arrays, length);
+			case FormatTools.INT16:
+				return new DataBufferShort((short[][])arrays, length);
+			case FormatTools.INT32:
+				return new DataBufferInt((int[][])arrays, length);
+			case FormatTools.FLOAT:
+				return new DataBufferFloat((float[][])arrays, length);
+			case FormatTools.DOUBLE:
+			default:
+				return new DataBufferDouble((double[][])arrays, length);
+			}
+		}
+		
+		/**
+		 * Read a contiguous range of channel planes with a single reader, storing the pixels in the output arrays.
+		 * The output is a 2D primitive array, with the type determined by the pixel type.
+		 */
+		private void readPlanes(IFormatReader reader, int z, int t, int cStart, int cEnd, int x, int y, int width, int height,
+				ByteOrder order, int pixelType, boolean normalizeFloats, Object arrays) throws FormatException, IOException {
+			if (pixelType == FormatTools.UINT8) {
+				var bytes = (byte[][])arrays;
+				for (int c = cStart; c < cEnd; c++)
+					reader.openBytes(reader.getIndex(z, c, t), bytes[c], x, y, width, height);
+				return;
+			}
+			int planeBytes = FormatTools.getPlaneSize(reader, width, height);
+			byte[] scratch = getScratchBuffer(reader, planeBytes);
+			var buffer = ByteBuffer.wrap(scratch, 0, planeBytes).order(order);
+			for (int c = cStart; c < cEnd; c++) {
+				reader.openBytes(reader.getIndex(z, c, t), scratch, x, y, width, height);
+				switch (pixelType) {
+				case FormatTools.UINT16:
+				case FormatTools.INT16:
+					buffer.asShortBuffer().get(((short[][])arrays)[c]);
+					break;
+				case FormatTools.INT32:
+					buffer.asIntBuffer().get(((int[][])arrays)[c]);
+					break;
+				case FormatTools.FLOAT:
+					var floatArray = (float[][])arrays;
+					buffer.asFloatBuffer().get(floatArray[c]);
+					if (normalizeFloats)
+						floatArray[c] = DataTools.normalizeFloats(floatArray[c]);
+					break;
+				case FormatTools.DOUBLE:
+					var doubleArray = (double[][])arrays;
+					buffer.asDoubleBuffer().get(doubleArray[c]);
+					if (normalizeFloats)
+						doubleArray[c] = DataTools.normalizeDoubles(doubleArray[c]);
+					break;
+				default:
+					throw new UnsupportedOperationException("Unsupported pixel type " + pixelType);
+				}
+			}
+		}
+		
+		/**
+		 * Take up to n readers from the queue, without waiting or creating new readers.
+		 * The caller is responsible for returning the readers to the queue.
+		 */
+		private List<IFormatReader> pollIdleReaders(int n) {
+			if (n <= 0 || isClosed)
+				return Collections.emptyList();
+			var readers = new ArrayList<IFormatReader>();
+			while (readers.size() < n) {
+				var reader = queue.poll();
+				if (reader == null)
+					break;
+				readers.add(reader);
+			}
+			return readers;
+		}
+		
+		/**
+		 * Get a scratch buffer for the reader, with at least the specified length.
+		 */
+		private byte[] getScratchBuffer(IFormatReader reader, int length) {
+			byte[] buffer = scratchBuffers.get(reader);
+			if (buffer == null || buffer.length < length) {
+				buffer = new byte[length];
+				scratchBuffers.put(reader, buffer);
+			}
+			return buffer;
+		}
+		
+		
 		public BufferedImage openSeries(int series) throws InterruptedException, FormatException, IOException {
 			IFormatReader reader = null;
 			try {
@@ -1480,7 +1864,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 				}
 			} finally {
 				if (reader != null)
-					queue.put(reader);
+					returnReader(reader);
 			}
 		}
 		
@@ -1501,6 +1885,7 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 			isClosed = true;
 			if (task != null && !task.isDone())
 				task.cancel(true);
+			scratchBuffers.clear();
 			for (var c : cleanables) {
 				try {
 					c.clean();
@@ -1660,6 +2045,127 @@ public class BioFormatsImageServer extends AbstractTileableImageServer {
 	
 	
 	
+	/**
+	 * Statistics describing the readers used by a {@link BioFormatsImageServer}.
+	 * @since v0.4.0
+	 * @see BioFormatsImageServer#getReaderPoolStatistics()
+	 */
+	public static class ReaderPoolStatistics {
+		
+		private final int nReaders;
+		private final int maxReaders;
+		private final int nClosedReaders;
+		private final long readerBytes;
+		private final long tilesRead;
+		private final long readNanos;
+		private final long waitNanos;
+		private final double recentWaitFraction;
+		private final long parallelTiles;
+		
+		private ReaderPoolStatistics(int nReaders, int maxReaders, int nClosedReaders, long readerBytes,
+				long tilesRead, long readNanos, long waitNanos, double recentWaitFraction, long parallelTiles) {
+			this.nReaders = nReaders;
+			this.maxReaders = maxReaders;
+			this.nClosedReaders = nClosedReaders;
+			this.readerBytes = readerBytes;
+			this.tilesRead = tilesRead;
+			this.readNanos = readNanos;
+			this.waitNanos = waitNanos;
+			this.recentWaitFraction = recentWaitFraction;
+			this.parallelTiles = parallelTiles;
+		}
+		
+		/**
+		 * Get the number of readers currently open.
+		 * @return
+		 */
+		public int getReaderCount() {
+			return nReaders;
+		}
+		
+		/**
+		 * Get the current maximum number of readers, taking into consideration the memory budget.
+		 * @return
+		 */
+		public int getMaxReaders() {
+			return maxReaders;
+		}
+		
+		/**
+		 * Get the number of readers that have been closed because they were idle, or exceeded the memory budget.
+		 * @return
+		 */
+		public int getClosedReaderCount() {
+			return nClosedReaders;
+		}
+		
+		/**
+		 * Get the approximate heap footprint of a single reader, in bytes, or 0 if this is unknown.
+		 * @return
+		 */
+		public long getEstimatedReaderBytes() {
+			return readerBytes;
+		}
+		
+		/**
+		 * Get the total number of tiles read.
+		 * @return
+		 */
+		public long getTilesRead() {
+			return tilesRead;
+		}
+		
+		/**
+		 * Get the number of tiles for which channel planes were read in parallel, using idle readers.
+		 * @return
+		 */
+		public long getParallelTilesRead() {
+			return parallelTiles;
+		}
+		
+		/**
+		 * Get the total time spent reading tiles (summed across threads), in milliseconds.
+		 * @return
+		 */
+		public double getTotalReadTimeMillis() {
+			return readNanos / 1e6;
+		}
+		
+		/**
+		 * Get the total time spent waiting for a reader to become available (summed across threads), in milliseconds.
+		 * @return
+		 */
+		public double getTotalWaitTimeMillis() {
+			return waitNanos / 1e6;
+		}
+		
+		/**
+		 * Get the average time required to read a single tile, in milliseconds.
+		 * @return
+		 */
+		public double getMeanReadTimeMillis() {
+			return tilesRead == 0 ? Double.NaN : readNanos / 1e6 / tilesRead;
+		}
+		
+		/**
+		 * Get the time spent waiting for readers as a fraction of the time spent reading, calculated for 
+		 * the most recent tiles.
+		 * High values indicate that more readers might improve throughput.
+		 * @return
+		 */
+		public double getRecentWaitFraction() {
+			return recentWaitFraction;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Readers: %d (max %d, closed %d, ~%.1f MB each), tiles: %d (mean %.2f ms, %d parallel), wait: %.1f ms (recent fraction %.3f)",
+					nReaders, maxReaders, nClosedReaders, readerBytes / (1024.0 * 1024.0),
+					tilesRead, getMeanReadTimeMillis(), parallelTiles, getTotalWaitTimeMillis(), recentWaitFraction);
+		}
+		
+	}
+	
 	
 	static class BioFormatsArgs {
 		
@@ -107,6 +107,18 @@ public class BioFormatsServerOptions {
 	 */
 	private int maxReaders = -1;
 	
+	/**
+	 * Approximate maximum heap (in bytes) that may be used by the readers of a single server.
+	 */
+	private long readerMemoryBudget = -1L;
+	
+	/**
+	 * Default approximate heap (in bytes) used by a single reader, if this can't be estimated in a better way.
+	 */
+	private long readerMemoryEstimate = -1L;
+	
+	private static final long DEFAULT_READER_MEMORY_ESTIMATE = 16L * 1024L * 1024L;
+	
 	private Set<String> skipExtensions = new TreeSet<>();
 	private Set<String> useExtensions = new TreeSet<>();
 	
@@ -135,6 +147,53 @@ public class BioFormatsServerOptions {
 		this.maxReaders = maxReaders;
 	}
 	
+	/**
+	 * Get the approximate maximum heap (in bytes) that may be used by the readers of a single server.
+	 * This limits the number of readers created for parallel requests, based upon an estimate of the memory 
+	 * required per reader. By default, this is 25% of the maximum heap size.
+	 * @return
+	 * @since v0.4.0
+	 */
+	public long getReaderMemoryBudget() {
+		if (readerMemoryBudget <= 0)
+			return Runtime.getRuntime().maxMemory() / 4;
+		return readerMemoryBudget;
+	}
+	
+	/**
+	 * Set the approximate maximum heap (in bytes) that may be used by the readers of a single server.
+	 * @param bytes the memory budget; if &le; 0, the default will be used
+	 * @since v0.4.0
+	 * @see #getReaderMemoryBudget()
+	 */
+	public void setReaderMemoryBudget(long bytes) {
+		this.readerMemoryBudget = bytes;
+	}
+	
+	/**
+	 * Get the approximate heap (in bytes) used by a single reader, to assume when no memoization file is available 
+	 * to give a better estimate. The increase in used heap when the first reader is created is also measured, 
+	 * and used instead if it is larger. By default, this is 16 MB.
+	 * @return
+	 * @since v0.4.0
+	 * @see #getReaderMemoryBudget()
+	 */
+	public long getReaderMemoryEstimate() {
+		if (readerMemoryEstimate <= 0)
+			return DEFAULT_READER_MEMORY_ESTIMATE;
+		return readerMemoryEstimate;
+	}
+	
+	/**
+	 * Set the approximate heap (in bytes) used by a single reader, to assume when no memoization file is available.
+	 * @param bytes the estimated size; if &le; 0, the default will be used
+	 * @since v0.4.0
+	 * @see #getReaderMemoryEstimate()
+	 */
+	public void setReaderMemoryEstimate(long bytes) {
+		this.readerMemoryEstimate = bytes;
+	}
+	
 	/**
 	 * Get the path to the directory where memoization files should be written, or null if no path is set.
 	 * @return
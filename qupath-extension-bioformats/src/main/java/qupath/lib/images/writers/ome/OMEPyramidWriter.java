@@ -36,8 +36,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -63,6 +69,7 @@ import ome.xml.model.primitives.Color;
 import ome.xml.model.primitives.PositiveInteger;
 import qupath.lib.color.ColorModelFactory;
 import qupath.lib.common.ColorTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
@@ -381,6 +388,8 @@ public class OMEPyramidWriter {
 		
 		private int parallelThreads = 1;
 		
+		private boolean downsampleFromPreviousLevel = false;
+		
 		private Boolean bigTiff;
 		private ChannelExportType channelExportType = ChannelExportType.DEFAULT;
 	
@@ -606,6 +615,30 @@ public class OMEPyramidWriter {
 		 * @see #initializeMetadata(IMetadata, int)
 		 */
 		public void writeSeries(IFormatWriter writer, IMetadata meta, final int series) throws FormatException, IOException {
+			// Create pools once for the series, rather than for every plane and level
+			ExecutorService readPool = null;
+			ExecutorService savePool = null;
+			if (parallelThreads > 1) {
+				readPool = Executors.newFixedThreadPool(parallelThreads, ThreadTools.createThreadFactory("ome-tiff-reader-", true));
+				savePool = Executors.newFixedThreadPool(parallelThreads, ThreadTools.createThreadFactory("ome-tiff-writer-", true));
+			}
+			
+			// Stores for pyramid levels created from the previous level, which must be closed at the end
+			List<ReducedLevelStore> stores = new ArrayList<>();
+			
+			try {
+				writeSeries(writer, meta, series, readPool, savePool, stores);
+			} finally {
+				if (readPool != null)
+					readPool.shutdownNow();
+				if (savePool != null)
+					savePool.shutdownNow();
+				for (var store : stores)
+					store.close();
+			}
+		}
+		
+		private void writeSeries(IFormatWriter writer, IMetadata meta, final int series, ExecutorService readPool, ExecutorService savePool, List<ReducedLevelStore> stores) throws FormatException, IOException {
 	
 			// We need to get the writer directly to be able to check if it is a TiffWriter
 			while (writer instanceof ImageWriter)
@@ -674,6 +707,10 @@ public class OMEPyramidWriter {
 			boolean isTiff = writer instanceof TiffWriter;
 			Map<Integer, IFD> map = new HashMap<>();
 			
+			// Stores for pyramid levels created directly from the tiles written for the previous level
+			ReducedLevelStore sourceStore = null;
+			ReducedLevelStore targetStore = null;
+			
 			writer.setSeries(series);
 			for (int level = 0; level < downsamples.length; level++) {
 				
@@ -708,6 +745,18 @@ public class OMEPyramidWriter {
 				int zInc = zEnd >= zStart ? 1 : -1;
 				int effectiveSizeC = nChannels / nSamples;
 				
+				// If the next level is exactly half the size, create it from the tiles for this level
+				if (downsampleFromPreviousLevel && level + 1 < downsamples.length && downsamples[level+1] == downsamples[level] * 2 &&
+						isTiled && tileWidth % 2 == 0 && tileHeight % 2 == 0 && meta instanceof IPyramidStore) {
+					int nextWidth = ((IPyramidStore)meta).getResolutionSizeX(series, level+1).getValue().intValue();
+					int nextHeight = ((IPyramidStore)meta).getResolutionSizeY(series, level+1).getValue().intValue();
+					int samplesPerPixel = effectiveSizeC == channels.length ? 1 : channels.length;
+					boolean nearest = server.getMetadata().getChannelType() == ChannelType.CLASSIFICATION;
+					logger.debug("Resolution {} will be downsampled from resolution {}", level+2, level+1);
+					targetStore = new ReducedLevelStore(nextWidth, nextHeight, samplesPerPixel, getExportPixelType(), endian, nearest);
+					stores.add(targetStore);
+				}
+				
 				AtomicInteger count = new AtomicInteger(0);
 								
 				int ti = 0;
@@ -721,7 +770,7 @@ public class OMEPyramidWriter {
 						// This may not be necessary; it is a minor *potential* optimization intended to help ensure 
 						// we avoid any rounding errors that could thwart caching or introduce oddness
 						int levelTemp = ServerTools.getPreferredResolutionLevel(server, d);
-						if (d == server.getDownsampleForResolution(levelTemp) && 
+						if (sourceStore == null && d == server.getDownsampleForResolution(levelTemp) && 
 								x == 0 && y == 0 &&
 								w == server.getMetadata().getLevel(levelTemp).getWidth() &&
 								h == server.getMetadata().getLevel(levelTemp).getHeight() &&
@@ -776,7 +825,7 @@ public class OMEPyramidWriter {
 							logger.info("Writing plane {}/{}", plane+1, nPlanes);
 								
 							// We *must* write the first region first
-							writeRegion(writer, plane, ifd, server, firstTile, isRGB, localChannels);
+							writeRegion(writer, plane, ifd, server, firstTile, isRGB, localChannels, sourceStore, targetStore);
 							if (!tiles.isEmpty()) {
 								
 								// Reversing the regions means that for a large image we can still get some tiles from the cache
@@ -787,58 +836,45 @@ public class OMEPyramidWriter {
 									Collections.reverse(tiles);
 								}
 								
-								var localWriter = writer;
-								var tasks = tiles.stream().map(tile -> new Runnable() {
-									@Override
-									public void run() {
+								Runnable progress = () -> {
+									int localCount = count.incrementAndGet();
+									if (total > 20 && keyCounts.size() > 1 && keyCounts.contains(localCount)) {
+										double percentage = localCount*100.0/total;
+										logger.info("Written {}% tiles", Math.round(percentage));
+									}
+								};
+								
+								if (readPool != null) {
+									writeRegionsPipelined(writer, plane, ifd, server, tiles, isRGB, localChannels, sourceStore, targetStore, readPool, savePool, progress);
+								} else {
+									for (var tile : tiles) {
+										if (Thread.currentThread().isInterrupted()) {
+											throw new IOException("Interrupted writing regions!");
+										}
 										try {
-											if (Thread.currentThread().isInterrupted())
-												return;
-											writeRegion(localWriter, plane, ifd, server, tile, isRGB, localChannels);
+											writeRegion(writer, plane, ifd, server, tile, isRGB, localChannels, sourceStore, targetStore);
 										} catch (Exception e) {
 											logger.error(String.format(
 													"Error writing %s (downsample=%.2f)",
 													tile.toString(), d),
 													e);
 										} finally {
-											int localCount = count.incrementAndGet();
-											if (total > 20 && keyCounts.size() > 1 && keyCounts.contains(localCount)) {
-												double percentage = localCount*100.0/total;
-												logger.info("Written {}% tiles", Math.round(percentage));
-											}
-										}
-									}
-								}).collect(Collectors.toList());
-								
-								if (parallelThreads > 1) {
-									var pool = Executors.newWorkStealingPool(parallelThreads);
-									for (var task : tasks) {
-										pool.submit(task);
-									}
-									pool.shutdown();
-									try {
-										pool.awaitTermination(tiles.size(), TimeUnit.MINUTES);
-										logger.info("Plane written in {} ms", System.currentTimeMillis() - planeStartTime);
-									} catch (InterruptedException e) {
-										logger.warn("OME-TIFF export interrupted!");
-										pool.shutdownNow();
-										throw new IOException("Error writing regions", e);
-									}
-								} else {
-									for (var task : tasks) {
-										if (Thread.currentThread().isInterrupted()) {
-											throw new IOException("Interrupted writing regions!");
+											progress.run();
 										}
-										task.run();
 									}
-									logger.info("Plane written in {} ms", System.currentTimeMillis() - planeStartTime);
 								}
+								logger.info("Plane written in {} ms", System.currentTimeMillis() - planeStartTime);
 							}
 						}
 						zi++;
 					}
 					ti++;
 				}
+					
+				if (sourceStore != null)
+					sourceStore.close();
+				sourceStore = targetStore;
+				targetStore = null;
 			}
 			logger.trace("Image count: {}", meta.getImageCount());
 			if (writer instanceof FormatWriter)
@@ -877,10 +913,157 @@ public class OMEPyramidWriter {
 		 * @param tile the tile to export; this incorporates the export coordinates and the full resolution coordinates (via the associated {@link RegionRequest})
 		 * @param isRGB export as RGB; this assumes both the input and export images are RGB (i.e. no extra conversions, channel reordering etc.)
 		 * @param channels
+		 * @param source optional store containing the pixels for this level; if provided, this is used instead of the server
+		 * @param target optional store that should be updated with the pixels for the next level
 		 * @throws FormatException
 		 * @throws IOException
 		 */
-		private void writeRegion(IFormatWriter writer, int plane, IFD ifd, ImageServer<BufferedImage> server, TileRequest tile, boolean isRGB, int[] channels) throws FormatException, IOException {
+		private void writeRegion(IFormatWriter writer, int plane, IFD ifd, ImageServer<BufferedImage> server, TileRequest tile, boolean isRGB, int[] channels,
+				ReducedLevelStore source, ReducedLevelStore target) throws FormatException, IOException {
+			saveRegion(writer, plane, ifd, readRegion(server, tile, isRGB, channels, plane, source, target));
+		}
+		
+		/**
+		 * Write regions using separate stages for reading and saving.
+		 * <p>
+		 * Reading and pixel conversion is done in parallel by the read pool, and converted regions are passed through 
+		 * a bounded queue to the save pool. Saving also happens in parallel, since this is where any compression is applied, 
+		 * but the writer serializes the actual file output internally.
+		 * Separating the stages means that readers aren't stalled whenever the writer is busy, while the bounded queue 
+		 * prevents them from getting too far ahead.
+		 * 
+		 * @param writer
+		 * @param plane
+		 * @param ifd
+		 * @param server
+		 * @param tiles the tiles to write; these will be submitted in order
+		 * @param isRGB
+		 * @param channels
+		 * @param source optional store containing the pixels for this level
+		 * @param target optional store that should be updated with the pixels for the next level
+		 * @param readPool
+		 * @param savePool
+		 * @param progress called once for every tile that has been handled (whether successfully or not)
+		 * @throws IOException
+		 */
+		private void writeRegionsPipelined(IFormatWriter writer, int plane, IFD ifd, ImageServer<BufferedImage> server, List<TileRequest> tiles, boolean isRGB, int[] channels,
+				ReducedLevelStore source, ReducedLevelStore target, ExecutorService readPool, ExecutorService savePool, Runnable progress) throws IOException {
+			
+			var queue = new ArrayBlockingQueue<RegionBytes>(parallelThreads * 2);
+			var futures = new ArrayList<Future<?>>();
+			for (var tile : tiles) {
+				futures.add(readPool.submit(() -> {
+					RegionBytes region = null;
+					try {
+						region = readRegion(server, tile, isRGB, channels, plane, source, target);
+					} catch (Exception e) {
+						logger.error(String.format("Error reading %s", tile.toString()), e);
+					} finally {
+						// Always add the region (even after an Error), so that the save stage knows when it is finished
+						queue.put(region == null ? new RegionBytes(tile, null, 0, 0) : region);
+					}
+					return null;
+				}));
+			}
+			
+			var remaining = new AtomicInteger(tiles.size());
+			for (int i = 0; i < parallelThreads; i++) {
+				futures.add(savePool.submit(() -> {
+					while (remaining.getAndDecrement() > 0) {
+						var region = queue.take();
+						try {
+							if (region.bytes != null)
+								saveRegion(writer, plane, ifd, region);
+						} catch (Exception e) {
+							logger.error(String.format("Error writing %s", region.tile.toString()), e);
+						} finally {
+							progress.run();
+						}
+					}
+					return null;
+				}));
+			}
+			
+			// Wait for all tasks, but abort as soon as any task fails - otherwise the other stage might wait forever
+			var pending = new ArrayList<>(futures);
+			try {
+				while (!pending.isEmpty()) {
+					var iter = pending.iterator();
+					while (iter.hasNext()) {
+						var future = iter.next();
+						if (future.isDone()) {
+							future.get();
+							iter.remove();
+						}
+					}
+					if (!pending.isEmpty()) {
+						try {
+							pending.get(0).get(100, TimeUnit.MILLISECONDS);
+						} catch (TimeoutException e) {
+							// Check all the tasks again
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				logger.warn("OME-TIFF export interrupted!");
+				for (var future : futures)
+					future.cancel(true);
+				throw new IOException("Error writing regions", e);
+			} catch (ExecutionException | CancellationException e) {
+				for (var future : futures)
+					future.cancel(true);
+				throw new IOException("Error writing regions", e instanceof ExecutionException ? e.getCause() : e);
+			}
+		}
+		
+		private static void saveRegion(IFormatWriter writer, int plane, IFD ifd, RegionBytes region) throws FormatException, IOException {
+			var tile = region.tile;
+			if (writer instanceof TiffWriter)
+				((TiffWriter)writer).saveBytes(plane, region.bytes, ifd, tile.getTileX(), tile.getTileY(), region.width, region.height);
+			else
+				writer.saveBytes(plane, region.bytes, tile.getTileX(), tile.getTileY(), region.width, region.height);
+		}
+		
+		/**
+		 * Get the bytes for a region, either from a store of previously-downsampled pixels or from the server, 
+		 * and optionally add the region to the store for the next level.
+		 * 
+		 * @param server the image to export
+		 * @param tile the tile to export
+		 * @param isRGB export as RGB
+		 * @param channels
+		 * @param plane the plane index, used to access the stores
+		 * @param source optional store containing the pixels for this level; if provided, this is used instead of the server
+		 * @param target optional store that should be updated with the pixels for the next level
+		 * @return
+		 * @throws IOException
+		 */
+		private RegionBytes readRegion(ImageServer<BufferedImage> server, TileRequest tile, boolean isRGB, int[] channels,
+				int plane, ReducedLevelStore source, ReducedLevelStore target) throws IOException {
+			RegionBytes region;
+			if (source == null)
+				region = readRegion(server, tile, isRGB, channels);
+			else {
+				int ww = tile.getTileWidth();
+				int hh = tile.getTileHeight();
+				region = new RegionBytes(tile, source.readRegion(plane, tile.getTileX(), tile.getTileY(), ww, hh), ww, hh);
+			}
+			if (target != null)
+				target.reduce(plane, tile.getTileX(), tile.getTileY(), region.width, region.height, region.bytes);
+			return region;
+		}
+		
+		/**
+		 * Read a region and convert it to the bytes required by the writer.
+		 * 
+		 * @param server the image to export
+		 * @param tile the tile to export; this incorporates the export coordinates and the full resolution coordinates (via the associated {@link RegionRequest})
+		 * @param isRGB export as RGB; this assumes both the input and export images are RGB (i.e. no extra conversions, channel reordering etc.)
+		 * @param channels
+		 * @return
+		 * @throws IOException
+		 */
+		private RegionBytes readRegion(ImageServer<BufferedImage> server, TileRequest tile, boolean isRGB, int[] channels) throws IOException {
 			
 			// Get the region request - and make sure to translate it to the origin
 			RegionRequest request = tile.getRegionRequest().translate(this.x, this.y);
@@ -891,11 +1074,7 @@ public class OMEPyramidWriter {
 			int nChannels = channels.length;
 			if (img == null) {
 				byte[] zeros = new byte[tile.getTileWidth() * tile.getTileHeight() * bytesPerPixel * nChannels];
-				if (writer instanceof TiffWriter)
-					((TiffWriter)writer).saveBytes(plane, zeros, ifd, tile.getTileX(), tile.getTileY(), tile.getTileWidth(), tile.getTileHeight());
-				else
-					writer.saveBytes(plane, zeros, tile.getTileX(), tile.getTileY(), tile.getTileWidth(), tile.getTileHeight());
-				return;
+				return new RegionBytes(tile, zeros, tile.getTileWidth(), tile.getTileHeight());
 			}
 			
 			int ww = img.getWidth();
@@ -920,10 +1099,7 @@ public class OMEPyramidWriter {
 					channelToBuffer(img.getRaster(), c, buf, ind, channels.length * bytesPerPixel, pixelType);
 				}
 			}
-			if (writer instanceof TiffWriter)
-				((TiffWriter)writer).saveBytes(plane, buf.array(), ifd, tile.getTileX(), tile.getTileY(), ww, hh);
-			else
-				writer.saveBytes(plane, buf.array(), tile.getTileX(), tile.getTileY(), ww, hh);
+			return new RegionBytes(tile, buf.array(), ww, hh);
 		}
 		
 		/**
@@ -1030,6 +1206,26 @@ public class OMEPyramidWriter {
 	}
 	
 	
+	/**
+	 * Pixels for a tile, converted to the bytes that should be passed to the writer.
+	 */
+	private static class RegionBytes {
+		
+		private final TileRequest tile;
+		private final byte[] bytes;
+		private final int width;
+		private final int height;
+		
+		RegionBytes(TileRequest tile, byte[] bytes, int width, int height) {
+			this.tile = tile;
+			this.bytes = bytes;
+			this.width = width;
+			this.height = height;
+		}
+		
+	}
+	
+	
 	static int[] ensureIntArray(Object array, int length) {
 		if (!(array instanceof int[]) || ((int[])array).length != length)
 			return new int[length];
@@ -1245,6 +1441,26 @@ public class OMEPyramidWriter {
 			return this;
 		}
 		
+		/**
+		 * Specify if pyramid levels should be created by downsampling the pixels written for the previous level, 
+		 * rather than by requesting them from the image server.
+		 * <p>
+		 * This means each pixel of the image only needs to be read once, which can greatly improve performance 
+		 * if the server is slow or lacks its own pyramid. 
+		 * It is only used where each level has half the width and height of the previous level (e.g. with 
+		 * {@link #dyadicDownsampling()}) and the tile size is even; other levels are read from the server as usual.
+		 * Pixels are averaged in 2x2 blocks, except for classification images where the top left pixel is used.
+		 * A temporary file is used to store the pixels for the next level.
+		 * 
+		 * @param doDownsample
+		 * @return
+		 * @since v0.4.0
+		 */
+		public Builder downsampleFromPreviousLevel(boolean doDownsample) {
+			series.downsampleFromPreviousLevel = doDownsample;
+			return this;
+		}
+		
 		/**
 		 * Specify the output {@link PixelType}.
 		 * @param exportPixelType
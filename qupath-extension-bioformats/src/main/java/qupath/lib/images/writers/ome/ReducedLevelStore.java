@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers.ome;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import qupath.lib.images.servers.PixelType;
+
+/**
+ * Temporary store for one pyramid level, which is filled by a 2x2 reduction of the tiles written for
+ * the previous level.
+ * <p>
+ * Pixels are stored in exactly the byte layout expected by the image writer (i.e. using the export pixel type,
+ * byte order and any interleaved samples), so that tiles can be passed directly to the writer when the
+ * level is written.
+ * This means that each source pixel only needs to be read from the server once, regardless of how many
+ * pyramid levels are written.
+ * <p>
+ * The pixels are stored in a (possibly sparse) temporary file, which is deleted when the store is closed.
+ * Reading and writing different regions from multiple threads is permitted.
+ *
+ * @author Pete Bankhead
+ */
+class ReducedLevelStore implements Closeable {
+
+	private final int width;
+	private final int height;
+	private final int nSamples;
+	private final int bytesPerPixel;
+	private final PixelType pixelType;
+	private final ByteOrder endian;
+	private final boolean nearest;
+
+	private final FileChannel channel;
+
+	/**
+	 * Create a new store.
+	 * @param width width of the reduced level
+	 * @param height height of the reduced level
+	 * @param nSamples number of samples per pixel (e.g. 3 for interleaved RGB, 1 for planar channels)
+	 * @param pixelType pixel type of each sample
+	 * @param endian byte order of each sample
+	 * @param nearest if true, use the top left pixel of each 2x2 block rather than the mean (e.g. for classification images)
+	 * @throws IOException if the temporary file could not be created
+	 */
+	ReducedLevelStore(int width, int height, int nSamples, PixelType pixelType, ByteOrder endian, boolean nearest) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.nSamples = nSamples;
+		this.bytesPerPixel = nSamples * pixelType.getBytesPerPixel();
+		this.pixelType = pixelType;
+		this.endian = endian;
+		this.nearest = nearest;
+		var path = Files.createTempFile("qupath-ome-tiff-level-", ".raw");
+		this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+
+	/**
+	 * Reduce a region from the previous level by a factor of 2 and add it to the store.
+	 *
+	 * @param plane the plane index
+	 * @param x x-coordinate of the region within the previous level; must be even
+	 * @param y y-coordinate of the region within the previous level; must be even
+	 * @param regionWidth width of the region
+	 * @param regionHeight height of the region
+	 * @param bytes the pixels for the region, in the writer's byte layout
+	 * @throws IOException
+	 */
+	void reduce(int plane, int x, int y, int regionWidth, int regionHeight, byte[] bytes) throws IOException {
+		int x0 = x / 2;
+		int y0 = y / 2;
+		int w = Math.min((regionWidth + 1) / 2, width - x0);
+		int h = Math.min((regionHeight + 1) / 2, height - y0);
+		if (w <= 0 || h <= 0)
+			return;
+
+		var src = ByteBuffer.wrap(bytes).order(endian);
+		var row = ByteBuffer.allocate(w * bytesPerPixel).order(endian);
+		int bps = pixelType.getBytesPerPixel();
+		for (int ry = 0; ry < h; ry++) {
+			int sy0 = ry * 2;
+			int sy1 = Math.min(sy0 + 1, regionHeight - 1);
+			for (int rx = 0; rx < w; rx++) {
+				int sx0 = rx * 2;
+				int sx1 = Math.min(sx0 + 1, regionWidth - 1);
+				for (int s = 0; s < nSamples; s++) {
+					double val;
+					if (nearest)
+						val = getValue(src, ((sy0 * regionWidth + sx0) * nSamples + s) * bps);
+					else {
+						val = (getValue(src, ((sy0 * regionWidth + sx0) * nSamples + s) * bps) +
+								getValue(src, ((sy0 * regionWidth + sx1) * nSamples + s) * bps) +
+								getValue(src, ((sy1 * regionWidth + sx0) * nSamples + s) * bps) +
+								getValue(src, ((sy1 * regionWidth + sx1) * nSamples + s) * bps)) / 4.0;
+					}
+					putValue(row, (rx * nSamples + s) * bps, val);
+				}
+			}
+			row.clear();
+			writeFully(row, offset(plane, x0, y0 + ry));
+		}
+	}
+
+	/**
+	 * Read a region from the store.
+	 *
+	 * @param plane the plane index
+	 * @param x x-coordinate of the region within this level
+	 * @param y y-coordinate of the region within this level
+	 * @param regionWidth width of the region
+	 * @param regionHeight height of the region
+	 * @return the pixels for the region, in the writer's byte layout
+	 * @throws IOException
+	 */
+	byte[] readRegion(int plane, int x, int y, int regionWidth, int regionHeight) throws IOException {
+		byte[] bytes = new byte[regionWidth * regionHeight * bytesPerPixel];
+		int rowBytes = regionWidth * bytesPerPixel;
+		for (int ry = 0; ry < regionHeight; ry++) {
+			var buf = ByteBuffer.wrap(bytes, ry * rowBytes, rowBytes);
+			long pos = offset(plane, x, y + ry);
+			while (buf.hasRemaining()) {
+				int n = channel.read(buf, pos);
+				// Anything not written is zero
+				if (n < 0)
+					break;
+				pos += n;
+			}
+		}
+		return bytes;
+	}
+
+	private long offset(int plane, int x, int y) {
+		return ((long)plane * height * width + (long)y * width + x) * bytesPerPixel;
+	}
+
+	private void writeFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining())
+			pos += channel.write(buf, pos);
+	}
+
+	private double getValue(ByteBuffer buf, int ind) {
+		switch (pixelType) {
+		case INT8:
+			return buf.get(ind);
+		case UINT8:
+			return buf.get(ind) & 0xff;
+		case INT16:
+			return buf.getShort(ind);
+		case UINT16:
+			return buf.getShort(ind) & 0xffff;
+		case INT32:
+			return buf.getInt(ind);
+		case UINT32:
+			return buf.getInt(ind) & 0xffffffffL;
+		case FLOAT32:
+			return buf.getFloat(ind);
+		case FLOAT64:
+			return buf.getDouble(ind);
+		default:
+			throw new IllegalArgumentException("Unsupported pixel type " + pixelType);
+		}
+	}
+
+	private void putValue(ByteBuffer buf, int ind, double val) {
+		switch (pixelType) {
+		case INT8:
+		case UINT8:
+			buf.put(ind, (byte)Math.round(val));
+			break;
+		case INT16:
+		case UINT16:
+			buf.putShort(ind, (short)Math.round(val));
+			break;
+		case INT32:
+		case UINT32:
+			buf.putInt(ind, (int)Math.round(val));
+			break;
+		case FLOAT32:
+			buf.putFloat(ind, (float)val);
+			break;
+		case FLOAT64:
+			buf.putDouble(ind, val);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported pixel type " + pixelType);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
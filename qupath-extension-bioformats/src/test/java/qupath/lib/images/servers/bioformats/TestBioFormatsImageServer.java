@@ -27,14 +27,21 @@ package qupath.lib.images.servers.bioformats;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,11 +50,14 @@ import loci.common.DebugTools;
 import loci.common.Region;
 import loci.plugins.BF;
 import loci.plugins.in.ImporterOptions;
+import qupath.lib.color.ColorModelFactory;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.images.servers.ImageChannel;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServers;
 import qupath.lib.images.servers.PixelCalibration;
 import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.writers.ome.OMETiffWriter;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectIO;
 import qupath.lib.projects.ProjectImageEntry;
@@ -241,6 +251,69 @@ public class TestBioFormatsImageServer {
 		assertEquals(BioFormatsImageServer.getDefaultTileLength(700, 500), 500);
 		assertEquals(BioFormatsImageServer.getDefaultTileLength(-1, 100_000), 512);
 	}
+	
+	
+	/**
+	 * Test reading multichannel 16-bit and 32-bit images, where each channel is stored as a separate plane 
+	 * and bytes need to be converted to the final pixel type.
+	 * @param tempDir 
+	 * @throws Exception
+	 */
+	@Test
+	public void test_BioFormatsMultichannelReading(@TempDir Path tempDir) throws Exception {
+		int width = 300;
+		int height = 200;
+		int nChannels = 20;
+		var rand = new Random(100L);
+		var builder = new BioFormatsServerBuilder();
+		for (var pixelType : List.of(PixelType.UINT16, PixelType.FLOAT32)) {
+			int dataType = pixelType == PixelType.UINT16 ? DataBuffer.TYPE_USHORT : DataBuffer.TYPE_FLOAT;
+			WritableRaster raster = WritableRaster.createBandedRaster(dataType, width, height, nChannels, null);
+			for (int c = 0; c < nChannels; c++) {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						if (pixelType == PixelType.UINT16)
+							raster.setSample(x, y, c, rand.nextInt(65536));
+						else
+							raster.setSample(x, y, c, (float)rand.nextGaussian() * 1000f);
+					}
+				}
+			}
+			var colorModel = ColorModelFactory.createColorModel(pixelType, ImageChannel.getDefaultChannelList(nChannels));
+			var img = new BufferedImage(colorModel, raster, false, null);
+			
+			var file = tempDir.resolve("multichannel-" + pixelType + ".ome.tif").toFile();
+			new OMETiffWriter().writeImage(img, file.getAbsolutePath());
+			
+			try (var server = builder.buildServer(file.toURI())) {
+				assertEquals(nChannels, server.nChannels());
+				assertEquals(pixelType, server.getPixelType());
+				// Read more than once (and in parallel), so that reused buffers and multiple readers are exercised
+				int nReads = 6;
+				long startTime = System.nanoTime();
+				IntStream.range(0, nReads).parallel().forEach(i -> {
+					BufferedImage imgRead;
+					try {
+						imgRead = server.readBufferedImage(RegionRequest.createInstance(server));
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+					assertEquals(width, imgRead.getWidth());
+					assertEquals(height, imgRead.getHeight());
+					float[] samples = null;
+					float[] samplesRead = null;
+					for (int c = 0; c < nChannels; c++) {
+						samples = img.getRaster().getSamples(0, 0, width, height, c, samples);
+						samplesRead = imgRead.getRaster().getSamples(0, 0, width, height, c, samplesRead);
+						assertArrayEquals(samples, samplesRead);
+					}
+				});
+				long endTime = System.nanoTime();
+				logger.debug("Read {} x {} x {} {} image {} times in {} ms", width, height, nChannels, pixelType, nReads, (endTime - startTime) / 1_000_000);
+				logger.debug("{}", ((BioFormatsImageServer)server).getReaderPoolStatistics());
+			}
+		}
+	}
 
 	
 	
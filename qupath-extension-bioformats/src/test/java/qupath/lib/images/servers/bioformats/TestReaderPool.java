@@ -0,0 +1,248 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.servers.bioformats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import loci.formats.IFormatReader;
+import loci.formats.in.FakeReader;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.bioformats.BioFormatsImageServer.BioFormatsArgs;
+import qupath.lib.images.servers.bioformats.BioFormatsImageServer.ReaderPool;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Test the decisions made by a {@link ReaderPool} about how many readers to use, 
+ * using fake readers that don't require any image files.
+ */
+@SuppressWarnings("javadoc")
+public class TestReaderPool {
+	
+	private static final int SIZE = 64;
+	private static final int N_CHANNELS = 24;
+	private static final String FAKE_ID = "test&sizeX=" + SIZE + "&sizeY=" + SIZE + "&sizeC=" + N_CHANNELS + "&pixelType=uint16.fake";
+	
+	private static final long READ_NANOS = 1_000_000_000L;
+	
+	private BioFormatsServerOptions options = BioFormatsServerOptions.getInstance();
+	private int previousMaxReaders;
+	private long previousBudget;
+	private long previousEstimate;
+	
+	@BeforeEach
+	public void saveOptions() {
+		previousMaxReaders = options.getMaxReaders();
+		previousBudget = options.getReaderMemoryBudget();
+		previousEstimate = options.getReaderMemoryEstimate();
+	}
+	
+	@AfterEach
+	public void restoreOptions() {
+		options.setMaxReaders(previousMaxReaders);
+		options.setReaderMemoryBudget(previousBudget);
+		options.setReaderMemoryEstimate(previousEstimate);
+	}
+	
+	@Test
+	public void test_memoryBudget() throws Exception {
+		options.setMaxReaders(8);
+		options.setReaderMemoryBudget(300);
+		var count = new AtomicInteger();
+		try (var pool = createPool(count)) {
+			// Without a memoization file, the reader size is estimated - and always exceeds this tiny budget
+			assertTrue(pool.getStatistics().getEstimatedReaderBytes() >= options.getReaderMemoryEstimate());
+			assertEquals(1, pool.getStatistics().getMaxReaders());
+			
+			pool.setEstimatedReaderBytes(100);
+			assertEquals(3, pool.getStatistics().getMaxReaders());
+			var readers = borrowReaders(pool, 3);
+			assertEquals(3, count.get());
+			assertEquals(3, pool.getStatistics().getReaderCount());
+			assertFalse(pool.canAddReader());
+			readers.forEach(pool::returnReader);
+			
+			// Reducing the budget should close idle readers on the next review, but never the main reader
+			pool.setEstimatedReaderBytes(250);
+			assertEquals(1, pool.getStatistics().getMaxReaders());
+			recordTiles(pool, 0L);
+			assertEquals(1, pool.getStatistics().getReaderCount());
+			assertEquals(2, pool.getStatistics().getClosedReaderCount());
+			assertFalse(pool.canAddReader());
+			assertSame(pool.getMainReader(), pool.nextQueuedReader());
+		}
+	}
+	
+	@Test
+	public void test_noMemoizationFile() throws Exception {
+		// Use a default estimate that is much larger than a fake reader could need
+		long mb = 1024L * 1024L;
+		options.setMaxReaders(8);
+		options.setReaderMemoryBudget(1000 * mb);
+		options.setReaderMemoryEstimate(400 * mb);
+		var count = new AtomicInteger();
+		try (var pool = createPool(count)) {
+			// The budget should apply, even though there is no memoization file
+			assertEquals(400 * mb, pool.getStatistics().getEstimatedReaderBytes());
+			assertEquals(2, pool.getStatistics().getMaxReaders());
+			var readers = borrowReaders(pool, 2);
+			assertEquals(2, count.get());
+			assertFalse(pool.canAddReader());
+			readers.forEach(pool::returnReader);
+		}
+		
+		// With the default estimate, the budget should still limit the readers
+		options.setReaderMemoryEstimate(-1);
+		options.setReaderMemoryBudget(options.getReaderMemoryEstimate() * 3);
+		try (var pool = createPool(new AtomicInteger())) {
+			long bytes = pool.getStatistics().getEstimatedReaderBytes();
+			assertTrue(bytes >= options.getReaderMemoryEstimate());
+			assertEquals(Math.max(1, Math.min(8, options.getReaderMemoryBudget() / bytes)), pool.getStatistics().getMaxReaders());
+			assertTrue(pool.getStatistics().getMaxReaders() <= 3);
+		}
+	}
+	
+	@Test
+	public void test_growAndShrink() throws Exception {
+		options.setMaxReaders(4);
+		var count = new AtomicInteger();
+		try (var pool = createPool(count)) {
+			assertEquals(4, pool.getStatistics().getMaxReaders());
+			var readers = borrowReaders(pool, 3);
+			assertEquals(3, pool.getStatistics().getReaderCount());
+			assertTrue(pool.canAddReader());
+			readers.forEach(pool::returnReader);
+			
+			// If threads don't need to wait for readers, idle readers should be closed one at a time
+			recordTiles(pool, 0L);
+			assertEquals(2, pool.getStatistics().getReaderCount());
+			assertEquals(1, pool.getStatistics().getClosedReaderCount());
+			// Readers have been closed, and waiting isn't significant, so new readers shouldn't be created
+			assertFalse(pool.canAddReader());
+			
+			recordTiles(pool, 0L);
+			assertEquals(1, pool.getStatistics().getReaderCount());
+			recordTiles(pool, 0L);
+			assertEquals(1, pool.getStatistics().getReaderCount());
+			assertEquals(2, pool.getStatistics().getClosedReaderCount());
+			
+			// If waiting becomes significant, new readers are permitted again - up to the maximum
+			recordTiles(pool, READ_NANOS * ReaderPool.TILES_PER_REVIEW / 2);
+			assertEquals(0.5, pool.getStatistics().getRecentWaitFraction(), 0.01);
+			assertTrue(pool.canAddReader());
+			readers = borrowReaders(pool, 4);
+			assertEquals(4, pool.getStatistics().getReaderCount());
+			assertEquals(6, count.get());
+			assertFalse(pool.canAddReader());
+			readers.forEach(pool::returnReader);
+		}
+	}
+	
+	
+	@Test
+	public void test_parallelPlanes() throws Exception {
+		options.setMaxReaders(3);
+		var tileRequest = TileRequest.createInstance(FAKE_ID, 0, 1.0, ImageRegion.createInstance(0, 0, SIZE, SIZE, 0, 0));
+		var colorModel = ColorModelFactory.createColorModel(PixelType.UINT16, ImageChannel.getDefaultChannelList(N_CHANNELS));
+		try (var pool = createPool(new AtomicInteger())) {
+			// With only one reader, planes must be read sequentially
+			BufferedImage imgSequential = pool.openImage(tileRequest, 0, N_CHANNELS, false, colorModel);
+			assertEquals(0, pool.getStatistics().getParallelTilesRead());
+			
+			// With idle readers, planes should be read in parallel
+			borrowReaders(pool, 3).forEach(pool::returnReader);
+			BufferedImage imgParallel = pool.openImage(tileRequest, 0, N_CHANNELS, false, colorModel);
+			assertEquals(1, pool.getStatistics().getParallelTilesRead());
+			assertEquals(3, pool.getStatistics().getReaderCount());
+			
+			for (int c = 0; c < N_CHANNELS; c++) {
+				assertArrayEquals(
+						imgSequential.getRaster().getSamples(0, 0, SIZE, SIZE, c, (int[])null),
+						imgParallel.getRaster().getSamples(0, 0, SIZE, SIZE, c, (int[])null));
+			}
+			
+			// All readers should be available again
+			assertFalse(borrowReaders(pool, 3).contains(null));
+		}
+	}
+	
+	@Test
+	public void test_returnToClosedPool() throws Exception {
+		var pool = createPool(new AtomicInteger());
+		var reader = pool.nextQueuedReader();
+		pool.close();
+		pool.returnReader(reader);
+		// Readers returned after closing shouldn't be reused
+		assertNull(pool.nextQueuedReader());
+	}
+	
+	
+	/**
+	 * Record enough tiles to trigger a review of the readers, with the specified total wait time.
+	 */
+	private static void recordTiles(ReaderPool pool, long waitNanos) {
+		pool.readerWaited(waitNanos);
+		for (int i = 0; i < ReaderPool.TILES_PER_REVIEW; i++)
+			pool.tileRead(READ_NANOS);
+	}
+	
+	/**
+	 * Take readers from the pool, creating new readers if necessary (and permitted).
+	 */
+	private static List<IFormatReader> borrowReaders(ReaderPool pool, int n) throws InterruptedException {
+		var readers = new ArrayList<IFormatReader>();
+		for (int i = 0; i < n; i++)
+			readers.add(pool.nextQueuedReader());
+		return readers;
+	}
+	
+	/**
+	 * Create a pool that uses fake readers, counting the number of readers created.
+	 */
+	private static ReaderPool createPool(AtomicInteger count) throws Exception {
+		return new ReaderPool(BioFormatsServerOptions.getInstance(), FAKE_ID, new BioFormatsArgs(), (classList, store) -> {
+			var reader = new FakeReader();
+			if (store != null)
+				reader.setMetadataStore(store);
+			reader.setId(FAKE_ID);
+			count.incrementAndGet();
+			return reader;
+		});
+	}
+
+}
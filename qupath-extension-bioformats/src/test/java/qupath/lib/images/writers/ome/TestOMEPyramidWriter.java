@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers.ome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.images.servers.bioformats.BioFormatsServerBuilder;
+import qupath.lib.regions.ImageRegion;
+
+@SuppressWarnings("javadoc")
+public class TestOMEPyramidWriter {
+	
+	private static final int TILE_SIZE = 128;
+	
+	private static final double[] DOWNSAMPLES = {1, 2, 4};
+	
+	@Test
+	public void test_writePyramidParallel(@TempDir Path tempDir) throws Exception {
+		var server = createServer(600, 400, 3);
+		var file = tempDir.resolve("pyramid.ome.tif").toFile();
+		
+		new OMEPyramidWriter.Builder(server)
+			.tileSize(TILE_SIZE)
+			.downsamples(DOWNSAMPLES)
+			.losslessCompression()
+			.channelsPlanar()
+			.parallelize(4)
+			.build()
+			.writeSeries(file.getAbsolutePath());
+		
+		try (var serverRead = new BioFormatsServerBuilder().buildServer(file.toURI())) {
+			assertNotNull(serverRead);
+			assertEquals(server.getWidth(), serverRead.getWidth());
+			assertEquals(server.getHeight(), serverRead.getHeight());
+			assertEquals(server.nChannels(), serverRead.nChannels());
+			assertEquals(DOWNSAMPLES.length, serverRead.nResolutions());
+			for (int level = 0; level < DOWNSAMPLES.length; level++)
+				assertTilesEqual(server, serverRead, level, 0);
+		}
+	}
+	
+	@Test
+	public void test_downsampleFromPreviousLevel(@TempDir Path tempDir) throws Exception {
+		var server = createServer(600, 400, 2);
+		for (int nThreads : new int[] {1, 4}) {
+			var file = tempDir.resolve("pyramid-reduced-" + nThreads + ".ome.tif").toFile();
+			
+			new OMEPyramidWriter.Builder(server)
+				.tileSize(TILE_SIZE)
+				.downsamples(DOWNSAMPLES)
+				.losslessCompression()
+				.channelsPlanar()
+				.parallelize(nThreads)
+				.downsampleFromPreviousLevel(true)
+				.build()
+				.writeSeries(file.getAbsolutePath());
+			
+			// Levels created from the previous level should match levels read through the server 
+			// (allowing for rounding)
+			try (var serverRead = new BioFormatsServerBuilder().buildServer(file.toURI())) {
+				assertEquals(DOWNSAMPLES.length, serverRead.nResolutions());
+				assertTilesEqual(server, serverRead, 0, 0);
+				for (int level = 1; level < DOWNSAMPLES.length; level++)
+					assertTilesEqual(server, serverRead, level, 1.0);
+			}
+		}
+	}
+	
+	static ImageServer<BufferedImage> createServer(int width, int height, int nChannels) {
+		var rand = new Random(100L);
+		var raster = WritableRaster.createBandedRaster(DataBuffer.TYPE_USHORT, width, height, nChannels, null);
+		for (int c = 0; c < nChannels; c++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					// Use constant 4x4 blocks, so that downsampling by up to 4 should give the same result 
+					// regardless of whether pixels are averaged or interpolated
+					if (x % 4 == 0 && y % 4 == 0)
+						raster.setSample(x, y, c, rand.nextInt(65536));
+					else
+						raster.setSample(x, y, c, raster.getSample(x - x % 4, y - y % 4, c));
+				}
+			}
+		}
+		var channels = ImageChannel.getDefaultChannelList(nChannels);
+		var colorModel = ColorModelFactory.createColorModel(PixelType.UINT16, channels);
+		var img = new BufferedImage(colorModel, raster, false, null);
+		return new WrappedBufferedImageServer("pyramid", img, channels);
+	}
+	
+	/**
+	 * Check that every tile written at a specified level matches the corresponding region read from the original server, 
+	 * allowing for an optional tolerance.
+	 */
+	static void assertTilesEqual(ImageServer<BufferedImage> server, ImageServer<BufferedImage> serverRead, int level, double tolerance) throws Exception {
+		double downsample = DOWNSAMPLES[level];
+		int width = serverRead.getMetadata().getLevel(level).getWidth();
+		int height = serverRead.getMetadata().getLevel(level).getHeight();
+		for (int y = 0; y < height; y += TILE_SIZE) {
+			for (int x = 0; x < width; x += TILE_SIZE) {
+				var region = ImageRegion.createInstance(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y), 0, 0);
+				var request = TileRequest.createInstance(server.getPath(), level, downsample, region).getRegionRequest();
+				var imgExpected = server.readBufferedImage(request);
+				var imgRead = serverRead.readBufferedImage(request.updatePath(serverRead.getPath()));
+				assertEquals(imgExpected.getWidth(), imgRead.getWidth());
+				assertEquals(imgExpected.getHeight(), imgRead.getHeight());
+				var rasterExpected = imgExpected.getRaster();
+				var rasterRead = imgRead.getRaster();
+				for (int c = 0; c < server.nChannels(); c++) {
+					var expected = rasterExpected.getSamples(0, 0, imgExpected.getWidth(), imgExpected.getHeight(), c, (double[])null);
+					var actual = rasterRead.getSamples(0, 0, imgRead.getWidth(), imgRead.getHeight(), c, (double[])null);
+					for (int i = 0; i < expected.length; i++)
+						assertEquals(expected[i], actual[i], tolerance);
+				}
+			}
+		}
+	}
+
+}
@@ -24,7 +24,6 @@
 package qupath.lib.images.servers.openslide;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.File;
@@ -282,7 +281,8 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 		int tileHeight = tileRequest.getTileHeight();
 
 //		double downsampleFactor = getPreferredDownsamplesArray()[downsampleInd];
-		BufferedImage img = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+		// Paint the premultiplied ARGB pixels directly into the array of the RGB image we will return
+		BufferedImage img = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
         int data[] = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
         
 		// Create a thumbnail for the region
@@ -294,15 +294,35 @@ public class OpenslideImageServer extends AbstractTileableImageServer {
 //			if (backgroundColor == null && GeneralTools.almostTheSame(downsample, downsampleFactor, 0.001))
 //				return img;
 		
-		BufferedImage img2 = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
-		Graphics2D g2d = img2.createGraphics();
-		if (backgroundColor != null) {
-			g2d.setColor(backgroundColor);
-			g2d.fillRect(0, 0, tileWidth, tileHeight);
+		blendPremultipliedARGB(data, backgroundColor == null ? 0 : backgroundColor.getRGB());
+		return img;
+	}
+	
+	/**
+	 * Convert premultiplied ARGB pixels to RGB in-place, blending any transparent pixels onto a background color.
+	 * This is equivalent to painting the pixels over the background (but avoids creating an additional image).
+	 * Opaque pixels only need the alpha to be removed.
+	 * @param data premultiplied ARGB pixels
+	 * @param background packed RGB background color
+	 */
+	static void blendPremultipliedARGB(int[] data, int background) {
+		int bgRed = (background >> 16) & 0xff;
+		int bgGreen = (background >> 8) & 0xff;
+		int bgBlue = background & 0xff;
+		for (int i = 0; i < data.length; i++) {
+			int val = data[i];
+			int alpha = val >>> 24;
+			if (alpha == 255) {
+				data[i] = val & 0xffffff;
+				continue;
+			}
+			// Premultiplied, so we only need to add the background contribution
+			int inverse = 255 - alpha;
+			int r = ((val >> 16) & 0xff) + (bgRed * inverse + 127) / 255;
+			int g = ((val >> 8) & 0xff) + (bgGreen * inverse + 127) / 255;
+			int b = (val & 0xff) + (bgBlue * inverse + 127) / 255;
+			data[i] = (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
 		}
-		g2d.drawImage(img, 0, 0, tileWidth, tileHeight, null);
-		g2d.dispose();
-		return img2;
 	}
 
 	@Override
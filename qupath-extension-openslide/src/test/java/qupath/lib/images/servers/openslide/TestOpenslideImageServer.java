@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.images.servers.openslide;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TestOpenslideImageServer {
+	
+	@Test
+	public void test_blendPremultipliedARGB() {
+		var data = createPremultipliedPixels(new Random(100L));
+		for (var background : Arrays.asList(null, Color.BLACK, Color.WHITE, new Color(200, 150, 100), new Color(255, 0, 128))) {
+			var expected = blendWithGraphics(data, background);
+			var actual = data.clone();
+			OpenslideImageServer.blendPremultipliedARGB(actual, background == null ? 0 : background.getRGB());
+			assertArrayEquals(expected, actual, () -> "Blended pixels differ for background " + background);
+		}
+	}
+	
+	/**
+	 * Create valid premultiplied pixels (i.e. with color components no greater than alpha), 
+	 * including fully transparent, fully opaque and intermediate alpha values.
+	 */
+	private static int[] createPremultipliedPixels(Random rng) {
+		int nRepeats = 64;
+		int[] data = new int[256 * nRepeats];
+		int i = 0;
+		for (int alpha = 0; alpha < 256; alpha++) {
+			for (int k = 0; k < nRepeats; k++) {
+				int r, g, b;
+				if (k == 0) {
+					r = g = b = alpha;
+				} else if (k == 1) {
+					r = g = b = 0;
+				} else {
+					r = rng.nextInt(alpha + 1);
+					g = rng.nextInt(alpha + 1);
+					b = rng.nextInt(alpha + 1);
+				}
+				data[i++] = (alpha << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+		return data;
+	}
+	
+	/**
+	 * Blend pixels by painting them over the background with Java2D, as was previously done when reading tiles.
+	 */
+	private static int[] blendWithGraphics(int[] data, Color background) {
+		int width = 256;
+		int height = data.length / width;
+		var imgPre = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		int[] dataPre = ((DataBufferInt)imgPre.getRaster().getDataBuffer()).getData();
+		System.arraycopy(data, 0, dataPre, 0, data.length);
+		
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		var g2d = img.createGraphics();
+		if (background != null) {
+			g2d.setColor(background);
+			g2d.fillRect(0, 0, width, height);
+		}
+		g2d.drawImage(imgPre, 0, 0, width, height, null);
+		g2d.dispose();
+		
+		int[] result = ((DataBufferInt)img.getRaster().getDataBuffer()).getData().clone();
+		for (int i = 0; i < result.length; i++)
+			result[i] &= 0xffffff;
+		return result;
+	}
+
+}
@@ -401,11 +401,8 @@ abstract class ImageDataTransformerBuilder {
 //				scale = SmoothingScale.get3DIsotropic(localNormalizeSigma);
 //			scale = SmoothingScale.get2D(localNormalizeSigma);
 
-			List<ImageOp> ops = new ArrayList<>();
-			for (var sigma : sigmas) {
-				ops.add(ImageOps.Filters.features(Arrays.asList(features), sigma, sigma));
-			}
-			var op = ImageOps.Core.splitMerge(ops);
+			// Calculate all scales in one pass, so that smoothing can be shared between them
+			var op = ImageOps.Filters.scaleSpaceFeatures(Arrays.asList(features), sigmas);
 			
 			// Handle normalization if needed
 			double localNormalizeSigma = normalizationSigma.get();
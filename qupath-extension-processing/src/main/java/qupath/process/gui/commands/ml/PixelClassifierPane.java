@@ -34,6 +34,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -95,6 +99,7 @@ import qupath.lib.classifiers.Normalization;
 import qupath.lib.classifiers.pixel.PixelClassifier;
 import qupath.lib.classifiers.pixel.PixelClassifierMetadata;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.charts.ChartTools;
 import qupath.lib.gui.commands.MiniViewers;
@@ -828,12 +833,26 @@ public class PixelClassifierPane {
 	
 	
 	private void updateClassifier(boolean doClassification) {
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(() -> updateClassifier(doClassification));
+			return;
+		}
 		if (doClassification)
 			doClassification();
-		else
+		else {
+			// Ensure any pending training is abandoned
+			trainingRequest.incrementAndGet();
 			replaceOverlay(null);
+		}
 	}
 	
+	/**
+	 * Single thread used for training, so that requests are handled in order and the model is never trained concurrently.
+	 */
+	private ExecutorService trainingPool = Executors.newSingleThreadExecutor(ThreadTools.createThreadFactory("pixel-classifier-training", true));
+	private AtomicLong trainingRequest = new AtomicLong();
+	private Future<?> trainingTask;
+	
 	private boolean reweightSamples = false;
 	private int maxSamples = 100_000;
 	private int rngSeed = 100;
@@ -933,10 +952,50 @@ public class PixelClassifierPane {
 			Dialogs.showErrorNotification("Pixel classifier", "No classifier selected!");
 			return;
 		}
+		
+		// Gather everything we need from the UI, then train in the background
+		var trainingImages = getTrainingImageData();
+		var channelType = ImageServerMetadata.ChannelType.CLASSIFICATION;
+		if (model.supportsProbabilities()) {
+			channelType = selectedOutputType.get();
+		}
+		var outputType = channelType;
+		var trainingHelper = helper;
+		
+		long request = trainingRequest.incrementAndGet();
+		if (trainingTask != null)
+			trainingTask.cancel(false);
+		// The previous classifier no longer matches the training data, and its model is about to be retrained - 
+		// so don't allow it to be saved or applied until training is complete
+		currentClassifier.set(null);
+		trainingTask = trainingPool.submit(() -> {
+			try {
+				trainClassifier(request, trainingHelper, imageData, model, trainingImages, outputType);
+			} catch (Exception e) {
+				logger.error("Error training pixel classifier", e);
+			}
+		});
+	}
+	
+	/**
+	 * Check if a training request has been superseded by a more recent one, in which case any further work is wasted.
+	 * @param request
+	 * @return
+	 */
+	private boolean isStale(long request) {
+		return request != trainingRequest.get();
+	}
+	
+	/**
+	 * Train the classifier, then update the overlay on the application thread.
+	 * This is intended to be called from a background thread; training is abandoned as soon as possible if a newer
+	 * request is made.
+	 */
+	private void trainClassifier(long request, PixelClassifierTraining helper, ImageData<BufferedImage> imageData, OpenCVStatModel model, 
+			Collection<ImageData<BufferedImage>> trainingImages, ImageServerMetadata.ChannelType channelType) {
 
 		ClassifierTrainingData trainingData;
 		try {
-			var trainingImages = getTrainingImageData();
 			if (trainingImages.size() > 1)
 				logger.info("Creating training data from {} images", trainingImages.size());
 			trainingData = helper.createTrainingData(trainingImages);
@@ -944,6 +1003,8 @@ public class PixelClassifierPane {
 			logger.error("Error when updating training data", e);
 			return;
 		}
+		 if (isStale(request))
+			 return;
 		 if (trainingData == null) {
 			 resetPieChart();
 			 return;
@@ -969,10 +1030,7 @@ public class PixelClassifierPane {
 		 
 		 // Apply normalization, if we need to
 		 FeaturePreprocessor preprocessor = normalization.build(trainData.getTrainSamples(), false);
-		 if (preprocessor.doesSomething()) {
-			 preprocessingOp = ImageOps.ML.preprocessor(preprocessor);
-		 } else
-			 preprocessingOp = null;
+		 ImageOp preprocessingOp = preprocessor.doesSomething() ? ImageOps.ML.preprocessor(preprocessor) : null;
 		 
 		 var labels = trainingData.getLabelMap();
 		 // Using getTrainNormCatResponses() causes confusion if classes are not represented
@@ -1013,6 +1071,10 @@ public class PixelClassifierPane {
 		 preprocessor.apply(trainSamples, false);
 		 trainData = model.createTrainData(trainSamples, trainResponses, weights, false);
 		 
+		 if (isStale(request)) {
+			 trainData.close();
+			 return;
+		 }
 		 logger.info("Training data: {} x {}, Target data: {} x {}", trainSamples.rows(), trainSamples.cols(), trainResponses.rows(), trainResponses.cols());
 		 model.train(trainData);
 		 
@@ -1058,10 +1120,6 @@ public class PixelClassifierPane {
 //		 int inputWidth = featureCalculator.getInputSize().getWidth();
 //		 int inputHeight = featureCalculator.getInputSize().getHeight();
 		 var cal = helper.getResolution();
-		 var channelType = ImageServerMetadata.ChannelType.CLASSIFICATION;
-		 if (model.supportsProbabilities()) {
-			 channelType = selectedOutputType.get();
-		 }
 		 
 		 // Channels are needed for probability output (and work for classification as well)
 		 var labels2 = new TreeMap<Integer, PathClass>();
@@ -1080,10 +1138,17 @@ public class PixelClassifierPane {
 				 .outputChannels(channels)
 				 .build();
 
-		 currentClassifier.set(PixelClassifiers.createClassifier(model, featureCalculator, metadata, true));
-
-		 var overlay = PixelClassificationOverlay.create(qupath.getOverlayOptions(), currentClassifier.get(), getLivePredictionThreads());
-		 replaceOverlay(overlay);
+		 var classifier = PixelClassifiers.createClassifier(model, featureCalculator, metadata, true);
+		 
+		 Platform.runLater(() -> {
+			 // Don't replace the overlay if a newer request has been made in the meantime
+			 if (isStale(request))
+				 return;
+			 this.preprocessingOp = preprocessingOp;
+			 currentClassifier.set(classifier);
+			 var overlay = PixelClassificationOverlay.create(qupath.getOverlayOptions(), classifier, getLivePredictionThreads());
+			 replaceOverlay(overlay);
+		 });
 	}
 		
 	
@@ -1154,6 +1219,8 @@ public class PixelClassifierPane {
 
 
 	private void destroy() {
+		trainingRequest.incrementAndGet();
+		trainingPool.shutdown();
 		if (overlay != null)
 			overlay.stop();
 		
@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import qupath.lib.color.ColorToolsAwt;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.PixelCalibration;
 
 import org.bytedeco.opencv.opencv_core.Mat;
@@ -46,22 +47,21 @@ import qupath.opencv.ops.ImageDataOp;
 import qupath.opencv.ops.ImageDataServer;
 import qupath.opencv.ops.ImageOps;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.awt.BasicStroke;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 
 /**
  * Helper class for training a pixel classifier.
@@ -186,10 +186,11 @@ public class PixelClassifierTraining {
 	        if (featureServer != null) {
 		        var tiles = featureServer.getTileRequestManager().getAllTileRequests();
 		        for (var tile : tiles) {
-		            var tileFeatures = getTileFeatures(tile.getRegionRequest(), featureServer, boundaryStrategy, labels);
-		        	if (tileFeatures != null) {
-		        		allFeatures.add(tileFeatures.getFeatures());
-		        		allTargets.add(tileFeatures.getTargets());
+		        	// Features are cached per annotation, so only new or changed annotations require features to be extracted
+		            var samples = getTileSamples(tile.getRegionRequest(), featureServer, boundaryStrategy, labels);
+		        	if (samples != null) {
+		        		allFeatures.add(samples.getFeatures());
+		        		allTargets.add(samples.getTargets());
 		        	}
 		        }
 	        } else {
@@ -345,202 +346,329 @@ public class PixelClassifierTraining {
     }
     
     
-	private static Map<RegionRequest, TileFeatures> cache = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * Cache of features extracted for individual annotations, per tile.
+     * <p>
+     * ROIs are immutable, so any change to an annotation results in a new ROI - and features need to be extracted 
+     * only for that annotation. The {@link RegionRequest} used in the key encodes the feature server path 
+     * (and therefore the feature calculator and image) as well as the resolution.
+     * <p>
+     * Labels are not cached here, but rather resolved for each tile in a single pass whenever training samples are needed.
+     * <p>
+     * Annotations often last for the whole session while different features are tried, so the cache is bounded by 
+     * the approximate memory required for the cached features; the least recently used entries are removed first.
+     */
+	private static Cache<FeatureKey, AnnotationFeatures> cache = CacheBuilder.newBuilder()
+			// Guava uses integer weights, so use KB
+			.weigher((FeatureKey k, AnnotationFeatures v) -> (int)Long.min(Integer.MAX_VALUE, v.getApproxBytes() / 1024))
+			.maximumWeight(Long.max(1, Runtime.getRuntime().maxMemory() / 8 / 1024))
+			.build();
     
-    private static TileFeatures getTileFeatures(RegionRequest request, ImageDataServer<BufferedImage> featureServer, BoundaryStrategy strategy, Map<PathClass, Integer> labels) {
-		TileFeatures features = cache.get(request);
-		Map<ROI, PathClass> rois = null;
-		
+	/**
+	 * Get the training samples for all annotations that intersect a tile.
+	 */
+    private static TileSamples getTileSamples(RegionRequest request, ImageDataServer<BufferedImage> featureServer, BoundaryStrategy strategy, Map<PathClass, Integer> labels) {
 		var annotations = featureServer.getImageData().getHierarchy().getObjectsForRegion(PathAnnotationObject.class, request, null);
-		if (annotations != null && !annotations.isEmpty()) {
-    		rois = new HashMap<>();
-    		for (var annotation : annotations) {
-    			// Don't train from locked annotations
-    			if (!isTrainableAnnotation(annotation, true))
-    				continue;
-    			
-    			var roi = annotation.getROI();
-    			// For points, make sure at least one point is in the region
-    			if (roi != null && roi.isPoint()) {
-        			boolean containsPoint = false;
-    				for (var p : roi.getAllPoints()) {
-    					if (request.contains((int)p.getX(), (int)p.getY(), roi.getZ(), roi.getT())) {
-    						containsPoint = true;
-    						break;
-    					}
-    				}
-    				if (!containsPoint)
-    					continue;
-    			}
-    			
-    			var pathClass = annotation.getPathClass();
-    			if (roi != null && labels.containsKey(pathClass)) {
-    				rois.put(roi, pathClass);
-    			}
-    		}
-		}
-		
-		// We don't have any features
-		if (rois == null || rois.isEmpty()) {
-    		if (features != null)
-				cache.remove(request);
+		if (annotations == null || annotations.isEmpty())
 			return null;
-		}
-
-		// Check if we can return cached features
-		if (features != null) {
-			if (features.featureServer.equals(featureServer) &&
-					features.labels.equals(labels) &&
-					features.strategy.equals(strategy) &&
-					features.rois.equals(rois) &&
-					features.request.equals(request))
-				return features;
-		}
 		
-		// Calculate new features
+		List<ROI> rois = new ArrayList<>();
+		List<Integer> roiLabels = new ArrayList<>();
+		List<Integer> roiBoundaryLabels = new ArrayList<>();
+		for (var annotation : annotations) {
+			// Don't train from locked annotations
+			if (!isTrainableAnnotation(annotation, true))
+				continue;
+			
+			var roi = annotation.getROI();
+			// For points, make sure at least one point is in the region
+			if (roi.isPoint()) {
+    			boolean containsPoint = false;
+				for (var p : roi.getAllPoints()) {
+					if (request.contains((int)p.getX(), (int)p.getY(), roi.getZ(), roi.getT())) {
+						containsPoint = true;
+						break;
+					}
+				}
+				if (!containsPoint)
+					continue;
+			}
+			
+			var pathClass = annotation.getPathClass();
+			Integer label = labels.get(pathClass);
+			if (label == null)
+				continue;
+			// We only use boundary classes for areas
+			Integer boundaryLabel = null;
+			if (roi.isArea() && strategy.getBoundaryThickness() > 0) {
+				var boundaryClass = strategy.getBoundaryClass(pathClass);
+				boundaryLabel = boundaryClass == null ? null : labels.get(boundaryClass);
+			}
+			rois.add(roi);
+			roiLabels.add(label);
+			roiBoundaryLabels.add(boundaryLabel);
+		}
 		try {
-//			System.err.println("Calculating " + request);
-    		features = new TileFeatures(request, featureServer, strategy, rois, labels);
-    		cache.put(request, features);
+			return getTileSamples(request, featureServer, rois, roiLabels, roiBoundaryLabels, strategy.getBoundaryThickness());
 		} catch (IOException e) {
-			cache.remove(request);
 			logger.error("Error requesting features for " + request, e);
+			return null;
 		}
-		
-		return features;
 	}
     
+    /**
+     * Get the training samples for a tile, given the ROIs that should be used for training and their labels.
+     * Features are taken from the cache where possible, and only extracted for new or changed ROIs.
+     * 
+     * @param request the region corresponding to the tile
+     * @param featureServer server used to extract features
+     * @param rois the ROIs within the tile, in the order in which they should be painted
+     * @param labels the label for each ROI
+     * @param boundaryLabels the boundary label for each ROI, or null if the boundary should not be handled separately
+     * @param boundaryThickness the boundary thickness, in pixels at the resolution of the request
+     * @return the samples, or null if there are no ROIs
+     * @throws IOException if features could not be read
+     */
+    static TileSamples getTileSamples(RegionRequest request, ImageServer<BufferedImage> featureServer, 
+    		List<ROI> rois, List<Integer> labels, List<Integer> boundaryLabels, double boundaryThickness) throws IOException {
+    	if (rois.isEmpty())
+    		return null;
+    	
+		List<AnnotationFeatures> annotationFeatures = new ArrayList<>();
+		BufferedImage features = null;
+		for (int i = 0; i < rois.size(); i++) {
+			var roi = rois.get(i);
+			var key = new FeatureKey(roi, request, boundaryThickness, boundaryLabels.get(i) != null);
+			var roiFeatures = cache.getIfPresent(key);
+			if (roiFeatures == null) {
+				if (features == null)
+					features = featureServer.readBufferedImage(request);
+				roiFeatures = new AnnotationFeatures(features, request, roi, boundaryThickness, key.withBoundary);
+				cache.put(key, roiFeatures);
+			}
+			annotationFeatures.add(roiFeatures);
+		}
+		return createTileSamples(annotationFeatures, labels, boundaryLabels);
+	}
+    
+    /**
+     * Resolve the labels for all the annotations in a tile, and create the corresponding training samples.
+     * <p>
+     * Annotations are painted in order, so that later annotations (and boundaries) overwrite earlier ones; 
+     * each pixel then contributes at most one sample.
+     * Note that this implementation supports only one target per pixel, i.e. not multi-class classifications.
+     */
+    private static TileSamples createTileSamples(List<AnnotationFeatures> annotationFeatures, List<Integer> labels, List<Integer> boundaryLabels) {
+    	var first = annotationFeatures.get(0);
+    	int nPixels = first.width * first.height;
+    	int nFeatures = first.nFeatures;
+    	
+    	// Need to add 1 because we want to ignore zeros as being unpainted
+    	int[] tileLabels = new int[nPixels];
+    	int[] owners = new int[nPixels];
+    	for (int a = 0; a < annotationFeatures.size(); a++) {
+    		var roiFeatures = annotationFeatures.get(a);
+    		int lab = labels.get(a).intValue() + 1;
+    		var boundaryLabel = boundaryLabels.get(a);
+    		int boundaryLab = boundaryLabel == null ? lab : boundaryLabel.intValue() + 1;
+    		for (int k = 0; k < roiFeatures.pixels.length; k++) {
+    			int p = roiFeatures.pixels[k];
+    			tileLabels[p] = roiFeatures.boundary[k] ? boundaryLab : lab;
+    			owners[p] = a;
+    		}
+    	}
+    	
+    	int n = 0;
+    	for (int l : tileLabels) {
+    		if (l != 0)
+    			n++;
+    	}
+		var matFeatures = new Mat(n, nFeatures, opencv_core.CV_32FC1);
+		var matTargets = new Mat(n, 1, opencv_core.CV_32SC1);
+		if (n == 0) {
+			// This can happen if a training annotation falls exactly on a tile boundary
+			// (However note that the boundary strategy can still make some annotations useful sometimes)
+			return new TileSamples(matFeatures, matTargets);
+		}
+    	
+		// Pixels are stored in raster order for each annotation, so we can step through them in parallel
+		int[] cursors = new int[annotationFeatures.size()];
+		IntIndexer idxTargets = matTargets.createIndexer();
+		FloatIndexer idxFeatures = matFeatures.createIndexer();
+		int i = 0;
+		for (int p = 0; p < nPixels; p++) {
+			int l = tileLabels[p];
+			if (l == 0)
+				continue;
+			int a = owners[p];
+			var roiFeatures = annotationFeatures.get(a);
+			int k = cursors[a];
+			while (roiFeatures.pixels[k] != p)
+				k++;
+			cursors[a] = k;
+			int offset = k * nFeatures;
+			for (int j = 0; j < nFeatures; j++)
+				idxFeatures.put(i, j, roiFeatures.features[offset + j]);
+			idxTargets.put(i, l - 1);
+			i++;
+		}
+		idxTargets.release();
+		idxFeatures.release();
+		return new TileSamples(matFeatures, matTargets);
+    }
+    
     
-    private static class TileFeatures {
-    	    	    	
-    	private Map<PathClass, Integer> labels;
-    	private ImageDataServer<BufferedImage> featureServer;
-    	private RegionRequest request;
-    	private Map<ROI, PathClass> rois;
-    	private BoundaryStrategy strategy;
-    	private Mat matFeatures;
-    	private Mat matTargets;
+    private static class FeatureKey {
     	
-    	private TileFeatures(RegionRequest request, ImageDataServer<BufferedImage> featureServer, BoundaryStrategy strategy, Map<ROI, PathClass> rois, Map<PathClass, Integer> labels) throws IOException {
+    	private final ROI roi;
+    	private final RegionRequest request;
+    	private final double boundaryThickness;
+    	private final boolean withBoundary;
+    	
+    	private FeatureKey(ROI roi, RegionRequest request, double boundaryThickness, boolean withBoundary) {
+    		this.roi = roi;
     		this.request = request;
-    		this.strategy = strategy;
-    		this.featureServer = featureServer;
-    		this.rois = rois;
-    		this.labels = labels;
-    		ensureFeaturesCalculated();
-    	};
+    		this.boundaryThickness = boundaryThickness;
+    		this.withBoundary = withBoundary;
+    	}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(roi, request, boundaryThickness, withBoundary);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FeatureKey))
+				return false;
+			var other = (FeatureKey)obj;
+			return withBoundary == other.withBoundary &&
+					Double.compare(boundaryThickness, other.boundaryThickness) == 0 &&
+					roi.equals(other.roi) &&
+					request.equals(other.request);
+		}
+    	
+    }
+    
+    
+    /**
+     * Features extracted for the pixels covered by a single annotation within a single tile.
+     * This is independent of the labels, which are only resolved when the samples for the tile are created.
+     */
+    private static class AnnotationFeatures {
+    	
+    	private final int width;
+    	private final int height;
+    	private final int nFeatures;
     	
     	/**
-    	 * Note that this implementation supports only one target per pixel, i.e. not multi-class classifications.
-    	 * @throws IOException
+    	 * Indices of the pixels covered by the annotation, in raster order
     	 */
-    	private void ensureFeaturesCalculated() throws IOException {
-    		if (matFeatures != null && matTargets != null)
-    			return;
-    		
-    		var features = featureServer.readBufferedImage(request);
+    	private final int[] pixels;
+    	/**
+    	 * Flags indicating whether each pixel is painted by the boundary stroke
+    	 */
+    	private final boolean[] boundary;
+    	/**
+    	 * Features for each pixel, stored consecutively
+    	 */
+    	private final float[] features;
+    	
+    	private AnnotationFeatures(BufferedImage features, RegionRequest request, ROI roi, double boundaryThickness, boolean withBoundary) {
     		
     		// TODO: Handle differing boundary thicknesses
     		double downsample = request.getDownsample();
-    		double boundaryThickness = strategy.getBoundaryThickness();
     		BasicStroke stroke = boundaryThickness > 0 ? new BasicStroke((float)(downsample * boundaryThickness)) : null;
     		BasicStroke singleStroke = new BasicStroke((float)downsample);
     		
-    		int width = features.getWidth();
-    		int height = features.getHeight();
+    		width = features.getWidth();
+    		height = features.getHeight();
     		var imgLabels = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
     		var raster = imgLabels.getRaster();
     		
-    		// Create labels one annotation at a time - we want to permit overlapping annotations for multiclass classification
-    		for (var entry : rois.entrySet()) {
-    			var roi = entry.getKey();
-    			var pathClass = entry.getValue();
-    			Integer label = labels.get(pathClass);
-    			if (label == null)
-    				continue;
-    			// Need to add 1 because we want to ignore zeros as being unpainted
-    			int lab = label.intValue() + 1;
-    			
-    			boolean isArea = roi.isArea();
-    			boolean isLine = roi.isLine();
-    			
-    			if (roi.isPoint()) {
-    				for (var p : roi.getAllPoints()) {
-        				int x = (int)Math.round((p.getX() - request.getX()) / downsample);    					
-        				int y = (int)Math.round((p.getY() - request.getY()) / downsample); 
-        				if (x >= 0 && y >= 0 && x < width && y < height)
-        					raster.setSample(x, y, 0, lab);
-    				}
-    			} else {
-	    			var g2d = imgLabels.createGraphics();
-	    			g2d.scale(1.0/downsample, 1.0/downsample);
-	                g2d.translate(-request.getX(), -request.getY());
-	                g2d.setColor(ColorToolsAwt.getCachedColor(lab, lab, lab));
-	                
-	                var shape = entry.getKey().getShape();
-	                if (isArea) {
-	                	g2d.fill(shape);
-	                	// Do not train on boundaries if these should be classified some other way
-	                	var boundaryClass = strategy.getBoundaryClass(pathClass);
-	                	Integer boundaryLabel = boundaryClass == null ? null : labels.get(boundaryClass);
-	                	if (stroke != null && boundaryLabel != null) {
-	                		int boundaryLab = boundaryLabel.intValue() + 1;
-	                		g2d.setColor(ColorToolsAwt.getCachedColor(boundaryLab, boundaryLab, boundaryLab));
-	                    	g2d.setStroke(stroke);
-	                    	g2d.draw(shape);                        		
-	                	}
-	                } else if (isLine) {
-	                	g2d.setStroke(stroke == null ? singleStroke : stroke);
-	                	g2d.draw(shape);
-	                }
-	        		g2d.dispose();
-    			}
+    		// Paint the annotation as 1 and its boundary as 2
+			if (roi.isPoint()) {
+				for (var p : roi.getAllPoints()) {
+    				int x = (int)Math.round((p.getX() - request.getX()) / downsample);    					
+    				int y = (int)Math.round((p.getY() - request.getY()) / downsample); 
+    				if (x >= 0 && y >= 0 && x < width && y < height)
+    					raster.setSample(x, y, 0, 1);
+				}
+			} else {
+    			var g2d = imgLabels.createGraphics();
+    			g2d.scale(1.0/downsample, 1.0/downsample);
+                g2d.translate(-request.getX(), -request.getY());
+                g2d.setColor(ColorToolsAwt.getCachedColor(1, 1, 1));
+                
+                var shape = roi.getShape();
+                if (roi.isArea()) {
+                	g2d.fill(shape);
+                	// Do not train on boundaries if these should be classified some other way
+                	if (stroke != null && withBoundary) {
+                		g2d.setColor(ColorToolsAwt.getCachedColor(2, 2, 2));
+                    	g2d.setStroke(stroke);
+                    	g2d.draw(shape);                        		
+                	}
+                } else if (roi.isLine()) {
+                	g2d.setStroke(stroke == null ? singleStroke : stroke);
+                	g2d.draw(shape);
+                }
+        		g2d.dispose();
+			}
+			
+    		var rasterFeatures = features.getRaster();
+    		nFeatures = rasterFeatures.getNumBands();
+    		int[] labels = raster.getSamples(0, 0, width, height, 0, (int[])null);
+    		int n = 0;
+    		for (int l : labels) {
+    			if (l != 0)
+    				n++;
     		}
-    		// Allocate buffers
-    		int capacity = width * height;
-    		int nFeatures = features.getRaster().getNumBands();
+    		pixels = new int[n];
+    		boundary = new boolean[n];
+    		this.features = new float[n * nFeatures];
     		float[] buf = new float[nFeatures];
-    		var extracted = FloatBuffer.allocate(capacity * nFeatures);    		
-    		var targets = IntBuffer.allocate(capacity);
-    		var rasterFeatures = features.getRaster();
+    		int k = 0;
     		for (int y = 0; y < height; y++) {
         		for (int x = 0; x < width; x++) {
-        			int label = raster.getSample(x, y, 0);
-        			if (label != 0) {
+        			int p = y * width + x;
+        			int l = labels[p];
+        			if (l != 0) {
         				buf = rasterFeatures.getPixel(x, y, buf);
-        				extracted.put(buf);
-        				targets.put(label-1);
+        				System.arraycopy(buf, 0, this.features, k * nFeatures, nFeatures);
+        				pixels[k] = p;
+        				boundary[k] = l == 2;
+        				k++;
         			}
         		}    			
     		}
-    		
-    		// Create Mats
-    		int n = targets.position();
-    		matFeatures = new Mat(n, nFeatures, opencv_core.CV_32FC1);
-    		matTargets = new Mat(n, 1, opencv_core.CV_32SC1);
-
-    		if (n == 0) {
-//    			new ImagePlus("Mask", IJTools.convertToImageProcessor(imgLabels, 0)).show(); 
-//    			for (var r : rois.keySet())
-//    				System.err.println(r.getArea());
-    			// This can happen if a training annotation falls exactly on a tile boundary
-    			// (However note that the boundary strategy can still make some annotations useful sometimes)
-    			logger.debug("I thought I'd have features but I don't! " + rois.size() + " - " + request);
-    			return;
-    		}
+    		if (n == 0)
+    			logger.trace("No training samples for {} in {}", roi, request);
+    	}
+    	
+    	/**
+    	 * Get the approximate number of bytes required to store the features and pixel indices.
+    	 */
+    	private long getApproxBytes() {
+    		return features.length * 4L + pixels.length * 4L + boundary.length;
+    	}
 
-    		IntIndexer idxTargets = matTargets.createIndexer();
-    		FloatIndexer idxFeatures = matFeatures.createIndexer();
-    		int t = 0;
-    		for (int i = 0; i < n; i++) {
-    			for (int j = 0; j < nFeatures; j++) {
-    				idxFeatures.put(i, j, extracted.get(t));
-    				t++;
-    			}
-    			idxTargets.put(i, targets.get(i));
-    		}
-    		idxTargets.release();
-    		idxFeatures.release();
+    }
+    
+    
+    /**
+     * Training samples for a single tile.
+     */
+    static class TileSamples {
+    	    	    	
+    	private Mat matFeatures;
+    	private Mat matTargets;
+    	
+    	private TileSamples(Mat matFeatures, Mat matTargets) {
+    		this.matFeatures = matFeatures;
+    		this.matTargets = matTargets;
     	}
     	
     	public Mat getFeatures() {
@@ -554,4 +682,4 @@ public class PixelClassifierTraining {
     }
     
 
-}
\ No newline at end of file
+}
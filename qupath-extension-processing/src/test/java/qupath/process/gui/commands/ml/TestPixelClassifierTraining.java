@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.process.gui.commands.ml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.IntIndexer;
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+@SuppressWarnings("javadoc")
+public class TestPixelClassifierTraining {
+	
+	private static final ImagePlane PLANE = ImagePlane.getDefaultPlane();
+	
+	@Test
+	public void test_overlappingAnnotations() throws IOException {
+		var server = createServer(200, 150);
+		
+		var rect = ROIs.createRectangleROI(20, 20, 100, 80, PLANE);
+		var ellipse = ROIs.createEllipseROI(60, 40, 110, 90, PLANE);
+		var line = ROIs.createLineROI(10, 140, 190, 10, PLANE);
+		var points = ROIs.createPointsROI(new double[] {70, 80, 190}, new double[] {50, 60, 5}, PLANE);
+		
+		var rois = Arrays.asList(rect, ellipse, line, points);
+		var labels = Arrays.asList(0, 1, 3, 0);
+		var boundaryLabels = Arrays.asList(2, 2, null, null);
+		
+		for (double downsample : new double[] {1.0, 2.0}) {
+			var request = RegionRequest.createInstance(server.getPath(), downsample, 0, 0, server.getWidth(), server.getHeight());
+			
+			// Check before and after features have been cached
+			assertSamplesEqual(server, request, rois, labels, boundaryLabels, 3.0);
+			assertSamplesEqual(server, request, rois, labels, boundaryLabels, 3.0);
+			
+			// Changing the order, labels or boundaries should change the samples, even though features are cached
+			var rect2 = ROIs.createRectangleROI(100, 30, 50, 100, PLANE);
+			var rois2 = Arrays.asList(rect2, points, ellipse, line, rect);
+			var labels2 = Arrays.asList(2, 1, 3, 1, 0);
+			var boundaryLabels2 = Arrays.asList(1, null, null, null, 3);
+			assertSamplesEqual(server, request, rois2, labels2, boundaryLabels2, 3.0);
+			assertSamplesEqual(server, request, rois2, labels2, boundaryLabels2, 1.0);
+			assertSamplesEqual(server, request, rois, labels, Arrays.asList(null, null, null, null), 3.0);
+		}
+	}
+	
+	
+	/**
+	 * Check the samples for a tile match those that would be created by painting all the ROIs into a single label image.
+	 */
+	private static void assertSamplesEqual(ImageServer<BufferedImage> server, RegionRequest request, 
+			List<ROI> rois, List<Integer> labels, List<Integer> boundaryLabels, double boundaryThickness) throws IOException {
+		
+		var features = server.readBufferedImage(request);
+		int width = features.getWidth();
+		int height = features.getHeight();
+		double downsample = request.getDownsample();
+		
+		var imgLabels = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		var raster = imgLabels.getRaster();
+		for (int i = 0; i < rois.size(); i++) {
+			var roi = rois.get(i);
+			int lab = labels.get(i) + 1;
+			if (roi.isPoint()) {
+				for (var p : roi.getAllPoints()) {
+					int x = (int)Math.round((p.getX() - request.getX()) / downsample);
+					int y = (int)Math.round((p.getY() - request.getY()) / downsample);
+					if (x >= 0 && y >= 0 && x < width && y < height)
+						raster.setSample(x, y, 0, lab);
+				}
+				continue;
+			}
+			var g2d = imgLabels.createGraphics();
+			g2d.scale(1.0/downsample, 1.0/downsample);
+			g2d.translate(-request.getX(), -request.getY());
+			g2d.setColor(new Color(lab, lab, lab));
+			var shape = roi.getShape();
+			var stroke = new BasicStroke((float)(downsample * boundaryThickness));
+			if (roi.isArea()) {
+				g2d.fill(shape);
+				var boundaryLabel = boundaryLabels.get(i);
+				if (boundaryLabel != null) {
+					int boundaryLab = boundaryLabel + 1;
+					g2d.setColor(new Color(boundaryLab, boundaryLab, boundaryLab));
+					g2d.setStroke(stroke);
+					g2d.draw(shape);
+				}
+			} else {
+				g2d.setStroke(stroke);
+				g2d.draw(shape);
+			}
+			g2d.dispose();
+		}
+		
+		List<float[]> expectedFeatures = new ArrayList<>();
+		List<Integer> expectedTargets = new ArrayList<>();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int l = raster.getSample(x, y, 0);
+				if (l != 0) {
+					expectedFeatures.add(features.getRaster().getPixel(x, y, (float[])null));
+					expectedTargets.add(l - 1);
+				}
+			}
+		}
+		assertTrue(expectedTargets.size() > 0);
+		
+		var samples = PixelClassifierTraining.getTileSamples(request, server, rois, labels, boundaryLabels, boundaryThickness);
+		assertNotNull(samples);
+		var matFeatures = samples.getFeatures();
+		var matTargets = samples.getTargets();
+		assertEquals(expectedTargets.size(), matFeatures.rows());
+		assertEquals(expectedTargets.size(), matTargets.rows());
+		assertEquals(features.getRaster().getNumBands(), matFeatures.cols());
+		
+		try (FloatIndexer idxFeatures = matFeatures.createIndexer();
+				IntIndexer idxTargets = matTargets.createIndexer()) {
+			for (int i = 0; i < expectedTargets.size(); i++) {
+				assertEquals(expectedTargets.get(i).intValue(), idxTargets.get(i, 0));
+				var expected = expectedFeatures.get(i);
+				for (int j = 0; j < expected.length; j++)
+					assertEquals(expected[j], idxFeatures.get(i, j));
+			}
+		}
+	}
+	
+	/**
+	 * Create an RGB server in which every pixel has a different value.
+	 */
+	private static ImageServer<BufferedImage> createServer(int width, int height) {
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				img.setRGB(x, y, (x << 16) | (y << 8) | ((x + y) % 256));
+			}
+		}
+		return new WrappedBufferedImageServer("Training", img);
+	}
+
+}
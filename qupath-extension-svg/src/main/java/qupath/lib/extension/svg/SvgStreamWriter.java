@@ -0,0 +1,547 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.extension.svg;
+
+import java.awt.Color;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.imageio.ImageIO;
+
+import qupath.lib.color.ColorToolsAwt;
+import qupath.lib.gui.prefs.PathPrefs;
+import qupath.lib.gui.tools.ColorToolsFX;
+import qupath.lib.gui.viewer.OverlayOptions;
+import qupath.lib.gui.viewer.OverlayOptions.DetectionDisplayMode;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.classes.PathClassFactory.StandardPathClasses;
+import qupath.lib.objects.hierarchy.events.PathObjectSelectionModel;
+import qupath.lib.plugins.ParallelTileObject;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.EllipseROI;
+import qupath.lib.roi.LineROI;
+import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.PolylineROI;
+import qupath.lib.roi.RectangleROI;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Writer that streams an SVG document, writing each object as it is visited rather than building
+ * the entire document in memory.
+ * <p>
+ * Elements are written directly from ROI coordinates, transformed into the export region.
+ * Styles are shared between elements using CSS classes, which are defined (in {@code <style>} elements)
+ * the first time they are needed.
+ * Objects outside the export region are skipped before any styles or coordinates are computed.
+ * <p>
+ * The styling follows {@link qupath.lib.gui.viewer.PathHierarchyPaintingHelper} as closely as is practical,
+ * but some display details (e.g. simplification of shapes at low resolution) are not reproduced.
+ *
+ * @author Pete Bankhead
+ */
+class SvgStreamWriter implements Closeable {
+
+	private final Writer writer;
+	private final ImageRegion region;
+	private final double downsample;
+	private final int width;
+	private final int height;
+
+	private final Map<Style, String> styles = new HashMap<>();
+
+	private final StringBuilder sb = new StringBuilder();
+
+	/**
+	 * Create a writer for an SVG document, and write the document header.
+	 * @param writer the writer that receives the document; this is not closed by {@link #close()}
+	 * @param region the region of the image to export
+	 * @param downsample the downsample factor for the export
+	 * @param width width of the SVG image
+	 * @param height height of the SVG image
+	 * @throws IOException
+	 */
+	SvgStreamWriter(Writer writer, ImageRegion region, double downsample, int width, int height) throws IOException {
+		this.writer = writer;
+		this.region = region;
+		this.downsample = downsample;
+		this.width = width;
+		this.height = height;
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write(String.format(
+				"<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">\n",
+				width, height, width, height));
+	}
+
+	/**
+	 * Write a raster image covering the full export region.
+	 * @param img the image to write
+	 * @param href if null, the image will be embedded (as a Base64-encoded PNG); otherwise, this is the link to the image
+	 * @throws IOException
+	 */
+	void writeImage(BufferedImage img, String href) throws IOException {
+		writer.write(String.format("<image x=\"0\" y=\"0\" width=\"%d\" height=\"%d\" preserveAspectRatio=\"none\" xlink:href=\"", width, height));
+		if (href == null) {
+			writer.write("data:image/png;base64,");
+			writer.flush();
+			// Stream the encoded image, without closing the underlying writer
+			var stream = Base64.getEncoder().wrap(new WriterOutputStream(writer));
+			ImageIO.write(img, "PNG", stream);
+			stream.close();
+		} else
+			writer.write(escape(href));
+		writer.write("\"/>\n");
+	}
+
+	/**
+	 * Write the specified objects.
+	 * @param pathObjects the objects to write; those outside the export region will be skipped
+	 * @param options overlay options, used to determine which objects are displayed and how
+	 * @param selectionModel optional selection model, used to identify selected objects
+	 * @throws IOException
+	 */
+	void writeObjects(Collection<? extends PathObject> pathObjects, OverlayOptions options, PathObjectSelectionModel selectionModel) throws IOException {
+		for (var pathObject : pathObjects) {
+			if (Thread.currentThread().isInterrupted())
+				return;
+			writeObject(pathObject, options, selectionModel);
+		}
+	}
+
+	private void writeObject(PathObject pathObject, OverlayOptions options, PathObjectSelectionModel selectionModel) throws IOException {
+		ROI roi = pathObject.getROI();
+		if (roi == null)
+			return;
+
+		// Cull objects outside the region as early as possible
+		if (!roi.isPoint() && !intersectsRegion(roi))
+			return;
+
+		boolean isSelected = (selectionModel != null && selectionModel.isSelected(pathObject)) && (PathPrefs.useSelectedColorProperty().get() || !PathObjectTools.hasPointROI(pathObject));
+		boolean isDetectedObject = pathObject.isDetection() || (pathObject.isTile() && pathObject.hasMeasurements());
+		var pathClass = pathObject.getPathClass();
+		if (!isSelected && options.isPathClassHidden(pathClass))
+			return;
+		if (!(isSelected || (options.getShowDetections() && isDetectedObject) || (options.getShowAnnotations() && pathObject.isAnnotation()) || (options.getShowTMAGrid() && pathObject.isTMACore())))
+			return;
+
+		boolean doFill = options.getFillDetections() || pathObject instanceof ParallelTileObject;
+		boolean doOutline = true;
+
+		Color color;
+		double fillOpacity = .75;
+		if (isSelected && PathPrefs.useSelectedColorProperty().get() && PathPrefs.colorSelectedObjectProperty().getValue() != null)
+			color = ColorToolsAwt.getCachedColor(PathPrefs.colorSelectedObjectProperty().get());
+		else {
+			var mapper = options.getMeasurementMapper();
+			if (mapper != null && mapper.isValid() && pathObject.isDetection()) {
+				color = null;
+				if (pathObject.hasMeasurements()) {
+					Integer rgb = mapper.getColorForObject(pathObject);
+					if (rgb == null)
+						return;
+					color = ColorToolsAwt.getCachedColor(rgb);
+				}
+				fillOpacity = 1.0;
+				if (doFill)
+					doOutline = !pathObject.isTile();
+			} else
+				color = ColorToolsAwt.getCachedColor(ColorToolsFX.getDisplayedColorARGB(pathObject));
+		}
+
+		// Tiny detections are written as filled rectangles
+		if (isDetectedObject && downsample > 4 && roi.getBoundsWidth() / downsample < 3 && roi.getBoundsHeight() / downsample < 3) {
+			int w = (int)(roi.getBoundsWidth() + .9);
+			int h = (int)(roi.getBoundsHeight() + .9);
+			if (w > 0 && h > 0 && color != null) {
+				String className = getStyleClass(null, color, 0, false);
+				sb.setLength(0);
+				sb.append("<rect class=\"").append(className).append("\" x=\"");
+				appendX(sb, (int)roi.getBoundsX()).append("\" y=\"");
+				appendY(sb, (int)roi.getBoundsY()).append("\" width=\"");
+				appendNumber(sb, w / downsample).append("\" height=\"");
+				appendNumber(sb, h / downsample).append("\"/>\n");
+				writer.append(sb);
+			}
+			return;
+		}
+
+		Color colorFill = doFill && (isDetectedObject || PathObjectTools.hasPointROI(pathObject)) ? color : null;
+		if (colorFill != null && fillOpacity != 1) {
+			if (pathObject instanceof ParallelTileObject)
+				colorFill = ColorToolsAwt.getMoreTranslucentColor(colorFill);
+			else if (pathObject instanceof PathCellObject && options.getShowCellBoundaries() && options.getShowCellNuclei())
+				colorFill = ColorToolsAwt.getMoreTranslucentColor(colorFill);
+			else if (pathObject.getParent() instanceof PathDetectionObject)
+				colorFill = ColorToolsAwt.getTranslucentColor(colorFill);
+			else if (pathObject instanceof PathTileObject && pathClass == null && color != null && color.getRGB() == PathPrefs.colorTileProperty().get())
+				colorFill = null;
+		}
+		Color colorStroke = doOutline ? (colorFill == null ? color : ColorToolsAwt.darkenColor(color)) : null;
+
+		// Stroke widths are given in terms of the exported image
+		double strokeWidth;
+		boolean dashed = false;
+		if (isDetectedObject) {
+			strokeWidth = PathPrefs.detectionStrokeThicknessProperty().get() / downsample;
+			if (pathObject.getParent() instanceof PathDetectionObject)
+				strokeWidth /= 2.0;
+		} else {
+			strokeWidth = PathPrefs.annotationStrokeThicknessProperty().get() * (isSelected && !PathPrefs.useSelectedColorProperty().get() ? 1.6 : 1);
+			dashed = isSelected && pathObject.getParent() == null && PathPrefs.selectionModeProperty().get();
+		}
+
+		if (options.getDetectionDisplayMode() == DetectionDisplayMode.CENTROIDS && pathObject.isDetection() && !pathObject.isTile()) {
+			var centroidROI = PathObjectTools.getROI(pathObject, true);
+			double radius = PathPrefs.detectionStrokeThicknessProperty().get() * 2.0;
+			if (pathObject.getParent() instanceof PathDetectionObject)
+				radius /= 2.0;
+			writeCircle(centroidROI.getCentroidX(), centroidROI.getCentroidY(), radius, getStyleClass(colorStroke, colorFill, strokeWidth, false));
+		} else if (pathObject instanceof PathCellObject) {
+			String className = getStyleClass(colorStroke, colorFill, strokeWidth, dashed);
+			if (options.getShowCellBoundaries())
+				writeROI(roi, className, colorStroke, colorFill, strokeWidth);
+			if (options.getShowCellNuclei())
+				writeROI(((PathCellObject)pathObject).getNucleusROI(), className, colorStroke, colorFill, strokeWidth);
+		} else {
+			if ((options.getFillAnnotations() &&
+					pathObject.isAnnotation() &&
+					pathClass != PathClassFactory.getPathClass(StandardPathClasses.REGION) &&
+					(pathClass != null || !pathObject.hasChildren()))
+					|| (pathObject.isTMACore() && options.getShowTMACoreLabels()))
+				colorFill = ColorToolsAwt.getMoreTranslucentColor(colorStroke);
+			writeROI(roi, getStyleClass(colorStroke, colorFill, strokeWidth, dashed), colorStroke, colorFill, strokeWidth);
+		}
+	}
+
+	private boolean intersectsRegion(ROI roi) {
+		// Lines may have zero width or height, so pad a little
+		return roi.getBoundsX() <= region.getMaxX() && roi.getBoundsY() <= region.getMaxY() &&
+				roi.getBoundsX() + Math.max(roi.getBoundsWidth(), 1) >= region.getX() &&
+				roi.getBoundsY() + Math.max(roi.getBoundsHeight(), 1) >= region.getY();
+	}
+
+	private void writeROI(ROI roi, String className, Color colorStroke, Color colorFill, double strokeWidth) throws IOException {
+		if (roi == null || (colorStroke == null && colorFill == null))
+			return;
+		if (roi.isPoint()) {
+			writePoints(roi, colorStroke, colorFill, strokeWidth);
+			return;
+		}
+		// Lines shouldn't be filled
+		if (roi.isLine() && colorFill != null) {
+			if (colorStroke == null)
+				return;
+			className = getStyleClass(colorStroke, null, strokeWidth, false);
+		}
+		sb.setLength(0);
+		if (roi instanceof RectangleROI) {
+			sb.append("<rect class=\"").append(className).append("\" x=\"");
+			appendX(sb, roi.getBoundsX()).append("\" y=\"");
+			appendY(sb, roi.getBoundsY()).append("\" width=\"");
+			appendNumber(sb, roi.getBoundsWidth() / downsample).append("\" height=\"");
+			appendNumber(sb, roi.getBoundsHeight() / downsample).append("\"/>\n");
+		} else if (roi instanceof EllipseROI) {
+			sb.append("<ellipse class=\"").append(className).append("\" cx=\"");
+			appendX(sb, roi.getCentroidX()).append("\" cy=\"");
+			appendY(sb, roi.getCentroidY()).append("\" rx=\"");
+			appendNumber(sb, roi.getBoundsWidth() / 2.0 / downsample).append("\" ry=\"");
+			appendNumber(sb, roi.getBoundsHeight() / 2.0 / downsample).append("\"/>\n");
+		} else if (roi instanceof LineROI) {
+			var line = (LineROI)roi;
+			sb.append("<line class=\"").append(className).append("\" x1=\"");
+			appendX(sb, line.getX1()).append("\" y1=\"");
+			appendY(sb, line.getY1()).append("\" x2=\"");
+			appendX(sb, line.getX2()).append("\" y2=\"");
+			appendY(sb, line.getY2()).append("\"/>\n");
+		} else if (roi instanceof PolygonROI || roi instanceof PolylineROI) {
+			sb.append(roi instanceof PolygonROI ? "<polygon" : "<polyline");
+			sb.append(" class=\"").append(className).append("\" points=\"");
+			boolean first = true;
+			for (var p : roi.getAllPoints()) {
+				if (!first)
+					sb.append(' ');
+				appendX(sb, p.getX()).append(',');
+				appendY(sb, p.getY());
+				first = false;
+			}
+			sb.append("\"/>\n");
+		} else {
+			// Use the shape for anything more complicated, which may contain holes or multiple polygons
+			sb.append("<path class=\"").append(className).append("\" d=\"");
+			appendPath(sb, roi.getShape().getPathIterator(null));
+			sb.append("\"/>\n");
+		}
+		writer.append(sb);
+	}
+
+	private void writePoints(ROI roi, Color colorStroke, Color colorFill, double strokeWidth) throws IOException {
+		double radius = PathPrefs.pointRadiusProperty().get();
+		radius = Math.max(1 / Math.max(1, downsample), radius);
+		if (radius / downsample < 0.5) {
+			// Very small points are just drawn as translucent squares
+			Color color = colorStroke == null ? colorFill : colorStroke;
+			if (color == null)
+				return;
+			double alpha = radius / downsample * color.getAlpha() / 255.0;
+			if (alpha < 0.01)
+				return;
+			String className = getStyleClass(null, ColorToolsAwt.getColorWithOpacity(color, alpha), 0, false);
+			for (var p : roi.getAllPoints()) {
+				if (!region.intersects(p.getX() - radius, p.getY() - radius, radius * 2, radius * 2))
+					continue;
+				sb.setLength(0);
+				sb.append("<rect class=\"").append(className).append("\" x=\"");
+				appendX(sb, p.getX() - radius).append("\" y=\"");
+				appendY(sb, p.getY() - radius).append("\" width=\"");
+				appendNumber(sb, radius * 2 / downsample).append("\" height=\"");
+				appendNumber(sb, radius * 2 / downsample).append("\"/>\n");
+				writer.append(sb);
+			}
+			return;
+		}
+		String className = getStyleClass(colorStroke, colorFill, strokeWidth, false);
+		for (var p : roi.getAllPoints()) {
+			if (!region.intersects(p.getX() - radius, p.getY() - radius, radius * 2, radius * 2))
+				continue;
+			writeCircle(p.getX(), p.getY(), radius, className);
+		}
+	}
+
+	private void writeCircle(double x, double y, double radius, String className) throws IOException {
+		sb.setLength(0);
+		sb.append("<circle class=\"").append(className).append("\" cx=\"");
+		appendX(sb, x).append("\" cy=\"");
+		appendY(sb, y).append("\" r=\"");
+		appendNumber(sb, radius / downsample).append("\"/>\n");
+		writer.append(sb);
+	}
+
+	private void appendPath(StringBuilder sb, PathIterator iterator) {
+		double[] coords = new double[6];
+		while (!iterator.isDone()) {
+			int type = iterator.currentSegment(coords);
+			switch (type) {
+			case PathIterator.SEG_MOVETO:
+				sb.append('M');
+				appendPoints(sb, coords, 1);
+				break;
+			case PathIterator.SEG_LINETO:
+				sb.append('L');
+				appendPoints(sb, coords, 1);
+				break;
+			case PathIterator.SEG_QUADTO:
+				sb.append('Q');
+				appendPoints(sb, coords, 2);
+				break;
+			case PathIterator.SEG_CUBICTO:
+				sb.append('C');
+				appendPoints(sb, coords, 3);
+				break;
+			case PathIterator.SEG_CLOSE:
+				sb.append('Z');
+				break;
+			default:
+				break;
+			}
+			iterator.next();
+		}
+	}
+
+	private void appendPoints(StringBuilder sb, double[] coords, int nPoints) {
+		for (int i = 0; i < nPoints; i++) {
+			if (i > 0)
+				sb.append(' ');
+			appendX(sb, coords[i*2]).append(',');
+			appendY(sb, coords[i*2+1]);
+		}
+	}
+
+	private StringBuilder appendX(StringBuilder sb, double x) {
+		return appendNumber(sb, (x - region.getX()) / downsample);
+	}
+
+	private StringBuilder appendY(StringBuilder sb, double y) {
+		return appendNumber(sb, (y - region.getY()) / downsample);
+	}
+
+	/**
+	 * Append a number with at most 2 decimal places, avoiding the overhead of general-purpose formatting.
+	 */
+	static StringBuilder appendNumber(StringBuilder sb, double value) {
+		long scaled = Math.round(value * 100.0);
+		if (scaled < 0) {
+			sb.append('-');
+			scaled = -scaled;
+		}
+		sb.append(scaled / 100);
+		int remainder = (int)(scaled % 100);
+		if (remainder != 0) {
+			sb.append('.');
+			sb.append(remainder / 10);
+			if (remainder % 10 != 0)
+				sb.append(remainder % 10);
+		}
+		return sb;
+	}
+
+	/**
+	 * Get the name of the CSS class for the specified style, writing the class definition if it is new.
+	 */
+	private String getStyleClass(Color colorStroke, Color colorFill, double strokeWidth, boolean dashed) throws IOException {
+		var style = new Style(colorStroke, colorFill, colorStroke == null ? 0 : strokeWidth, dashed);
+		var name = styles.get(style);
+		if (name == null) {
+			name = "s" + styles.size();
+			styles.put(style, name);
+			var sbStyle = new StringBuilder();
+			sbStyle.append("<style>.").append(name).append(" {");
+			appendColor(sbStyle, "fill", colorFill);
+			appendColor(sbStyle, "stroke", colorStroke);
+			if (colorStroke != null) {
+				sbStyle.append(" stroke-width: ");
+				appendNumber(sbStyle, style.strokeWidth);
+				sbStyle.append(";");
+				if (dashed) {
+					sbStyle.append(" stroke-dasharray: ");
+					appendNumber(sbStyle, style.strokeWidth * 5);
+					sbStyle.append(";");
+				}
+			}
+			sbStyle.append(" fill-rule: evenodd; }</style>\n");
+			writer.append(sbStyle);
+		}
+		return name;
+	}
+
+	private static void appendColor(StringBuilder sb, String name, Color color) {
+		sb.append(' ').append(name).append(": ");
+		if (color == null) {
+			sb.append("none;");
+			return;
+		}
+		sb.append(String.format("#%06x;", color.getRGB() & 0xffffff));
+		if (color.getAlpha() != 255) {
+			sb.append(' ').append(name).append("-opacity: ");
+			appendNumber(sb, color.getAlpha() / 255.0);
+			sb.append(';');
+		}
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+	}
+
+	/**
+	 * Complete the SVG document and flush the writer.
+	 * The writer itself is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.write("</svg>\n");
+		writer.flush();
+	}
+
+
+	private static class Style {
+
+		private final Integer stroke;
+		private final Integer fill;
+		private final double strokeWidth;
+		private final boolean dashed;
+
+		Style(Color colorStroke, Color colorFill, double strokeWidth, boolean dashed) {
+			this.stroke = colorStroke == null ? null : colorStroke.getRGB();
+			this.fill = colorFill == null ? null : colorFill.getRGB();
+			// Round to match the output precision
+			this.strokeWidth = Math.round(strokeWidth * 100.0) / 100.0;
+			this.dashed = dashed;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(dashed, fill, stroke, strokeWidth);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Style))
+				return false;
+			Style other = (Style) obj;
+			return dashed == other.dashed && Objects.equals(fill, other.fill) && Objects.equals(stroke, other.stroke)
+					&& Double.doubleToLongBits(strokeWidth) == Double.doubleToLongBits(other.strokeWidth);
+		}
+
+	}
+
+
+	/**
+	 * Output stream that passes bytes to a writer, assuming they are ASCII (as is the case for Base64).
+	 * Closing the stream does not close the writer.
+	 */
+	private static class WriterOutputStream extends OutputStream {
+
+		private final Writer writer;
+
+		WriterOutputStream(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			writer.write(b & 0xff);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++)
+				writer.write(b[i] & 0xff);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+}
@@ -21,12 +21,15 @@
 
 package qupath.lib.extension.svg;
 
+import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -343,13 +346,15 @@ public class SvgTools {
 
 		/**
 		 * Write the SVG image to a file, including any references images if required.
+		 * <p>
+		 * The document is streamed to the file as objects are visited, rather than being created in memory first. 
+		 * This makes it possible to export large numbers of objects.
+		 * 
 		 * @param file SVG file to which the image should be written
 		 * @throws IOException
 		 */
 		public void writeSVG(File file) throws IOException {
 			
-			boolean embedImages = imageInclude == ImageIncludeType.EMBED;
-			
 			String ext = GeneralTools.getExtension(file).orElse(null);
 			boolean doCompress = false;
 			if (ext == null) {
@@ -369,32 +374,57 @@ public class SvgTools {
 				}
 			}
 			String imageName = GeneralTools.getNameWithoutExtension(file) + "-image.png";
-			var g2d = buildGraphics(imageName);
-			var doc = g2d.getSVGDocument();
+			var fileImage = new File(file.getParent(), imageName);
 			
-			if (doCompress) {
-				try (var stream = 
-						new OutputStreamWriter(
-								new GZIPOutputStream(
-										Files.newOutputStream(file.toPath())
-										),
-								StandardCharsets.UTF_8)
-						) {
-					stream.write(doc);
-				}
-			} else
-				Files.writeString(file.toPath(), doc, StandardCharsets.UTF_8);
+			try (var fileStream = Files.newOutputStream(file.toPath());
+					var stream = doCompress ? new GZIPOutputStream(fileStream) : fileStream;
+					var writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+				writeSVG(writer, fileImage);
+			}
+		}
+		
+		/**
+		 * Write the SVG image to an output stream.
+		 * Images can be embedded, but not linked (since there is no file to which the image could be written).
+		 * <p>
+		 * The document is streamed as objects are visited, rather than being created in memory first. 
+		 * The stream is not closed.
+		 * 
+		 * @param stream the stream to which the SVG document should be written
+		 * @throws IOException
+		 * @since v0.4.0
+		 */
+		public void writeSVG(OutputStream stream) throws IOException {
+			var writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+			writeSVG(writer, null);
+			writer.flush();
+		}
+		
+		private void writeSVG(Writer writer, File fileImage) throws IOException {
+			ensureRegion();
+			var hierarchy = getHierarchy();
+			double downsample = getDownsample();
+			int width = getWidth(downsample);
+			int height = getHeight(downsample);
 			
-			// Write linked images, if necessary
-			if (!embedImages) {
-				for (var element : g2d.getSVGImages()) {
-					var img = element.getImage();
-					ImageIO.write((RenderedImage)img, "PNG", new File(file.getParent(), imageName));
+			try (var svg = new SvgStreamWriter(writer, region, downsample, width, height)) {
+				if (imageInclude == ImageIncludeType.EMBED || imageInclude == ImageIncludeType.LINK) {
+					var img = renderImage(width, height, downsample, getTransform(downsample));
+					if (img != null) {
+						if (imageInclude == ImageIncludeType.EMBED)
+							svg.writeImage(img, null);
+						else if (fileImage != null) {
+							ImageIO.write(img, "PNG", fileImage);
+							svg.writeImage(img, fileImage.getName());
+						} else
+							logger.warn("Linked images can only be written when exporting to a file - image will be skipped");
+					}
 				}
+				svg.writeObjects(getPathObjects(hierarchy), options, getSelectionModel(hierarchy));
 			}
 		}
 		
-		private SVGGraphics2D buildGraphics(String imageName) {
+		private void ensureRegion() {
 			if (region == null) {
 				if (imageData != null) {
 					logger.warn("No export region defined - will try to use the entire image");
@@ -408,59 +438,107 @@ public class SvgTools {
 					}
 				}
 			}
-			
-			var hierarchy = this.hierarchy;
-			if (hierarchy == null) {
-				if (imageData != null)
-					hierarchy = imageData.getHierarchy();
-				else if (viewer != null)
-					hierarchy = viewer.getHierarchy();
-			}
-			
-			double downsample = this.downsample;
-			if (downsample <= 0)
-				downsample = 1.0;
-			
-			int width = this.width;
-			int height = this.height;
-			if (width <= 0)
-				width = (int)(region.getWidth() / downsample);
-			if (height <= 0)
-				height = (int)(region.getHeight() / downsample);
-			
-			var g2d = new SVGGraphics2D(width, height);
-			g2d.scale(1.0/downsample, 1.0/downsample);
-			g2d.translate(-region.getX(), -region.getY());
-			
-			PathObjectSelectionModel selectionModel = null;
+		}
+		
+		private PathObjectHierarchy getHierarchy() {
+			if (hierarchy != null)
+				return hierarchy;
+			if (imageData != null)
+				return imageData.getHierarchy();
+			else if (viewer != null)
+				return viewer.getHierarchy();
+			return null;
+		}
+		
+		private double getDownsample() {
+			return downsample <= 0 ? 1.0 : downsample;
+		}
+		
+		private int getWidth(double downsample) {
+			return width <= 0 ? (int)(region.getWidth() / downsample) : width;
+		}
+		
+		private int getHeight(double downsample) {
+			return height <= 0 ? (int)(region.getHeight() / downsample) : height;
+		}
+		
+		private AffineTransform getTransform(double downsample) {
+			var transform = AffineTransform.getScaleInstance(1.0/downsample, 1.0/downsample);
+			transform.translate(-region.getX(), -region.getY());
+			return transform;
+		}
+		
+		private PathObjectSelectionModel getSelectionModel(PathObjectHierarchy hierarchy) {
 			if (showSelection && hierarchy != null)
-				selectionModel = hierarchy.getSelectionModel();
-
+				return hierarchy.getSelectionModel();
+			return null;
+		}
+		
+		/**
+		 * Get the objects to export, using the spatial cache of the hierarchy (if needed) to restrict these 
+		 * to the export region.
+		 */
+		private Collection<? extends PathObject> getPathObjects(PathObjectHierarchy hierarchy) {
 			if (pathObjects == null) {
 				if (hierarchy == null)
 					pathObjects = Collections.emptyList();
 				else
 					pathObjects = hierarchy.getObjectsForRegion(null, region, null);				
 			}
+			return pathObjects;
+		}
+		
+		/**
+		 * Render the raster image for the export region, or return null if this isn't possible.
+		 */
+		private BufferedImage renderImage(int width, int height, double downsample, AffineTransform transform) {
+			if (imageData == null) {
+				logger.warn("Unable to include image - I'd also need an imageData to be able to do that");
+				return null;
+			}
+			DefaultImageRegionStore store;
+			ImageDisplay display;
+			if (viewer == null) {
+				store = ImageRegionStoreFactory.createImageRegionStore(1024*1024L*16);
+				display = new ImageDisplay(imageData);
+			} else {
+				store = viewer.getImageRegionStore();
+				if (viewer.getImageData() == imageData)
+					display = viewer.getImageDisplay();
+				else
+					display = new ImageDisplay(imageData);							
+			}
+			
+			BufferedImage imgTemp = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			var g = imgTemp.createGraphics();
+			g.setTransform(transform);
+			
+			store.paintRegionCompletely(
+					imageData.getServer(), g, AwtTools.getBounds(region),
+					region.getZ(), region.getT(), downsample, null, display, 10000L);
+			g.dispose();
+			return imgTemp;
+		}
+		
+		private SVGGraphics2D buildGraphics(String imageName) {
+			ensureRegion();
+			var hierarchy = getHierarchy();
+			double downsample = getDownsample();
+			int width = getWidth(downsample);
+			int height = getHeight(downsample);
+			
+			var g2d = new SVGGraphics2D(width, height);
+			g2d.scale(1.0/downsample, 1.0/downsample);
+			g2d.translate(-region.getX(), -region.getY());
 			
+			var pathObjects = getPathObjects(hierarchy);
 			var boundsDisplayed = AwtTools.getBounds(region);
 			
 			// If the viewer is specified, draw the image
 			if (imageInclude == ImageIncludeType.EMBED || imageInclude == ImageIncludeType.LINK) {
-				if (imageData != null) {
-					DefaultImageRegionStore store;
-					ImageDisplay display;
-					if (viewer == null) {
-						store = ImageRegionStoreFactory.createImageRegionStore(1024*1024L*16);
-						display = new ImageDisplay(imageData);
-					} else {
-						store = viewer.getImageRegionStore();
-						if (viewer.getImageData() == imageData)
-							display = viewer.getImageDisplay();
-						else
-							display = new ImageDisplay(imageData);							
-					}
-					
+				var transform = g2d.getTransform();
+				var imgTemp = renderImage(width, height, downsample, transform);
+				if (imgTemp != null) {
 					if (imageInclude == ImageIncludeType.LINK) {
 						g2d.setRenderingHint(SVGHints.KEY_IMAGE_HANDLING, SVGHints.VALUE_IMAGE_HANDLING_REFERENCE);
 						if (imageName == null)
@@ -469,29 +547,17 @@ public class SvgTools {
 					} else {
 						g2d.setRenderingHint(SVGHints.KEY_IMAGE_HANDLING,  SVGHints.VALUE_IMAGE_HANDLING_EMBED);
 					}
-					
-					BufferedImage imgTemp = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-					var g = imgTemp.createGraphics();
-					g.setTransform(g2d.getTransform());
-					
-					store.paintRegionCompletely(
-							imageData.getServer(), g, boundsDisplayed,
-							region.getZ(), region.getT(), downsample, null, display, 10000L);
-					g.dispose();
-					
 					try {
-						g2d.drawImage(imgTemp, g.getTransform().createInverse(), null);
+						g2d.drawImage(imgTemp, transform.createInverse(), null);
 					} catch (NoninvertibleTransformException e) {
 						logger.warn("Unable to invert image transform: " + e.getLocalizedMessage(), e);
 					}
-				} else {
-					logger.warn("Unable to include image - I'd also need an imageData to be able to do that");
-				}				
+				}
 			}
 
 			// Paint the objects
 			PathHierarchyPaintingHelper.paintSpecifiedObjects(
-					g2d, boundsDisplayed, pathObjects, options, selectionModel, downsample);
+					g2d, boundsDisplayed, pathObjects, options, getSelectionModel(hierarchy), downsample);
 			
 			return g2d;
 		}
@@ -499,6 +565,8 @@ public class SvgTools {
 		
 		/**
 		 * Create a String representation of the SVG document.
+		 * Note that this creates the full document in memory; for large numbers of objects 
+		 * {@link #writeSVG(OutputStream)} or {@link #writeSVG(File)} should be preferred.
 		 * @return the SVG String
 		 */
 		public String createDocument() {
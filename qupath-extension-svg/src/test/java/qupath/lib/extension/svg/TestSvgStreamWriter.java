@@ -0,0 +1,314 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.extension.svg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import qupath.lib.extension.svg.SvgTools.SvgBuilder;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClassFactory;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.RoiTools;
+import qupath.lib.roi.RoiTools.CombineOp;
+
+@SuppressWarnings("javadoc")
+public class TestSvgStreamWriter {
+	
+	private static final Set<String> SHAPE_ELEMENTS = Set.of("rect", "circle", "ellipse", "line", "polygon", "polyline", "path");
+	
+	private static final Pattern PATTERN_CLASS = Pattern.compile("\\.(\\S+)\\s*\\{(.*)\\}", Pattern.DOTALL);
+	private static final Pattern PATTERN_HEX = Pattern.compile("#([0-9a-fA-F]{6})\\b");
+	private static final Pattern PATTERN_RGB = Pattern.compile("rgb\\(\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,\\s*(\\d+)\\s*\\)");
+	
+	@TempDir
+	File tempDir;
+	
+	@Test
+	public void test_appendNumber() {
+		assertEquals("0", format(0));
+		assertEquals("0", format(-0.0));
+		assertEquals("1", format(1));
+		assertEquals("-1", format(-1));
+		assertEquals("0.1", format(0.1));
+		assertEquals("0.05", format(0.05));
+		assertEquals("1.01", format(1.01));
+		assertEquals("-1.5", format(-1.5));
+		assertEquals("1", format(0.999));
+		assertEquals("0", format(0.004));
+		assertEquals("0", format(-0.004));
+		assertEquals("-0.01", format(-0.006));
+		assertEquals("123456.79", format(123456.789));
+		assertEquals("10000000000", format(1e10));
+		
+		var rng = new Random(100L);
+		for (int i = 0; i < 10_000; i++) {
+			double value = (rng.nextDouble() - 0.5) * 1e6;
+			var text = format(value);
+			assertEquals(value, Double.parseDouble(text), 0.005 + 1e-9);
+			assertFalse(text.endsWith(".") || (text.contains(".") && text.endsWith("0")), () -> "Unexpected trailing zeros in " + text);
+		}
+	}
+	
+	private static String format(double value) {
+		return SvgStreamWriter.appendNumber(new StringBuilder(), value).toString();
+	}
+	
+	@Test
+	public void test_stylesDefinedOnceBeforeUse() throws Exception {
+		var hierarchy = createHierarchy();
+		var builder = new SvgBuilder()
+				.hierarchy(hierarchy)
+				.region(ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0))
+				.downsample(2.0);
+		var doc = parse(writeStream(builder));
+		
+		Set<String> classNames = new HashSet<>();
+		Set<String> classDefinitions = new HashSet<>();
+		int nShapes = 0;
+		for (var element : getElements(doc)) {
+			var name = element.getLocalName();
+			if ("style".equals(name)) {
+				var matcher = PATTERN_CLASS.matcher(element.getTextContent());
+				assertTrue(matcher.find());
+				assertTrue(classNames.add(matcher.group(1)), "Style class defined more than once");
+				assertTrue(classDefinitions.add(matcher.group(2).trim()), "Duplicate style definition");
+			} else if (SHAPE_ELEMENTS.contains(name)) {
+				var className = element.getAttribute("class");
+				assertTrue(classNames.contains(className), () -> "Style class " + className + " used before being defined");
+				nShapes++;
+			}
+		}
+		assertEquals(hierarchy.getFlattenedObjectList(null).size() - 1, nShapes);
+		// The objects share fewer styles than there are objects
+		assertTrue(classNames.size() < nShapes);
+	}
+	
+	@Test
+	public void test_coordinates() throws Exception {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		hierarchy.addPathObject(PathObjects.createAnnotationObject(ROIs.createRectangleROI(200, 300, 50, 41, plane)));
+		hierarchy.addPathObject(PathObjects.createAnnotationObject(ROIs.createLineROI(150, 100, 500, 700.5, plane)));
+		// Outside the region, so should be skipped
+		hierarchy.addPathObject(PathObjects.createAnnotationObject(ROIs.createRectangleROI(2000, 2000, 50, 50, plane)));
+		var builder = new SvgBuilder()
+				.hierarchy(hierarchy)
+				.region(ImageRegion.createInstance(100, 100, 800, 800, 0, 0))
+				.downsample(2.0);
+		var doc = parse(writeStream(builder));
+		
+		var root = doc.getDocumentElement();
+		assertEquals("400", root.getAttribute("width"));
+		assertEquals("400", root.getAttribute("height"));
+		
+		var rects = doc.getElementsByTagNameNS("*", "rect");
+		assertEquals(1, rects.getLength());
+		var rect = (Element)rects.item(0);
+		assertEquals("50", rect.getAttribute("x"));
+		assertEquals("100", rect.getAttribute("y"));
+		assertEquals("25", rect.getAttribute("width"));
+		assertEquals("20.5", rect.getAttribute("height"));
+		
+		var lines = doc.getElementsByTagNameNS("*", "line");
+		assertEquals(1, lines.getLength());
+		var line = (Element)lines.item(0);
+		assertEquals("25", line.getAttribute("x1"));
+		assertEquals("0", line.getAttribute("y1"));
+		assertEquals("200", line.getAttribute("x2"));
+		assertEquals("300.25", line.getAttribute("y2"));
+	}
+	
+	@Test
+	public void test_compareGraphicsDocument() throws Exception {
+		var builder = new SvgBuilder()
+				.hierarchy(createHierarchy())
+				.region(ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0))
+				.downsample(2.0);
+		var docStream = parse(writeStream(builder));
+		var docGraphics = parse(builder.createDocument());
+		
+		// The previous SVGGraphics2D export should draw the same number of shapes with the same colors
+		var shapesStream = getShapes(docStream);
+		var shapesGraphics = getShapes(docGraphics);
+		assertEquals(shapesGraphics.size(), shapesStream.size());
+		assertEquals(getColors(docGraphics, shapesGraphics), getColors(docStream, shapesStream));
+	}
+	
+	@Test
+	public void test_writeFile() throws Exception {
+		var builder = new SvgBuilder()
+				.hierarchy(createHierarchy())
+				.region(ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0))
+				.downsample(2.0);
+		var expected = writeStream(builder);
+		
+		var fileSvg = new File(tempDir, "test.svg");
+		builder.writeSVG(fileSvg);
+		assertEquals(expected, Files.readString(fileSvg.toPath(), StandardCharsets.UTF_8));
+		
+		var fileSvgz = new File(tempDir, "test.svgz");
+		builder.writeSVG(fileSvgz);
+		try (var stream = new GZIPInputStream(Files.newInputStream(fileSvgz.toPath()))) {
+			assertEquals(expected, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+	
+	
+	private static PathObjectHierarchy createHierarchy() {
+		var plane = ImagePlane.getDefaultPlane();
+		var tumor = PathClassFactory.getPathClass("Tumor");
+		var stroma = PathClassFactory.getPathClass("Stroma");
+		List<PathObject> pathObjects = new ArrayList<>();
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createRectangleROI(10, 20, 300, 200, plane), tumor));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createEllipseROI(400, 50, 200, 300, plane), stroma));
+		pathObjects.add(PathObjects.createAnnotationObject(
+				ROIs.createPolygonROI(new double[] {600, 900, 750}, new double[] {500, 550, 900}, plane), tumor));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createLineROI(50, 900, 500, 700, plane)));
+		var roiWithHole = RoiTools.combineROIs(
+				ROIs.createRectangleROI(100, 500, 300, 300, plane),
+				ROIs.createEllipseROI(150, 550, 100, 100, plane),
+				CombineOp.SUBTRACT);
+		pathObjects.add(PathObjects.createAnnotationObject(roiWithHole, stroma));
+		var rng = new Random(100L);
+		for (int i = 0; i < 20; i++) {
+			var roi = ROIs.createEllipseROI(rng.nextDouble() * 950, rng.nextDouble() * 950, 20, 20, plane);
+			pathObjects.add(PathObjects.createDetectionObject(roi, i % 2 == 0 ? tumor : stroma));
+		}
+		var hierarchy = new PathObjectHierarchy();
+		hierarchy.addPathObjects(pathObjects);
+		return hierarchy;
+	}
+	
+	private static String writeStream(SvgBuilder builder) throws IOException {
+		var stream = new ByteArrayOutputStream();
+		builder.writeSVG(stream);
+		return stream.toString(StandardCharsets.UTF_8);
+	}
+	
+	private static Document parse(String text) throws Exception {
+		var factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		try (InputStream stream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))) {
+			return factory.newDocumentBuilder().parse(stream);
+		}
+	}
+	
+	/**
+	 * Get all elements in document order.
+	 */
+	private static List<Element> getElements(Document doc) {
+		List<Element> elements = new ArrayList<>();
+		addElements(doc.getDocumentElement(), elements);
+		return elements;
+	}
+	
+	private static void addElements(Node node, List<Element> elements) {
+		if (node instanceof Element)
+			elements.add((Element)node);
+		var children = node.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++)
+			addElements(children.item(i), elements);
+	}
+	
+	/**
+	 * Get the elements that draw shapes, excluding any that are used only to define clipping regions.
+	 */
+	private static List<Element> getShapes(Document doc) {
+		List<Element> shapes = new ArrayList<>();
+		for (var element : getElements(doc)) {
+			if (!SHAPE_ELEMENTS.contains(element.getLocalName()))
+				continue;
+			boolean isDefinition = false;
+			for (var parent = element.getParentNode(); parent != null; parent = parent.getParentNode()) {
+				var name = parent.getLocalName();
+				if ("defs".equals(name) || "clipPath".equals(name)) {
+					isDefinition = true;
+					break;
+				}
+			}
+			if (!isDefinition)
+				shapes.add(element);
+		}
+		return shapes;
+	}
+	
+	/**
+	 * Get the RGB values of all colors used to draw the shapes, whether they are given directly or through style classes.
+	 */
+	private static Set<Integer> getColors(Document doc, List<Element> shapes) {
+		var sb = new StringBuilder();
+		for (var style : getElements(doc)) {
+			if ("style".equals(style.getLocalName()))
+				sb.append(style.getTextContent()).append('\n');
+		}
+		for (var shape : shapes) {
+			sb.append(shape.getAttribute("style")).append(' ')
+				.append(shape.getAttribute("fill")).append(' ')
+				.append(shape.getAttribute("stroke")).append('\n');
+		}
+		var text = sb.toString();
+		Set<Integer> colors = new HashSet<>();
+		var matcherHex = PATTERN_HEX.matcher(text);
+		while (matcherHex.find())
+			colors.add(Integer.parseInt(matcherHex.group(1), 16));
+		var matcherRGB = PATTERN_RGB.matcher(text);
+		while (matcherRGB.find()) {
+			int r = Integer.parseInt(matcherRGB.group(1));
+			int g = Integer.parseInt(matcherRGB.group(2));
+			int b = Integer.parseInt(matcherRGB.group(3));
+			colors.add((r << 16) | (g << 8) | b);
+		}
+		return colors;
+	}
+
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.display;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Helper class to composite multiple channels for display in a single pass.
+ * <p>
+ * Rather than converting each channel separately and then adding the results, this reads all selected bands
+ * directly from the {@link DataBuffer}, converts each value to RGB with a precomputed lookup table
+ * and accumulates the color components with saturation.
+ * This is only possible for 8-bit and 16-bit unsigned images that use a {@link ComponentSampleModel},
+ * and where all the channels are {@link DirectServerChannelInfo}; in other cases, the caller should fall back
+ * to compositing each channel separately.
+ *
+ * @author Pete Bankhead
+ */
+class ChannelCompositor {
+
+	/**
+	 * Minimum number of pixels before rows are composited in parallel.
+	 */
+	private static final int MIN_PIXELS_FOR_PARALLEL = 512 * 512;
+
+	/**
+	 * Try to composite the selected channels to create packed RGB values.
+	 * @param img the input image
+	 * @param selectedChannels the channels to composite
+	 * @param mode the display mode
+	 * @param rgb optional array to store the output; a new array will be created if this is null or too short
+	 * @return the packed RGB values, or null if the channels or image are not supported (and nothing was done)
+	 */
+	static int[] tryToComposite(BufferedImage img, List<? extends ChannelDisplayInfo> selectedChannels, ChannelDisplayMode mode, int[] rgb) {
+		int nChannels = selectedChannels.size();
+		if (nChannels == 0)
+			return null;
+
+		var raster = img.getRaster();
+		if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+			return null;
+		if (!(raster.getSampleModel() instanceof ComponentSampleModel))
+			return null;
+		var sampleModel = (ComponentSampleModel)raster.getSampleModel();
+		var buffer = raster.getDataBuffer();
+		int nValues;
+		if (buffer instanceof DataBufferByte)
+			nValues = 256;
+		else if (buffer instanceof DataBufferUShort)
+			nValues = 65536;
+		else
+			return null;
+
+		// Gather the data and lookup tables for each channel
+		int[][] luts = new int[nChannels][];
+		boolean isByte = buffer instanceof DataBufferByte;
+		byte[][] bytes = isByte ? new byte[nChannels][] : null;
+		short[][] shorts = isByte ? null : new short[nChannels][];
+		int[] offsets = new int[nChannels];
+		int nUsed = 0;
+		for (int i = 0; i < nChannels; i++) {
+			var info = selectedChannels.get(i);
+			if (!(info instanceof DirectServerChannelInfo))
+				return null;
+			var channelInfo = (DirectServerChannelInfo)info;
+			int band = channelInfo.getChannel();
+			if (band >= raster.getNumBands())
+				return null;
+			// Channels after the first don't contribute if there is no display range
+			if (nUsed > 0 && channelInfo.getMaxDisplay() == channelInfo.getMinDisplay())
+				continue;
+			int bank = sampleModel.getBankIndices()[band];
+			if (isByte)
+				bytes[nUsed] = ((DataBufferByte)buffer).getData(bank);
+			else
+				shorts[nUsed] = ((DataBufferUShort)buffer).getData(bank);
+			offsets[nUsed] = buffer.getOffsets()[bank] + sampleModel.getBandOffsets()[band];
+			luts[nUsed] = channelInfo.getDisplayLookupTable(mode, nValues);
+			nUsed++;
+		}
+
+		int width = img.getWidth();
+		int height = img.getHeight();
+		if (rgb == null || rgb.length < width * height)
+			rgb = new int[width * height];
+
+		int pixelStride = sampleModel.getPixelStride();
+		int scanlineStride = sampleModel.getScanlineStride();
+		int nBands = nUsed;
+		int[] output = rgb;
+		var rows = IntStream.range(0, height);
+		if (width * height >= MIN_PIXELS_FOR_PARALLEL)
+			rows = rows.parallel();
+		if (isByte)
+			rows.forEach(y -> compositeRow(y, width, bytes, offsets, luts, nBands, pixelStride, scanlineStride, output));
+		else
+			rows.forEach(y -> compositeRow(y, width, shorts, offsets, luts, nBands, pixelStride, scanlineStride, output));
+		return rgb;
+	}
+
+
+	private static void compositeRow(int y, int width, byte[][] data, int[] offsets, int[][] luts, int nBands, int pixelStride, int scanlineStride, int[] rgb) {
+		int rowOffset = y * scanlineStride;
+		int ind = y * width;
+		for (int x = 0; x < width; x++) {
+			int pos = rowOffset + x * pixelStride;
+			int r = 0, g = 0, b = 0;
+			for (int c = 0; c < nBands; c++) {
+				int val = luts[c][data[c][offsets[c] + pos] & 0xff];
+				r += (val >> 16) & 0xff;
+				g += (val >> 8) & 0xff;
+				b += val & 0xff;
+			}
+			rgb[ind + x] = packSaturated(r, g, b);
+		}
+	}
+	
+	private static void compositeRow(int y, int width, short[][] data, int[] offsets, int[][] luts, int nBands, int pixelStride, int scanlineStride, int[] rgb) {
+		int rowOffset = y * scanlineStride;
+		int ind = y * width;
+		for (int x = 0; x < width; x++) {
+			int pos = rowOffset + x * pixelStride;
+			int r = 0, g = 0, b = 0;
+			for (int c = 0; c < nBands; c++) {
+				int val = luts[c][data[c][offsets[c] + pos] & 0xffff];
+				r += (val >> 16) & 0xff;
+				g += (val >> 8) & 0xff;
+				b += val & 0xff;
+			}
+			rgb[ind + x] = packSaturated(r, g, b);
+		}
+	}
+	
+	/**
+	 * Pack RGB values, clamping each to 255.
+	 * All values are non-negative, so clamping once is equivalent to saturating after each addition.
+	 */
+	private static int packSaturated(int r, int g, int b) {
+		return (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
+	}
+
+}
@@ -25,6 +25,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
 
+import qupath.lib.color.ColorTransformer;
 import qupath.lib.common.ColorTools;
 import qupath.lib.images.ImageData;
 
@@ -50,6 +51,7 @@ public class DirectServerChannelInfo extends AbstractSingleChannelInfo {
 	transient private ColorModel cm;
 	transient private ColorModel cmInverted;
 	transient private int[] rgbLUT;
+	transient private volatile DisplayLookupTable displayLUT;
 	private int rgb;
 
 	/**
@@ -150,6 +152,26 @@ public class DirectServerChannelInfo extends AbstractSingleChannelInfo {
 		this.rgb = ColorTools.packRGB(r, g, b);
 	}
 
+	/**
+	 * Get a lookup table that converts integer pixel values directly to packed RGB values for display, 
+	 * using the current display range and the specified mode.
+	 * <p>
+	 * The table is cached, and only recreated whenever the display range, color or mode changes.
+	 * 
+	 * @param mode the display mode
+	 * @param nValues the number of values in the table (e.g. 256 for 8-bit or 65536 for 16-bit images)
+	 * @return the lookup table, with length nValues
+	 */
+	int[] getDisplayLookupTable(ChannelDisplayMode mode, int nValues) {
+		var cm = getColorModel(mode);
+		var lut = displayLUT;
+		if (lut == null || !lut.matches(cm, nValues, minDisplay, maxDisplay)) {
+			lut = new DisplayLookupTable(cm, nValues, minDisplay, maxDisplay);
+			displayLUT = lut;
+		}
+		return lut.table;
+	}
+
 	@Override
 	public float getValue(BufferedImage img, int x, int y) {
 		return img.getRaster().getSampleFloat(x, y, channel);
@@ -184,6 +206,33 @@ public class DirectServerChannelInfo extends AbstractSingleChannelInfo {
 	public boolean isMutable() {
 		return false;
 	}
+	
+	
+	private static class DisplayLookupTable {
+		
+		private final ColorModel cm;
+		private final float minDisplay, maxDisplay;
+		private final int[] table;
+		
+		DisplayLookupTable(ColorModel cm, int nValues, float minDisplay, float maxDisplay) {
+			this.cm = cm;
+			this.minDisplay = minDisplay;
+			this.maxDisplay = maxDisplay;
+			// Get the colors for each 8-bit value, then map the raw values to these
+			int[] colors = new int[256];
+			for (int i = 0; i < 256; i++)
+				colors[i] = ColorTransformer.makeScaledRGBwithRangeCheck(i, 0, 1, cm) & 0xffffff;
+			float scale = 255.f/(maxDisplay - minDisplay);
+			table = new int[nValues];
+			for (int v = 0; v < nValues; v++)
+				table[v] = colors[ColorTools.do8BitRangeCheck((v - minDisplay) * scale)];
+		}
+		
+		boolean matches(ColorModel cm, int nValues, float minDisplay, float maxDisplay) {
+			return this.cm == cm && table.length == nValues && this.minDisplay == minDisplay && this.maxDisplay == maxDisplay;
+		}
+		
+	}
 
 
 }
\ No newline at end of file
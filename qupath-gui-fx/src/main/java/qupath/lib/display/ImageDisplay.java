@@ -34,6 +34,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -50,20 +56,24 @@ import javafx.beans.binding.Bindings;
 import javafx.beans.binding.ObjectBinding;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.LongProperty;
+import javafx.beans.property.ReadOnlyLongProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleLongProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import qupath.lib.analysis.stats.Histogram;
+import qupath.lib.analysis.stats.StreamingHistogram;
 import qupath.lib.color.ColorTransformer;
 import qupath.lib.color.ColorTransformer.ColorTransformMethod;
 import qupath.lib.common.ColorTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.display.ChannelDisplayInfo.ModifiableChannelDisplayInfo;
 import qupath.lib.gui.images.stores.AbstractImageRenderer;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.PixelType;
+import qupath.lib.regions.RegionRequest;
 
 /**
  * Class used to look after the color transforms that may be applied to an image,
@@ -99,7 +109,9 @@ public class ImageDisplay extends AbstractImageRenderer {
 	private ObservableList<ChannelDisplayInfo> selectedChannels = FXCollections.observableArrayList();
 	private ChannelDisplayInfo lastSelectedChannel = null;
 
-	private LongProperty changeTimestamp = new SimpleLongProperty(System.currentTimeMillis());
+	// Updated atomically so that concurrent changes always receive distinct, increasing values
+	private AtomicLong lastChangeTimestamp = new AtomicLong(System.currentTimeMillis());
+	private LongProperty changeTimestamp = new SimpleLongProperty(lastChangeTimestamp.get());
 	
 	private ObjectBinding<ChannelDisplayMode> displayMode = Bindings.createObjectBinding(() -> calculateDisplayMode(),
 			useGrayscaleLutProperty(), useInvertedBackgroundProperty());
@@ -107,6 +119,22 @@ public class ImageDisplay extends AbstractImageRenderer {
 	transient private static Map<String, HistogramManager> cachedHistograms = Collections.synchronizedMap(new HashMap<>());
 	private HistogramManager histogramManager = null;
 	
+	/**
+	 * Single background thread used to update histograms as tiles become available.
+	 * Tiles are simply dropped if the queue is full, since the histograms are only ever estimates.
+	 */
+	private static ThreadPoolExecutor histogramPool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(64), ThreadTools.createThreadFactory("histogram-update-", true),
+			new ThreadPoolExecutor.DiscardPolicy());
+	
+	/**
+	 * Minimum time between notifications that the histograms have been updated, unless there are no more tiles to process.
+	 */
+	private static final long MIN_HISTOGRAM_UPDATE_MILLIS = 500L;
+	
+	private LongProperty histogramTimestamp = new SimpleLongProperty(0L);
+	private long lastHistogramUpdate = 0L;
+	
 	private static BooleanProperty showAllRGBTransforms = PathPrefs.createPersistentPreference("showAllRGBTransforms", true);
 
 	/**
@@ -165,7 +193,7 @@ public class ImageDisplay extends AbstractImageRenderer {
 				updateFromJSON(lastDisplayJSON);
 			}
 		}
-		changeTimestamp.set(System.currentTimeMillis());
+		updateChangeTimestamp();
 	}
 	
 	
@@ -264,7 +292,7 @@ public class ImageDisplay extends AbstractImageRenderer {
 	 */
 	@Override
 	public long getLastChangeTimestamp() {
-		return changeTimestamp.get();
+		return lastChangeTimestamp.get();
 	}
 	
 	/**
@@ -474,7 +502,17 @@ public class ImageDisplay extends AbstractImageRenderer {
 		}
 		// Store the current display settings in the ImageData
 		imageData.setProperty(PROPERTY_DISPLAY, toJSON(false));
-		changeTimestamp.set(System.currentTimeMillis());
+		updateChangeTimestamp();
+	}
+	
+	/**
+	 * Update the change timestamp, ensuring that it always increases.
+	 * This is important because the timestamp is also used as a version when caching rendered tiles, 
+	 * and several changes can occur within the same millisecond.
+	 */
+	private void updateChangeTimestamp() {
+		long timestamp = lastChangeTimestamp.updateAndGet(t -> Math.max(System.currentTimeMillis(), t + 1));
+		changeTimestamp.set(timestamp);
 	}
 	
 
@@ -647,12 +685,18 @@ public class ImageDisplay extends AbstractImageRenderer {
 		int[] pixels = selectedChannels.size() <= 1 ? null : new int[imgInput.getWidth() * imgInput.getHeight()];
 		
 		try {
-			for (ChannelDisplayInfo info : selectedChannels.toArray(ChannelDisplayInfo[]::new)) {
-				if (firstChannel) {
-					pixels = info.getRGB(imgInput, pixels, mode);
-					firstChannel = false;
-				} else {
-					info.updateRGBAdditive(imgInput, pixels, mode);
+			// Try to composite multiple channels in a single pass, using lookup tables
+			int[] composited = selectedChannels.size() > 1 ? ChannelCompositor.tryToComposite(imgInput, selectedChannels, mode, pixels) : null;
+			if (composited != null)
+				pixels = composited;
+			else {
+				for (ChannelDisplayInfo info : selectedChannels.toArray(ChannelDisplayInfo[]::new)) {
+					if (firstChannel) {
+						pixels = info.getRGB(imgInput, pixels, mode);
+						firstChannel = false;
+					} else {
+						info.updateRGBAdditive(imgInput, pixels, mode);
+					}
 				}
 			}
 		} catch (Exception e) {
@@ -876,6 +920,48 @@ public class ImageDisplay extends AbstractImageRenderer {
 			return null;
 		return histogramManager.getHistogram(getServer(), info);
 	}
+	
+	/**
+	 * Update the histograms for the current image using the pixels of a newly-available tile.
+	 * <p>
+	 * Histograms are initially computed from a low-resolution version of the image, and then refined in the
+	 * background as tiles are read (including tiles from other z-slices and timepoints).
+	 * This does not change the display ranges; use {@link #histogramTimestampProperty()} to be notified
+	 * when the histograms have been updated.
+	 * 
+	 * @param request the request used to read the tile
+	 * @param tile the (unrendered) tile
+	 */
+	public void updateHistograms(RegionRequest request, BufferedImage tile) {
+		var manager = histogramManager;
+		var server = getServer();
+		if (manager == null || server == null || tile == null || !server.getPath().equals(request.getPath()))
+			return;
+		if (!manager.markRequest(request))
+			return;
+		var channels = new ArrayList<>(channelOptions);
+		histogramPool.execute(() -> {
+			if (histogramManager != manager)
+				return;
+			if (!manager.addTile(tile, channels))
+				return;
+			long time = System.currentTimeMillis();
+			if (time - lastHistogramUpdate >= MIN_HISTOGRAM_UPDATE_MILLIS || histogramPool.getQueue().isEmpty()) {
+				lastHistogramUpdate = time;
+				histogramTimestamp.set(time);
+			}
+		});
+	}
+	
+	/**
+	 * Property that is updated whenever the histograms have been refined using new tiles.
+	 * Note that this may be updated from a background thread.
+	 * @return
+	 * @see #updateHistograms(RegionRequest, BufferedImage)
+	 */
+	public ReadOnlyLongProperty histogramTimestampProperty() {
+		return histogramTimestamp;
+	}
 
 	
 	
@@ -991,8 +1077,22 @@ public class ImageDisplay extends AbstractImageRenderer {
 		
 		private static int NUM_BINS = 1024;
 		
+		/**
+		 * Maximum number of values to add from any single tile.
+		 */
+		private static int MAX_VALUES_PER_TILE = 256 * 256;
+		
+		/**
+		 * Maximum number of tile requests to remember, to avoid adding the same tile more than once.
+		 */
+		private static int MAX_SEEN_REQUESTS = 100_000;
+		
 		private Map<String, Histogram> map = Collections.synchronizedMap(new LinkedHashMap<>());
 		
+		private Map<String, StreamingHistogram> streamingMap = new ConcurrentHashMap<>();
+		
+		private Set<RegionRequest> seenRequests = ConcurrentHashMap.newKeySet();
+		
 		private long timestamp;
 		
 		HistogramManager(long timestamp) {
@@ -1102,6 +1202,13 @@ public class ImageDisplay extends AbstractImageRenderer {
 				}
 				
 				map.put(getKey(channel), histogram);
+				
+				// Initialize a histogram that can be refined as more pixels become available
+				if (!channel.isMutable() && Double.isFinite(histogram.getEdgeMin()) && Double.isFinite(histogram.getEdgeMax())) {
+					var streaming = new StreamingHistogram(NUM_BINS, histogram.getEdgeMin(), histogram.getEdgeMax());
+					streaming.addValues(pixels == null ? values : pixels);
+					streamingMap.put(getKey(channel), streaming);
+				}
 			}
 			long endTime = System.currentTimeMillis();
 			logger.debug("Histograms built in {} ms", (endTime - startTime));
@@ -1118,6 +1225,52 @@ public class ImageDisplay extends AbstractImageRenderer {
 			return map.get(getKey(channel));
 		}
 		
+		/**
+		 * Record that a tile has been requested for the histograms.
+		 * @param request
+		 * @return true if the request has not been seen before, false otherwise
+		 */
+		boolean markRequest(RegionRequest request) {
+			if (seenRequests.size() > MAX_SEEN_REQUESTS)
+				seenRequests.clear();
+			return seenRequests.add(request);
+		}
+		
+		/**
+		 * Add the pixels from a tile to the histograms of all channels that support incremental updates.
+		 * Channels for which no histogram has yet been computed are skipped.
+		 * @param img
+		 * @param channels
+		 * @return true if any histogram was updated, false otherwise
+		 */
+		boolean addTile(final BufferedImage img, final List<ChannelDisplayInfo> channels) {
+			int nPixels = img.getWidth() * img.getHeight();
+			int stride = (int)Math.ceil((double)nPixels / MAX_VALUES_PER_TILE);
+			boolean changes = false;
+			float[] values = null;
+			for (var channel : channels) {
+				if (!(channel instanceof SingleChannelDisplayInfo))
+					continue;
+				var singleChannel = (SingleChannelDisplayInfo)channel;
+				if (singleChannel.isMutable())
+					continue;
+				String key = getKey(channel);
+				var streaming = streamingMap.get(key);
+				if (streaming == null)
+					continue;
+				try {
+					values = singleChannel.getValues(img, 0, 0, img.getWidth(), img.getHeight(), values);
+				} catch (Exception e) {
+					logger.debug("Unable to update histogram for {}: {}", channel.getName(), e.getLocalizedMessage());
+					continue;
+				}
+				streaming.addValues(values, stride);
+				map.put(key, streaming.toHistogram());
+				changes = true;
+			}
+			return changes;
+		}
+		
 	}
 	
 
@@ -160,6 +160,9 @@ public class BrightnessContrastCommand implements Runnable, ChangeListener<Image
 	
 	private BrightnessContrastKeyListener keyListener = new BrightnessContrastKeyListener();
 	
+	// Histograms may be refined in the background as more tiles are read
+	private ChangeListener<Number> histogramListener = (v, o, n) -> Platform.runLater(() -> updateHistogram());
+	
 	/**
 	 * Constructor.
 	 * @param qupath
@@ -1025,9 +1028,13 @@ public class BrightnessContrastCommand implements Runnable, ChangeListener<Image
 			
 			invertBackground.unbindBidirectional(imageDisplay.useInvertedBackgroundProperty());
 			imageDisplay.useInvertedBackgroundProperty().unbindBidirectional(invertBackground);
+			
+			imageDisplay.histogramTimestampProperty().removeListener(histogramListener);
 		}
 		
 		imageDisplay = viewer == null ? null : viewer.getImageDisplay();
+		if (imageDisplay != null)
+			imageDisplay.histogramTimestampProperty().addListener(histogramListener);
 		
 		if (imageDataOld != null)
 			imageDataOld.removePropertyChangeListener(this);
@@ -244,7 +244,7 @@ class CountingPane implements PathObjectSelectionListener, PathObjectHierarchyLi
 			PathObjectSelectionModel model = this.hierarchy.getSelectionModel();
 			model.addPathObjectSelectionListener(this);
 			objectSelected = model.getSelectedObject();
-			this.hierarchy.addPathObjectListener(this);
+			this.hierarchy.addPathObjectListener(this, GuiTools::runOnApplicationThreadOrLater);
 		}
 		// Update selected object in list, if suitable
 		if (objectSelected != null && PathObjectTools.hasPointROI(objectSelected))
@@ -62,9 +62,15 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	private static final Logger logger = LoggerFactory.getLogger(DefaultImageRegionStore.class);
 	
 	private static boolean DEBUG_TILES = false;
+	
+	/**
+	 * Cache for tiles that have been rendered as RGB using the current display settings
+	 */
+	private final RenderedTileCache renderedTiles;
 
 	DefaultImageRegionStore(int thumbnailWidth, long tileCacheSize) {
 		super(new BufferedImageSizeEstimator(), thumbnailWidth, tileCacheSize);
+		renderedTiles = new RenderedTileCache(new BufferedImageSizeEstimator(), tileCacheSize / 4);
 	}
 
 	DefaultImageRegionStore(long tileCacheSize) {
@@ -235,13 +241,6 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 //		boolean useDisplayCache = imageDisplay != null && !server.isRGB() && server.nChannels() > 1;
 		boolean useDisplayCache = server != null && !server.isRGB() && server.getMetadata().getChannelType() != ChannelType.CLASSIFICATION && (server.nChannels() > 1 || server.getPixelType() != PixelType.UINT8);
 		long displayTimestamp = imageDisplay == null ? 0L : imageDisplay.getLastChangeTimestamp();
-		String displayCachePath = null;
-		if (useDisplayCache) {
-			if (imageDisplay == null)
-				displayCachePath = "RGB::" + server.getPath();
-			else if (server != null)
-				displayCachePath = server.getPath() + imageDisplay.getUniqueID();
-		}
 
 		// Loop through and draw whatever tiles we've got
 		BufferedImage imgTemp = null;
@@ -262,8 +261,7 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 					return;
 				if (useDisplayCache) {
 					// Apply transforms, creating & caching new temp images
-					RegionRequest requestCache = RegionRequest.createInstance(displayCachePath, request.getDownsample(), request);
-					imgTemp = cache.get(requestCache);
+					imgTemp = renderedTiles.get(request, imageDisplay, displayTimestamp);
 					if (imgTemp == null) {
 						if (imageDisplay != null)
 							imgTemp = imageDisplay.applyTransforms(img, null);
@@ -276,7 +274,7 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 						// Store this if we know we've still got the same display settings
 						// This avoids making the cache inconsistent
 						if (imgTemp != null && (imageDisplay == null || displayTimestamp == imageDisplay.getLastChangeTimestamp()))
-							cache.put(requestCache, imgTemp);
+							renderedTiles.put(request, imageDisplay, displayTimestamp, imgTemp);
 						else
 							return;
 					}
@@ -302,9 +300,28 @@ public class DefaultImageRegionStore extends AbstractImageRegionStore<BufferedIm
 	}
 
 
+	@Override
+	public synchronized void clearCache(final boolean clearThumbnails, final boolean stopWaiting) {
+		super.clearCache(clearThumbnails, stopWaiting);
+		renderedTiles.clear();
+	}
+	
+	@Override
+	public synchronized void clearCacheForServer(final ImageServer<BufferedImage> server) {
+		super.clearCacheForServer(server);
+		renderedTiles.clearForServer(server.getPath());
+	}
+	
+	@Override
+	public synchronized void clearCacheForRequestOverlap(final RegionRequest request) {
+		super.clearCacheForRequestOverlap(request);
+		renderedTiles.clearForRequestOverlap(request);
+	}
+
 	@Override
 	public void close() {
 		super.close();
+		renderedTiles.clear();
 	}
 
 
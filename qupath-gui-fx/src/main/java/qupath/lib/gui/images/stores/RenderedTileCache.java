@@ -0,0 +1,226 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Second-level cache for tiles that have already been rendered as RGB for display.
+ * <p>
+ * Entries are keyed by the original {@link RegionRequest}, the {@link ImageRenderer} and the
+ * renderer's last change timestamp, which is used as a display settings version.
+ * Whenever a newer version is requested for a renderer, all tiles cached for older versions of the
+ * same renderer are discarded. Tiles rendered for other renderers (e.g. in other viewers) are unaffected.
+ * <p>
+ * Keys refer to renderers only through an identity token, so that cached tiles don't prevent 
+ * renderers (and the images they reference) from being garbage collected.
+ * <p>
+ * The cache is kept separate from the main tile cache so that rendered tiles can't evict raw image tiles.
+ *
+ * @author Pete Bankhead
+ */
+class RenderedTileCache {
+
+	private final Cache<RenderedTileKey, BufferedImage> cache;
+
+	private final Map<ImageRenderer, RendererToken> tokens = new WeakHashMap<>();
+
+	/**
+	 * Create a new cache.
+	 * @param sizeEstimator estimator used to weigh each rendered tile
+	 * @param maxSizeBytes approximate maximum size of the cache, in bytes
+	 */
+	RenderedTileCache(SizeEstimator<BufferedImage> sizeEstimator, long maxSizeBytes) {
+		// Weights are in KB, as for the main tile cache
+		Weigher<RenderedTileKey, BufferedImage> weigher = (var r, var t) -> (int)Long.min(Integer.MAX_VALUE, sizeEstimator.getApproxImageSize(t)/1024);
+		// Keep track of the keys for each renderer, so that stale tiles can be found without checking the whole cache
+		RemovalListener<RenderedTileKey, BufferedImage> listener = n -> {
+			// Replaced entries retain their key
+			var key = n.getKey();
+			if (key != null && key.token != null && n.getCause() != RemovalCause.REPLACED)
+				key.token.keys.remove(key);
+		};
+		cache = CacheBuilder.newBuilder()
+				.weigher(weigher)
+				.maximumWeight(Long.max(1, maxSizeBytes / 1024))
+				.softValues()
+				.concurrencyLevel(1)
+				.removalListener(listener)
+				.build();
+	}
+
+	/**
+	 * Get a rendered tile, if available.
+	 * Calling this method with a new version for the renderer invalidates all tiles for older versions.
+	 * @param request the request for the original (unrendered) tile
+	 * @param renderer the renderer; may be null if the tile is simply converted to a displayable type
+	 * @param version the renderer's current version
+	 * @return the cached tile, or null if no tile is available for this version
+	 */
+	BufferedImage get(RegionRequest request, ImageRenderer renderer, long version) {
+		var token = renderer == null ? null : updateVersion(renderer, version);
+		return cache.getIfPresent(new RenderedTileKey(request, token, version));
+	}
+
+	/**
+	 * Add a rendered tile to the cache.
+	 * @param request the request for the original (unrendered) tile
+	 * @param renderer the renderer; may be null if the tile is simply converted to a displayable type
+	 * @param version the renderer's version used to create the tile
+	 * @param img the rendered tile
+	 */
+	void put(RegionRequest request, ImageRenderer renderer, long version, BufferedImage img) {
+		RendererToken token = null;
+		if (renderer != null) {
+			synchronized (tokens) {
+				token = tokens.get(renderer);
+			}
+			// Don't cache tiles for a version that has already been superseded
+			if (token != null && token.version > version)
+				return;
+			token = updateVersion(renderer, version);
+		}
+		var key = new RenderedTileKey(request, token, version);
+		if (token != null)
+			token.keys.add(key);
+		cache.put(key, img);
+		// Handle the (unlikely) case that the version was updated in the meantime
+		if (token != null && token.version != version) {
+			cache.invalidate(key);
+			token.keys.remove(key);
+		}
+	}
+
+	/**
+	 * Get the token for a renderer, discarding any tiles cached for other versions.
+	 */
+	private RendererToken updateVersion(ImageRenderer renderer, long version) {
+		RendererToken token;
+		synchronized (tokens) {
+			token = tokens.computeIfAbsent(renderer, r -> new RendererToken(version));
+			if (token.version == version)
+				return token;
+			token.version = version;
+		}
+		var staleKeys = new ArrayList<RenderedTileKey>();
+		for (var key : token.keys) {
+			if (key.version != version)
+				staleKeys.add(key);
+		}
+		cache.invalidateAll(staleKeys);
+		token.keys.removeAll(staleKeys);
+		return token;
+	}
+	
+	/**
+	 * Get the number of tiles currently cached.
+	 * @return
+	 */
+	long size() {
+		cache.cleanUp();
+		return cache.size();
+	}
+
+	/**
+	 * Remove all cached tiles.
+	 */
+	void clear() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Remove all cached tiles derived from a specified server path.
+	 * @param serverPath
+	 */
+	void clearForServer(String serverPath) {
+		cache.asMap().keySet().removeIf(k -> serverPath.equals(k.request.getPath()));
+	}
+
+	/**
+	 * Remove all cached tiles derived from requests overlapping a specified request.
+	 * @param request
+	 */
+	void clearForRequestOverlap(RegionRequest request) {
+		cache.asMap().keySet().removeIf(k -> request.overlapsRequest(k.request));
+	}
+
+
+	/**
+	 * Identity token standing in for a renderer, which also tracks the renderer's current version 
+	 * and the keys of its cached tiles.
+	 */
+	private static class RendererToken {
+
+		private volatile long version;
+		private final Set<RenderedTileKey> keys = ConcurrentHashMap.newKeySet();
+
+		RendererToken(long version) {
+			this.version = version;
+		}
+
+	}
+
+
+	private static class RenderedTileKey {
+
+		private final RegionRequest request;
+		private final RendererToken token;
+		private final long version;
+
+		RenderedTileKey(RegionRequest request, RendererToken token, long version) {
+			this.request = request;
+			this.token = token;
+			this.version = version;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(request, System.identityHashCode(token), version);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RenderedTileKey))
+				return false;
+			var other = (RenderedTileKey)obj;
+			return token == other.token && version == other.version && request.equals(other.request);
+		}
+
+	}
+
+}
@@ -279,7 +279,7 @@ public class AnnotationPane implements PathObjectSelectionListener, ChangeListen
 		if (this.imageData != null) {
 			hierarchy = imageData.getHierarchy();
 			hierarchy.getSelectionModel().addPathObjectSelectionListener(this);
-			hierarchy.addPathObjectListener(this);
+			hierarchy.addPathObjectListener(this, GuiTools::runOnApplicationThreadOrLater);
 			PathObject selected = hierarchy.getSelectionModel().getSelectedObject();
 			listAnnotations.getItems().setAll(hierarchy.getAnnotationObjects());
 			hierarchy.getSelectionModel().setSelectedObject(selected);
@@ -42,6 +42,7 @@ import javafx.scene.layout.Pane;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.prefs.PathPrefs.DetectionTreeDisplayModes;
+import qupath.lib.gui.tools.GuiTools;
 import qupath.lib.gui.tools.PathObjectLabels;
 import qupath.lib.images.ImageData;
 import qupath.lib.objects.DefaultPathObjectComparator;
@@ -416,7 +417,7 @@ public class PathObjectHierarchyView implements ChangeListener<ImageData<Buffere
 		
 		this.hierarchy = imageData == null ? null : imageData.getHierarchy();
 		if (hierarchy != null) {
-			hierarchy.addPathObjectListener(this);
+			hierarchy.addPathObjectListener(this, GuiTools::runOnApplicationThreadOrLater);
 			hierarchy.getSelectionModel().addPathObjectSelectionListener(this);
 			treeView.setRoot(createNode(hierarchy.getRootObject()));
 		} else
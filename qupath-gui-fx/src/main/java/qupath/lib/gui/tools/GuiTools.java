@@ -294,6 +294,24 @@ public class GuiTools {
 	}
 	
 
+	/**
+	 * Run on the application thread, without waiting for the runnable to complete.
+	 * If this is called from the application thread then the runnable is run immediately; 
+	 * otherwise, it is passed to {@link Platform#runLater(Runnable)}.
+	 * <p>
+	 * This can be used as an {@link java.util.concurrent.Executor} when a listener should be notified on the 
+	 * application thread, but without changing the order of events that are already fired on that thread.
+	 * @param runnable
+	 * @since v0.4.0
+	 */
+	public static void runOnApplicationThreadOrLater(final Runnable runnable) {
+		if (Platform.isFxApplicationThread())
+			runnable.run();
+		else
+			Platform.runLater(runnable);
+	}
+	
+
 	/**
 	 * Make a semi-educated guess at the image type of a PathImageServer.
 	 * 
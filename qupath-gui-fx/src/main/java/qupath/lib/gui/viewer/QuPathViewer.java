@@ -2988,6 +2988,10 @@ public class QuPathViewer implements TileListener<BufferedImage>, PathObjectHier
 		if (serverPath == null || serverPath.contains(getServerPath()))
 			repaintImageRegion(AwtTools.getBounds(region), true);//!serverPath.startsWith(PathHierarchyImageServer.DEFAULT_PREFIX));
 		
+		// Use tiles from the image itself to refine the histograms
+		if (imageDisplay != null && region instanceof RegionRequest && getServerPath().equals(serverPath))
+			imageDisplay.updateHistograms((RegionRequest)region, tile);
+		
 		//		imageUpdated = true;
 		//		repaint();
 	}
@@ -32,6 +32,7 @@ import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.images.stores.ImageRenderer;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.OverlayOptions;
+import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.PixelCalibration;
@@ -47,13 +48,13 @@ import qupath.opencv.ops.ImageDataServer;
 import qupath.opencv.ops.ImageOps;
 
 import java.awt.AlphaComposite;
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -62,9 +63,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,6 +80,16 @@ import javafx.beans.value.ObservableBooleanValue;
 
 /**
  * {@link PathOverlay} that gives the results of pixel classification.
+ * <p>
+ * Tiles are computed in the background as they are needed for display. Each tile task is tagged with the 
+ * generation of the classification server used to create it; whenever the server for an image changes (or the overlay is stopped) 
+ * the generation is incremented, and all queued tasks from earlier generations are dropped immediately.
+ * Because the same overlay may be shown in several viewers, the visible region is tracked per viewer; 
+ * queued tasks are dropped only if their tiles are no longer visible in any viewer.
+ * <p>
+ * Visible tiles are computed centre-out. 
+ * There is no coarser preview while tiles are being computed: classification servers have a single resolution level 
+ * (the resolution of the classifier), and requesting a downsampled region would require the same full-resolution tiles.
  * 
  * @author Pete Bankhead
  *
@@ -94,6 +108,14 @@ public class PixelClassificationOverlay extends AbstractImageOverlay  {
     private int maxThreads = ThreadTools.getParallelism();
     private ThreadPoolExecutor pool;
     
+    /**
+     * Generation of the classification server; tile tasks from earlier generations are stale.
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong taskCounter = new AtomicLong();
+    private Map<ImageData<BufferedImage>, ImageServer<BufferedImage>> lastServers = new WeakHashMap<>();
+    private Map<QuPathViewer, RegionRequest> viewerRequests = Collections.emptyMap();
+    
     private Function<ImageData<BufferedImage>, ImageServer<BufferedImage>> fun;
     
     private boolean livePrediction = false;
@@ -118,8 +140,10 @@ public class PixelClassificationOverlay extends AbstractImageOverlay  {
         
         if (nThreads > 0)
         	maxThreads = nThreads;
-        pool = (ThreadPoolExecutor)Executors.newFixedThreadPool(
-        		maxThreads, threadFactory);
+        // Use a priority queue so that the order of tile requests can reflect what is most useful to the viewer
+        pool = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
+        		new PriorityBlockingQueue<>(64, (r1, r2) -> ((TileTask)r1).compareTo((TileTask)r2)),
+        		threadFactory);
         
         this.renderer.addListener((v, o, n) -> cacheRGB.clear());
         
@@ -417,25 +441,24 @@ public class PixelClassificationOverlay extends AbstractImageOverlay  {
         }
         
         
-        Collection<TileRequest> tiles = server.getTileRequestManager().getTileRequests(fullRequest);
+        // If the server for this image has changed (e.g. because the classifier has changed), then any pending requests are stale
+        var previousServer = lastServers.put(imageData, server);
+        if (previousServer != null && previousServer != server)
+        	incrementGeneration();
+        long currentGeneration = generation.get();
         
-        if (fullRequest != null) {
-        	double x = (Math.max(0, fullRequest.getMinX()) + Math.min(server.getWidth(), fullRequest.getMaxX())) / 2.0;
-        	double y = (Math.max(0, fullRequest.getMinY()) + Math.min(server.getHeight(), fullRequest.getMaxY())) / 2.0;
-        	var p = new Point2(x, y);
-        	tiles = new ArrayList<>(tiles);
-        	((List<TileRequest>)tiles).sort(
-        			Comparator.comparingDouble((TileRequest t) -> p.distanceSq(t.getImageX() + t.getImageWidth() / 2.0, t.getImageY() + t.getImageHeight() / 2.0))
-//        			.reversed()
-        			);
-        }
-
-        // Clear pending requests, since we'll insert new ones (perhaps in a different order)
-    	this.pendingRequests.clear();
+        // Drop any queued requests for tiles that are no longer visible in any viewer
+        updateViewerRequests();
+        
+        List<TileRequest> tiles = new ArrayList<>(server.getTileRequestManager().getTileRequests(fullRequest));
+        
+    	double x = (Math.max(0, fullRequest.getMinX()) + Math.min(server.getWidth(), fullRequest.getMaxX())) / 2.0;
+    	double y = (Math.max(0, fullRequest.getMinY()) + Math.min(server.getHeight(), fullRequest.getMaxY())) / 2.0;
+    	var p = new Point2(x, y);
+    	tiles.sort(Comparator.comparingDouble(t -> distanceSq(p, t)));
 
 //        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR)
 
-        // Loop through & paint classified tiles if we have them, or request tiles if we don't
         for (TileRequest tile : tiles) {
         	
         	var request = tile.getRegionRequest();
@@ -445,25 +468,59 @@ public class PixelClassificationOverlay extends AbstractImageOverlay  {
         	
         	// Try to get an RGB image, supplying a server that can be queried for a corresponding non-RGB cached tile if needed
             BufferedImage imgRGB = getCachedTileRGB(tile, server);
-            if (imgRGB != null) {
-            	gCopy.setColor(colorComplete);
-            	gCopy.fillRect(request.getX(), request.getY(), request.getWidth(), request.getHeight());
-            	// Get the cached RGB painted version (since painting can be a fairly expensive operation)
-            	gCopy.drawImage(imgRGB, request.getX(), request.getY(), request.getWidth(), request.getHeight(), null);
-//                g2d.setColor(Color.RED);
-//                g2d.drawRect(request.getX(), request.getY(), request.getWidth(), request.getHeight());
-//                System.err.println(request.getHeight() == imgRGB.getHeight());
-                continue;
-            }
-            
-            // Request a tile
-            if (livePrediction) {
-            	requestTile(tile, imageData, server);
-            }
+            if (imgRGB != null)
+            	paintTile(gCopy, request, imgRGB, colorComplete);
+            else if (livePrediction)
+            	requestTile(tile, imageData, server, currentGeneration, distanceSq(p, tile));
         }
         gCopy.dispose();
     }
     
+    /**
+     * Update the region visible in each viewer that shows this overlay. If any has changed, 
+     * drop queued requests for tiles that are no longer visible in any of the viewers.
+     */
+    private void updateViewerRequests() {
+    	var qupath = QuPathGUI.getInstance();
+    	if (qupath == null)
+    		return;
+    	Map<QuPathViewer, RegionRequest> requests = new HashMap<>();
+    	for (var viewer : qupath.getViewers()) {
+    		var viewerImageData = viewer.getImageData();
+    		if (viewerImageData == null || !viewer.getOverlayLayers().contains(this))
+    			continue;
+    		var server = getPixelClassificationServer(viewerImageData);
+    		if (server == null)
+    			continue;
+    		var region = AwtTools.getImageRegion(viewer.getDisplayedRegionShape(), viewer.getZPosition(), viewer.getTPosition());
+    		requests.put(viewer, RegionRequest.createInstance(server.getPath(), viewer.getDownsampleFactor(), region));
+    	}
+    	if (requests.equals(viewerRequests))
+    		return;
+    	viewerRequests = requests;
+    	var visibleTiles = new HashSet<TileRequest>();
+    	for (var entry : requests.entrySet()) {
+    		var server = getPixelClassificationServer(entry.getKey().getImageData());
+    		visibleTiles.addAll(server.getTileRequestManager().getTileRequests(entry.getValue()));
+    	}
+    	int n = removeQueuedTasks(task -> !visibleTiles.contains(task.tile));
+    	if (n > 0)
+    		logger.trace("Dropped {} requests for tiles that are no longer visible", n);
+    }
+    
+    private static void paintTile(Graphics2D g2d, RegionRequest request, BufferedImage imgRGB, Color colorComplete) {
+    	if (colorComplete != null) {
+    		g2d.setColor(colorComplete);
+    		g2d.fillRect(request.getX(), request.getY(), request.getWidth(), request.getHeight());
+    	}
+    	// Get the cached RGB painted version (since painting can be a fairly expensive operation)
+    	g2d.drawImage(imgRGB, request.getX(), request.getY(), request.getWidth(), request.getHeight(), null);
+    }
+    
+    private static double distanceSq(Point2 p, TileRequest tile) {
+    	return p.distanceSq(tile.getImageX() + tile.getImageWidth() / 2.0, tile.getImageY() + tile.getImageHeight() / 2.0);
+    }
+    
     /**
      * Get a cached RGB image if we have one.  If we don't, optionally supply a server that may be 
      * queried for the corresponding (possibly-non-RGB) cached tile.
@@ -515,7 +572,10 @@ public class PixelClassificationOverlay extends AbstractImageOverlay  {
      * Stop the overlap, halting any pending tile requests.
      */
     public void stop() {
+    	generation.incrementAndGet();
+    	viewerRequests = Collections.emptyMap();
     	List<Runnable> pending = this.pool.shutdownNow();
+    	pendingRequests.clear();
     	clearCache();
     	logger.debug("Stopped classification overlay, dropped {} requests", pending.size());
     }
@@ -530,47 +590,121 @@ public class PixelClassificationOverlay extends AbstractImageOverlay  {
     }
     
 
-    void requestTile(TileRequest tile, ImageData<BufferedImage> imageData, ImageServer<BufferedImage> classifierServer) {
+    /**
+     * Increment the generation, dropping all queued tile requests from earlier generations.
+     * Requests that are already running will complete, but won't trigger any further updates.
+     */
+    private void incrementGeneration() {
+    	long current = generation.incrementAndGet();
+    	int n = removeQueuedTasks(task -> task.generation != current);
+    	if (n > 0)
+    		logger.debug("Dropped {} stale tile requests", n);
+    }
+    
+    /**
+     * Remove queued tile tasks that match a predicate.
+     * @param predicate
+     * @return the number of tasks removed
+     */
+    private int removeQueuedTasks(Predicate<TileTask> predicate) {
+    	var removed = new ArrayList<TileTask>();
+    	pool.getQueue().removeIf(r -> {
+    		var task = (TileTask)r;
+    		if (predicate.test(task)) {
+    			removed.add(task);
+    			return true;
+    		}
+    		return false;
+    	});
+    	for (var task : removed)
+    		pendingRequests.remove(task.tile);
+    	return removed.size();
+    }
+    
+
+    void requestTile(TileRequest tile, ImageData<BufferedImage> imageData, ImageServer<BufferedImage> classifierServer, long generation, double distanceSq) {
         // Make the request, if it isn't already pending
         if (!pool.isShutdown() && pendingRequests.add(tile)) {
-            pool.submit(() -> {
-            	if (pool.isShutdown())
-            		return;
-            	// Check we still need to make the request
-            	if (!pendingRequests.contains(tile) || !currentRequests.add(tile)) {
+        	// Note that we need to use execute rather than submit, since the queue needs to be able to compare tasks
+            pool.execute(new TileTask(tile, imageData, classifierServer, generation, distanceSq));
+        }
+    }
+    
+    
+    /**
+     * Task to compute a single tile.
+     * Tasks are ordered so that coarser resolutions are computed first (since these are cheapest), 
+     * then by distance from the center of the visible region, then by the order in which they were requested.
+     */
+    private class TileTask implements Runnable, Comparable<TileTask> {
+    	
+    	private final TileRequest tile;
+    	private final ImageData<BufferedImage> imageData;
+    	private final ImageServer<BufferedImage> classifierServer;
+    	private final long generation;
+    	private final double distanceSq;
+    	private final long order = taskCounter.incrementAndGet();
+    	
+    	private TileTask(TileRequest tile, ImageData<BufferedImage> imageData, ImageServer<BufferedImage> classifierServer, long generation, double distanceSq) {
+    		this.tile = tile;
+    		this.imageData = imageData;
+    		this.classifierServer = classifierServer;
+    		this.generation = generation;
+    		this.distanceSq = distanceSq;
+    	}
+    	
+    	private boolean isStale() {
+    		return pool.isShutdown() || generation != PixelClassificationOverlay.this.generation.get();
+    	}
+    	
+    	@Override
+    	public int compareTo(TileTask other) {
+    		int cmp = -Integer.compare(tile.getLevel(), other.tile.getLevel());
+    		if (cmp == 0)
+    			cmp = Double.compare(distanceSq, other.distanceSq);
+    		if (cmp == 0)
+    			cmp = Long.compare(order, other.order);
+    		return cmp;
+    	}
+
+		@Override
+		public void run() {
+        	// Check we still need to make the request
+        	if (isStale()) {
+        		pendingRequests.remove(tile);
+        		return;
+        	}
+        	if (!pendingRequests.contains(tile) || !currentRequests.add(tile))
+        		return;
+        	var changed = new ArrayList<PathObject>();
+            var hierarchy = imageData == null ? null : imageData.getHierarchy();
+            try {
+            	classifierServer.readBufferedImage(tile.getRegionRequest());
+            	// If the classifier has changed while we were busy, there is no need to update anything
+            	if (isStale())
             		return;
-            	}
-//            	System.err.println(tile.hashCode() + " - " + ImageRegion.createInstance(tile.getImageX(), tile.getImageY(), tile.getImageWidth(), tile.getImageHeight(), tile.getZ(), tile.getT()));
-            	var changed = new ArrayList<PathObject>();
-                var hierarchy = imageData == null ? null : imageData.getHierarchy();
-                try {
-                	classifierServer.readBufferedImage(tile.getRegionRequest());
-//                    viewer.repaint();
-                	QuPathGUI.getInstance().repaintViewers();
-                    var channelType = classifierServer.getMetadata().getChannelType();
-                    if (channelType == ChannelType.CLASSIFICATION || channelType == ChannelType.PROBABILITY || channelType == ChannelType.MULTICLASS_PROBABILITY) {
-		                if (hierarchy != null) {
-//		                	if (pendingRequests.size() <= 1)
-//		                		changed.add(hierarchy.getRootObject());
-	                		changed.add(hierarchy.getRootObject());
-		                	hierarchy.getObjectsForRegion(PathAnnotationObject.class, tile.getRegionRequest(), changed);
-//		                	changed.addAll(hierarchy.getAnnotationObjects());
-		                }
-                    }
-                } catch (Exception e) {
-                   logger.error("Error requesting tile classification: ", e.getLocalizedMessage(), e);
-                } finally {
-                    currentRequests.remove(tile);
-                    pendingRequests.remove(tile);
-                    if (hierarchy != null && !changed.isEmpty()) {
-	                	Platform.runLater(() -> {
-	                		// TODO: We don't want to fire a load of 'heavy' events, so we state that isChanging = true (beware this may need revised!)
-	                		hierarchy.fireObjectMeasurementsChangedEvent(this, changed, true); //!pendingRequests.isEmpty());
-	                	});
-                    }
+            	QuPathGUI.getInstance().repaintViewers();
+                var channelType = classifierServer.getMetadata().getChannelType();
+                if (channelType == ChannelType.CLASSIFICATION || channelType == ChannelType.PROBABILITY || channelType == ChannelType.MULTICLASS_PROBABILITY) {
+	                if (hierarchy != null) {
+                		changed.add(hierarchy.getRootObject());
+	                	hierarchy.getObjectsForRegion(PathAnnotationObject.class, tile.getRegionRequest(), changed);
+	                }
                 }
-            });
-        }
+            } catch (Exception e) {
+               logger.error("Error requesting tile classification: ", e.getLocalizedMessage(), e);
+            } finally {
+                currentRequests.remove(tile);
+                pendingRequests.remove(tile);
+                if (hierarchy != null && !changed.isEmpty()) {
+                	Platform.runLater(() -> {
+                		// TODO: We don't want to fire a load of 'heavy' events, so we state that isChanging = true (beware this may need revised!)
+                		hierarchy.fireObjectMeasurementsChangedEvent(PixelClassificationOverlay.this, changed, true);
+                	});
+                }
+            }
+		}
+    	
     }
     
     
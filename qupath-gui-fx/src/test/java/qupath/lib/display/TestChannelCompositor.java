@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.display;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.common.ColorTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+
+@SuppressWarnings("javadoc")
+public class TestChannelCompositor {
+	
+	private static final List<ChannelDisplayMode> MODES = List.of(
+			ChannelDisplayMode.COLOR, ChannelDisplayMode.INVERTED_COLOR, ChannelDisplayMode.GRAYSCALE);
+	
+	@Test
+	public void test_uint8() {
+		for (boolean banded : new boolean[] {true, false}) {
+			var img = createImage(PixelType.UINT8, 4, 100, 80, banded, new Random(100L));
+			checkComposite(img);
+		}
+	}
+	
+	@Test
+	public void test_uint16() {
+		for (boolean banded : new boolean[] {true, false}) {
+			// Large enough to composite rows in parallel
+			var img = createImage(PixelType.UINT16, 4, 600, 500, banded, new Random(200L));
+			checkComposite(img);
+		}
+	}
+	
+	@Test
+	public void test_unsupported() {
+		var img = createImage(PixelType.UINT8, 2, 10, 10, true, new Random(300L));
+		var imageData = new ImageData<>(new WrappedBufferedImageServer("test", img, createChannels(2)));
+		List<ChannelDisplayInfo> channels = List.of(
+				new DirectServerChannelInfo(imageData, 0),
+				new RGBDirectChannelInfo(imageData));
+		assertNull(ChannelCompositor.tryToComposite(img, channels, ChannelDisplayMode.COLOR, null));
+	}
+	
+	
+	/**
+	 * Check compositing gives exactly the same result as converting each channel separately, 
+	 * for a range of channel combinations, display ranges and modes.
+	 */
+	private static void checkComposite(BufferedImage img) {
+		int nChannels = img.getRaster().getNumBands();
+		var imageData = new ImageData<>(new WrappedBufferedImageServer("test", img, createChannels(nChannels)));
+		float maxValue = img.getRaster().getTransferType() == DataBuffer.TYPE_BYTE ? 255 : 65535;
+		
+		List<DirectServerChannelInfo> channels = new ArrayList<>();
+		for (int c = 0; c < nChannels; c++)
+			channels.add(new DirectServerChannelInfo(imageData, c));
+		
+		// Full range
+		setDisplayRange(channels.get(0), 0, maxValue);
+		// Narrow range, so many values saturate
+		setDisplayRange(channels.get(1), maxValue * 0.2f, maxValue * 0.3f);
+		// Zero range, which is skipped when added to other channels
+		setDisplayRange(channels.get(2), maxValue * 0.5f, maxValue * 0.5f);
+		// Non-integer range
+		setDisplayRange(channels.get(3), 1.5f, maxValue * 0.61f);
+		
+		List<List<DirectServerChannelInfo>> selections = List.of(
+				channels,
+				List.of(channels.get(1), channels.get(3)),
+				List.of(channels.get(2), channels.get(0)),
+				List.of(channels.get(3), channels.get(2), channels.get(1), channels.get(0)),
+				List.of(channels.get(0), channels.get(0)));
+		
+		for (var mode : MODES) {
+			for (var selected : selections) {
+				var expected = compositeSeparately(img, selected, mode);
+				var actual = ChannelCompositor.tryToComposite(img, selected, mode, null);
+				assertNotNull(actual);
+				assertArrayEquals(expected, actual);
+				
+				// Check that changing the display range also updates the result
+				var first = selected.get(0);
+				float min = first.getMinDisplay();
+				float max = first.getMaxDisplay();
+				setDisplayRange(first, min + 10, max * 0.9f);
+				assertArrayEquals(compositeSeparately(img, selected, mode), ChannelCompositor.tryToComposite(img, selected, mode, actual));
+				setDisplayRange(first, min, max);
+			}
+		}
+	}
+	
+	/**
+	 * Composite channels as done by {@link ImageDisplay} before {@link ChannelCompositor} was introduced.
+	 */
+	private static int[] compositeSeparately(BufferedImage img, List<? extends ChannelDisplayInfo> selectedChannels, ChannelDisplayMode mode) {
+		int[] pixels = new int[img.getWidth() * img.getHeight()];
+		boolean firstChannel = true;
+		for (var info : selectedChannels) {
+			if (firstChannel) {
+				pixels = info.getRGB(img, pixels, mode);
+				firstChannel = false;
+			} else
+				info.updateRGBAdditive(img, pixels, mode);
+		}
+		// Alpha is ignored when the pixels are written to an RGB image
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] &= 0xffffff;
+		return pixels;
+	}
+	
+	private static void setDisplayRange(ChannelDisplayInfo info, float minDisplay, float maxDisplay) {
+		var channel = (DirectServerChannelInfo)info;
+		channel.setMinDisplay(minDisplay);
+		channel.setMaxDisplay(maxDisplay);
+	}
+	
+	private static List<ImageChannel> createChannels(int nChannels) {
+		int[] colors = {
+				ColorTools.packRGB(255, 0, 0),
+				ColorTools.packRGB(0, 255, 0),
+				ColorTools.packRGB(255, 200, 20),
+				ColorTools.packRGB(120, 30, 255)
+		};
+		List<ImageChannel> channels = new ArrayList<>();
+		for (int c = 0; c < nChannels; c++)
+			channels.add(ImageChannel.getInstance("Channel " + (c + 1), colors[c % colors.length]));
+		return channels;
+	}
+	
+	private static BufferedImage createImage(PixelType pixelType, int nChannels, int width, int height, boolean banded, Random rng) {
+		int dataType = pixelType == PixelType.UINT8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+		int maxValue = pixelType == PixelType.UINT8 ? 256 : 65536;
+		WritableRaster raster;
+		if (banded)
+			raster = WritableRaster.createBandedRaster(dataType, width, height, nChannels, null);
+		else
+			raster = WritableRaster.createInterleavedRaster(dataType, width, height, nChannels, null);
+		for (int c = 0; c < nChannels; c++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					raster.setSample(x, y, c, rng.nextInt(maxValue));
+			}
+		}
+		var colorModel = ColorModelFactory.createColorModel(pixelType, createChannels(nChannels));
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2022 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.gui.images.stores;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.regions.RegionRequest;
+
+@SuppressWarnings("javadoc")
+public class TestRenderedTileCache {
+	
+	private static RenderedTileCache createCache() {
+		return new RenderedTileCache(img -> img.getWidth() * img.getHeight() * 4L, 100L * 1024 * 1024);
+	}
+	
+	private static BufferedImage createTile() {
+		return new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+	}
+	
+	@Test
+	public void test_versions() {
+		var cache = createCache();
+		var renderer = new SimpleRenderer();
+		var renderer2 = new SimpleRenderer();
+		var request = RegionRequest.createInstance("path", 1.0, 0, 0, 16, 16);
+		var request2 = RegionRequest.createInstance("path", 1.0, 16, 0, 16, 16);
+		
+		var img = createTile();
+		var img2 = createTile();
+		var imgOther = createTile();
+		cache.put(request, renderer, 1, img);
+		cache.put(request2, renderer, 1, img2);
+		cache.put(request, renderer2, 1, imgOther);
+		cache.put(request, null, 0, createTile());
+		
+		assertSame(img, cache.get(request, renderer, 1));
+		assertSame(img2, cache.get(request2, renderer, 1));
+		assertSame(imgOther, cache.get(request, renderer2, 1));
+		assertEquals(4, cache.size());
+		
+		// A new version discards tiles for the same renderer only
+		assertNull(cache.get(request, renderer, 2));
+		assertNull(cache.get(request2, renderer, 2));
+		assertSame(imgOther, cache.get(request, renderer2, 1));
+		assertEquals(2, cache.size());
+		
+		// Tiles for a superseded version aren't cached
+		cache.put(request, renderer, 1, img);
+		assertEquals(2, cache.size());
+		var imgNew = createTile();
+		cache.put(request, renderer, 2, imgNew);
+		assertSame(imgNew, cache.get(request, renderer, 2));
+		
+		// Putting a newer version also discards older tiles
+		cache.put(request2, renderer2, 3, createTile());
+		assertEquals(3, cache.size());
+		assertSame(imgNew, cache.get(request, renderer, 2));
+		
+		cache.clearForServer("path");
+		assertEquals(0, cache.size());
+		assertNull(cache.get(request, renderer, 2));
+	}
+	
+	@Test
+	public void test_rendererNotRetained() throws InterruptedException {
+		var cache = createCache();
+		var request = RegionRequest.createInstance("path", 1.0, 0, 0, 16, 16);
+		var renderer = new SimpleRenderer();
+		var ref = new WeakReference<>(renderer);
+		var img = createTile();
+		cache.put(request, renderer, 1, img);
+		assertSame(img, cache.get(request, renderer, 1));
+		
+		renderer = null;
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		// Cached tiles must not keep the renderer alive
+		assertNull(ref.get());
+	}
+	
+	
+	private static class SimpleRenderer implements ImageRenderer {
+
+		@Override
+		public BufferedImage applyTransforms(BufferedImage imgInput, BufferedImage imgOutput) {
+			return imgInput;
+		}
+
+		@Override
+		public long getLastChangeTimestamp() {
+			return 0;
+		}
+
+		@Override
+		public String getUniqueID() {
+			return "simple";
+		}
+		
+	}
+
+}